@@ -12,15 +12,20 @@
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 
 import ru.nuyanzin.canvas.Canvas;
+import ru.nuyanzin.canvas.Stamp;
 import ru.nuyanzin.commands.CommandHandler;
 import ru.nuyanzin.commands.GeneralCommands;
 import ru.nuyanzin.commands.ReflectiveCommandHandler;
+import ru.nuyanzin.properties.DrawingShellPropertiesEnum;
 
 /**
  * A shell for drawing on text canvas.
@@ -33,6 +38,15 @@ public final class DrawingShell {
    */
   private static final int MAX_NUMBER_SYMBOLS_FOR_UNKNOWN_COMMAND = 100;
 
+  /**
+   * Commands only drawing primitives on the canvas. If the canvas
+   * is not shown after commands then primitives of such commands
+   * following each other are drawn at once by {@link Canvas#beginBatch()}.
+   */
+  private static final Set<String> DRAW_COMMANDS = Collections.unmodifiableSet(
+      new HashSet<>(Arrays.asList(
+          "E", "EF", "F", "L", "O", "OF", "PF", "R", "S")));
+
   /**
    * Flag to show should leave while cycle.
    */
@@ -55,6 +69,12 @@ public final class DrawingShell {
 
   private final DrawingShellOpts opts;
 
+  /**
+   * Stamps defined by name during the session.
+   * They survive creation of a new canvas.
+   */
+  private final Map<String, Stamp> stamps = new HashMap<>();
+
   /**
    * DrawingShell constructor could be called only from this class.
    *
@@ -75,16 +95,44 @@ private DrawingShell() throws UnsupportedEncodingException {
                 DrawingShell.this, commands, "B4"));
             put("B8", new ReflectiveCommandHandler<>(
                 DrawingShell.this, commands, "B8"));
+            put("BP", new ReflectiveCommandHandler<>(
+                DrawingShell.this, commands, "BP"));
+            put("BP4", new ReflectiveCommandHandler<>(
+                DrawingShell.this, commands, "BP4"));
+            put("BP8", new ReflectiveCommandHandler<>(
+                DrawingShell.this, commands, "BP8"));
             put("C", new ReflectiveCommandHandler<>(
                 DrawingShell.this, commands, "C"));
+            put("CP", new ReflectiveCommandHandler<>(
+                DrawingShell.this, commands, "CP"));
+            put("E", new ReflectiveCommandHandler<>(
+                DrawingShell.this, commands, "E"));
+            put("EF", new ReflectiveCommandHandler<>(
+                DrawingShell.this, commands, "EF"));
+            put("F", new ReflectiveCommandHandler<>(
+                DrawingShell.this, commands, "F"));
             put("H", new ReflectiveCommandHandler<>(
                 DrawingShell.this, commands, "H"));
             put("L", new ReflectiveCommandHandler<>(
                 DrawingShell.this, commands, "L"));
+            put("MV", new ReflectiveCommandHandler<>(
+                DrawingShell.this, commands, "MV"));
+            put("O", new ReflectiveCommandHandler<>(
+                DrawingShell.this, commands, "O"));
+            put("OF", new ReflectiveCommandHandler<>(
+                DrawingShell.this, commands, "OF"));
             put("P", new ReflectiveCommandHandler<>(
                 DrawingShell.this, commands, "P"));
+            put("PF", new ReflectiveCommandHandler<>(
+                DrawingShell.this, commands, "PF"));
             put("R", new ReflectiveCommandHandler<>(
                 DrawingShell.this, commands, "R"));
+            put("RC", new ReflectiveCommandHandler<>(
+                DrawingShell.this, commands, "RC"));
+            put("S", new ReflectiveCommandHandler<>(
+                DrawingShell.this, commands, "S"));
+            put("SD", new ReflectiveCommandHandler<>(
+                DrawingShell.this, commands, "SD"));
             put("SET", new ReflectiveCommandHandler<>(
                 DrawingShell.this, commands, "SET"));
             put("Q", new ReflectiveCommandHandler<>(
@@ -133,14 +181,21 @@ private void start(final InputStream inputStream) {
     try (BufferedReader scanner = new BufferedReader(
         new InputStreamReader(inputStream, StandardCharsets.UTF_8.name()))) {
       String fullCommandLine = "";
+      // the line read ahead to know if a batch continues
+      String nextLine = null;
+      boolean isNextLineRead = false;
       while (!isExitRequired && fullCommandLine != null) {
         try {
           output(getPrompt(), false);
-          fullCommandLine = scanner.readLine();
+          fullCommandLine = isNextLineRead ? nextLine : scanner.readLine();
+          isNextLineRead = false;
 
           if (fullCommandLine == null) {
             output("\n" + Loc.getLocMessage("eof-detected"));
             isExitRequired = true;
+            if (canvas != null) {
+              canvas.applyBatch();
+            }
             continue;
           }
           // if the input stream is not System.in then repeat the original
@@ -154,8 +209,21 @@ private void start(final InputStream inputStream) {
           if (trimmedLine.isEmpty()) {
             continue;
           }
-          executeCommand(
-              fullCommandLine, trimmedLine, getCommandName(trimmedLine));
+          final String commandName = getCommandName(trimmedLine);
+          updateBatch(commandName);
+          executeCommand(fullCommandLine, trimmedLine, commandName);
+          // primitives are drawn by the last command of a batch
+          // so a failure is reported on the command
+          if (isBatched(commandName)) {
+            if (scanner.ready()) {
+              nextLine = scanner.readLine();
+              isNextLineRead = true;
+            }
+            if (!isNextLineRead || nextLine == null
+                || !isBatched(getCommandName(nextLine.trim()))) {
+              canvas.applyBatch();
+            }
+          }
         } catch (Throwable t) {
           handleException(t);
           output(getPrompt(), false);
@@ -163,6 +231,10 @@ private void start(final InputStream inputStream) {
       }
     } catch (IOException e) {
       handleException(e);
+    } finally {
+      if (canvas != null) {
+        canvas.close();
+      }
     }
   }
 
@@ -177,6 +249,46 @@ private String getCommandName(String trimmedLine) {
     return commandName;
   }
 
+  /**
+   * Start collecting primitives of the canvas before a draw command
+   * if they are batched, see {@link #isBatched(String)},
+   * otherwise draw the primitives left by a failed draw command.
+   * Primitives of a batch are drawn by its last command,
+   * so normally nothing is left to draw.
+   * A failure of the latter is reported without preventing the command.
+   *
+   * @param commandName name of the command to execute next
+   */
+  private void updateBatch(final String commandName) {
+    if (canvas == null) {
+      return;
+    }
+    try {
+      if (isBatched(commandName)) {
+        canvas.beginBatch();
+      } else {
+        canvas.applyBatch();
+      }
+    } catch (Throwable t) {
+      handleException(t);
+    }
+  }
+
+  /**
+   * Check if primitives of the command are collected
+   * by {@link Canvas#beginBatch()}: it is a draw command,
+   * the storage of the canvas prefers batches
+   * and the canvas is not shown after commands.
+   *
+   * @param commandName name of the command
+   * @return true if primitives of the command are batched
+   */
+  private boolean isBatched(final String commandName) {
+    return canvas != null && DRAW_COMMANDS.contains(commandName)
+        && canvas.prefersBatches() && !opts.getBoolean(
+            DrawingShellPropertiesEnum.SHOW_CANVAS_AFTER_COMMAND);
+  }
+
   /**
    * Determine the right command handler and execute the command.
    *
@@ -243,6 +355,9 @@ public void createBoard(final int w, final int h) {
     // first set to null to allow gc to take the object
     // it will allow to recreate large canvas (with default jvm settings)
     // e.g. C 25000 25000 and then again C 25000 25000
+    if (canvas != null) {
+      canvas.close();
+    }
     this.canvas = null;
     this.canvas = new Canvas(w, h, opts);
   }
@@ -251,6 +366,10 @@ public Canvas getCanvas() {
     return canvas;
   }
 
+  public Map<String, Stamp> getStamps() {
+    return stamps;
+  }
+
   /**
    * Print the specified message to the console and add a new line in the end.
    *
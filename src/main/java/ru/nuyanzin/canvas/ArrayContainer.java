@@ -0,0 +1,156 @@
+package ru.nuyanzin.canvas;
+
+import java.util.Arrays;
+
+/**
+ * Container keeping sorted indexes of sparse points.
+ * Single points are inserted in place and the array grows twice
+ * when full, so a row crossed by many vertical lines
+ * is not copied on each of them.
+ */
+final class ArrayContainer extends Container {
+  private int[] points;
+  private int size;
+
+  ArrayContainer(final int[] points, final int size) {
+    this.points = points;
+    this.size = size;
+  }
+
+  @Override
+  boolean get(final int index) {
+    return Arrays.binarySearch(points, 0, size, index) >= 0;
+  }
+
+  @Override
+  int nextSetBit(final int fromIndex) {
+    final int found = Arrays.binarySearch(points, 0, size, fromIndex);
+    final int next = found >= 0 ? found : -found - 1;
+    return next < size ? points[next] : -1;
+  }
+
+  @Override
+  int nextClearBit(final int fromIndex) {
+    int found = Arrays.binarySearch(points, 0, size, fromIndex);
+    if (found < 0) {
+      return fromIndex;
+    }
+    while (found + 1 < size && points[found + 1] == points[found] + 1) {
+      found++;
+    }
+    return points[found] + 1;
+  }
+
+  @Override
+  int previousSetBit(final int fromIndex) {
+    if (fromIndex < 0) {
+      return -1;
+    }
+    final int found = Arrays.binarySearch(points, 0, size, fromIndex);
+    final int previous = found >= 0 ? found : -found - 2;
+    return previous >= 0 ? points[previous] : -1;
+  }
+
+  @Override
+  int previousClearBit(final int fromIndex) {
+    if (fromIndex < 0) {
+      return -1;
+    }
+    int found = Arrays.binarySearch(points, 0, size, fromIndex);
+    if (found < 0) {
+      return fromIndex;
+    }
+    while (found > 0 && points[found - 1] == points[found] - 1) {
+      found--;
+    }
+    return points[found] - 1;
+  }
+
+  @Override
+  int cardinality() {
+    return size;
+  }
+
+  /**
+   * Return the index of the first point at {@code index} or after it.
+   */
+  private int findFrom(final int index) {
+    final int found = Arrays.binarySearch(points, 0, size, index);
+    return found >= 0 ? found : -found - 1;
+  }
+
+  @Override
+  Container add(final int fromIndex, final int toIndex) {
+    final int low = findFrom(fromIndex);
+    final int high = findFrom(toIndex);
+    final int length = toIndex - fromIndex;
+    final int newSize = size - (high - low) + length;
+    final int lastPoint = Math.max(toIndex - 1, points[size - 1]);
+    // a range longer than a couple of points is cheaper as a run
+    if (length > 2 || (long) Integer.BYTES * newSize
+        >= (long) Long.BYTES * WordBitmap.wordCount(lastPoint + 1)) {
+      return toRuns().add(fromIndex, toIndex);
+    }
+    if (newSize > points.length) {
+      points = Arrays.copyOf(points, Math.max(2 * points.length, newSize));
+    }
+    System.arraycopy(points, high, points, low + length, size - high);
+    for (int i = 0; i < length; i++) {
+      points[low + i] = fromIndex + i;
+    }
+    size = newSize;
+    return this;
+  }
+
+  @Override
+  Container remove(final int fromIndex, final int toIndex) {
+    final int low = findFrom(fromIndex);
+    final int high = findFrom(toIndex);
+    if (low == high) {
+      return this;
+    }
+    if (high - low == size) {
+      return null;
+    }
+    System.arraycopy(points, high, points, low, size - high);
+    size -= high - low;
+    return this;
+  }
+
+  @Override
+  Container optimize() {
+    // an array is not checked for runs while drawing points one by one
+    return toRuns().optimize();
+  }
+
+  @Override
+  long[] addTo(long[] words) {
+    // the last point first so the words grow at most once
+    for (int i = size - 1; i >= 0; i--) {
+      words = WordBitmap.set(words, points[i], points[i] + 1);
+    }
+    return words;
+  }
+
+  @Override
+  void removeFrom(final long[] words) {
+    for (int i = 0; i < size; i++) {
+      WordBitmap.clear(words, points[i], points[i] + 1);
+    }
+  }
+
+  private RunContainer toRuns() {
+    final int[] runs = new int[2 * size];
+    int runCount = 0;
+    for (int i = 0; i < size; i++) {
+      if (runCount > 0 && runs[2 * runCount - 1] == points[i] - 1) {
+        runs[2 * runCount - 1] = points[i];
+      } else {
+        runs[2 * runCount] = points[i];
+        runs[2 * runCount + 1] = points[i];
+        runCount++;
+      }
+    }
+    return new RunContainer(runs, runCount);
+  }
+}
@@ -0,0 +1,426 @@
+package ru.nuyanzin.canvas;
+
+import java.util.Arrays;
+
+/**
+ * Storage collecting spans of many lines, rectangles and other primitives
+ * to apply them to the target storage at once.
+ * Spans are kept in the order they were drawn, on {@link #apply()}
+ * they are grouped per row and overwrite order is resolved
+ * so each point gets the color of the last span covering it.
+ * The resulting disjoint spans of a row are joined if adjacent
+ * and of the same color and passed to the target at once by
+ * {@link CanvasStorage#drawRow(int, int, int[], int[], char[])}
+ * so a storage could visit every layer once per row
+ * rather than once per primitive.
+ * Spans are applied once there are {@link #MAX_SPANS} of them
+ * to keep the memory bounded.
+ * A vertical line crosses rows, so it is a span per point here
+ * while the target could draw it at once, e.g. a line of a column-major
+ * canvas along rows of the canvas. A line at least as long as
+ * the spans collected is drawn on the target right after they are
+ * applied, so the work is at most twice the one without the batch.
+ * Stamps are collected as spans of their runs by the default
+ * {@link CanvasStorage#drawStamp(Stamp, int, int, int, int, char)}.
+ * Reads, fills, copies and recolors apply the spans collected so far
+ * and are passed to the target storage, so the batch could be used
+ * wherever a storage is expected.
+ */
+final class BatchStorage implements CanvasStorage {
+  /**
+   * Maximal number of spans kept before they are applied.
+   */
+  static final int MAX_SPANS = 1 << 20;
+  /**
+   * Number of low bits of a sort key keeping the index of a span,
+   * the row is kept in the high bits.
+   */
+  private static final int INDEX_BITS = 21;
+  private static final long INDEX_MASK = (1L << INDEX_BITS) - 1;
+  /**
+   * Spans of a row are painted point by point if the row part
+   * they are within is at most that many times longer than their number.
+   */
+  private static final int PAINT_RATIO = 4;
+
+  private final CanvasStorage target;
+  private int[] rows = new int[16];
+  private int[] starts = new int[16];
+  private int[] ends = new int[16];
+  private char[] colors = new char[16];
+  private int count;
+  /**
+   * Arrays spans are moved to by {@link #sortByRow()}
+   * swapped with the ones above after the move.
+   */
+  private int[] sortedRows = new int[0];
+  private int[] sortedStarts = new int[0];
+  private int[] sortedEnds = new int[0];
+  private char[] sortedColors = new char[0];
+
+  /**
+   * Final spans of the current row passed to
+   * {@link CanvasStorage#drawRow(int, int, int[], int[], char[])}.
+   */
+  private int[] rowStarts = new int[16];
+  private int[] rowEnds = new int[16];
+  private char[] rowColors = new char[16];
+  private int rowSpanCount;
+  /**
+   * Spans of the current row sorted by the first x coordinate
+   * kept as the coordinate in high bits and the index in low bits.
+   */
+  private long[] bySpanStart = new long[16];
+  /**
+   * Spans covering the current x as a max-heap of their indexes
+   * in high bits with the last x coordinates in low bits.
+   */
+  private long[] heap = new long[16];
+  private int heapSize;
+  /**
+   * Index of the span owning a point of the painted part of the row
+   * or -1 if no span covers it.
+   */
+  private int[] owners = new int[0];
+  /**
+   * Pointers to the next point not yet owned, see {@link #findFree(int)}.
+   */
+  private int[] nextFree = new int[0];
+
+  /**
+   * Create storage collecting spans for the target storage.
+   *
+   * @param target storage to apply spans to
+   */
+  BatchStorage(final CanvasStorage target) {
+    this.target = target;
+  }
+
+  @Override
+  public char getColor(final int x, final int y) {
+    apply();
+    return target.getColor(x, y);
+  }
+
+  @Override
+  public int getRunEnd(final int x, final int y) {
+    apply();
+    return target.getRunEnd(x, y);
+  }
+
+  @Override
+  public void drawHorizontalLine(final int x1,
+                                 final int x2,
+                                 final int y,
+                                 final char color) {
+    if (count == MAX_SPANS) {
+      apply();
+    }
+    if (count == rows.length) {
+      final int capacity = Math.min(MAX_SPANS, count * 2);
+      rows = Arrays.copyOf(rows, capacity);
+      starts = Arrays.copyOf(starts, capacity);
+      ends = Arrays.copyOf(ends, capacity);
+      colors = Arrays.copyOf(colors, capacity);
+    }
+    rows[count] = y;
+    starts[count] = x1;
+    ends[count] = x2;
+    colors[count] = color;
+    count++;
+  }
+
+  @Override
+  public void drawVerticalLine(final int x,
+                               final int y1,
+                               final int y2,
+                               final char color) {
+    if (y2 - y1 + 1 >= count) {
+      apply();
+      target.drawVerticalLine(x, y1, y2, color);
+      return;
+    }
+    for (int y = y1; y <= y2; y++) {
+      drawHorizontalLine(x, x, y, color);
+    }
+  }
+
+  @Override
+  public void copy(final int x1,
+                   final int x2,
+                   final int y1,
+                   final int y2,
+                   final int x,
+                   final int y) {
+    apply();
+    target.copy(x1, x2, y1, y2, x, y);
+  }
+
+  @Override
+  public void recolor(final char color,
+                      final char newColor,
+                      final int width,
+                      final int height) {
+    apply();
+    target.recolor(color, newColor, width, height);
+  }
+
+  @Override
+  public void fill(final int x,
+                   final int y,
+                   final char color,
+                   final boolean isB4) {
+    apply();
+    target.fill(x, y, color, isB4);
+  }
+
+  @Override
+  public void fill(final int x,
+                   final int y,
+                   final Pattern pattern,
+                   final boolean isB4,
+                   final int width,
+                   final int height) {
+    apply();
+    target.fill(x, y, pattern, isB4, width, height);
+  }
+
+  /**
+   * Apply the collected spans to the target storage and forget them.
+   */
+  void apply() {
+    if (count == 0) {
+      return;
+    }
+    sortByRow();
+    int from = 0;
+    while (from < count) {
+      int to = from + 1;
+      while (to < count && rows[to] == rows[from]) {
+        to++;
+      }
+      resolveRow(from, to);
+      target.drawRow(rows[from], rowSpanCount, rowStarts, rowEnds, rowColors);
+      from = to;
+    }
+    count = 0;
+  }
+
+  /**
+   * Reorder spans by rows keeping the order of spans within a row
+   * so spans of a row are next to each other.
+   * Spans are counted per row if rows are dense enough
+   * and sorted by keys of the row and the index otherwise.
+   */
+  private void sortByRow() {
+    int minRow = Integer.MAX_VALUE;
+    int maxRow = Integer.MIN_VALUE;
+    for (int i = 0; i < count; i++) {
+      minRow = Math.min(minRow, rows[i]);
+      maxRow = Math.max(maxRow, rows[i]);
+    }
+    final int[] order = new int[count];
+    if ((long) maxRow - minRow < 2L * count) {
+      final int[] offsets = new int[maxRow - minRow + 2];
+      for (int i = 0; i < count; i++) {
+        offsets[rows[i] - minRow + 1]++;
+      }
+      for (int row = 1; row < offsets.length; row++) {
+        offsets[row] += offsets[row - 1];
+      }
+      for (int i = 0; i < count; i++) {
+        order[i] = offsets[rows[i] - minRow]++;
+      }
+    } else {
+      final long[] keys = new long[count];
+      for (int i = 0; i < count; i++) {
+        keys[i] = (long) rows[i] << INDEX_BITS | i;
+      }
+      Arrays.sort(keys);
+      for (int k = 0; k < count; k++) {
+        order[(int) (keys[k] & INDEX_MASK)] = k;
+      }
+    }
+    // spans are moved sequentially with writes to a few places at a time
+    // rather than gathered from places all over the arrays
+    if (sortedRows.length != rows.length) {
+      sortedRows = new int[rows.length];
+      sortedStarts = new int[rows.length];
+      sortedEnds = new int[rows.length];
+      sortedColors = new char[rows.length];
+    }
+    for (int i = 0; i < count; i++) {
+      final int k = order[i];
+      sortedRows[k] = rows[i];
+      sortedStarts[k] = starts[i];
+      sortedEnds[k] = ends[i];
+      sortedColors[k] = colors[i];
+    }
+    final int[] unsortedRows = rows;
+    final int[] unsortedStarts = starts;
+    final int[] unsortedEnds = ends;
+    final char[] unsortedColors = colors;
+    rows = sortedRows;
+    starts = sortedStarts;
+    ends = sortedEnds;
+    colors = sortedColors;
+    sortedRows = unsortedRows;
+    sortedStarts = unsortedStarts;
+    sortedEnds = unsortedEnds;
+    sortedColors = unsortedColors;
+  }
+
+  /**
+   * Put the final spans of the row of spans from {@code from} inclusive
+   * to {@code to} exclusive to the row arrays.
+   * Spans close to each other are painted point by point,
+   * spans spread over a long row are swept.
+   */
+  private void resolveRow(final int from, final int to) {
+    int minStart = Integer.MAX_VALUE;
+    int maxEnd = Integer.MIN_VALUE;
+    for (int k = from; k < to; k++) {
+      minStart = Math.min(minStart, starts[k]);
+      maxEnd = Math.max(maxEnd, ends[k]);
+    }
+    rowSpanCount = 0;
+    if ((long) maxEnd - minStart < PAINT_RATIO * (to - from) + PAINT_RATIO) {
+      paintRow(from, to, minStart, maxEnd - minStart + 1);
+    } else {
+      sweepRow(from, to);
+    }
+  }
+
+  /**
+   * Visit spans from the last drawn one giving each the points
+   * not owned by later spans. Owned points are skipped
+   * by pointers to the next free point halved on the way
+   * so the time is linear in the length of the row part.
+   */
+  private void paintRow(final int from,
+                        final int to,
+                        final int offset,
+                        final int length) {
+    if (owners.length < length) {
+      owners = new int[Math.max(length, 2 * owners.length)];
+      nextFree = new int[owners.length + 1];
+    }
+    Arrays.fill(owners, 0, length, -1);
+    for (int x = 0; x <= length; x++) {
+      nextFree[x] = x;
+    }
+    for (int k = to - 1; k >= from; k--) {
+      final int last = ends[k] - offset;
+      int x = findFree(starts[k] - offset);
+      while (x <= last) {
+        owners[x] = k;
+        nextFree[x] = x + 1;
+        x = findFree(x + 1);
+      }
+    }
+    for (int x = 0; x < length; x++) {
+      if (owners[x] >= 0) {
+        addRowSpan(x + offset, x + offset, colors[owners[x]]);
+      }
+    }
+  }
+
+  private int findFree(final int x) {
+    int current = x;
+    while (nextFree[current] != current) {
+      nextFree[current] = nextFree[nextFree[current]];
+      current = nextFree[current];
+    }
+    return current;
+  }
+
+  /**
+   * Sweep spans by x keeping the ones covering the current x
+   * in a heap by index so the top is the last drawn one
+   * which owns the points till its end or the start of the next span.
+   */
+  private void sweepRow(final int from, final int to) {
+    final int spanCount = to - from;
+    if (bySpanStart.length < spanCount) {
+      bySpanStart = new long[Math.max(spanCount, 2 * bySpanStart.length)];
+      heap = new long[bySpanStart.length];
+    }
+    for (int k = from; k < to; k++) {
+      bySpanStart[k - from] = (long) starts[k] << INDEX_BITS | k;
+    }
+    Arrays.sort(bySpanStart, 0, spanCount);
+    heapSize = 0;
+    int next = 0;
+    int x = (int) (bySpanStart[0] >>> INDEX_BITS);
+    while (true) {
+      while (next < spanCount && bySpanStart[next] >>> INDEX_BITS <= x) {
+        final int span = (int) (bySpanStart[next++] & INDEX_MASK);
+        push((long) span << Integer.SIZE | ends[span]);
+      }
+      while (heapSize > 0 && (int) heap[0] < x) {
+        pop();
+      }
+      if (heapSize == 0) {
+        if (next == spanCount) {
+          return;
+        }
+        x = (int) (bySpanStart[next] >>> INDEX_BITS);
+        continue;
+      }
+      int last = (int) heap[0];
+      if (next < spanCount) {
+        last = Math.min(last, (int) (bySpanStart[next] >>> INDEX_BITS) - 1);
+      }
+      addRowSpan(x, last, colors[(int) (heap[0] >>> Integer.SIZE)]);
+      x = last + 1;
+    }
+  }
+
+  private void push(final long entry) {
+    int child = heapSize++;
+    while (child > 0 && heap[(child - 1) / 2] < entry) {
+      heap[child] = heap[(child - 1) / 2];
+      child = (child - 1) / 2;
+    }
+    heap[child] = entry;
+  }
+
+  private void pop() {
+    final long last = heap[--heapSize];
+    int parent = 0;
+    while (2 * parent + 1 < heapSize) {
+      int child = 2 * parent + 1;
+      if (child + 1 < heapSize && heap[child + 1] > heap[child]) {
+        child++;
+      }
+      if (heap[child] <= last) {
+        break;
+      }
+      heap[parent] = heap[child];
+      parent = child;
+    }
+    heap[parent] = last;
+  }
+
+  /**
+   * Append the span to the row arrays joining it with the previous span
+   * if they touch and are of the same color.
+   */
+  private void addRowSpan(final int start, final int end, final char color) {
+    if (rowSpanCount > 0 && rowColors[rowSpanCount - 1] == color
+        && rowEnds[rowSpanCount - 1] + 1 == start) {
+      rowEnds[rowSpanCount - 1] = end;
+      return;
+    }
+    if (rowSpanCount == rowStarts.length) {
+      final int capacity = 2 * rowSpanCount;
+      rowStarts = Arrays.copyOf(rowStarts, capacity);
+      rowEnds = Arrays.copyOf(rowEnds, capacity);
+      rowColors = Arrays.copyOf(rowColors, capacity);
+    }
+    rowStarts[rowSpanCount] = start;
+    rowEnds[rowSpanCount] = end;
+    rowColors[rowSpanCount] = color;
+    rowSpanCount++;
+  }
+}
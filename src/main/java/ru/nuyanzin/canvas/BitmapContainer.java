@@ -0,0 +1,130 @@
+package ru.nuyanzin.canvas;
+
+import java.util.Arrays;
+
+/**
+ * Container keeping points as a word bitmap (see {@link WordBitmap}).
+ * Number of points is tracked on each change
+ * so it is known without a scan when an array becomes cheaper.
+ */
+final class BitmapContainer extends Container {
+  private long[] words;
+  private int cardinality;
+
+  BitmapContainer(final long[] words, final int cardinality) {
+    this.words = words;
+    this.cardinality = cardinality;
+  }
+
+  @Override
+  boolean get(final int index) {
+    return WordBitmap.get(words, index);
+  }
+
+  @Override
+  int nextSetBit(final int fromIndex) {
+    return WordBitmap.nextSetBit(words, fromIndex);
+  }
+
+  @Override
+  int nextClearBit(final int fromIndex) {
+    return WordBitmap.nextClearBit(words, fromIndex);
+  }
+
+  @Override
+  int previousSetBit(final int fromIndex) {
+    return WordBitmap.previousSetBit(words, fromIndex);
+  }
+
+  @Override
+  int previousClearBit(final int fromIndex) {
+    return WordBitmap.previousClearBit(words, fromIndex);
+  }
+
+  @Override
+  int cardinality() {
+    return cardinality;
+  }
+
+  @Override
+  Container add(final int fromIndex, final int toIndex) {
+    cardinality += toIndex - fromIndex
+        - WordBitmap.cardinality(words, fromIndex, toIndex);
+    words = WordBitmap.set(words, fromIndex, toIndex);
+    return this;
+  }
+
+  @Override
+  Container remove(final int fromIndex, final int toIndex) {
+    cardinality -= WordBitmap.cardinality(words, fromIndex, toIndex);
+    if (cardinality == 0) {
+      return null;
+    }
+    WordBitmap.clear(words, fromIndex, toIndex);
+    return shrink();
+  }
+
+  /**
+   * Words are or-ed in place in one pass counting new points.
+   */
+  @Override
+  Container or(final long[] otherWords,
+               final int fromWord,
+               final int wordCount) {
+    if (fromWord + wordCount > words.length) {
+      words = Arrays.copyOf(words,
+          Math.max(2 * words.length, fromWord + wordCount));
+    }
+    for (int i = 0; i < wordCount; i++) {
+      final long added = otherWords[i] & ~words[fromWord + i];
+      cardinality += Long.bitCount(added);
+      words[fromWord + i] |= added;
+    }
+    return this;
+  }
+
+  /**
+   * Words are cleared in place in one pass counting removed points.
+   */
+  @Override
+  Container andNot(final long[] otherWords,
+                   final int fromWord,
+                   final int wordCount) {
+    final int toWord = Math.min(words.length, fromWord + wordCount);
+    for (int i = fromWord; i < toWord; i++) {
+      final long removed = words[i] & otherWords[i - fromWord];
+      cardinality -= Long.bitCount(removed);
+      words[i] ^= removed;
+    }
+    return cardinality == 0 ? null : shrink();
+  }
+
+  @Override
+  long getWord(final long fromIndex) {
+    return WordBitmap.getWord(words, fromIndex);
+  }
+
+  /**
+   * Rebuild once an array of points is cheaper than words.
+   */
+  private Container shrink() {
+    final long arrayBytes = (long) Integer.BYTES * cardinality;
+    return arrayBytes < (long) Long.BYTES * words.length
+        ? Container.of(words) : this;
+  }
+
+  @Override
+  Container optimize() {
+    return Container.of(words);
+  }
+
+  @Override
+  long[] addTo(final long[] otherWords) {
+    return WordBitmap.or(otherWords, words);
+  }
+
+  @Override
+  void removeFrom(final long[] otherWords) {
+    WordBitmap.andNot(otherWords, words);
+  }
+}
@@ -1,14 +1,13 @@
 package ru.nuyanzin.canvas;
 
 import java.io.IOException;
-import java.util.BitSet;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Objects;
-import java.util.Set;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.ServiceLoader;
+import java.util.StringJoiner;
 
 import ru.nuyanzin.DrawingShellOpts;
+import ru.nuyanzin.Loc;
 import ru.nuyanzin.properties.DrawingShellPropertiesEnum;
 
 /**
@@ -26,12 +25,56 @@ public class Canvas {
    */
   private static final int STRING_LENGTH_FOR_FLUSHING = 5000000;
 
+  /**
+   * Orientation chosen by the canvas itself.
+   */
+  public static final String ORIENTATION_AUTO = "auto";
+  /**
+   * Row-major orientation i.e. rows of the storage are rows of the canvas.
+   */
+  public static final String ORIENTATION_ROWS = "rows";
+  /**
+   * Column-major orientation
+   * i.e. rows of the storage are columns of the canvas.
+   */
+  public static final String ORIENTATION_COLUMNS = "columns";
+
   private final DrawingShellOpts drawingShellOpts;
 
   /**
-   * Map of colors to layers. Each color exists on its own layer.
+   * Provider of the storage engine the canvas was created with.
+   */
+  private final CanvasStorageProvider storageProvider;
+  /**
+   * Empty char the storage was created with.
    */
-  private Map<Character, Layer> colorToLayerMap;
+  private final char emptyChar;
+  /**
+   * Whether the orientation could be switched depending on lines drawn.
+   */
+  private final boolean isAutoOriented;
+  /**
+   * Number of points of lines crossing rows of the storage
+   * minus number of points of lines going along them
+   * since the last change of orientation, not less than 0.
+   */
+  private long crossingBalance;
+
+  /**
+   * Storage engine keeping colors of points.
+   * It is {@link TransposedStorage} for column-major orientation.
+   */
+  private CanvasStorage storage;
+  /**
+   * Spans of primitives collected since {@link #beginBatch()}
+   * or null if primitives are drawn right away.
+   */
+  private BatchStorage batch;
+  /**
+   * Storage primitives are drawn to: {@link #storage} itself
+   * or a view of {@link #batch} with the same orientation.
+   */
+  private CanvasStorage drawingStorage;
 
   /**
    * Width of canvas.
@@ -46,21 +89,151 @@ public Canvas(final int width, final int height, DrawingShellOpts opts) {
     this.height = height;
     this.width = width;
     this.drawingShellOpts = opts;
-    colorToLayerMap = new HashMap<>();
-    colorToLayerMap.put(
-        drawingShellOpts.getChar(
-            DrawingShellPropertiesEnum.DEFAULT_DRAW_CHAR),
-        new Layer(width, height));
-    colorToLayerMap.put(
-        drawingShellOpts.getChar(
-            DrawingShellPropertiesEnum.DEFAULT_EMPTY_CHAR),
-        new EmptyLayer(width, height));
+    this.storageProvider = getStorageProvider(drawingShellOpts.get(
+        DrawingShellPropertiesEnum.CANVAS_STORAGE));
+    this.emptyChar = drawingShellOpts.getChar(
+        DrawingShellPropertiesEnum.DEFAULT_EMPTY_CHAR);
+    final String orientation = drawingShellOpts.get(
+        DrawingShellPropertiesEnum.CANVAS_ORIENTATION);
+    switch (orientation.toLowerCase(Locale.ROOT)) {
+    case ORIENTATION_AUTO:
+      // rows of the storage are along the longer side
+      this.isAutoOriented = true;
+      this.storage = createStorage(height > width);
+      break;
+    case ORIENTATION_ROWS:
+      this.isAutoOriented = false;
+      this.storage = createStorage(false);
+      break;
+    case ORIENTATION_COLUMNS:
+      this.isAutoOriented = false;
+      this.storage = createStorage(true);
+      break;
+    default:
+      throw new IllegalArgumentException(
+          Loc.getLocMessage("unknown-canvas-orientation", orientation));
+    }
+    this.drawingStorage = storage;
+  }
+
+  /**
+   * Create storage engine for the canvas with the specified orientation.
+   *
+   * @param isColumnMajor if true then rows of the storage
+   *                      are columns of the canvas
+   * @return storage engine
+   */
+  private CanvasStorage createStorage(final boolean isColumnMajor) {
+    return isColumnMajor
+        ? new TransposedStorage(createStorage(height, width), width)
+        : createStorage(width, height);
+  }
 
+  /**
+   * Create storage engine of the provider the canvas was created with.
+   *
+   * @param storageWidth  width of the storage
+   * @param storageHeight height of the storage
+   * @return storage engine
+   */
+  private CanvasStorage createStorage(final int storageWidth,
+                                      final int storageHeight) {
+    return storageProvider.create(storageWidth, storageHeight, emptyChar);
   }
 
   /**
-   * Draw horizontal or vertical (based on points coordinates analysis) line
-   * on the canvas from the point (x1, y1) to (x2, y2) with symbol color.
+   * Find the storage provider by name among built-in ones
+   * and the ones registered with {@link ServiceLoader}.
+   *
+   * @param storageName name of the storage, case insensitive
+   * @return storage provider
+   */
+  private static CanvasStorageProvider getStorageProvider(
+      final String storageName) {
+    final StringJoiner availableNames = new StringJoiner(", ");
+    for (CanvasStorageProvider provider : CanvasStorageProvidersEnum.values()) {
+      if (provider.getName().equalsIgnoreCase(storageName)) {
+        return provider;
+      }
+      availableNames.add(provider.getName());
+    }
+    for (CanvasStorageProvider provider
+        : ServiceLoader.load(CanvasStorageProvider.class)) {
+      if (provider.getName().equalsIgnoreCase(storageName)) {
+        return provider;
+      }
+      availableNames.add(provider.getName());
+    }
+    throw new IllegalArgumentException(Loc.getLocMessage(
+        "unknown-canvas-storage", storageName, availableNames.toString()));
+  }
+
+  /**
+   * Keep track of the mix of vertical and horizontal lines
+   * and switch the orientation once lines crossing rows of the storage
+   * outweigh the cost of the switch i.e. the number of points.
+   * So the total work is at most twice the work
+   * with the best orientation chosen in advance.
+   * Lines are counted while primitives are batched as well,
+   * the ones collected are applied before the switch
+   * and next ones are collected with the new orientation.
+   *
+   * @param isVertical if the line to draw is vertical
+   * @param length     number of points of the line to draw
+   */
+  private void orient(final boolean isVertical, final long length) {
+    if (!isAutoOriented) {
+      return;
+    }
+    final boolean isCrossingRows =
+        isVertical != storage instanceof TransposedStorage;
+    crossingBalance = Math.max(0,
+        crossingBalance + (isCrossingRows ? length : -length));
+    if (crossingBalance > (long) width * height) {
+      final boolean isBatching = batch != null;
+      applyBatch();
+      transpose();
+      if (isBatching) {
+        beginBatch();
+      }
+    }
+  }
+
+  /**
+   * Switch the orientation copying runs of rows of the current storage
+   * to columns of a new one.
+   */
+  private void transpose() {
+    final boolean isColumnMajor = !(storage instanceof TransposedStorage);
+    final CanvasStorage source = isColumnMajor
+        ? storage : ((TransposedStorage) storage).getInner();
+    final CanvasStorage target = createStorage(isColumnMajor);
+    final CanvasStorage targetInner = isColumnMajor
+        ? ((TransposedStorage) target).getInner() : target;
+    final int sourceWidth = isColumnMajor ? width : height;
+    final int sourceHeight = isColumnMajor ? height : width;
+    for (int y = 0; y < sourceHeight; y++) {
+      int x = 0;
+      while (x < sourceWidth) {
+        final int end = source.getRunEnd(x, y);
+        final char color = source.getColor(x, y);
+        if (color != emptyChar) {
+          targetInner.drawVerticalLine(y, x, end, color);
+        }
+        x = end + 1;
+      }
+    }
+    source.close();
+    storage = target;
+    drawingStorage = target;
+    crossingBalance = 0;
+  }
+
+  /**
+   * Draw line on the canvas from the point (x1, y1) to (x2, y2)
+   * with symbol color. Horizontal and vertical lines are drawn at once,
+   * other lines are rasterized by {@link LineRasterizer} as spans
+   * of points with the same y for shallow lines or the same x for steep.
    * If any point of the line is out of canvas this point will
    * not be drawn while all points presenting on the canvas will be drawn
    *
@@ -76,49 +249,30 @@ public Canvas drawLine(final int x1,
                          final int x2,
                          final int y2,
                          final char color) {
-    Character characterColor = color;
-
     // check if any point of the line should be on the canvas or not
     if (Math.min(x1, x2) > width || Math.max(x1, x2) < 1
         || Math.min(y1, y2) > height || Math.max(y1, y2) < 1) {
       return this;
     }
     if (x1 != x2 && y1 != y2) {
-      // Should not be reachable by calls via shell because of validation
-      // at {@link GeneralCommands}.
-      // As currently only horizontal or vertical lines
-      // drawing is supported then do nothing.
+      final long dx = Math.abs((long) x2 - x1);
+      final long dy = Math.abs((long) y2 - y1);
+      orient(dy > dx, Math.min(Math.max(dx, dy) + 1, dy > dx ? height : width));
+      LineRasterizer.draw(drawingStorage,
+          x1 - 1L, y1 - 1L, x2 - 1L, y2 - 1L, width, height, color);
       return this;
     }
 
-    if (colorToLayerMap.get(characterColor) == null) {
-      colorToLayerMap.put(characterColor, new Layer(width, height));
-    }
-
     if (x1 == x2) {
-      int start = getMinIntersectionCoordinate(y1, y2);
-      int end = getMaxIntersectionCoordinate(y1, y2, height);
-      for (Map.Entry<Character, Layer> lEntry : colorToLayerMap.entrySet()) {
-        Layer layer = lEntry.getValue();
-        if (Objects.equals(characterColor, lEntry.getKey())) {
-          layer.drawVerticalLine(x1 - 1, start, end);
-        } else {
-          // clear the same coordinates on all other layers
-          layer.clearVerticalLine(x1 - 1, start, end);
-        }
-      }
+      final int from = getMinIntersectionCoordinate(y1, y2);
+      final int to = getMaxIntersectionCoordinate(y1, y2, height);
+      orient(true, to - from + 1L);
+      drawingStorage.drawVerticalLine(x1 - 1, from, to, color);
     } else {
-      int start = getMinIntersectionCoordinate(x1, x2);
-      int end = getMaxIntersectionCoordinate(x1, x2, width);
-      for (Map.Entry<Character, Layer> lEntry : colorToLayerMap.entrySet()) {
-        Layer layer = lEntry.getValue();
-        if (Objects.equals(characterColor, lEntry.getKey())) {
-          layer.drawHorizontalLine(start, end, y1 - 1);
-        } else {
-          // clear the same coordinates on all other layers
-          layer.clearHorizontalLine(start, end, y1 - 1);
-        }
-      }
+      final int from = getMinIntersectionCoordinate(x1, x2);
+      final int to = getMaxIntersectionCoordinate(x1, x2, width);
+      orient(false, to - from + 1L);
+      drawingStorage.drawHorizontalLine(from, to, y1 - 1, color);
     }
     return this;
   }
@@ -135,8 +289,7 @@ public int getMaxIntersectionCoordinate(final int coord1,
   }
 
   /**
-   * Draw horizontal or vertical (based on points coordinates analysis) line
-   * on the canvas from the point (x, y1) to (x, y2) with
+   * Draw line on the canvas from the point (x1, y1) to (x2, y2) with
    * symbol {@link DrawingShellPropertiesEnum#DEFAULT_DRAW_CHAR}.
    * If any point of the line is out of canvas this point will
    * not be drawn while all points presenting on the canvas will be drawn
@@ -204,26 +357,475 @@ public Canvas drawRectangle(final int x1,
   }
 
   /**
-   * Return color-layer map-entry for the specified coordinate.
+   * Fill rectangle on the canvas
+   * with the top left point (x1, y1) and bottom right point (x2, y2)
+   * with symbol {@link DrawingShellPropertiesEnum#DEFAULT_DRAW_CHAR}.
+   * If any point of the rectangle is out of canvas this point will
+   * not be drawn while all points presenting on the canvas will be drawn
+   *
+   * @param x1 x coordinate of the first point
+   * @param y1 y coordinate of the first point
+   * @param x2 x coordinate of the second point
+   * @param y2 y coordinate of the second point
+   * @return canvas with a new filled rectangle.
+   */
+  public Canvas fillRectangle(final int x1,
+                              final int y1,
+                              final int x2,
+                              final int y2) {
+    return fillRectangle(x1, y1, x2, y2,
+        drawingShellOpts.getChar(DrawingShellPropertiesEnum.DEFAULT_DRAW_CHAR));
+  }
+
+  /**
+   * Fill rectangle on the canvas
+   * with the top left point (x1, y1) and bottom right point (x2, y2)
+   * with symbol c. Every row of the rectangle is set as a range at once
+   * so it costs one pass over rows rather than drawing lines or filling.
+   * If any point of the rectangle is out of canvas this point will
+   * not be drawn while all points presenting on the canvas will be drawn
    *
-   * @param x x coordinate
-   * @param y y coordinate
-   * @return color-layer map-entry
-   */
-  protected Map.Entry<Character, Layer> getLayerForPoint(int x, int y) {
-    for (Map.Entry<Character, Layer> color2LineEntry
-        : colorToLayerMap.entrySet()) {
-      Layer value = color2LineEntry.getValue();
-      if (value.getLine(y) != null && value.getLine(y).get(x)) {
-        return color2LineEntry;
+   * @param x1 x coordinate of the first point
+   * @param y1 y coordinate of the first point
+   * @param x2 x coordinate of the second point
+   * @param y2 y coordinate of the second point
+   * @param c  color to fill rectangle
+   * @return canvas with a new filled rectangle.
+   */
+  public Canvas fillRectangle(final int x1,
+                              final int y1,
+                              final int x2,
+                              final int y2,
+                              final char c) {
+    if (Math.min(x1, x2) > width || Math.max(x1, x2) < 1
+        || Math.min(y1, y2) > height || Math.max(y1, y2) < 1) {
+      return this;
+    }
+    drawingStorage.fillRectangle(
+        getMinIntersectionCoordinate(x1, x2),
+        getMaxIntersectionCoordinate(x1, x2, width),
+        getMinIntersectionCoordinate(y1, y2),
+        getMaxIntersectionCoordinate(y1, y2, height),
+        c);
+    return this;
+  }
+
+  /**
+   * Draw ellipse on the canvas with the center (cx, cy)
+   * and the horizontal and vertical radii rx and ry
+   * with symbol {@link DrawingShellPropertiesEnum#DEFAULT_DRAW_CHAR}.
+   * If any point of the ellipse is out of canvas this point will
+   * not be drawn while all points presenting on the canvas will be drawn
+   *
+   * @param cx       x coordinate of the center
+   * @param cy       y coordinate of the center
+   * @param rx       horizontal radius
+   * @param ry       vertical radius
+   * @param isFilled if true then the inner area is drawn too
+   *                 if false then only the outline is drawn
+   * @return canvas with a new ellipse.
+   */
+  public Canvas drawEllipse(final int cx,
+                            final int cy,
+                            final int rx,
+                            final int ry,
+                            final boolean isFilled) {
+    return drawEllipse(cx, cy, rx, ry,
+        drawingShellOpts.getChar(DrawingShellPropertiesEnum.DEFAULT_DRAW_CHAR),
+        isFilled);
+  }
+
+  /**
+   * Draw ellipse on the canvas with the center (cx, cy)
+   * and the horizontal and vertical radii rx and ry with symbol c.
+   * The ellipse is rasterized by {@link EllipseRasterizer}
+   * as horizontal spans of rows within the canvas.
+   * If any point of the ellipse is out of canvas this point will
+   * not be drawn while all points presenting on the canvas will be drawn.
+   * Nothing is drawn if any of radii is negative.
+   *
+   * @param cx       x coordinate of the center
+   * @param cy       y coordinate of the center
+   * @param rx       horizontal radius
+   * @param ry       vertical radius
+   * @param c        color to draw ellipse
+   * @param isFilled if true then the inner area is drawn too
+   *                 if false then only the outline is drawn
+   * @return canvas with a new ellipse.
+   */
+  public Canvas drawEllipse(final int cx,
+                            final int cy,
+                            final int rx,
+                            final int ry,
+                            final char c,
+                            final boolean isFilled) {
+    if (rx < 0 || ry < 0) {
+      return this;
+    }
+    EllipseRasterizer.draw(drawingStorage, cx - 1L, cy - 1L, rx, ry,
+        width, height, c, isFilled);
+    return this;
+  }
+
+  /**
+   * Draw circle on the canvas with the center (cx, cy) and radius r
+   * with symbol {@link DrawingShellPropertiesEnum#DEFAULT_DRAW_CHAR}.
+   *
+   * @param cx       x coordinate of the center
+   * @param cy       y coordinate of the center
+   * @param r        radius
+   * @param isFilled if true then the inner area is drawn too
+   *                 if false then only the outline is drawn
+   * @return canvas with a new circle.
+   * @see #drawEllipse(int, int, int, int, boolean)
+   */
+  public Canvas drawCircle(final int cx,
+                           final int cy,
+                           final int r,
+                           final boolean isFilled) {
+    return drawEllipse(cx, cy, r, r, isFilled);
+  }
+
+  /**
+   * Draw circle on the canvas with the center (cx, cy) and radius r
+   * with symbol c.
+   *
+   * @param cx       x coordinate of the center
+   * @param cy       y coordinate of the center
+   * @param r        radius
+   * @param c        color to draw circle
+   * @param isFilled if true then the inner area is drawn too
+   *                 if false then only the outline is drawn
+   * @return canvas with a new circle.
+   * @see #drawEllipse(int, int, int, int, char, boolean)
+   */
+  public Canvas drawCircle(final int cx,
+                           final int cy,
+                           final int r,
+                           final char c,
+                           final boolean isFilled) {
+    return drawEllipse(cx, cy, r, r, c, isFilled);
+  }
+
+  /**
+   * Fill polygon on the canvas with vertices (xs[i], ys[i])
+   * with symbol {@link DrawingShellPropertiesEnum#DEFAULT_DRAW_CHAR}.
+   *
+   * @param xs x coordinates of vertices
+   * @param ys y coordinates of vertices
+   * @return canvas with a new polygon.
+   * @see #fillPolygon(int[], int[], char)
+   */
+  public Canvas fillPolygon(final int[] xs, final int[] ys) {
+    return fillPolygon(xs, ys,
+        drawingShellOpts.getChar(DrawingShellPropertiesEnum.DEFAULT_DRAW_CHAR));
+  }
+
+  /**
+   * Fill polygon on the canvas with vertices (xs[i], ys[i]) with symbol c.
+   * The polygon is filled by {@link PolygonRasterizer} by the even-odd rule
+   * and its outline is drawn as lines through the vertices.
+   * If any point of the polygon is out of canvas this point will
+   * not be drawn while all points presenting on the canvas will be drawn
+   *
+   * @param xs x coordinates of vertices
+   * @param ys y coordinates of vertices
+   * @param c  color to fill polygon
+   * @return canvas with a new polygon.
+   */
+  public Canvas fillPolygon(final int[] xs, final int[] ys, final char c) {
+    final long[] storageXs = new long[xs.length];
+    final long[] storageYs = new long[ys.length];
+    for (int i = 0; i < xs.length; i++) {
+      storageXs[i] = xs[i] - 1L;
+      storageYs[i] = ys[i] - 1L;
+    }
+    PolygonRasterizer.fill(drawingStorage,
+        storageXs, storageYs, width, height, c);
+    return this;
+  }
+
+  /**
+   * Place stamp on the canvas with the top left corner (x, y)
+   * with symbol {@link DrawingShellPropertiesEnum#DEFAULT_DRAW_CHAR}.
+   *
+   * @param stamp stamp to place
+   * @param x     x coordinate of the top left corner
+   * @param y     y coordinate of the top left corner
+   * @return canvas with a new stamp.
+   * @see #drawStamp(Stamp, int, int, char)
+   */
+  public Canvas drawStamp(final Stamp stamp, final int x, final int y) {
+    return drawStamp(stamp, x, y,
+        drawingShellOpts.getChar(DrawingShellPropertiesEnum.DEFAULT_DRAW_CHAR));
+  }
+
+  /**
+   * Place stamp on the canvas with the top left corner (x, y)
+   * so its set points get symbol c and other points are left as is.
+   * Rows of the stamp are placed by the storage at once
+   * rather than replaying primitives the stamp was drawn with.
+   * If any point of the stamp is out of canvas this point will
+   * not be drawn while all points presenting on the canvas will be drawn
+   *
+   * @param stamp stamp to place
+   * @param x     x coordinate of the top left corner
+   * @param y     y coordinate of the top left corner
+   * @param c     color of set points of the stamp
+   * @return canvas with a new stamp.
+   */
+  public Canvas drawStamp(final Stamp stamp,
+                          final int x,
+                          final int y,
+                          final char c) {
+    if (x > width || y > height
+        || x - 1L + stamp.getWidth() < 1 || y - 1L + stamp.getHeight() < 1) {
+      return this;
+    }
+    drawingStorage.drawStamp(stamp, x - 1, y - 1, width, height, c);
+    return this;
+  }
+
+  /**
+   * Create stamp of the rectangle of the canvas with corners
+   * (x1, y1) and (x2, y2) where points of other symbols than
+   * the empty char are set. The rectangle is cut to the canvas.
+   *
+   * @param x1 x coordinate of the first corner
+   * @param y1 y coordinate of the first corner
+   * @param x2 x coordinate of the second corner
+   * @param y2 y coordinate of the second corner
+   * @return new stamp of the size of the rectangle within the canvas
+   *         or null if the rectangle is out of canvas
+   */
+  public Stamp copyStamp(final int x1,
+                         final int y1,
+                         final int x2,
+                         final int y2) {
+    if (Math.min(x1, x2) > width || Math.max(x1, x2) < 1
+        || Math.min(y1, y2) > height || Math.max(y1, y2) < 1) {
+      return null;
+    }
+    applyBatch();
+    final int left = getMinIntersectionCoordinate(x1, x2);
+    final int right = getMaxIntersectionCoordinate(x1, x2, width);
+    final int top = getMinIntersectionCoordinate(y1, y2);
+    final int[][] rowRuns =
+        new int[getMaxIntersectionCoordinate(y1, y2, height) - top + 1][];
+    for (int row = 0; row < rowRuns.length; row++) {
+      int[] runs = new int[16];
+      int runCount = 0;
+      int x = left;
+      while (x <= right) {
+        final int end = Math.min(right, storage.getRunEnd(x, top + row));
+        if (storage.getColor(x, top + row) == emptyChar) {
+          x = end + 1;
+          continue;
+        }
+        // runs of other colors next to each other make a single run
+        if (runCount > 0 && runs[2 * runCount - 1] == x - left - 1) {
+          runs[2 * runCount - 1] = end - left;
+        } else {
+          if (2 * runCount == runs.length) {
+            runs = Arrays.copyOf(runs, 2 * runs.length);
+          }
+          runs[2 * runCount] = x - left;
+          runs[2 * runCount + 1] = end - left;
+          runCount++;
+        }
+        x = end + 1;
       }
+      rowRuns[row] = Arrays.copyOf(runs, 2 * runCount);
+    }
+    return new Stamp(right - left + 1, rowRuns);
+  }
+
+  /**
+   * Copy the rectangle with corners (x1, y1) and (x2, y2)
+   * with points of all colors so its top left corner moves to (x, y).
+   * The rectangles could overlap, the copy is of the points
+   * as they were before it. Points of the rectangle out of canvas
+   * or moving out of canvas are not copied.
+   *
+   * @param x1 x coordinate of the first corner
+   * @param y1 y coordinate of the first corner
+   * @param x2 x coordinate of the second corner
+   * @param y2 y coordinate of the second corner
+   * @param x  x coordinate of the new top left corner
+   * @param y  y coordinate of the new top left corner
+   * @return canvas with the copied rectangle.
+   */
+  public Canvas copyRegion(final int x1,
+                           final int y1,
+                           final int x2,
+                           final int y2,
+                           final int x,
+                           final int y) {
+    return copyRegion(x1, y1, x2, y2, x, y, false);
+  }
+
+  /**
+   * Move the rectangle with corners (x1, y1) and (x2, y2)
+   * with points of all colors so its top left corner moves to (x, y).
+   * It is the same as {@link #copyRegion(int, int, int, int, int, int)}
+   * but points of the rectangle not covered by the copy
+   * get the empty char.
+   *
+   * @param x1 x coordinate of the first corner
+   * @param y1 y coordinate of the first corner
+   * @param x2 x coordinate of the second corner
+   * @param y2 y coordinate of the second corner
+   * @param x  x coordinate of the new top left corner
+   * @param y  y coordinate of the new top left corner
+   * @return canvas with the moved rectangle.
+   */
+  public Canvas moveRegion(final int x1,
+                           final int y1,
+                           final int x2,
+                           final int y2,
+                           final int x,
+                           final int y) {
+    return copyRegion(x1, y1, x2, y2, x, y, true);
+  }
+
+  private Canvas copyRegion(final int x1,
+                            final int y1,
+                            final int x2,
+                            final int y2,
+                            final int x,
+                            final int y,
+                            final boolean isMove) {
+    if (Math.min(x1, x2) > width || Math.max(x1, x2) < 1
+        || Math.min(y1, y2) > height || Math.max(y1, y2) < 1) {
+      return this;
+    }
+    applyBatch();
+    final long dx = (long) x - Math.min(x1, x2);
+    final long dy = (long) y - Math.min(y1, y2);
+    // 0-based source within the canvas
+    final int left = getMinIntersectionCoordinate(x1, x2);
+    final int right = getMaxIntersectionCoordinate(x1, x2, width);
+    final int top = getMinIntersectionCoordinate(y1, y2);
+    final int bottom = getMaxIntersectionCoordinate(y1, y2, height);
+    // part of the source copied within the canvas
+    final long copyLeft = Math.max(left, -dx);
+    final long copyRight = Math.min(right, width - 1 - dx);
+    final long copyTop = Math.max(top, -dy);
+    final long copyBottom = Math.min(bottom, height - 1 - dy);
+    final boolean isCopied = copyLeft <= copyRight && copyTop <= copyBottom;
+    if (isCopied) {
+      storage.copy((int) copyLeft, (int) copyRight,
+          (int) copyTop, (int) copyBottom,
+          (int) (copyLeft + dx), (int) (copyTop + dy));
+    }
+    if (!isMove) {
+      return this;
+    }
+    if (isCopied) {
+      // the copy is within the canvas so its coordinates are ints
+      clearOutside(left, right, top, bottom,
+          (int) Math.max(left, copyLeft + dx),
+          (int) Math.min(right, copyRight + dx),
+          (int) Math.max(top, copyTop + dy),
+          (int) Math.min(bottom, copyBottom + dy));
+    } else {
+      storage.fillRectangle(left, right, top, bottom, emptyChar);
     }
-    // Currently should never happen as each point has an association
-    // with a layer and each layer has an association with a color.
-    // However it could be an extension point to have null as code
-    // for e.g. background color but some sophisticated logic
-    // should be applied while doing fill.
-    return null;
+    return this;
+  }
+
+  /**
+   * Set the empty char on points of the rectangle
+   * from (left, top) to (right, bottom) out of the covered rectangle
+   * which is empty if its first coordinate is greater than the last one.
+   */
+  private void clearOutside(final int left,
+                            final int right,
+                            final int top,
+                            final int bottom,
+                            final int coveredLeft,
+                            final int coveredRight,
+                            final int coveredTop,
+                            final int coveredBottom) {
+    if (coveredLeft > coveredRight || coveredTop > coveredBottom) {
+      storage.fillRectangle(left, right, top, bottom, emptyChar);
+      return;
+    }
+    if (top < coveredTop) {
+      storage.fillRectangle(left, right, top, coveredTop - 1, emptyChar);
+    }
+    if (coveredBottom < bottom) {
+      storage.fillRectangle(
+          left, right, coveredBottom + 1, bottom, emptyChar);
+    }
+    if (left < coveredLeft) {
+      storage.fillRectangle(
+          left, coveredLeft - 1, coveredTop, coveredBottom, emptyChar);
+    }
+    if (coveredRight < right) {
+      storage.fillRectangle(
+          coveredRight + 1, right, coveredTop, coveredBottom, emptyChar);
+    }
+  }
+
+  /**
+   * Start collecting lines, rectangles and other primitives
+   * drawn on the canvas instead of drawing them one by one.
+   * Collected primitives are applied by {@link #applyBatch()}
+   * grouped per row with each row set once per color
+   * so a long run of primitives costs one pass over the storage.
+   * They are also applied before the canvas is read, filled or printed
+   * so the batch is never visible. If the orientation is switched
+   * while primitives are collected the ones collected so far are applied
+   * and next ones are collected with the new orientation.
+   */
+  public void beginBatch() {
+    if (batch != null) {
+      return;
+    }
+    if (storage instanceof TransposedStorage) {
+      batch = new BatchStorage(((TransposedStorage) storage).getInner());
+      drawingStorage = new TransposedStorage(batch, width);
+    } else {
+      batch = new BatchStorage(storage);
+      drawingStorage = batch;
+    }
+  }
+
+  /**
+   * Tell whether the storage draws long runs of primitives faster
+   * if they are collected by {@link #beginBatch()}.
+   *
+   * @return true if primitives should be batched
+   */
+  public boolean prefersBatches() {
+    return storage.prefersBatches();
+  }
+
+  /**
+   * Draw primitives collected since {@link #beginBatch()}
+   * and draw next ones right away.
+   */
+  public void applyBatch() {
+    if (batch == null) {
+      return;
+    }
+    final BatchStorage applied = batch;
+    batch = null;
+    drawingStorage = storage;
+    applied.apply();
+  }
+
+  /**
+   * Return color of the specified point.
+   *
+   * @param x 0-based x coordinate
+   * @param y 0-based y coordinate
+   * @return color of the point
+   */
+  protected char getColor(int x, int y) {
+    applyBatch();
+    return storage.getColor(x, y);
   }
 
   /**
@@ -265,23 +867,55 @@ public Canvas fill(final int startX,
                      final boolean isB4) {
     final int x = startX - 1;
     final int y = startY - 1;
-    Map.Entry<Character, Layer> color2Layer = getLayerForPoint(x, y);
-
-    if (color2Layer != null && color2Layer.getKey() == targetColor) {
+    applyBatch();
+    if (storage.getColor(x, y) == targetColor) {
       return this;
     }
-    // Currently color2Layer should never be null here as each point has
-    // an association with a layer and each layer has an association
-    // with a color. If it is null then then an issue is present for
-    // some case which should be fixed
-    assert color2Layer != null;
+    storage.fill(x, y, targetColor, isB4);
+    return this;
+  }
 
-    Layer source = color2Layer.getValue();
-    final Layer destination =
-        colorToLayerMap.getOrDefault(targetColor, new Layer(width, height));
+  /**
+   * Fill the point (x, y) and all its neighbours with
+   * the same char content with colors of the pattern at their points.
+   * Points where the pattern is clear keep their color.
+   * If point (x, y) is out of canvas this point will
+   * not fill anything.
+   *
+   * @param startX  x coordinate of the start point to fill
+   * @param startY  y coordinate of the start point to fill
+   * @param pattern pattern to fill with
+   * @param isB4    specify the way of filling area
+   *                if true then 4-dots way will be used
+   *                if false then 8-dots way will be used
+   * @return canvas with area filled with the pattern.
+   */
+  public Canvas fill(final int startX,
+                     final int startY,
+                     final Pattern pattern,
+                     final boolean isB4) {
+    if (startX < 1 || startY < 1 || startX > width || startY > height) {
+      return this;
+    }
+    applyBatch();
+    storage.fill(startX - 1, startY - 1, pattern, isB4, width, height);
+    return this;
+  }
 
-    colorToLayerMap.put(targetColor, source.fill(x, y, destination, isB4));
-    cleanEmptyLayers();
+  /**
+   * Replace color of all points of {@code color} with {@code newColor}
+   * wherever they are on the canvas whether connected or not.
+   *
+   * @param color    color to replace
+   * @param newColor a new color
+   * @return canvas with recolored points.
+   */
+  public Canvas recolor(final char color, final char newColor) {
+    if (color == newColor) {
+      return this;
+    }
+    applyBatch();
+    storage.recolor(color, newColor, width, height);
     return this;
   }
 
@@ -289,20 +923,18 @@ public Canvas fill(final int startX,
    * Remove layers which are not associated with any point.
    */
   public void cleanEmptyLayers() {
-    Set<Character> colors = colorToLayerMap.keySet();
-    Set<Character> candidatesToRemove = new HashSet<>(colors);
-    for (Character color : colors) {
-      Layer layer = colorToLayerMap.get(color);
-      for (int i = 0; i < height; i++) {
-        if (layer.getLine(i) != null && !layer.getLine(i).isEmpty()) {
-          candidatesToRemove.remove(color);
-          break;
-        }
-      }
-    }
-    for (Character color2Remove : candidatesToRemove) {
-      colorToLayerMap.remove(color2Remove);
-    }
+    applyBatch();
+    storage.compact();
+  }
+
+  /**
+   * Release resources kept by the storage outside of heap.
+   * The canvas should not be used after that.
+   */
+  public void close() {
+    batch = null;
+    drawingStorage = storage;
+    storage.close();
   }
 
   /**
@@ -316,6 +948,7 @@ public void cleanEmptyLayers() {
    * @throws IOException If an I/O error occurs
    */
   public void printTo(final Appendable appendable) throws IOException {
+    applyBatch();
     StringBuilder sb = new StringBuilder(STRING_LENGTH_FOR_FLUSHING);
     for (int i = 0; i < width + 2; i++) {
       sb.append(
@@ -355,35 +988,22 @@ private StringBuilder lineToAppendable(Appendable appendable,
     sb.append(drawingShellOpts.get(DrawingShellPropertiesEnum.VERTICAL_BORDER));
     int cursor = 0;
     while (cursor < width) {
-      Map.Entry<Character, Layer> color2LineEntry =
-          getLayerForPoint(cursor, lineNumber);
-      BitSet currentLine = color2LineEntry == null
-          ? null : color2LineEntry.getValue().getLine(lineNumber);
-      if (currentLine == null) {
-        sb.append(
-            drawingShellOpts.getChar(
-                DrawingShellPropertiesEnum.DEFAULT_EMPTY_CHAR));
-        cursor++;
-      } else {
-        int next = currentLine.cardinality() == width
-            ? width - 1 : color2LineEntry.getValue()
-            .getLastSetIndexInARow(currentLine, cursor);
-        if (next >= cursor) {
-          char key = color2LineEntry.getKey();
-          for (int i = cursor; i <= next; i++) {
-            sb.append(key);
-            if (sb.length() >= STRING_LENGTH_FOR_FLUSHING - 1) {
-              appendable.append(sb.toString());
-              sb = new StringBuilder(STRING_LENGTH_FOR_FLUSHING);
-            }
+      int next = storage.getRunEnd(cursor, lineNumber);
+      if (next >= cursor) {
+        char key = storage.getColor(cursor, lineNumber);
+        for (int i = cursor; i <= next; i++) {
+          sb.append(key);
+          if (sb.length() >= STRING_LENGTH_FOR_FLUSHING - 1) {
+            appendable.append(sb.toString());
+            sb = new StringBuilder(STRING_LENGTH_FOR_FLUSHING);
           }
-          cursor += next - cursor + 1;
-        } else {
-          // should never happen
-          throw new RuntimeException(
-              "Could not handle line " + currentLine
-                  + " since position " + cursor);
         }
+        cursor += next - cursor + 1;
+      } else {
+        // should never happen
+        throw new RuntimeException(
+            "Could not handle line " + lineNumber
+                + " since position " + cursor);
       }
     }
     sb.append(drawingShellOpts.get(DrawingShellPropertiesEnum.VERTICAL_BORDER))
@@ -410,6 +1030,15 @@ public String toString() {
     }
   }
 
+  /**
+   * Check if rows of the storage are columns of the canvas.
+   *
+   * @return true for column-major orientation
+   */
+  boolean isColumnMajor() {
+    return storage instanceof TransposedStorage;
+  }
+
   public int getWidth() {
     return width;
   }
@@ -0,0 +1,387 @@
+package ru.nuyanzin.canvas;
+
+import java.util.Arrays;
+
+/**
+ * Storage engine keeping colors of all the points of {@link Canvas}.
+ * All coordinates are 0-based and already clipped to the canvas
+ * by {@link Canvas} so implementations do not need any validation.
+ */
+public interface CanvasStorage {
+  /**
+   * Return color of the point (x, y).
+   *
+   * @param x x coordinate
+   * @param y y coordinate
+   * @return color of the point
+   */
+  char getColor(int x, int y);
+
+  /**
+   * Return the last x coordinate of the run of points in the row {@code y}
+   * starting with {@code x} and having the same color as (x, y).
+   *
+   * @param x x coordinate to start with
+   * @param y y coordinate
+   * @return the last index of the run
+   */
+  int getRunEnd(int x, int y);
+
+  /**
+   * Draw horizontal line from (x1, y) to (x2, y) with the specified color.
+   *
+   * @param x1    first x coordinate, x1 &lt;= x2
+   * @param x2    second x coordinate
+   * @param y     y coordinate
+   * @param color color of the line
+   */
+  void drawHorizontalLine(int x1, int x2, int y, char color);
+
+  /**
+   * Draw vertical line from (x, y1) to (x, y2) with the specified color.
+   *
+   * @param x     x coordinate
+   * @param y1    first y coordinate, y1 &lt;= y2
+   * @param y2    second y coordinate
+   * @param color color of the line
+   */
+  void drawVerticalLine(int x, int y1, int y2, char color);
+
+  /**
+   * Set color for all the points of the rectangle
+   * from (x1, y1) to (x2, y2) inclusive.
+   * By default each row of the rectangle is drawn as a horizontal line.
+   *
+   * @param x1    first x coordinate, x1 &lt;= x2
+   * @param x2    second x coordinate
+   * @param y1    first y coordinate, y1 &lt;= y2
+   * @param y2    second y coordinate
+   * @param color color of the rectangle
+   */
+  default void fillRectangle(int x1, int x2, int y1, int y2, char color) {
+    for (int y = y1; y <= y2; y++) {
+      drawHorizontalLine(x1, x2, y, color);
+    }
+  }
+
+  /**
+   * Set color for spans of consecutive rows starting from the row top:
+   * the row top + i gets the color from starts[i] to ends[i] inclusive,
+   * nothing is set for the row if starts[i] &gt; ends[i].
+   * By default each span is drawn as a horizontal line.
+   *
+   * @param top    the first row
+   * @param count  number of rows
+   * @param starts the first x coordinates of spans
+   * @param ends   the last x coordinates of spans
+   * @param color  color of spans
+   */
+  default void drawSpans(int top,
+                         int count,
+                         int[] starts,
+                         int[] ends,
+                         char color) {
+    for (int i = 0; i < count; i++) {
+      if (starts[i] <= ends[i]) {
+        drawHorizontalLine(starts[i], ends[i], top + i, color);
+      }
+    }
+  }
+
+  /**
+   * Set colors of spans of the row y: the span i gets colors[i]
+   * from starts[i] to ends[i] inclusive for i less than count.
+   * Spans are sorted by x and neither overlap nor touch each other
+   * if they are of the same color.
+   * By default each span is drawn as a horizontal line.
+   *
+   * @param y      the row
+   * @param count  number of spans
+   * @param starts the first x coordinates of spans
+   * @param ends   the last x coordinates of spans
+   * @param colors colors of spans
+   */
+  default void drawRow(int y,
+                       int count,
+                       int[] starts,
+                       int[] ends,
+                       char[] colors) {
+    for (int i = 0; i < count; i++) {
+      drawHorizontalLine(starts[i], ends[i], y, colors[i]);
+    }
+  }
+
+  /**
+   * Set color for the points of the stamp placed with its top left
+   * corner at (x, y) which could be out of the storage.
+   * Points out of the storage of the specified width and height
+   * are skipped. By default each run of the stamp is drawn
+   * as a horizontal line.
+   *
+   * @param stamp  stamp to place
+   * @param x      x coordinate of the top left corner
+   * @param y      y coordinate of the top left corner
+   * @param width  width of the storage
+   * @param height height of the storage
+   * @param color  color of the points
+   */
+  default void drawStamp(Stamp stamp,
+                         int x,
+                         int y,
+                         int width,
+                         int height,
+                         char color) {
+    final int lastRow = (int) Math.min(stamp.getHeight() - 1L, height - 1L - y);
+    for (int row = Math.max(0, -y); row <= lastRow; row++) {
+      final int[] runs = stamp.getRuns(row);
+      for (int i = 0; i < runs.length; i += 2) {
+        final long start = Math.max(0, (long) x + runs[i]);
+        final long end = Math.min(width - 1L, (long) x + runs[i + 1]);
+        if (start <= end) {
+          drawHorizontalLine((int) start, (int) end, y + row, color);
+        }
+      }
+    }
+  }
+
+  /**
+   * Copy points of all colors of the rectangle from (x1, y1) to (x2, y2)
+   * inclusive to the rectangle of the same size with the top left
+   * corner at (x, y). Both rectangles are within the storage
+   * and could overlap, points are copied as they were before the copy.
+   * By default rows are visited from the side the rectangle moves to
+   * so a source row is read before it is overwritten and each row
+   * is read as runs and drawn by
+   * {@link #drawRow(int, int, int[], int[], char[])}.
+   *
+   * @param x1 the first x coordinate of the source
+   * @param x2 the last x coordinate of the source
+   * @param y1 the first y coordinate of the source
+   * @param y2 the last y coordinate of the source
+   * @param x  x coordinate of the top left corner of the destination
+   * @param y  y coordinate of the top left corner of the destination
+   */
+  default void copy(int x1, int x2, int y1, int y2, int x, int y) {
+    int[] starts = new int[16];
+    int[] ends = new int[16];
+    char[] colors = new char[16];
+    for (int i = 0; i <= y2 - y1; i++) {
+      final int row = y > y1 ? y2 - i : y1 + i;
+      int count = 0;
+      int start = x1;
+      while (start <= x2) {
+        final char color = getColor(start, row);
+        final int end = Math.min(x2, getRunEnd(start, row));
+        if (count > 0 && colors[count - 1] == color) {
+          ends[count - 1] = end - x1 + x;
+        } else {
+          if (count == starts.length) {
+            starts = Arrays.copyOf(starts, 2 * count);
+            ends = Arrays.copyOf(ends, 2 * count);
+            colors = Arrays.copyOf(colors, 2 * count);
+          }
+          starts[count] = start - x1 + x;
+          ends[count] = end - x1 + x;
+          colors[count] = color;
+          count++;
+        }
+        start = end + 1;
+      }
+      drawRow(row - y1 + y, count, starts, ends, colors);
+    }
+  }
+
+  /**
+   * Set {@code newColor} to all points of {@code color}.
+   * Colors differ and any of them could be the empty char.
+   * By default rows are read as runs and each run of the color
+   * is drawn as a horizontal line.
+   *
+   * @param color    color to replace
+   * @param newColor a new color
+   * @param width    width of the storage
+   * @param height   height of the storage
+   */
+  default void recolor(char color, char newColor, int width, int height) {
+    for (int y = 0; y < height; y++) {
+      int start = 0;
+      while (start < width) {
+        final int end = getRunEnd(start, y);
+        if (getColor(start, y) == color) {
+          drawHorizontalLine(start, end, y, newColor);
+        }
+        start = end + 1;
+      }
+    }
+  }
+
+  /**
+   * Tell whether long runs of primitives are drawn faster
+   * if their spans are collected and passed row by row to
+   * {@link #drawRow(int, int, int[], int[], char[])}.
+   *
+   * @return true if primitives should be batched
+   */
+  default boolean prefersBatches() {
+    return false;
+  }
+
+  /**
+   * Fill the point (x, y) and all its neighbours having
+   * the same color with a new color.
+   * The color of (x, y) is guaranteed to differ from {@code color}.
+   *
+   * @param x     x coordinate of the start point
+   * @param y     y coordinate of the start point
+   * @param color a new color
+   * @param isB4  if true then 4-dots way will be used
+   *              if false then 8-dots way will be used
+   */
+  void fill(int x, int y, char color, boolean isB4);
+
+  /**
+   * Fill the point (x, y) and all its neighbours having the same color
+   * with colors of the pattern at their coordinates, points where
+   * the pattern is clear keep their color.
+   * By default the area is found as runs of the color and kept as words
+   * of the rows reached, which are contiguous as the area is connected,
+   * then the spans of each row are taken from the words of the area
+   * ANDed with the words of each color of the pattern and drawn by
+   * {@link #drawRow(int, int, int[], int[], char[])}.
+   *
+   * @param x       x coordinate of the start point
+   * @param y       y coordinate of the start point
+   * @param pattern pattern to fill with
+   * @param isB4    if true then 4-dots way will be used
+   *                if false then 8-dots way will be used
+   * @param width   width of the storage
+   * @param height  height of the storage
+   */
+  default void fill(int x,
+                    int y,
+                    Pattern pattern,
+                    boolean isB4,
+                    int width,
+                    int height) {
+    final char source = getColor(x, y);
+    final int diagonalShift = isB4 ? 0 : 1;
+    final int wordCount = WordBitmap.wordCount(width);
+    // words of rows from top reached so far, a row is reached
+    // from a neighbour one so the rows grow by one at an end
+    long[][] area = new long[1][];
+    int top = y;
+    int[] stack = {x, y};
+    int stackSize = 2;
+    while (stackSize > 0) {
+      final int currentY = stack[--stackSize];
+      final int currentX = stack[--stackSize];
+      if (currentY < top || currentY >= top + area.length) {
+        final long[][] rows = new long[Math.min(height, 2 * area.length)][];
+        final int newTop = currentY < top
+            ? Math.max(0, top + area.length - rows.length)
+            : Math.min(top, height - rows.length);
+        System.arraycopy(area, 0, rows, top - newTop, area.length);
+        area = rows;
+        top = newTop;
+      }
+      final long[] words = area[currentY - top];
+      if (words == null) {
+        area[currentY - top] = new long[wordCount];
+      } else if (WordBitmap.get(words, currentX)) {
+        continue;
+      }
+      int left = currentX;
+      while (left > 0 && getColor(left - 1, currentY) == source) {
+        left--;
+      }
+      int right = getRunEnd(currentX, currentY);
+      while (right < width - 1 && getColor(right + 1, currentY) == source) {
+        right = getRunEnd(right + 1, currentY);
+      }
+      WordBitmap.set(area[currentY - top], left, right + 1);
+      for (int neighbourY = currentY - 1;
+           neighbourY <= currentY + 1;
+           neighbourY += 2) {
+        if (neighbourY < 0 || neighbourY >= height) {
+          continue;
+        }
+        final int to = Math.min(width - 1, right + diagonalShift);
+        int start = Math.max(0, left - diagonalShift);
+        while (start <= to) {
+          final int end = getRunEnd(start, neighbourY);
+          if (getColor(start, neighbourY) == source) {
+            if (stackSize + 2 > stack.length) {
+              stack = Arrays.copyOf(stack, stack.length * 2);
+            }
+            stack[stackSize++] = start;
+            stack[stackSize++] = neighbourY;
+          }
+          start = end + 1;
+        }
+      }
+    }
+    final char[] patternColors = pattern.getColors();
+    final long[] colorWords = new long[patternColors.length];
+    int[] starts = new int[16];
+    int[] ends = new int[16];
+    char[] colors = new char[16];
+    for (int r = 0; r < area.length; r++) {
+      final long[] words = area[r];
+      if (words == null) {
+        continue;
+      }
+      final int row = top + r;
+      int count = 0;
+      for (int k = 0; k < wordCount; k++) {
+        if (words[k] == 0) {
+          continue;
+        }
+        long left = 0;
+        for (int i = 0; i < patternColors.length; i++) {
+          colorWords[i] = words[k] & pattern.getWord(i, row, k);
+          left |= colorWords[i];
+        }
+        // runs of colors of the word from the lowest point
+        while (left != 0) {
+          final int first = Long.numberOfTrailingZeros(left);
+          int i = 0;
+          while ((colorWords[i] & 1L << first) == 0) {
+            i++;
+          }
+          final int length =
+              Long.numberOfTrailingZeros(~(colorWords[i] >>> first));
+          left &= first + length == Long.SIZE ? 0 : -1L << first + length;
+          final int start = k * Long.SIZE + first;
+          if (count > 0 && colors[count - 1] == patternColors[i]
+              && ends[count - 1] + 1 == start) {
+            ends[count - 1] = start + length - 1;
+            continue;
+          }
+          if (count == starts.length) {
+            starts = Arrays.copyOf(starts, 2 * count);
+            ends = Arrays.copyOf(ends, 2 * count);
+            colors = Arrays.copyOf(colors, 2 * count);
+          }
+          starts[count] = start;
+          ends[count] = start + length - 1;
+          colors[count] = patternColors[i];
+          count++;
+        }
+      }
+      drawRow(row, count, starts, ends, colors);
+    }
+  }
+
+  /**
+   * Release memory kept for colors which are not in use anymore.
+   */
+  default void compact() {
+  }
+
+  /**
+   * Release resources kept outside of heap if any.
+   * The storage should not be used after that.
+   */
+  default void close() {
+  }
+}
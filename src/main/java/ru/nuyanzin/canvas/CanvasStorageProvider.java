@@ -0,0 +1,27 @@
+package ru.nuyanzin.canvas;
+
+/**
+ * Provider of a {@link CanvasStorage} implementation
+ * to be chosen by name with
+ * {@link ru.nuyanzin.properties.DrawingShellPropertiesEnum#CANVAS_STORAGE}.
+ * Built-in storages are listed in {@link CanvasStorageProvidersEnum}.
+ * Other implementations are found with {@link java.util.ServiceLoader}
+ * i.e. a jar on the classpath should list its providers in
+ * {@code META-INF/services/ru.nuyanzin.canvas.CanvasStorageProvider}.
+ */
+public interface CanvasStorageProvider {
+  /**
+   * @return the storage's name
+   */
+  String getName();
+
+  /**
+   * Create a storage with all the points of the empty char.
+   *
+   * @param width     width of the storage
+   * @param height    height of the storage
+   * @param emptyChar color of points which have not been drawn
+   * @return new storage
+   */
+  CanvasStorage create(int width, int height, char emptyChar);
+}
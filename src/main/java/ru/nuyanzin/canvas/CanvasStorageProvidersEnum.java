@@ -0,0 +1,45 @@
+package ru.nuyanzin.canvas;
+
+/**
+ * Storages available out of the box.
+ */
+public enum CanvasStorageProvidersEnum implements CanvasStorageProvider {
+
+  LAYERED(LayeredStorage.NAME, LayeredStorage::new),
+  MORPHOLOGICAL(LayeredStorage.MORPHOLOGICAL_NAME,
+      (width, height, emptyChar) ->
+          new LayeredStorage(width, height, emptyChar, true)),
+  PALETTE(PaletteStorage.NAME, PaletteStorage::new),
+  RLE(RunLengthStorage.NAME, RunLengthStorage::new),
+  TILED(TiledStorage.NAME, TiledStorage::new),
+  MAPPED(MappedStorage.NAME, MappedStorage::new),
+  QUADTREE(QuadTreeStorage.NAME, QuadTreeStorage::new);
+
+  private final String name;
+  private final StorageConstructor constructor;
+
+  CanvasStorageProvidersEnum(String name, StorageConstructor constructor) {
+    this.name = name;
+    this.constructor = constructor;
+  }
+
+  @Override
+  public String getName() {
+    return name;
+  }
+
+  @Override
+  public CanvasStorage create(final int width,
+                             final int height,
+                             final char emptyChar) {
+    return constructor.create(width, height, emptyChar);
+  }
+
+  /**
+   * Constructor of a built-in storage.
+   */
+  @FunctionalInterface
+  interface StorageConstructor {
+    CanvasStorage create(int width, int height, char emptyChar);
+  }
+}
@@ -0,0 +1,338 @@
+package ru.nuyanzin.canvas;
+
+import java.util.Arrays;
+
+/**
+ * Points of a single line of a {@link Layer}.
+ * As in roaring bitmaps a line is kept in the cheapest of containers:
+ * {@link ArrayContainer} for sparse points, {@link BitmapContainer}
+ * for dense ones and {@link RunContainer} for long runs of points.
+ * Operations changing points return the container to use further
+ * which could be of another type, or null if there are no points left.
+ * Ranges are from {@code fromIndex} inclusive to {@code toIndex} exclusive
+ * as for {@link java.util.BitSet}.
+ */
+abstract class Container {
+
+  /**
+   * Create the cheapest container for points from the range.
+   *
+   * @param fromIndex first point
+   * @param toIndex   point after the last one
+   * @return container with points from the range
+   */
+  static Container ofRange(final int fromIndex, final int toIndex) {
+    return ofRuns(new int[] {fromIndex, toIndex - 1}, 1);
+  }
+
+  /**
+   * Create the cheapest container for the specified runs of points.
+   *
+   * @param runs     pairs of the first and the last points of runs
+   *                 sorted and neither overlapping nor adjacent
+   * @param runCount number of runs
+   * @return container with the points or null if there are no runs
+   */
+  static Container ofRuns(final int[] runs, final int runCount) {
+    if (runCount == 0) {
+      return null;
+    }
+    long cardinality = 0;
+    for (int i = 0; i < runCount; i++) {
+      cardinality += runs[2 * i + 1] - runs[2 * i] + 1L;
+    }
+    final int wordCount =
+        WordBitmap.wordCount(runs[2 * runCount - 1] + 1);
+    switch (cheapest(cardinality, runCount, wordCount)) {
+    case BITMAP:
+      long[] words = new long[wordCount];
+      for (int i = 0; i < runCount; i++) {
+        WordBitmap.set(words, runs[2 * i], runs[2 * i + 1] + 1);
+      }
+      return new BitmapContainer(words, (int) cardinality);
+    case RUN:
+      return new RunContainer(runs.length == 2 * runCount
+          ? runs : Arrays.copyOf(runs, 2 * runCount), runCount);
+    default:
+      int[] points = new int[(int) cardinality];
+      int size = 0;
+      for (int i = 0; i < runCount; i++) {
+        for (int point = runs[2 * i]; point <= runs[2 * i + 1]; point++) {
+          points[size++] = point;
+        }
+      }
+      return new ArrayContainer(points, size);
+    }
+  }
+
+  /**
+   * Create the cheapest container for points of words placed
+   * from the word {@code fromWord}, see {@link #of(long[])}.
+   *
+   * @param words     words of points with {@code words[i]} placed
+   *                  as the word {@code fromWord + i}
+   * @param fromWord  the first word
+   * @param wordCount number of words
+   * @return container with the points or null if there are no points
+   */
+  static Container of(final long[] words,
+                      final int fromWord,
+                      final int wordCount) {
+    final long[] placed = new long[fromWord + wordCount];
+    System.arraycopy(words, 0, placed, fromWord, wordCount);
+    return of(placed);
+  }
+
+  /**
+   * Create the cheapest container for points of the word bitmap.
+   * The container could keep {@code words}
+   * so they should not be changed after that.
+   *
+   * @param words word bitmap
+   * @return container with the points or null if there are no points
+   */
+  static Container of(final long[] words) {
+    int lastWordIndex = words.length - 1;
+    while (lastWordIndex >= 0 && words[lastWordIndex] == 0) {
+      lastWordIndex--;
+    }
+    if (lastWordIndex < 0) {
+      return null;
+    }
+    long cardinality = 0;
+    int runCount = 0;
+    long previousWord = 0;
+    for (int i = 0; i <= lastWordIndex; i++) {
+      final long word = words[i];
+      cardinality += Long.bitCount(word);
+      // a run starts at a set point with a clear point before it
+      runCount += Long.bitCount(word & ~(word << 1 | previousWord >>> 63));
+      previousWord = word;
+    }
+    switch (cheapest(cardinality, runCount, lastWordIndex + 1)) {
+    case BITMAP:
+      return new BitmapContainer(
+          lastWordIndex + 1 == words.length
+              ? words : Arrays.copyOf(words, lastWordIndex + 1),
+          (int) cardinality);
+    case RUN:
+      int[] runs = new int[2 * runCount];
+      int run = 0;
+      for (int start = WordBitmap.nextSetBit(words, 0);
+           start != -1;
+           start = WordBitmap.nextSetBit(words, runs[2 * run - 1] + 1)) {
+        runs[2 * run] = start;
+        runs[2 * run + 1] = WordBitmap.nextClearBit(words, start) - 1;
+        run++;
+      }
+      return new RunContainer(runs, runCount);
+    default:
+      int[] points = new int[(int) cardinality];
+      int size = 0;
+      for (int point = WordBitmap.nextSetBit(words, 0);
+           point != -1;
+           point = WordBitmap.nextSetBit(words, point + 1)) {
+        points[size++] = point;
+      }
+      return new ArrayContainer(points, size);
+    }
+  }
+
+  /**
+   * Types of containers.
+   */
+  enum Type {
+    ARRAY, BITMAP, RUN
+  }
+
+  /**
+   * Choose the container taking the least memory.
+   * A bitmap is preferred on a tie as it is the fastest one
+   * and then runs as they are faster to search than an array.
+   *
+   * @param cardinality number of points
+   * @param runCount    number of runs of points
+   * @param wordCount   number of words of a bitmap
+   * @return type of the container to use
+   */
+  static Type cheapest(final long cardinality,
+                       final int runCount,
+                       final int wordCount) {
+    final long arrayBytes = (long) Integer.BYTES * cardinality;
+    final long runBytes = 2L * Integer.BYTES * runCount;
+    final long bitmapBytes = (long) Long.BYTES * wordCount;
+    if (bitmapBytes <= runBytes && bitmapBytes <= arrayBytes) {
+      return Type.BITMAP;
+    }
+    return runBytes <= arrayBytes ? Type.RUN : Type.ARRAY;
+  }
+
+  abstract boolean get(int index);
+
+  /**
+   * Return the index of the first point
+   * starting with {@code fromIndex} or -1 if there is no such point.
+   */
+  abstract int nextSetBit(int fromIndex);
+
+  /**
+   * Return the index of the first index without a point
+   * starting with {@code fromIndex}.
+   */
+  abstract int nextClearBit(int fromIndex);
+
+  /**
+   * Return the index of the nearest point
+   * at or before {@code fromIndex} or -1 if there is no such point.
+   */
+  abstract int previousSetBit(int fromIndex);
+
+  /**
+   * Return the index of the nearest index without a point
+   * at or before {@code fromIndex} or -1 if there is no such index.
+   */
+  abstract int previousClearBit(int fromIndex);
+
+  abstract int cardinality();
+
+  /**
+   * Add points of the range.
+   *
+   * @param fromIndex first point to add
+   * @param toIndex   point after the last one to add
+   * @return container with the points
+   */
+  abstract Container add(int fromIndex, int toIndex);
+
+  /**
+   * Remove points of the range.
+   *
+   * @param fromIndex first point to remove
+   * @param toIndex   point after the last one to remove
+   * @return container with the rest of points or null if there are none
+   */
+  abstract Container remove(int fromIndex, int toIndex);
+
+  /**
+   * Add points of a word bitmap placed from the word {@code fromWord}.
+   * By default runs of points of each word are added one by one.
+   *
+   * @param words     words of points with {@code words[i]} placed
+   *                  as the word {@code fromWord + i}
+   * @param fromWord  the first word
+   * @param wordCount number of words
+   * @return container with the points
+   */
+  Container or(final long[] words, final int fromWord, final int wordCount) {
+    Container result = this;
+    for (int i = 0; i < wordCount; i++) {
+      final int offset = (fromWord + i) * Long.SIZE;
+      long word = words[i];
+      while (word != 0) {
+        final int start = Long.numberOfTrailingZeros(word);
+        final int end = start + Long.numberOfTrailingZeros(~(word >>> start));
+        result = result.add(offset + start, offset + end);
+        word = end == Long.SIZE ? 0 : word & (-1L << end);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Remove points of a word bitmap placed from the word {@code fromWord},
+   * see {@link #or(long[], int, int)}.
+   * By default runs of points of each word are removed one by one.
+   *
+   * @param words     words of points
+   * @param fromWord  the first word
+   * @param wordCount number of words
+   * @return container with the rest of points or null if there are none
+   */
+  Container andNot(final long[] words,
+                   final int fromWord,
+                   final int wordCount) {
+    Container result = this;
+    for (int i = 0; i < wordCount && result != null; i++) {
+      final int offset = (fromWord + i) * Long.SIZE;
+      long word = words[i];
+      while (word != 0 && result != null) {
+        final int start = Long.numberOfTrailingZeros(word);
+        final int end = start + Long.numberOfTrailingZeros(~(word >>> start));
+        result = result.remove(offset + start, offset + end);
+        word = end == Long.SIZE ? 0 : word & (-1L << end);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Return 64 points starting with {@code fromIndex} as a word
+   * with the point {@code fromIndex + i} as the bit i.
+   * By default the word is built from runs of points.
+   *
+   * @param fromIndex the first point which could be negative
+   * @return word of points
+   */
+  long getWord(final long fromIndex) {
+    final long toIndex = fromIndex + Long.SIZE;
+    long word = 0;
+    int start = nextSetBit((int) Math.max(0, fromIndex));
+    while (start != -1 && start < toIndex) {
+      final long end = Math.min(toIndex, nextClearBit(start));
+      word |= -1L << (start - fromIndex) & -1L >>> (toIndex - end);
+      start = end == toIndex ? -1 : nextSetBit((int) end);
+    }
+    return word;
+  }
+
+  /**
+   * Return the cheapest container for the points. Containers choose
+   * the cheapest type on every change except a bitmap which is not
+   * checked for runs while drawing as it would cost a scan of all words.
+   *
+   * @return the cheapest container
+   */
+  Container optimize() {
+    return this;
+  }
+
+  /**
+   * Return points as a word bitmap.
+   *
+   * @return new word bitmap
+   */
+  long[] toWords() {
+    return addTo(new long[
+        WordBitmap.wordCount(previousSetBit(Integer.MAX_VALUE) + 1)]);
+  }
+
+  /**
+   * Add the points to {@code words}.
+   *
+   * @param words word bitmap
+   * @return words or their grown copy
+   */
+  long[] addTo(long[] words) {
+    int start = nextSetBit(0);
+    while (start != -1) {
+      final int end = nextClearBit(start);
+      words = WordBitmap.set(words, start, end);
+      start = nextSetBit(end);
+    }
+    return words;
+  }
+
+  /**
+   * Remove the points from {@code words}.
+   *
+   * @param words word bitmap
+   */
+  void removeFrom(final long[] words) {
+    int start = nextSetBit(0);
+    while (start != -1) {
+      final int end = nextClearBit(start);
+      WordBitmap.clear(words, start, end);
+      start = nextSetBit(end);
+    }
+  }
+}
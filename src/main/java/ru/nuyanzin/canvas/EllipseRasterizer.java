@@ -0,0 +1,149 @@
+package ru.nuyanzin.canvas;
+
+import java.math.BigInteger;
+
+/**
+ * Midpoint rasterizer of ellipses with axes parallel to the canvas ones
+ * emitting horizontal spans.
+ * The half width of the row at the distance dy from the center
+ * is the x coordinate nearest to the curve i.e. the largest x with
+ * (2 * x - 1)^2 * ry^2 &lt;= 4 * rx^2 * (ry^2 - dy^2)
+ * which is the pixel the midpoint algorithm chooses.
+ * A filled ellipse is one span per row passed to the storage
+ * in batches. An outline row covers
+ * the points from the half width of the next row outwards
+ * so the outline has no gaps between rows.
+ * Only rows within the canvas are visited so the time is linear
+ * in the visible height whatever the radii are.
+ */
+final class EllipseRasterizer {
+  /**
+   * Distance from a half to the fraction of the half width
+   * estimated with doubles within which it is checked exactly.
+   */
+  private static final double TIE_PRECISION = 1e-6;
+
+  private EllipseRasterizer() {
+  }
+
+  /**
+   * Draw the ellipse with the center (cx, cy) with 0-based coordinates
+   * which could be out of the canvas.
+   *
+   * @param storage  storage to draw spans
+   * @param cx       x coordinate of the center
+   * @param cy       y coordinate of the center
+   * @param rx       horizontal radius, not negative
+   * @param ry       vertical radius, not negative
+   * @param width    width of the canvas
+   * @param height   height of the canvas
+   * @param color    color of the ellipse
+   * @param isFilled if the inner area should be drawn too
+   */
+  static void draw(final CanvasStorage storage,
+                   final long cx,
+                   final long cy,
+                   final long rx,
+                   final long ry,
+                   final int width,
+                   final int height,
+                   final char color,
+                   final boolean isFilled) {
+    final long top = Math.max(0, cy - ry);
+    final long bottom = Math.min(height - 1L, cy + ry);
+    if (top > bottom) {
+      return;
+    }
+    if (isFilled) {
+      drawFilled(storage, cx, cy, rx, ry, top, bottom, width, color);
+      return;
+    }
+    for (long y = top; y <= bottom; y++) {
+      final long dy = Math.abs(y - cy);
+      final long outer = halfWidth(rx, ry, dy);
+      final long inner = dy == ry
+          ? 0 : Math.min(outer, halfWidth(rx, ry, dy + 1) + 1);
+      if (inner == 0) {
+        drawSpan(storage, cx - outer, cx + outer, (int) y, width, color);
+      } else {
+        drawSpan(storage, cx - outer, cx - inner, (int) y, width, color);
+        drawSpan(storage, cx + inner, cx + outer, (int) y, width, color);
+      }
+    }
+  }
+
+  /**
+   * Draw rows from top to bottom of the filled ellipse
+   * in batches of {@link SpanBatch}.
+   */
+  private static void drawFilled(final CanvasStorage storage,
+                                 final long cx,
+                                 final long cy,
+                                 final long rx,
+                                 final long ry,
+                                 final long top,
+                                 final long bottom,
+                                 final int width,
+                                 final char color) {
+    final SpanBatch batch = new SpanBatch(storage, color);
+    for (long y = top; y <= bottom; y++) {
+      final long outer = halfWidth(rx, ry, Math.abs(y - cy));
+      final long from = Math.max(0, cx - outer);
+      final long to = Math.min(width - 1L, cx + outer);
+      if (from <= to) {
+        batch.add((int) from, (int) to, (int) y);
+      }
+    }
+    batch.flush();
+  }
+
+  private static void drawSpan(final CanvasStorage storage,
+                               final long x1,
+                               final long x2,
+                               final int y,
+                               final int width,
+                               final char color) {
+    final long from = Math.max(0, x1);
+    final long to = Math.min(width - 1L, x2);
+    if (from <= to) {
+      storage.drawHorizontalLine((int) from, (int) to, y, color);
+    }
+  }
+
+  /**
+   * Return the half width of the row at the distance dy &lt;= ry
+   * from the center. It is estimated with doubles
+   * and checked exactly only if it is close to a half.
+   */
+  private static long halfWidth(final long rx, final long ry, final long dy) {
+    if (ry == 0) {
+      return rx;
+    }
+    final double exact =
+        rx * Math.sqrt((double) (ry - dy) * (ry + dy)) / ry;
+    long x = (long) Math.floor(exact + 0.5);
+    if (Math.abs(exact - Math.floor(exact) - 0.5) < TIE_PRECISION) {
+      if (x > 0 && !isWithin(x, rx, ry, dy)) {
+        x--;
+      } else if (isWithin(x + 1, rx, ry, dy)) {
+        x++;
+      }
+    }
+    return x;
+  }
+
+  /**
+   * Check (2 * x - 1)^2 * ry^2 &lt;= 4 * rx^2 * (ry^2 - dy^2) exactly.
+   */
+  private static boolean isWithin(final long x,
+                                  final long rx,
+                                  final long ry,
+                                  final long dy) {
+    final BigInteger left = BigInteger.valueOf(2 * x - 1)
+        .multiply(BigInteger.valueOf(ry)).pow(2);
+    final BigInteger right = BigInteger.valueOf(2 * rx).pow(2)
+        .multiply(BigInteger.valueOf(ry - dy))
+        .multiply(BigInteger.valueOf(ry + dy));
+    return left.compareTo(right) <= 0;
+  }
+}
@@ -1,19 +1,94 @@
 package ru.nuyanzin.canvas;
 
-import java.util.BitSet;
+import java.util.Arrays;
+import java.util.Collection;
 
 /**
- * Empty layer which is used as initial background
- * and as a result it should be filled completely.
+ * Empty layer which is used as the background i.e. it contains
+ * all the points not owned by any other layer.
+ * Background is implicit: a line is computed as a complement of the union
+ * of the other layers only when it is requested for the first time.
+ * As a result creation of the layer costs nothing and only lines reached
+ * while e.g. filling consume memory. Different lines could be computed
+ * concurrently as by {@link ParallelFill}.
+ * A storage could keep the layer and {@link #reset()} it after a fill
+ * so only lines computed by the fill are dropped.
  */
 public class EmptyLayer extends Layer {
-  public EmptyLayer(int width, int height) {
+  private final int width;
+  private final Collection<Layer> layers;
+  /**
+   * Lines which are already computed, flags of lines are independent
+   * unlike bits of a {@link java.util.BitSet} sharing words.
+   */
+  private final boolean[] computedLines;
+  /**
+   * Indexes of lines computed since the layer was created or reset.
+   */
+  private int[] computedIndexes = new int[16];
+  private int computedCount;
+
+  /**
+   * Create the background view over the specified layers.
+   *
+   * @param width  width of the layer
+   * @param height height of the layer
+   * @param layers layers owning all points except the background ones
+   */
+  public EmptyLayer(int width, int height, Collection<Layer> layers) {
     super(width, height);
+    this.width = width;
+    this.layers = layers;
+    this.computedLines = new boolean[height];
+  }
+
+  @Override
+  protected Container getLine(int index) {
+    if (!computedLines[index]) {
+      markComputed(index);
+      long[] line = WordBitmap.set(
+          new long[WordBitmap.wordCount(width)], 0, width);
+      for (Layer layer : layers) {
+        Container layerLine = layer.getLine(index);
+        if (layerLine != null) {
+          layerLine.removeFrom(line);
+        }
+      }
+      super.setLine(index, Container.of(line));
+    }
+    return super.getLine(index);
+  }
+
+  @Override
+  protected void setLine(int index, Container line) {
+    if (!computedLines[index]) {
+      markComputed(index);
+    }
+    super.setLine(index, line);
+  }
+
+  /**
+   * Drop computed lines so they are computed again on request
+   * e.g. after other layers are changed.
+   */
+  void reset() {
+    for (int i = 0; i < computedCount; i++) {
+      computedLines[computedIndexes[i]] = false;
+      super.setLine(computedIndexes[i], null);
+    }
+    computedCount = 0;
+  }
 
-    for (int i = 0; i < height; i++) {
-      lazyInitBitSet(i);
-      BitSet bitSet = getLine(i);
-      bitSet.set(0, width);
+  /**
+   * Mark the line as computed. Lines could be computed concurrently.
+   *
+   * @param index index of the line
+   */
+  private synchronized void markComputed(int index) {
+    computedLines[index] = true;
+    if (computedCount == computedIndexes.length) {
+      computedIndexes = Arrays.copyOf(computedIndexes, 2 * computedCount);
     }
+    computedIndexes[computedCount++] = index;
   }
 }
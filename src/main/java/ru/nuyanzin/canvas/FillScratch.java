@@ -0,0 +1,207 @@
+package ru.nuyanzin.canvas;
+
+import java.util.Arrays;
+
+/**
+ * Scratch buffers of fills of a storage reused from fill to fill.
+ * Words of filled points are kept only for rows a fill touches,
+ * the rows are remembered so nothing is done for the other ones,
+ * and once the fill is done the words go back to a pool
+ * the next fill takes them from. The table of rows is allocated once,
+ * so a small fill of a tall canvas allocates nothing but its result.
+ * The rows the last fill touched stay known until the next fill starts,
+ * so the storage updates only them.
+ */
+final class FillScratch {
+  /**
+   * Max number of words kept by the pool so a large fill
+   * does not leave all its words behind.
+   */
+  private static final int MAX_POOLED_WORDS = 1 << 16;
+
+  private final int wordCount;
+  /**
+   * Words of filled points by rows, null for rows not touched.
+   */
+  private final long[][] rows;
+  private int[] touchedRows = new int[16];
+  private int touchedCount;
+  /**
+   * True if the fill was moved out, so touched rows
+   * are the ones of the last fill.
+   */
+  private boolean isMoved;
+  /**
+   * True if words of touched rows are kept after the fill
+   * until {@link #release()}.
+   */
+  private boolean isKept;
+  /**
+   * True if rows were set directly in {@link #getRows()}
+   * so touched rows are found by a scan of all rows.
+   */
+  private boolean isScattered;
+  /**
+   * Clear words ready to be taken.
+   */
+  private final long[][] pool;
+  private int poolSize;
+
+  /**
+   * Create scratch buffers for fills of the storage.
+   *
+   * @param width  width of the storage
+   * @param height height of the storage
+   */
+  FillScratch(final int width, final int height) {
+    this.wordCount = WordBitmap.wordCount(width);
+    this.rows = new long[height][];
+    this.pool = new long[Math.max(4, MAX_POOLED_WORDS / wordCount)][];
+  }
+
+  /**
+   * Return words of filled points by rows. A row set directly
+   * rather than by {@link #getRow(int)} is not remembered,
+   * so {@link #markScattered()} should be called after that.
+   *
+   * @return words of filled points by rows
+   */
+  long[][] getRows() {
+    return rows;
+  }
+
+  /**
+   * Return words of filled points of the row taking clear words
+   * from the pool on the first request.
+   *
+   * @param y row to fill
+   * @return words of filled points of the row
+   */
+  long[] getRow(final int y) {
+    if (rows[y] == null) {
+      rows[y] = borrow();
+      touch(y);
+    }
+    return rows[y];
+  }
+
+  /**
+   * Return number of rows touched by the last fill moved out.
+   *
+   * @return number of touched rows
+   */
+  int getTouchedCount() {
+    return isMoved ? touchedCount : 0;
+  }
+
+  /**
+   * Return row touched by the last fill moved out.
+   *
+   * @param i index of the row between 0 and {@link #getTouchedCount()}
+   * @return touched row
+   */
+  int getTouchedRow(final int i) {
+    return touchedRows[i];
+  }
+
+  /**
+   * Remember that rows were set directly in {@link #getRows()}.
+   */
+  void markScattered() {
+    isScattered = true;
+  }
+
+  /**
+   * Keep words of rows touched by the next fill after it is moved out,
+   * so they could be read by {@link #getRows()} until {@link #release()}.
+   */
+  void keep() {
+    isKept = true;
+    isMoved = false;
+    touchedCount = 0;
+  }
+
+  /**
+   * Put words of rows kept after the last fill back to the pool.
+   */
+  void release() {
+    for (int i = 0; i < touchedCount; i++) {
+      final int y = touchedRows[i];
+      giveBack(rows[y]);
+      rows[y] = null;
+    }
+    isKept = false;
+  }
+
+  private void touch(final int y) {
+    if (isMoved) {
+      touchedCount = 0;
+      isMoved = false;
+    }
+    if (touchedCount == touchedRows.length) {
+      touchedRows = Arrays.copyOf(touchedRows, 2 * touchedCount);
+    }
+    touchedRows[touchedCount++] = y;
+  }
+
+  /**
+   * Take clear words of a row from the pool.
+   *
+   * @return clear words of a row
+   */
+  long[] borrow() {
+    return poolSize == 0 ? new long[wordCount] : pool[--poolSize];
+  }
+
+  /**
+   * Clear words of a row and put them back to the pool if there is room.
+   * Words grown beyond the width are dropped.
+   *
+   * @param words words of a row
+   */
+  void giveBack(final long[] words) {
+    if (poolSize < pool.length && words.length == wordCount) {
+      Arrays.fill(words, 0);
+      pool[poolSize++] = words;
+    }
+  }
+
+  /**
+   * Add filled points to {@code destination} if any and put words
+   * of all touched rows back to the pool. The touched rows stay
+   * known until the next fill, see {@link #getTouchedCount()}.
+   *
+   * @param destination layer to merge filled points or null to drop them
+   *                    unless they are kept, see {@link #keep()}
+   */
+  void moveTo(final Layer destination) {
+    if (isMoved) {
+      touchedCount = 0;
+      isMoved = false;
+    }
+    if (isScattered) {
+      touchedCount = 0;
+      for (int y = 0; y < rows.length; y++) {
+        if (rows[y] != null) {
+          touch(y);
+        }
+      }
+    }
+    for (int i = 0; i < touchedCount; i++) {
+      moveTo(destination, touchedRows[i]);
+    }
+    isMoved = true;
+    isScattered = false;
+  }
+
+  private void moveTo(final Layer destination, final int y) {
+    if (isKept) {
+      return;
+    }
+    if (destination != null) {
+      destination.copyWords(y, rows[y]);
+    }
+    giveBack(rows[y]);
+    rows[y] = null;
+  }
+}
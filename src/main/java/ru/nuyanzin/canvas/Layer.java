@@ -1,24 +1,47 @@
 package ru.nuyanzin.canvas;
 
-import java.util.BitSet;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Layer is associated only with one color.
  * Keep only colored by associated color points.
- * Association is done on {@link Canvas} level.
+ * Association is done on {@link Canvas} level,
+ * the layer keeps the color so it could be given to another color
+ * without visiting points, see {@link RowColorIndex}.
+ * Each line of points is kept in the cheapest {@link Container}
+ * depending on whether points are sparse, dense or form long runs.
+ * A line without points is always null so checks for emptiness
+ * do not need to look into containers.
  */
 public class Layer {
-  private final BitSet[] points;
+  /**
+   * Number of spans taken by a fill before the rest of it
+   * is filled concurrently.
+   */
+  static final int PARALLEL_FILL_SPANS = 1 << 16;
+
+  private final Container[] points;
   private final int width;
+  /**
+   * Number of lines having points. Bands of {@link ParallelFill}
+   * change lines concurrently, so lines are counted again after that.
+   */
+  private int lineCount;
+  /**
+   * Color of points of the layer.
+   */
+  private char color;
 
   public Layer(int width, int height) {
-    points = new BitSet[height];
+    points = new Container[height];
     this.width = width;
   }
 
-  public Layer(BitSet[] points, int width) {
+  public Layer(Container[] points, int width) {
     this.points = points;
     this.width = width;
+    countLines();
   }
 
   /**
@@ -34,8 +57,7 @@ protected void drawVerticalLine(final int x,
                                   final int y1,
                                   final int y2) {
     for (int i = y1; i <= y2; i++) {
-      lazyInitBitSet(i);
-      points[i].set(x);
+      addRange(i, x, x + 1);
     }
   }
 
@@ -55,10 +77,7 @@ protected void clearVerticalLine(final int x,
       if (points[i] == null) {
         continue;
       }
-      points[i].set(x, false);
-      if (points[i].isEmpty()) {
-        points[i] = null;
-      }
+      replace(i, points[i].remove(x, x + 1));
     }
   }
 
@@ -74,8 +93,7 @@ protected void clearVerticalLine(final int x,
   protected void drawHorizontalLine(final int x1,
                                     final int x2,
                                     final int y) {
-    lazyInitBitSet(y);
-    points[y].set(x1, x2 + 1);
+    addRange(y, x1, x2 + 1);
   }
 
   /**
@@ -94,18 +112,25 @@ protected void clearHorizontalLine(final int x1,
       return;
     }
     if ((x1 == 0 || x2 == 0) && (x1 == width - 1 || x2 == width - 1)) {
-      points[y] = null;
+      replace(y, null);
     } else {
-      points[y].set(x1, x2 + 1, false);
-      if (points[y].isEmpty()) {
-        points[y] = null;
-      }
+      replace(y, points[y].remove(x1, x2 + 1));
     }
   }
 
   /**
    * Fill area on the current layer starting with point {@code startX, startY}.
    * Merge result to {@code destination}.
+   * Scanline fill with a stack of spans: a span of points is taken
+   * out of the layer once it is found, so each point is visited once,
+   * and only the neighbour rows under a span (one point wider
+   * for 8-dots approach) are scanned for new spans
+   * jumping from a run of points straight to the next one.
+   * Once {@link #PARALLEL_FILL_SPANS} spans are taken the rest
+   * is filled by bands of rows concurrently, see {@link ParallelFill}.
+   * This is the unpooled path: scratch buffers as tall as the layer
+   * are allocated for the single fill, storages filling repeatedly
+   * keep their own ones, see {@link FillScratch}.
    *
    * @param startX      start x coordinate
    * @param startY      start y coordinate
@@ -117,238 +142,142 @@ public Layer fill(final int startX,
                     final int startY,
                     final Layer destination,
                     final boolean isB4) {
-    if (points[startY] == null || !points[startY].get(startX)) {
-      return this;
-    }
-
-    int downBoundary = getDownBoundary(startY);
-    int upBoundary = getUpBoundary(startY);
-    BitSet[] currentFill = new BitSet[points.length];
-    for (int i = downBoundary; i <= upBoundary; i++) {
-      if (currentFill[i] == null) {
-        currentFill[i] = new BitSet(width);
-      }
-    }
-    int y = startY;
-
-    currentFill[startY].set(startX);
-    do {
-      for (int i = y; i >= downBoundary; i--) {
-        goLeftOrRight(i, currentFill, isB4);
-      }
-      for (int i = y + 1; i <= upBoundary; i++) {
-        goLeftOrRight(i, currentFill, isB4);
-      }
-      y = getLineToHandleAgain(currentFill, downBoundary, upBoundary, isB4);
-    } while (y <= upBoundary && y >= downBoundary);
-
-    for (int i = 0; i < points.length; i++) {
-      if (currentFill[i] != null && !currentFill[i].isEmpty()) {
-        if (destination.points[i] == null) {
-          destination.points[i] = currentFill[i];
-        } else {
-          destination.points[i].or(currentFill[i]);
-        }
-      }
-    }
-    return destination;
-  }
-
-  /**
-   * Returns up boundary for processing i.e. the nearest up index
-   * of points where the whole line is null or empty.
-   *
-   * @param startY start y point
-   * @return up boundary
-   */
-  protected int getUpBoundary(int startY) {
-    int upBoundary = startY;
-    if (points[upBoundary] == null) {
-      return startY;
-    }
-    while (points[upBoundary] != null
-        && (points[upBoundary].get(0)
-        || points[upBoundary].nextSetBit(0) != -1)
-        && upBoundary < points.length - 1) {
-      upBoundary++;
-    }
-    return points[upBoundary] == null ? upBoundary - 1 : upBoundary;
+    return fill(startX, startY, destination, isB4,
+        new FillScratch(width, points.length));
   }
 
   /**
-   * Returns down boundary for processing i.e. the nearest down index
-   * of points where the whole line is null or empty.
+   * Fill area as {@link #fill(int, int, Layer, boolean)}
+   * with scratch buffers reused from fill to fill.
    *
-   * @param startY start y point
-   * @return down boundary
+   * @param startX      start x coordinate
+   * @param startY      start y coordinate
+   * @param destination layer to merge result or null to drop it
+   * @param isB4        4-dots or 8-dots approach to use
+   * @param scratch     scratch buffers of fills
+   * @return destination with merged result.
    */
-  protected int getDownBoundary(int startY) {
-    int downBoundary = startY;
-    if (points[downBoundary] == null) {
-      return startY;
-    }
-    while (points[downBoundary] != null
-        && (points[downBoundary].get(0)
-        || points[downBoundary].nextSetBit(0) != -1)
-        && downBoundary > 0) {
-      downBoundary--;
-    }
-    return points[downBoundary] == null ? downBoundary + 1 : downBoundary;
+  Layer fill(final int startX,
+             final int startY,
+             final Layer destination,
+             final boolean isB4,
+             final FillScratch scratch) {
+    final int parallelism = ForkJoinPool.getCommonPoolParallelism();
+    final int bandCount = ParallelFill.getBandCount(
+        points.length, ParallelFill.MIN_BAND_ROWS, parallelism);
+    return fill(startX, startY, destination, isB4,
+        parallelism > 1 && bandCount > 1
+            ? PARALLEL_FILL_SPANS : Integer.MAX_VALUE, bandCount, scratch);
   }
 
   /**
-   * Process specified line of source and fill points of the line if possible.
-   * Also mark points to fill at {@code destination}
-   * in case of they are from other lines
+   * Fill area as {@link #fill(int, int, Layer, boolean)}
+   * switching to {@link ParallelFill} with the number of bands
+   * once the number of taken spans reaches the limit.
    *
-   * @param y           line to process
-   * @param destination destination of filling
-   * @param isB4        B4 or B8 method of filling to use
+   * @param startX        start x coordinate
+   * @param startY        start y coordinate
+   * @param destination   layer to merge result or null to drop it
+   * @param isB4          4-dots or 8-dots approach to use
+   * @param parallelSpans number of spans taken before switching
+   * @param bandCount     number of bands to fill with
+   * @param scratch       scratch buffers of fills
+   * @return destination with merged result.
    */
-  public void goLeftOrRight(final int y,
-                            final BitSet[] destination,
-                            final boolean isB4) {
-    if (points[y] == null || points[y].isEmpty()) {
-      return;
+  Layer fill(final int startX,
+             final int startY,
+             final Layer destination,
+             final boolean isB4,
+             final int parallelSpans,
+             final int bandCount,
+             final FillScratch scratch) {
+    final Container startLine = getLine(startY);
+    if (startLine == null || !startLine.get(startX)) {
+      return this;
     }
-    // k >= 0 required for the case of command B 2,147,483,647 1 .
-    for (int k = 0; k < width && k >= 0; k++) {
-      if (!destination[y].get(k) || points[y] == null) {
-        continue;
-      }
-
-      int prevIndex = getPrevIndex(points[y], k);
-      int nextIndex = getNextIndex(points[y], k);
-
-      if (prevIndex == -1 || nextIndex == -1) {
-        continue;
-      }
-
-      // Handling of upper neighbours
-      if (y > 0 && points[y - 1] != null && !points[y - 1].isEmpty()) {
-        if (destination[y - 1] == null) {
-          destination[y - 1] = new BitSet(width);
-        }
-        if (!isB4 && k > 0) {
-          handleNeighbours(
-              destination,
-              getPrevIndex(points[y - 1], prevIndex),
-              getNextIndex(points[y - 1], prevIndex),
-              y - 1);
-        }
-        handleNeighbours(destination, prevIndex, nextIndex, y - 1);
-        if (!isB4 && k < width - 1) {
-          handleNeighbours(
-              destination,
-              getPrevIndex(points[y - 1], nextIndex),
-              getNextIndex(points[y - 1], nextIndex),
-              y - 1);
-        }
+    final int diagonalShift = isB4 ? 0 : 1;
+    // spans already taken out of the layer as triples of
+    // the row, the first and the last points
+    int[] spans = new int[3 * 16];
+    int spanCount = 0;
+    spans[spanCount++] = startY;
+    spans[spanCount++] = getFirstSetIndexInARow(startLine, startX);
+    spans[spanCount++] = getLastSetIndexInARow(startLine, startX);
+    takeSpan(scratch.getRow(startY), startY, spans[1], spans[2]);
+    int takenSpans = 1;
+    while (spanCount > 0) {
+      if (takenSpans >= parallelSpans) {
+        ParallelFill.fill(this, width, scratch.getRows(), spans, spanCount,
+            diagonalShift, bandCount);
+        scratch.markScattered();
+        countLines();
+        break;
       }
-
-      // Handling of down neighbours
-      if (y < destination.length - 1
-          && points[y + 1] != null
-          && !points[y + 1].isEmpty()) {
-        if (destination[y + 1] == null) {
-          destination[y + 1] = new BitSet(width);
+      final int last = spans[--spanCount];
+      final int first = spans[--spanCount];
+      final int y = spans[--spanCount];
+      final int from = Math.max(0, first - diagonalShift);
+      final int to = Math.min(width - 1, last + diagonalShift);
+      for (int neighbourY = y - 1; neighbourY <= y + 1; neighbourY += 2) {
+        if (neighbourY < 0 || neighbourY >= points.length) {
+          continue;
         }
-        if (!isB4 && k > 0) {
-          handleNeighbours(
-              destination,
-              getPrevIndex(points[y + 1], prevIndex),
-              getNextIndex(points[y + 1], prevIndex),
-              y + 1);
+        Container line = getLine(neighbourY);
+        int i = line == null ? -1 : line.nextSetBit(from);
+        while (i != -1 && i <= to) {
+          final int spanFirst = getFirstSetIndexInARow(line, i);
+          final int spanLast = getLastSetIndexInARow(line, i);
+          takeSpan(scratch.getRow(neighbourY), neighbourY,
+              spanFirst, spanLast);
+          if (spanCount + 3 > spans.length) {
+            spans = Arrays.copyOf(spans, 2 * spans.length);
+          }
+          spans[spanCount++] = neighbourY;
+          spans[spanCount++] = spanFirst;
+          spans[spanCount++] = spanLast;
+          takenSpans++;
+          line = getLine(neighbourY);
+          i = line == null || spanLast + 1 >= width
+              ? -1 : line.nextSetBit(spanLast + 1);
         }
-        handleNeighbours(destination, prevIndex, nextIndex, y + 1);
-        if (!isB4 && k < width - 1) {
-          handleNeighbours(
-              destination,
-              getPrevIndex(points[y + 1], nextIndex),
-              getNextIndex(points[y + 1], nextIndex),
-              y + 1);
-        }
-      }
-      destination[y].set(prevIndex, nextIndex + 1);
-      if (prevIndex == 0 && nextIndex + 1 == width
-          || prevIndex > 0 && points[y].previousSetBit(prevIndex - 1) == -1
-          && points[y].nextSetBit(nextIndex + 1) == -1) {
-        points[y] = null;
-      } else {
-        points[y].set(prevIndex, nextIndex + 1, false);
       }
-
-      k = nextIndex + 1;
-    }
-  }
-
-  private void handleNeighbours(BitSet[] destination,
-                                int prevIndex,
-                                int nextIndex,
-                                int lineNumber) {
-    if (prevIndex == -1) {
-      return;
-    }
-    for (int i = points[lineNumber].nextSetBit(prevIndex);
-         i <= nextIndex;
-         i++) {
-      if (i == -1) {
-        break;
-      }
-      if (!points[lineNumber].get(i)) {
-        continue;
-      }
-      int start = getFirstSetIndexInARow(points[lineNumber], i);
-      int end = -1;
-      if (start >= 0) {
-        end = getLastSetIndexInARow(points[lineNumber], i);
-        destination[lineNumber].set(start, end + 1);
-      }
-      i = end > i + 1 ? end : i;
     }
+    scratch.moveTo(destination);
+    return destination;
   }
 
   /**
-   * Return next index in a row from {@code fromPoint}.
+   * Add points of the word bitmap to the line with the specified index
+   * without keeping {@code words} so they could be reused.
+   * The words could be changed.
    *
-   * @param lineOfPoints line of points where to search for next index
-   * @param fromPoint    starting point
-   * @return next index in a row
+   * @param index index of the line
+   * @param words word bitmap of points to add
    */
-  protected int getNextIndex(BitSet lineOfPoints, int fromPoint) {
-    int nextIndex;
-    if (fromPoint < width - 1 && lineOfPoints.get(fromPoint + 1)) {
-      nextIndex = getLastSetIndexInARow(lineOfPoints, fromPoint + 1);
-      nextIndex = nextIndex == -1 ? fromPoint : nextIndex;
-    } else if (fromPoint > 0 && lineOfPoints.get(fromPoint - 1)) {
-      nextIndex = getLastSetIndexInARow(lineOfPoints, fromPoint - 1);
-    } else {
-      nextIndex = getLastSetIndexInARow(lineOfPoints, fromPoint);
-    }
-    return nextIndex;
+  void copyWords(final int index, final long[] words) {
+    final Container line = points[index];
+    final long[] all = line == null ? words : line.addTo(words);
+    replace(index, Container.of(all == words ? all.clone() : all));
   }
 
   /**
-   * Return previous index in a row from {@code fromPoint}.
+   * Move points of the span from the layer to the filled points.
    *
-   * @param lineOfPoints line of points where to search for prev index
-   * @param fromPoint    starting point
-   * @return previous index in a row
+   * @param filled filled points of the row
+   * @param y      row of the span
+   * @param first  the first point of the span
+   * @param last   the last point of the span
    */
-  protected int getPrevIndex(BitSet lineOfPoints, int fromPoint) {
-    int prevIndex;
-    if (fromPoint > 0 && lineOfPoints.get(fromPoint - 1)) {
-      prevIndex = getFirstSetIndexInARow(lineOfPoints, fromPoint - 1);
-      prevIndex = prevIndex == -1 ? fromPoint : prevIndex;
-    } else if (fromPoint < width - 1 && lineOfPoints.get(fromPoint + 1)) {
-      prevIndex = getFirstSetIndexInARow(lineOfPoints, fromPoint + 1);
-    } else {
-      prevIndex = getFirstSetIndexInARow(lineOfPoints, fromPoint);
-    }
-    return prevIndex;
+  void takeSpan(final long[] filled,
+                final int y,
+                final int first,
+                final int last) {
+    WordBitmap.set(filled, first, last + 1);
+    setLine(y, first == 0 && last + 1 == width
+        ? null : getLine(y).remove(first, last + 1));
   }
 
-  protected int getFirstSetIndexInARow(BitSet lineOfPoints, int index) {
+  protected int getFirstSetIndexInARow(Container lineOfPoints, int index) {
     if (lineOfPoints == null) {
       return -1;
     }
@@ -363,8 +292,8 @@ protected int getFirstSetIndexInARow(BitSet lineOfPoints, int index) {
     return prevClearBit + 1;
   }
 
-  protected int getLastSetIndexInARow(BitSet lineOfPoints, int index) {
-    if (lineOfPoints == null || lineOfPoints.isEmpty()) {
+  protected int getLastSetIndexInARow(Container lineOfPoints, int index) {
+    if (lineOfPoints == null) {
       return -1;
     }
     int nextSetBit = lineOfPoints.nextSetBit(index);
@@ -379,65 +308,85 @@ protected int getLastSetIndexInARow(BitSet lineOfPoints, int index) {
   }
 
   /**
-   * Check if there is a line which contains not process points
-   * and return its number otherwise return -1.
+   * Add points of the range to the line with the specified index
+   * creating the line on request.
    *
-   * @param destination  array of destination to check
-   * @param downBoundary down boundary to check
-   * @param upBoundary   up boundary to check
-   * @param isB4         if B4 approach of filling or not
-   * @return index of source line if there is a point
-   * to process or -1 otherwise.
+   * @param index     index of the line
+   * @param fromIndex first point to add
+   * @param toIndex   point after the last one to add
    */
-  protected int getLineToHandleAgain(BitSet[] destination,
-                                     int downBoundary,
-                                     int upBoundary,
-                                     boolean isB4) {
-    for (int j = downBoundary; j <= upBoundary; j++) {
-      if (destination[j] == null || destination[j].isEmpty()) {
-        continue;
-      }
-      if (points[j] != null && destination[j].intersects(points[j])) {
-        return j;
-      }
-      if (j < upBoundary) {
-        if (points[j + 1] != null
-            && destination[j].intersects(points[j + 1])) {
-          return j + 1;
-        } else if (destination[j + 1] != null
-            && points[j] != null
-            && destination[j + 1].intersects(points[j])) {
-          return j;
-        }
-      }
-      if (!isB4) {
-        BitSet leftShiftedDestination =
-            destination[j].get(1, destination[j].length());
-        if (j < upBoundary && points[j + 1] != null
-            && leftShiftedDestination.intersects(points[j + 1])) {
-          return j + 1;
-        }
-        if (j > downBoundary && points[j - 1] != null
-            && leftShiftedDestination.intersects(points[j - 1])) {
-          return j - 1;
-        }
+  private void addRange(int index, int fromIndex, int toIndex) {
+    replace(index, points[index] == null
+        ? Container.ofRange(fromIndex, toIndex)
+        : points[index].add(fromIndex, toIndex));
+  }
+
+  /**
+   * Switch each line to the cheapest container.
+   */
+  protected void optimize() {
+    for (int i = 0; i < points.length; i++) {
+      if (points[i] != null) {
+        replace(i, points[i].optimize());
       }
     }
-    return -1;
   }
 
   /**
-   * Initialization of points[index] on request.
+   * Return line of points with the specified index.
    *
-   * @param index index of {@code points} to init
+   * @param index index of the line
+   * @return line of points or null if there are no points in the line
    */
-  protected void lazyInitBitSet(int index) {
-    if (points[index] == null) {
-      points[index] = new BitSet(width);
-    }
+  protected Container getLine(int index) {
+    return points[index];
   }
 
-  protected BitSet getLine(int index) {
-    return points[index];
+  /**
+   * Replace line of points with the specified index.
+   *
+   * @param index index of the line
+   * @param line  new line of points or null if there are no points
+   */
+  protected void setLine(int index, Container line) {
+    replace(index, line);
+  }
+
+  char getColor() {
+    return color;
+  }
+
+  void setColor(final char color) {
+    this.color = color;
+  }
+
+  /**
+   * Check if there are no points in the layer.
+   *
+   * @return true if no line has points
+   */
+  boolean isEmpty() {
+    return lineCount == 0;
+  }
+
+  /**
+   * Replace line of points keeping the number of lines having points.
+   *
+   * @param index index of the line
+   * @param line  new line of points or null if there are no points
+   */
+  private void replace(int index, Container line) {
+    lineCount += (line == null ? 0 : 1) - (points[index] == null ? 0 : 1);
+    points[index] = line;
+  }
+
+  /**
+   * Count lines having points.
+   */
+  private void countLines() {
+    lineCount = 0;
+    for (Container line : points) {
+      lineCount += line == null ? 0 : 1;
+    }
   }
 }
@@ -0,0 +1,744 @@
+package ru.nuyanzin.canvas;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Storage where each color exists on its own {@link Layer}.
+ * The empty char does not have its own layer:
+ * all the points not owned by any layer are background ones.
+ * A morphological storage fills areas by {@link MorphologicalFill}
+ * instead of the scanline fill of {@link Layer}.
+ */
+public class LayeredStorage implements CanvasStorage {
+  /**
+   * Name of the storage to use with
+   * {@link ru.nuyanzin.properties.DrawingShellPropertiesEnum#CANVAS_STORAGE}.
+   */
+  public static final String NAME = "layered";
+  /**
+   * Name of the storage filling areas by dilation and mask of words.
+   */
+  public static final String MORPHOLOGICAL_NAME = "morphological";
+
+  /**
+   * Map of colors to layers. Each color exists on its own layer.
+   */
+  private final Map<Character, Layer> colorToLayerMap = new HashMap<>();
+  /**
+   * Colors of layers owning points in each row.
+   */
+  private final RowColorIndex rowColors;
+
+  private final int width;
+  private final int height;
+  private final char emptyChar;
+  /**
+   * Runs of a line being rebuilt by {@link #drawRow} or of a row
+   * of a stamp placed by {@link #drawStamp}
+   * as pairs of the first and the last points.
+   */
+  private int[] rowRuns = new int[16];
+  private int rowRunCount;
+  /**
+   * Words of a row of a stamp placed by {@link #drawStamp}
+   * from the word of its first point.
+   */
+  private long[] stampWords = new long[16];
+  /**
+   * Words of a row of the rectangle copied by {@link #copy}
+   * per layer owning points in the source row.
+   */
+  private long[][] copyWords = new long[0][];
+  private final boolean isMorphological;
+  /**
+   * Scratch buffers, the fill by words and the background view
+   * reused from fill to fill, created on the first fill.
+   */
+  private FillScratch fillScratch;
+  private MorphologicalFill morphologicalFill;
+  private EmptyLayer background;
+  /**
+   * Empty layer left by a color which lost all its points by a fill
+   * to be taken by the next new color.
+   */
+  private Layer spareLayer;
+
+  public LayeredStorage(final int width,
+                        final int height,
+                        final char emptyChar) {
+    this(width, height, emptyChar, false);
+  }
+
+  /**
+   * Create the storage.
+   *
+   * @param width           width of the storage
+   * @param height          height of the storage
+   * @param emptyChar       color of points which have not been drawn
+   * @param isMorphological if true then areas are filled
+   *                        by {@link MorphologicalFill}
+   */
+  public LayeredStorage(final int width,
+                        final int height,
+                        final char emptyChar,
+                        final boolean isMorphological) {
+    this.width = width;
+    this.height = height;
+    this.emptyChar = emptyChar;
+    this.rowColors = new RowColorIndex(height);
+    this.isMorphological = isMorphological;
+  }
+
+  @Override
+  public void drawHorizontalLine(final int x1,
+                                 final int x2,
+                                 final int y,
+                                 final char color) {
+    clearOtherLayers(x1, x2, y, color);
+    if (color != emptyChar) {
+      Layer layer =
+          colorToLayerMap.computeIfAbsent(color, this::newLayer);
+      layer.drawHorizontalLine(x1, x2, y);
+      rowColors.add(y, layer);
+    }
+  }
+
+  @Override
+  public void drawVerticalLine(final int x,
+                               final int y1,
+                               final int y2,
+                               final char color) {
+    final Layer layer = color == emptyChar
+        ? null
+        : colorToLayerMap.computeIfAbsent(color, this::newLayer);
+    for (int i = y1; i <= y2; i++) {
+      clearOtherLayers(x, x, i, color);
+      if (layer != null) {
+        layer.drawHorizontalLine(x, x, i);
+        rowColors.add(i, layer);
+      }
+    }
+  }
+
+  /**
+   * Each row is a range set on the layer of the color
+   * and cleared only on layers of the row owning points in it.
+   */
+  @Override
+  public void fillRectangle(final int x1,
+                            final int x2,
+                            final int y1,
+                            final int y2,
+                            final char color) {
+    final Layer layer = color == emptyChar
+        ? null
+        : colorToLayerMap.computeIfAbsent(color, this::newLayer);
+    for (int i = y1; i <= y2; i++) {
+      clearOtherLayers(x1, x2, i, color);
+      if (layer != null) {
+        layer.drawHorizontalLine(x1, x2, i);
+        rowColors.add(i, layer);
+      }
+    }
+  }
+
+  /**
+   * The layer of the color is looked up once for all the spans.
+   */
+  @Override
+  public void drawSpans(final int top,
+                        final int count,
+                        final int[] starts,
+                        final int[] ends,
+                        final char color) {
+    final Layer layer = color == emptyChar
+        ? null
+        : colorToLayerMap.computeIfAbsent(color, this::newLayer);
+    for (int i = 0; i < count; i++) {
+      if (starts[i] > ends[i]) {
+        continue;
+      }
+      clearOtherLayers(starts[i], ends[i], top + i, color);
+      if (layer != null) {
+        layer.drawHorizontalLine(starts[i], ends[i], top + i);
+        rowColors.add(top + i, layer);
+      }
+    }
+  }
+
+  @Override
+  public boolean prefersBatches() {
+    return true;
+  }
+
+  /**
+   * Each layer owning points in the row or getting spans of its color
+   * is rebuilt once from its runs merged with all the spans
+   * rather than changed span by span.
+   */
+  @Override
+  public void drawRow(final int y,
+                      final int count,
+                      final int[] starts,
+                      final int[] ends,
+                      final char[] colors) {
+    final Layer[] ownerLayers = rowColors.getLayers(y);
+    char[] mergedColors = new char[ownerLayers.length];
+    for (int i = 0; i < ownerLayers.length; i++) {
+      mergedColors[i] = ownerLayers[i].getColor();
+      mergeRow(ownerLayers[i], mergedColors[i], y, count, starts, ends, colors);
+    }
+    for (int i = 0; i < count; i++) {
+      final char color = colors[i];
+      if (color == emptyChar || contains(mergedColors, color)) {
+        continue;
+      }
+      mergedColors = Arrays.copyOf(mergedColors, mergedColors.length + 1);
+      mergedColors[mergedColors.length - 1] = color;
+      mergeRow(
+          colorToLayerMap.computeIfAbsent(color, this::newLayer),
+          color, y, count, starts, ends, colors);
+    }
+  }
+
+  /**
+   * Each row of the stamp is shifted to its place once, both its runs
+   * and its words, then lines kept as bitmaps are or-ed on the layer
+   * of the color and and-not-ed on other layers owning points in the row
+   * word by word while other lines take runs of the words.
+   */
+  @Override
+  public void drawStamp(final Stamp stamp,
+                        final int x,
+                        final int y,
+                        final int width,
+                        final int height,
+                        final char color) {
+    final Layer layer = color == emptyChar
+        ? null
+        : colorToLayerMap.computeIfAbsent(color, this::newLayer);
+    final int lastRow = (int) Math.min(stamp.getHeight() - 1L, height - 1L - y);
+    for (int row = Math.max(0, -y); row <= lastRow; row++) {
+      if (!placeStampRow(stamp, row, x, width)) {
+        continue;
+      }
+      final int line = y + row;
+      final int fromWord = rowRuns[0] / Long.SIZE;
+      final int wordCount =
+          rowRuns[2 * rowRunCount - 1] / Long.SIZE - fromWord + 1;
+      final Layer[] layers = rowColors.getLayers(line);
+      for (int i = 0; i < layers.length; i++) {
+        if (layers[i] != layer) {
+          final Container rest =
+              layers[i].getLine(line).andNot(stampWords, fromWord, wordCount);
+          layers[i].setLine(line, rest);
+          if (rest == null) {
+            rowColors.remove(line, layers[i]);
+          }
+        }
+      }
+      if (layer != null) {
+        final Container points = layer.getLine(line);
+        layer.setLine(line, points == null
+            ? Container.ofRuns(
+                Arrays.copyOf(rowRuns, 2 * rowRunCount), rowRunCount)
+            : points.or(stampWords, fromWord, wordCount));
+        rowColors.add(line, layer);
+      }
+    }
+  }
+
+  /**
+   * Put runs of the row of the stamp placed at x clipped to the width
+   * to the row runs and its words shifted to words of the storage row
+   * from the word of the first run to the stamp words.
+   *
+   * @return false if no point of the row is within the width
+   */
+  private boolean placeStampRow(final Stamp stamp,
+                                final int row,
+                                final int x,
+                                final int width) {
+    final int[] runs = stamp.getRuns(row);
+    rowRunCount = 0;
+    for (int i = 0; i < runs.length; i += 2) {
+      final long start = Math.max(0, (long) x + runs[i]);
+      final long end = Math.min(width - 1L, (long) x + runs[i + 1]);
+      if (start <= end) {
+        addRowRun((int) start, (int) end);
+      }
+    }
+    if (rowRunCount == 0) {
+      return false;
+    }
+    final int last = rowRuns[2 * rowRunCount - 1];
+    final int fromWord = rowRuns[0] / Long.SIZE;
+    final int wordCount = last / Long.SIZE - fromWord + 1;
+    if (stampWords.length < wordCount) {
+      stampWords = new long[Math.max(wordCount, 2 * stampWords.length)];
+    }
+    for (int i = 0; i < wordCount; i++) {
+      stampWords[i] =
+          stamp.getWord(row, (long) (fromWord + i) * Long.SIZE - x);
+    }
+    // points of the stamp beyond the width are cut off
+    stampWords[wordCount - 1] &= -1L >>> -(last + 1);
+    return true;
+  }
+
+  /**
+   * Each row of the rectangle is copied as words. Points of every layer
+   * owning points in the source row are read as words shifted to the
+   * destination before the destination row is changed, then the range
+   * is removed from layers owning points in the destination row
+   * and the words are or-ed on layers of the source row.
+   * Rows are visited from the side the rectangle moves to
+   * so a source row is read before it is overwritten.
+   */
+  @Override
+  public void copy(final int x1,
+                   final int x2,
+                   final int y1,
+                   final int y2,
+                   final int x,
+                   final int y) {
+    final int last = x + x2 - x1;
+    final int fromWord = x / Long.SIZE;
+    final int wordCount = last / Long.SIZE - fromWord + 1;
+    final long shift = (long) x - x1;
+    for (int i = 0; i <= y2 - y1; i++) {
+      final int row = y > y1 ? y2 - i : y1 + i;
+      final int target = row - y1 + y;
+      final Layer[] layers = rowColors.getLayers(row);
+      if (copyWords.length < layers.length) {
+        copyWords = Arrays.copyOf(copyWords, layers.length);
+      }
+      for (int k = 0; k < layers.length; k++) {
+        if (copyWords[k] == null || copyWords[k].length < wordCount) {
+          copyWords[k] = new long[wordCount];
+        }
+        final Container line = layers[k].getLine(row);
+        for (int w = 0; w < wordCount; w++) {
+          copyWords[k][w] =
+              line.getWord((long) (fromWord + w) * Long.SIZE - shift);
+        }
+        copyWords[k][0] &= -1L << x;
+        copyWords[k][wordCount - 1] &= -1L >>> -(last + 1);
+      }
+      final Layer[] targetLayers = rowColors.getLayers(target);
+      for (int k = 0; k < targetLayers.length; k++) {
+        final Container rest =
+            targetLayers[k].getLine(target).remove(x, last + 1);
+        targetLayers[k].setLine(target, rest);
+        if (rest == null) {
+          rowColors.remove(target, targetLayers[k]);
+        }
+      }
+      for (int k = 0; k < layers.length; k++) {
+        final Container line = layers[k].getLine(target);
+        final Container copied = line == null
+            ? Container.of(copyWords[k], fromWord, wordCount)
+            : line.or(copyWords[k], fromWord, wordCount);
+        if (copied != null) {
+          layers[k].setLine(target, copied);
+          rowColors.add(target, layers[k]);
+        }
+      }
+    }
+  }
+
+  private static boolean contains(final char[] colors, final char color) {
+    for (char c : colors) {
+      if (c == color) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Replace the row of the layer with its points out of the spans
+   * and the points of the spans of its color.
+   */
+  private void mergeRow(final Layer layer,
+                        final char color,
+                        final int y,
+                        final int count,
+                        final int[] starts,
+                        final int[] ends,
+                        final char[] colors) {
+    final Container line = layer.getLine(y);
+    rowRunCount = 0;
+    int cursor = 0;
+    for (int i = 0; i < count; i++) {
+      addLinePoints(line, cursor, starts[i] - 1);
+      if (colors[i] == color) {
+        addRowRun(starts[i], ends[i]);
+      }
+      cursor = ends[i] + 1;
+    }
+    addLinePoints(line, cursor, width - 1);
+    final Container merged = Container.ofRuns(
+        Arrays.copyOf(rowRuns, 2 * rowRunCount), rowRunCount);
+    layer.setLine(y, merged);
+    if (merged == null) {
+      rowColors.remove(y, layer);
+    } else {
+      rowColors.add(y, layer);
+    }
+  }
+
+  /**
+   * Add runs of points of the line from x1 to x2 inclusive
+   * to the line being rebuilt.
+   */
+  private void addLinePoints(final Container line, final int x1, final int x2) {
+    if (line == null) {
+      return;
+    }
+    int start = x1 <= x2 ? line.nextSetBit(x1) : -1;
+    while (start != -1 && start <= x2) {
+      final int end = Math.min(x2, line.nextClearBit(start) - 1);
+      addRowRun(start, end);
+      start = end < x2 ? line.nextSetBit(end + 1) : -1;
+    }
+  }
+
+  /**
+   * Append the run to the line being rebuilt
+   * joining it with the previous run if they touch.
+   */
+  private void addRowRun(final int start, final int end) {
+    if (rowRunCount > 0 && rowRuns[2 * rowRunCount - 1] + 1 >= start) {
+      rowRuns[2 * rowRunCount - 1] = end;
+      return;
+    }
+    if (2 * rowRunCount == rowRuns.length) {
+      rowRuns = Arrays.copyOf(rowRuns, 2 * rowRuns.length);
+    }
+    rowRuns[2 * rowRunCount] = start;
+    rowRuns[2 * rowRunCount + 1] = end;
+    rowRunCount++;
+  }
+
+  /**
+   * Clear the same coordinates on layers of other colors
+   * but only on the ones owning points in the row.
+   */
+  private void clearOtherLayers(final int x1,
+                                final int x2,
+                                final int y,
+                                final char color) {
+    final Layer[] layers = rowColors.getLayers(y);
+    for (int i = 0; i < layers.length; i++) {
+      if (layers[i].getColor() != color) {
+        layers[i].clearHorizontalLine(x1, x2, y);
+        if (layers[i].getLine(y) == null) {
+          rowColors.remove(y, layers[i]);
+        }
+      }
+    }
+  }
+
+  /**
+   * Return color of the layer owning the specified point.
+   *
+   * @param x x coordinate
+   * @param y y coordinate
+   * @return color of the layer or the empty char for a background point
+   */
+  private char getLayerColor(final int x, final int y) {
+    final Layer[] layers = rowColors.getLayers(y);
+    for (int i = 0; i < layers.length; i++) {
+      if (layers[i].getLine(y).get(x)) {
+        return layers[i].getColor();
+      }
+    }
+    return emptyChar;
+  }
+
+  @Override
+  public char getColor(final int x, final int y) {
+    return getLayerColor(x, y);
+  }
+
+  @Override
+  public int getRunEnd(final int x, final int y) {
+    final char color = getLayerColor(x, y);
+    if (color == emptyChar) {
+      // background run lasts till the nearest point owned by any layer
+      int end = width - 1;
+      for (Layer layer : rowColors.getLayers(y)) {
+        int nextSetBit = layer.getLine(y).nextSetBit(x);
+        if (nextSetBit != -1 && nextSetBit - 1 < end) {
+          end = nextSetBit - 1;
+        }
+      }
+      return end;
+    }
+    Layer layer = colorToLayerMap.get(color);
+    return Math.min(width - 1,
+        layer.getLastSetIndexInARow(layer.getLine(y), x));
+  }
+
+  @Override
+  public void fill(final int x,
+                   final int y,
+                   final char color,
+                   final boolean isB4) {
+    final char sourceColor = getLayerColor(x, y);
+    final Layer source = sourceColor == emptyChar
+        ? getBackground()
+        : colorToLayerMap.get(sourceColor);
+    // points filled with the empty char just leave their layer
+    // and become background ones
+    final Layer destination = color == emptyChar
+        ? null
+        : colorToLayerMap.computeIfAbsent(color, this::newLayer);
+
+    fillArea(source, x, y, destination, isB4);
+    if (color != emptyChar) {
+      reindexFilled(color);
+    }
+    if (sourceColor != emptyChar) {
+      reindexFilled(sourceColor);
+    } else {
+      background.reset();
+    }
+  }
+
+  /**
+   * Fill area of the source layer by the fill engine of the storage.
+   *
+   * @param source      layer to fill
+   * @param x           start x coordinate
+   * @param y           start y coordinate
+   * @param destination layer to merge result or null to drop it
+   * @param isB4        4-dots or 8-dots approach to use
+   * @return destination with merged result.
+   */
+  private Layer fillArea(final Layer source,
+                         final int x,
+                         final int y,
+                         final Layer destination,
+                         final boolean isB4) {
+    if (!isMorphological) {
+      return source.fill(x, y, destination, isB4, getFillScratch());
+    }
+    if (morphologicalFill == null) {
+      morphologicalFill =
+          new MorphologicalFill(getFillScratch(), width, height);
+    }
+    return morphologicalFill.fill(source, x, y, destination, isB4);
+  }
+
+  /**
+   * Return scratch buffers of fills creating them on the first request.
+   *
+   * @return scratch buffers of fills
+   */
+  private FillScratch getFillScratch() {
+    if (fillScratch == null) {
+      fillScratch = new FillScratch(width, height);
+    }
+    return fillScratch;
+  }
+
+  /**
+   * Return the background view creating it on the first request.
+   * It should be reset once the fill using it is done.
+   *
+   * @return the background view
+   */
+  private EmptyLayer getBackground() {
+    if (background == null) {
+      background = new EmptyLayer(width, height, colorToLayerMap.values());
+    }
+    return background;
+  }
+
+  /**
+   * The area is taken out of the layer of its color as by a fill
+   * with a single color keeping its words in the fill scratch buffers,
+   * then each row the fill touched is ANDed with words of each color
+   * of the pattern into a buffer of the color and the result is ORed
+   * into the layer of the color. Points where the pattern is clear
+   * are put back.
+   */
+  @Override
+  public void fill(final int x,
+                   final int y,
+                   final Pattern pattern,
+                   final boolean isB4,
+                   final int width,
+                   final int height) {
+    final char sourceColor = getLayerColor(x, y);
+    final Layer source = sourceColor == emptyChar
+        ? getBackground()
+        : colorToLayerMap.get(sourceColor);
+    final FillScratch scratch = getFillScratch();
+    scratch.keep();
+    fillArea(source, x, y, null, isB4);
+    final char[] colors = pattern.getColors();
+    final Layer[] layers = new Layer[colors.length];
+    final Set<Character> changedColors = new HashSet<>();
+    for (int i = 0; i < colors.length; i++) {
+      if (colors[i] != emptyChar) {
+        layers[i] = colorToLayerMap.computeIfAbsent(colors[i], this::newLayer);
+        changedColors.add(colors[i]);
+      }
+    }
+    if (sourceColor != emptyChar) {
+      changedColors.add(sourceColor);
+    }
+    final long[] words = scratch.borrow();
+    for (int r = 0; r < scratch.getTouchedCount(); r++) {
+      final int row = scratch.getTouchedRow(r);
+      // points of the area left after colors of the pattern took theirs
+      final long[] area = scratch.getRows()[row];
+      for (int i = 0; i < colors.length; i++) {
+        for (int k = 0; k < words.length; k++) {
+          words[k] = area[k] & pattern.getWord(i, row, k);
+          area[k] ^= words[k];
+        }
+        if (layers[i] != null && !WordBitmap.isEmpty(words)) {
+          layers[i].copyWords(row, words);
+        }
+      }
+      if (sourceColor != emptyChar && !WordBitmap.isEmpty(area)) {
+        source.copyWords(row, area);
+      }
+    }
+    scratch.giveBack(words);
+    scratch.release();
+    for (char color : changedColors) {
+      reindexFilled(color);
+    }
+    if (sourceColor == emptyChar) {
+      background.reset();
+    }
+  }
+
+  /**
+   * A color is a layer, so the layer is just given to the new color
+   * if the new color has no layer yet, which visits no rows at all,
+   * and lines of the layer are merged into lines of the new color
+   * otherwise, a bitmap line takes a line by word ORs.
+   * Either way no point is visited.
+   * Points recolored to the empty char leave their layer,
+   * the background is not a layer so it is recolored by default.
+   */
+  @Override
+  public void recolor(final char color,
+                      final char newColor,
+                      final int width,
+                      final int height) {
+    if (color == emptyChar) {
+      CanvasStorage.super.recolor(color, newColor, width, height);
+      return;
+    }
+    final Layer layer = colorToLayerMap.remove(color);
+    if (layer == null) {
+      return;
+    }
+    if (newColor == emptyChar) {
+      for (int y = 0; y < height; y++) {
+        rowColors.remove(y, layer);
+      }
+      return;
+    }
+    final Layer newLayer = colorToLayerMap.get(newColor);
+    if (newLayer == null) {
+      colorToLayerMap.put(newColor, layer);
+      layer.setColor(newColor);
+      return;
+    }
+    for (int y = 0; y < height; y++) {
+      final Container line = layer.getLine(y);
+      if (line == null) {
+        continue;
+      }
+      final Container newLine = newLayer.getLine(y);
+      if (newLine == null) {
+        newLayer.setLine(y, line);
+      } else {
+        final long[] words = line.toWords();
+        newLayer.setLine(y, newLine.or(words, 0, words.length));
+      }
+      rowColors.remove(y, layer);
+      rowColors.add(y, newLayer);
+    }
+  }
+
+  /**
+   * Update rows the last fill touched in the index for the color
+   * and remove its layer if it is empty keeping it as the spare one.
+   *
+   * @param color color of the layer
+   */
+  private void reindexFilled(final char color) {
+    final Layer layer = colorToLayerMap.get(color);
+    final FillScratch scratch = getFillScratch();
+    for (int i = 0; i < scratch.getTouchedCount(); i++) {
+      final int row = scratch.getTouchedRow(i);
+      if (layer.getLine(row) == null) {
+        rowColors.remove(row, layer);
+      } else {
+        rowColors.add(row, layer);
+      }
+    }
+    if (layer.isEmpty()) {
+      spareLayer = colorToLayerMap.remove(color);
+    }
+  }
+
+  /**
+   * Return the spare layer if any or a new one given to the color.
+   *
+   * @param color color of the layer
+   * @return empty layer
+   */
+  private Layer newLayer(final char color) {
+    final Layer layer =
+        spareLayer == null ? new Layer(width, height) : spareLayer;
+    spareLayer = null;
+    layer.setColor(color);
+    return layer;
+  }
+
+  /**
+   * Remove layers which are not associated with any point
+   * and switch lines of the rest of layers to the cheapest containers.
+   */
+  @Override
+  public void compact() {
+    removeEmptyLayers();
+    for (Layer layer : colorToLayerMap.values()) {
+      layer.optimize();
+    }
+  }
+
+  /**
+   * Remove layers which are not associated with any point.
+   */
+  private void removeEmptyLayers() {
+    Set<Character> colors = colorToLayerMap.keySet();
+    Set<Character> candidatesToRemove = new HashSet<>(colors);
+    for (Character color : colors) {
+      Layer layer = colorToLayerMap.get(color);
+      for (int i = 0; i < height; i++) {
+        if (layer.getLine(i) != null) {
+          candidatesToRemove.remove(color);
+          break;
+        }
+      }
+    }
+    for (Character color2Remove : candidatesToRemove) {
+      colorToLayerMap.remove(color2Remove);
+    }
+  }
+}
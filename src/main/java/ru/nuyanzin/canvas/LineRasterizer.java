@@ -0,0 +1,145 @@
+package ru.nuyanzin.canvas;
+
+import java.math.BigInteger;
+
+/**
+ * Bresenham rasterizer of lines of any angle emitting spans
+ * instead of single points. Points of a line are the ones of
+ * the midpoint rule along its major axis i.e. for the i-th point
+ * along the major axis the minor coordinate is shifted by
+ * floor((2 * i * dMinor + dMajor) / (2 * dMajor)).
+ * All points of the same minor coordinate form one span
+ * so a shallow line is drawn by horizontal and a steep line
+ * by vertical ranges.
+ * The line is clipped analytically: only spans
+ * within the canvas are visited whatever the line length is.
+ */
+final class LineRasterizer {
+
+  private LineRasterizer() {
+  }
+
+  /**
+   * Draw the line from (x1, y1) to (x2, y2) with 0-based coordinates
+   * which could be out of the canvas.
+   * The points do not depend on the order of the ends.
+   *
+   * @param storage storage to draw spans
+   * @param x1      x coordinate of the first end
+   * @param y1      y coordinate of the first end
+   * @param x2      x coordinate of the second end
+   * @param y2      y coordinate of the second end
+   * @param width   width of the canvas
+   * @param height  height of the canvas
+   * @param color   color of the line
+   */
+  static void draw(final CanvasStorage storage,
+                   final long x1,
+                   final long y1,
+                   final long x2,
+                   final long y2,
+                   final int width,
+                   final int height,
+                   final char color) {
+    final boolean isSteep = Math.abs(y2 - y1) > Math.abs(x2 - x1);
+    final long major1 = isSteep ? y1 : x1;
+    final long major2 = isSteep ? y2 : x2;
+    // the line always goes along the major axis from the lower end
+    final boolean isSwapped = major2 < major1;
+    final long majorStart = isSwapped ? major2 : major1;
+    final long minor1 = isSteep ? x1 : y1;
+    final long minor2 = isSteep ? x2 : y2;
+    final long minorStart = isSwapped ? minor2 : minor1;
+    final long minorEnd = isSwapped ? minor1 : minor2;
+    final long dMajor = Math.abs(major2 - major1);
+    final long dMinor = Math.abs(minorEnd - minorStart);
+    final int minorStep = minorEnd < minorStart ? -1 : 1;
+    final int majorLimit = isSteep ? height : width;
+    final int minorLimit = isSteep ? width : height;
+
+    // visible points along the major axis
+    final long iLow = Math.max(0, -majorStart);
+    final long iHigh = Math.min(dMajor, majorLimit - 1 - majorStart);
+    if (iLow > iHigh) {
+      return;
+    }
+    if (dMinor == 0) {
+      if (minorStart >= 0 && minorStart < minorLimit) {
+        emit(storage, isSteep, majorStart + iLow, majorStart + iHigh,
+            minorStart, color);
+      }
+      return;
+    }
+    // visible spans along the minor axis
+    long kLow = minorStep > 0 ? -minorStart : minorStart - minorLimit + 1;
+    long kHigh = minorStep > 0 ? minorLimit - 1 - minorStart : minorStart;
+    kLow = Math.max(Math.max(0, kLow),
+        divide(2 * iLow, dMinor, dMajor, 2 * dMajor)[0]);
+    kHigh = Math.min(Math.min(dMinor, kHigh),
+        divide(2 * iHigh, dMinor, dMajor, 2 * dMajor)[0]);
+    if (kLow > kHigh) {
+      return;
+    }
+    // the k-th span starts at ceil((2 * k - 1) * dMajor / (2 * dMinor))
+    // kept as quotient and remainder to step without overflow
+    final long divisor = 2 * dMinor;
+    final long stepQuotient = 2 * dMajor / divisor;
+    final long stepRemainder = 2 * dMajor % divisor;
+    final long[] start =
+        divide(2 * kLow - 1, dMajor, divisor - 1, divisor);
+    long quotient = start[0];
+    long remainder = start[1];
+    for (long k = kLow; k <= kHigh; k++) {
+      final long spanStart = quotient;
+      quotient += stepQuotient;
+      remainder += stepRemainder;
+      if (remainder >= divisor) {
+        remainder -= divisor;
+        quotient++;
+      }
+      final long from = Math.max(iLow, spanStart);
+      final long to = Math.min(iHigh, quotient - 1);
+      if (from <= to) {
+        emit(storage, isSteep, majorStart + from, majorStart + to,
+            minorStart + minorStep * k, color);
+      }
+    }
+  }
+
+  private static void emit(final CanvasStorage storage,
+                           final boolean isSteep,
+                           final long majorFrom,
+                           final long majorTo,
+                           final long minor,
+                           final char color) {
+    if (isSteep) {
+      storage.drawVerticalLine(
+          (int) minor, (int) majorFrom, (int) majorTo, color);
+    } else {
+      storage.drawHorizontalLine(
+          (int) majorFrom, (int) majorTo, (int) minor, color);
+    }
+  }
+
+  /**
+   * Return floor((a * b + c) / d) and the remainder of it for d &gt; 0.
+   * The product could overflow long so it is done once per line
+   * with {@link BigInteger}.
+   */
+  static long[] divide(final long a,
+                       final long b,
+                       final long c,
+                       final long d) {
+    final BigInteger[] result = BigInteger.valueOf(a)
+        .multiply(BigInteger.valueOf(b))
+        .add(BigInteger.valueOf(c))
+        .divideAndRemainder(BigInteger.valueOf(d));
+    long quotient = result[0].longValue();
+    long remainder = result[1].longValue();
+    if (remainder < 0) {
+      quotient--;
+      remainder += d;
+    }
+    return new long[] {quotient, remainder};
+  }
+}
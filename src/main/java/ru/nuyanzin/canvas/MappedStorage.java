@@ -0,0 +1,341 @@
+package ru.nuyanzin.canvas;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Storage keeping a plane of chars, one per point, off-heap
+ * in a temporary file mapped to memory with {@link FileChannel#map}.
+ * So the canvas size is limited by disk and address space
+ * rather than by heap, and gc does not have to walk huge arrays.
+ * As a file could not be mapped at once if it is larger than 2Gb
+ * it is mapped by chunks of {@link #CHUNK_SIZE} bytes on first access.
+ * Each point keeps its color xor the empty char, so the file
+ * created as a sparse one of zeros contains only the empty char
+ * and pages of the background are never written.
+ * Runs are looked for by {@link Long#BYTES} bytes at once,
+ * so a read compares 4 points.
+ */
+public class MappedStorage implements CanvasStorage {
+  /**
+   * Name of the storage to use with
+   * {@link ru.nuyanzin.properties.DrawingShellPropertiesEnum#CANVAS_STORAGE}.
+   */
+  public static final String NAME = "mapped";
+
+  private static final int CHUNK_SHIFT = 30;
+  /**
+   * Size of a single mapping in bytes.
+   */
+  static final long CHUNK_SIZE = 1L << CHUNK_SHIFT;
+  private static final long CHUNK_MASK = CHUNK_SIZE - 1;
+  /**
+   * Multiplier repeating a char in each of 4 chars of a long.
+   */
+  private static final long REPEAT_CHAR = 0x0001000100010001L;
+
+  private final int width;
+  private final int height;
+  private final char emptyChar;
+  private final long size;
+  private final FileChannel channel;
+  private final MappedByteBuffer[] chunks;
+
+  /**
+   * Rows which may contain points of other colors than the empty char.
+   */
+  private final BitSet drawnRows = new BitSet();
+
+  public MappedStorage(final int width,
+                       final int height,
+                       final char emptyChar) {
+    this.width = width;
+    this.height = height;
+    this.emptyChar = emptyChar;
+    this.size = Math.multiplyExact(
+        Math.multiplyExact((long) width, height), Character.BYTES);
+    this.chunks = new MappedByteBuffer[
+        (int) ((size + CHUNK_SIZE - 1) >>> CHUNK_SHIFT)];
+    try {
+      Path file = Files.createTempFile("drawshell", ".canvas");
+      this.channel = FileChannel.open(file,
+          StandardOpenOption.READ,
+          StandardOpenOption.WRITE,
+          StandardOpenOption.DELETE_ON_CLOSE);
+      file.toFile().deleteOnExit();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  @Override
+  public char getColor(final int x, final int y) {
+    return (char) (get(offset(x, y)) ^ emptyChar);
+  }
+
+  @Override
+  public int getRunEnd(final int x, final int y) {
+    if (!drawnRows.get(y)) {
+      return width - 1;
+    }
+    final long start = offset(x, y);
+    final long last = offset(width - 1, y);
+    final char value = get(start);
+    final long pattern = value * REPEAT_CHAR;
+    long offset = start + Character.BYTES;
+    while (offset <= last) {
+      final MappedByteBuffer chunk = chunks[(int) (offset >>> CHUNK_SHIFT)];
+      if (chunk == null) {
+        if (value != 0) {
+          break;
+        }
+        // all the chunk is still the empty char
+        offset = (offset | CHUNK_MASK) + 1;
+        continue;
+      }
+      final int index = (int) (offset & CHUNK_MASK);
+      if (offset + Long.BYTES - Character.BYTES <= last
+          && index + Long.BYTES <= chunk.limit()) {
+        // the first of 4 chars is in the highest bits
+        final long difference = chunk.getLong(index) ^ pattern;
+        if (difference != 0) {
+          offset += Long.numberOfLeadingZeros(difference)
+              / Character.SIZE * Character.BYTES;
+          break;
+        }
+        offset += Long.BYTES;
+      } else if (chunk.getChar(index) == value) {
+        offset += Character.BYTES;
+      } else {
+        break;
+      }
+    }
+    return x + (int) ((Math.min(offset, last + Character.BYTES) - start)
+        / Character.BYTES) - 1;
+  }
+
+  /**
+   * Return the first x coordinate of the run of the same color
+   * containing the point (x, y) looking for it as {@link #getRunEnd}
+   * does to the left.
+   *
+   * @param x x coordinate
+   * @param y y coordinate
+   * @return the first x coordinate of the run
+   */
+  int getRunStart(final int x, final int y) {
+    if (!drawnRows.get(y)) {
+      return 0;
+    }
+    final long start = offset(x, y);
+    final long first = offset(0, y);
+    final char value = get(start);
+    final long pattern = value * REPEAT_CHAR;
+    long offset = start - Character.BYTES;
+    while (offset >= first) {
+      final MappedByteBuffer chunk = chunks[(int) (offset >>> CHUNK_SHIFT)];
+      if (chunk == null) {
+        if (value != 0) {
+          break;
+        }
+        offset = (offset & ~CHUNK_MASK) - Character.BYTES;
+        continue;
+      }
+      final int index = (int) (offset & CHUNK_MASK);
+      final int from = index - Long.BYTES + Character.BYTES;
+      if (offset - Long.BYTES + Character.BYTES >= first && from >= 0) {
+        // the last of 4 chars is in the lowest bits
+        final long difference = chunk.getLong(from) ^ pattern;
+        if (difference != 0) {
+          offset -= Long.numberOfTrailingZeros(difference)
+              / Character.SIZE * Character.BYTES;
+          break;
+        }
+        offset -= Long.BYTES;
+      } else if (chunk.getChar(index) == value) {
+        offset -= Character.BYTES;
+      } else {
+        break;
+      }
+    }
+    return x - (int) ((start - Math.max(offset, first - Character.BYTES))
+        / Character.BYTES) + 1;
+  }
+
+  @Override
+  public void drawHorizontalLine(final int x1,
+                                 final int x2,
+                                 final int y,
+                                 final char color) {
+    setRange(x1, x2, y, color);
+  }
+
+  @Override
+  public void drawVerticalLine(final int x,
+                               final int y1,
+                               final int y2,
+                               final char color) {
+    for (int i = y1; i <= y2; i++) {
+      setRange(x, x, i, color);
+    }
+  }
+
+  /**
+   * Batched spans write each point once going row by row
+   * so pages of the file are touched in order.
+   */
+  @Override
+  public boolean prefersBatches() {
+    return true;
+  }
+
+  /**
+   * Scanline fill: each span of the source color is filled at once
+   * and only the neighbour rows under the span are scanned for new spans.
+   * Spans in rows with the empty char only take the whole row
+   * without reading it, the others are found by runs,
+   * see {@link #getRunEnd(int, int)}.
+   */
+  @Override
+  public void fill(final int x,
+                   final int y,
+                   final char color,
+                   final boolean isB4) {
+    final char source = getColor(x, y);
+    final int diagonalShift = isB4 ? 0 : 1;
+    int[] stack = new int[32];
+    int stackSize = 0;
+    stack[stackSize++] = x;
+    stack[stackSize++] = y;
+    while (stackSize > 0) {
+      final int currentY = stack[--stackSize];
+      final int currentX = stack[--stackSize];
+      if (getColor(currentX, currentY) != source) {
+        continue;
+      }
+      final int left;
+      final int right;
+      if (drawnRows.get(currentY)) {
+        left = getRunStart(currentX, currentY);
+        right = getRunEnd(currentX, currentY);
+      } else {
+        left = 0;
+        right = width - 1;
+      }
+      setRange(left, right, currentY, color);
+      final int from = Math.max(0, left - diagonalShift);
+      final int to = Math.min(width - 1, right + diagonalShift);
+      for (int neighbourY = currentY - 1;
+           neighbourY <= currentY + 1;
+           neighbourY += 2) {
+        if (neighbourY < 0 || neighbourY >= height) {
+          continue;
+        }
+        if (!drawnRows.get(neighbourY)) {
+          if (source == emptyChar) {
+            stack = push(stack, stackSize, from, neighbourY);
+            stackSize += 2;
+          }
+          continue;
+        }
+        int i = from;
+        while (i <= to) {
+          final int end = getRunEnd(i, neighbourY);
+          if (getColor(i, neighbourY) == source) {
+            stack = push(stack, stackSize, i, neighbourY);
+            stackSize += 2;
+          }
+          i = end + 1;
+        }
+      }
+    }
+  }
+
+  /**
+   * Close the channel so the temporary file is removed.
+   * Mapped chunks are released by gc as there is no public api
+   * to unmap them in java 8.
+   */
+  @Override
+  public void close() {
+    try {
+      channel.close();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private static int[] push(int[] stack,
+                            final int stackSize,
+                            final int x,
+                            final int y) {
+    if (stackSize + 2 > stack.length) {
+      stack = Arrays.copyOf(stack, stack.length * 2);
+    }
+    stack[stackSize] = x;
+    stack[stackSize + 1] = y;
+    return stack;
+  }
+
+  private long offset(final int x, final int y) {
+    return ((long) y * width + x) * Character.BYTES;
+  }
+
+  private char get(final long offset) {
+    MappedByteBuffer chunk = chunks[(int) (offset >>> CHUNK_SHIFT)];
+    return chunk == null ? 0 : chunk.getChar((int) (offset & CHUNK_MASK));
+  }
+
+  /**
+   * Set color for points from (x1, y) to (x2, y) inclusive.
+   * Chunks are mapped only when something other
+   * than the empty char should be written to them.
+   */
+  private void setRange(final int x1,
+                        final int x2,
+                        final int y,
+                        final char color) {
+    final char value = (char) (color ^ emptyChar);
+    if (value == 0 && !drawnRows.get(y)) {
+      return;
+    }
+    if (value != 0) {
+      drawnRows.set(y);
+    }
+    final long end = offset(x2, y);
+    for (long offset = offset(x1, y);
+         offset <= end;
+         offset += Character.BYTES) {
+      final int chunkIndex = (int) (offset >>> CHUNK_SHIFT);
+      MappedByteBuffer chunk = chunks[chunkIndex];
+      if (chunk == null) {
+        if (value == 0) {
+          // all the chunk is still the empty char
+          offset |= CHUNK_MASK - 1;
+          continue;
+        }
+        chunk = map(chunkIndex);
+      }
+      chunk.putChar((int) (offset & CHUNK_MASK), value);
+    }
+  }
+
+  private MappedByteBuffer map(final int chunkIndex) {
+    final long position = (long) chunkIndex << CHUNK_SHIFT;
+    try {
+      MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_WRITE,
+          position, Math.min(CHUNK_SIZE, size - position));
+      chunks[chunkIndex] = chunk;
+      return chunk;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+}
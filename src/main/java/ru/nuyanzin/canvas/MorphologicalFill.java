@@ -0,0 +1,322 @@
+package ru.nuyanzin.canvas;
+
+import java.util.Arrays;
+
+/**
+ * Fill of a {@link Layer} by dilation and mask working on rows
+ * as words of points: points filled in a row but not yet spread
+ * to the neighbour rows form the frontier of the row,
+ * the frontier (also shifted by one point to the left and to the right
+ * for 8-dots approach) is masked by points of a neighbour row
+ * not filled so far and the runs of the neighbour row containing
+ * the masked points are filled 64 points at once by shifts doubling
+ * on each step. Only rows whose frontier is not empty are handled
+ * and only the words the frontier spans, until no row changes.
+ * Takes the same points as {@link Layer#fill(int, int, Layer, boolean)}
+ * without looking for runs point by point.
+ */
+final class MorphologicalFill {
+  private final FillScratch scratch;
+  private final int wordCount;
+  /**
+   * Points of rows of the layer read so far.
+   */
+  private final long[][] masks;
+  /**
+   * Filled points of rows not yet spread to the neighbour rows
+   * and the first and the last words they span.
+   */
+  private final long[][] frontiers;
+  private final int[] frontierFrom;
+  private final int[] frontierTo;
+  /**
+   * Rows with not empty frontiers to handle.
+   */
+  private final boolean[] isQueued;
+  private int[] queue = new int[16];
+  private int queueSize;
+  /**
+   * Rows read so far in order of reading.
+   */
+  private int[] readRows = new int[16];
+  private int readCount;
+  /**
+   * Points to start filling runs of a row from and
+   * points of the runs grown from them.
+   */
+  private final long[] seeds;
+  private final long[] grown;
+  /**
+   * Layer being filled, filled points of its rows
+   * and 1 for 8-dots approach or 0 for 4-dots one.
+   */
+  private Layer layer;
+  private long[][] filled;
+  private int diagonalShift;
+
+  /**
+   * Create the fill of layers of the storage.
+   * Words are kept only for rows a fill reads, they are taken
+   * from the scratch buffers and put back after the fill.
+   *
+   * @param scratch scratch buffers of fills of the storage
+   * @param width   width of the storage
+   * @param height  height of the storage
+   */
+  MorphologicalFill(final FillScratch scratch,
+                    final int width,
+                    final int height) {
+    this.scratch = scratch;
+    this.wordCount = WordBitmap.wordCount(width);
+    this.masks = new long[height][];
+    this.frontiers = new long[height][];
+    this.frontierFrom = new int[height];
+    this.frontierTo = new int[height];
+    this.isQueued = new boolean[height];
+    this.seeds = new long[wordCount];
+    this.grown = new long[wordCount];
+  }
+
+  /**
+   * Fill area on the layer starting with point {@code startX, startY}.
+   * Merge result to {@code destination}.
+   *
+   * @param source      layer to fill
+   * @param startX      start x coordinate
+   * @param startY      start y coordinate
+   * @param destination layer to merge result or null to drop it
+   * @param isB4        4-dots or 8-dots approach to use
+   * @return destination with merged result.
+   */
+  Layer fill(final Layer source,
+             final int startX,
+             final int startY,
+             final Layer destination,
+             final boolean isB4) {
+    final Container startLine = source.getLine(startY);
+    if (startLine == null || !startLine.get(startX)) {
+      return source;
+    }
+    layer = source;
+    filled = scratch.getRows();
+    diagonalShift = isB4 ? 0 : 1;
+    final int startWord = startX >>> 6;
+    seeds[startWord] = 1L << startX;
+    grow(startY, startWord, startWord);
+    while (queueSize > 0) {
+      spread(queue[--queueSize]);
+    }
+    takeFilled();
+    scratch.moveTo(destination);
+    layer = null;
+    filled = null;
+    return destination;
+  }
+
+  /**
+   * Spread the frontier of the row to the neighbour rows
+   * and clear it.
+   *
+   * @param y row to spread
+   */
+  private void spread(final int y) {
+    isQueued[y] = false;
+    final long[] frontier = frontiers[y];
+    final int from = frontierFrom[y];
+    final int to = frontierTo[y];
+    frontierFrom[y] = wordCount;
+    frontierTo[y] = -1;
+    final int seedFrom = Math.max(0, from - diagonalShift);
+    final int seedTo = Math.min(wordCount - 1, to + diagonalShift);
+    for (int neighbourY = y - 1; neighbourY <= y + 1; neighbourY += 2) {
+      if (neighbourY < 0 || neighbourY >= masks.length
+          || !readMask(neighbourY)) {
+        continue;
+      }
+      final long[] mask = masks[neighbourY];
+      final long[] rowFilled = filled[neighbourY];
+      boolean hasSeeds = false;
+      for (int i = seedFrom; i <= seedTo; i++) {
+        long word = frontier[i];
+        if (diagonalShift != 0) {
+          word |= word << 1 | word >>> 1
+              | (i > 0 ? frontier[i - 1] >>> 63 : 0)
+              | (i + 1 < wordCount ? frontier[i + 1] << 63 : 0);
+        }
+        word &= mask[i];
+        if (rowFilled != null) {
+          word &= ~rowFilled[i];
+        }
+        seeds[i] = word;
+        hasSeeds |= word != 0;
+      }
+      if (hasSeeds) {
+        grow(neighbourY, seedFrom, seedTo);
+      } else {
+        clear(seeds, seedFrom, seedTo);
+      }
+    }
+    clear(frontier, from, to);
+  }
+
+  /**
+   * Fill the runs of the row containing the seeds
+   * between the words, add them to the frontier of the row
+   * and clear the seeds.
+   *
+   * @param y    row to grow
+   * @param from the first word of seeds
+   * @param to   the last word of seeds
+   */
+  private void grow(final int y, final int from, final int to) {
+    readMask(y);
+    final long[] mask = masks[y];
+    if (frontiers[y] == null) {
+      frontiers[y] = scratch.borrow();
+      frontierFrom[y] = wordCount;
+      frontierTo[y] = -1;
+    }
+    final long[] rowFilled = scratch.getRow(y);
+    // to the right carrying the last point of a word to the next one
+    int last = from;
+    boolean isCarried = false;
+    for (int i = from; i < wordCount && (i <= to || isCarried); i++) {
+      final long free = mask[i] & ~rowFilled[i];
+      final long word = fillLeft(
+          seeds[i] | (isCarried ? free & 1L : 0), free);
+      grown[i] = word;
+      isCarried = word < 0;
+      last = i;
+    }
+    // to the left carrying the first point of a word to the previous one
+    int first = to;
+    isCarried = false;
+    for (int i = to; i >= 0 && (i >= from || isCarried); i--) {
+      final long free = mask[i] & ~rowFilled[i];
+      final long word = fillRight(
+          grown[i] | (isCarried ? free & Long.MIN_VALUE : 0), free);
+      grown[i] = word;
+      isCarried = (word & 1L) != 0;
+      first = i;
+    }
+    first = Math.min(first, from);
+    final long[] frontier = frontiers[y];
+    for (int i = first; i <= last; i++) {
+      rowFilled[i] |= grown[i];
+      frontier[i] |= grown[i];
+    }
+    frontierFrom[y] = Math.min(frontierFrom[y], first);
+    frontierTo[y] = Math.max(frontierTo[y], last);
+    clear(grown, first, last);
+    clear(seeds, from, to);
+    if (!isQueued[y]) {
+      isQueued[y] = true;
+      if (queueSize == queue.length) {
+        queue = Arrays.copyOf(queue, 2 * queueSize);
+      }
+      queue[queueSize++] = y;
+    }
+  }
+
+  /**
+   * Take filled points out of the layer and put words
+   * of read rows back to the scratch buffers.
+   */
+  private void takeFilled() {
+    for (int i = 0; i < readCount; i++) {
+      final int y = readRows[i];
+      final long[] rest = masks[y];
+      if (filled[y] != null) {
+        WordBitmap.andNot(rest, filled[y]);
+        layer.setLine(y,
+            WordBitmap.isEmpty(rest) ? null : Container.of(rest.clone()));
+      }
+      scratch.giveBack(rest);
+      masks[y] = null;
+      if (frontiers[y] != null) {
+        scratch.giveBack(frontiers[y]);
+        frontiers[y] = null;
+      }
+    }
+    readCount = 0;
+  }
+
+  /**
+   * Read points of the row of the layer as words if not yet read.
+   *
+   * @param y row to read
+   * @return false if the row does not have points
+   */
+  private boolean readMask(final int y) {
+    if (masks[y] == null) {
+      final Container line = layer.getLine(y);
+      if (line == null) {
+        return false;
+      }
+      masks[y] = line.addTo(scratch.borrow());
+      if (readCount == readRows.length) {
+        readRows = Arrays.copyOf(readRows, 2 * readCount);
+      }
+      readRows[readCount++] = y;
+    }
+    return true;
+  }
+
+  /**
+   * Fill points of {@code mask} from {@code word} to the left i.e.
+   * to higher bits while they are in {@code mask} by doubling shifts.
+   * A full mask as of a long run is filled at once.
+   *
+   * @param word points to start with
+   * @param mask points which could be filled
+   * @return filled points
+   */
+  private static long fillLeft(long word, long mask) {
+    if (word == 0 || mask == -1L) {
+      return word == 0 ? 0 : mask;
+    }
+    word |= mask & word << 1;
+    mask &= mask << 1;
+    word |= mask & word << 2;
+    mask &= mask << 2;
+    word |= mask & word << 4;
+    mask &= mask << 4;
+    word |= mask & word << 8;
+    mask &= mask << 8;
+    word |= mask & word << 16;
+    mask &= mask << 16;
+    return word | mask & word << 32;
+  }
+
+  /**
+   * Fill points of {@code mask} from {@code word} to the right i.e.
+   * to lower bits while they are in {@code mask} by doubling shifts.
+   * A full mask as of a long run is filled at once.
+   *
+   * @param word points to start with
+   * @param mask points which could be filled
+   * @return filled points
+   */
+  private static long fillRight(long word, long mask) {
+    if (word == 0 || mask == -1L) {
+      return word == 0 ? 0 : mask;
+    }
+    word |= mask & word >>> 1;
+    mask &= mask >>> 1;
+    word |= mask & word >>> 2;
+    mask &= mask >>> 2;
+    word |= mask & word >>> 4;
+    mask &= mask >>> 4;
+    word |= mask & word >>> 8;
+    mask &= mask >>> 8;
+    word |= mask & word >>> 16;
+    mask &= mask >>> 16;
+    return word | mask & word >>> 32;
+  }
+
+  private static void clear(final long[] words, final int from, final int to) {
+    for (int i = from; i <= to; i++) {
+      words[i] = 0;
+    }
+  }
+}
@@ -0,0 +1,311 @@
+package ru.nuyanzin.canvas;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Storage keeping a single plane of palette indexes, one per point,
+ * and a palette of colors. So the cost of point lookup, drawing and printing
+ * does not depend on the number of colors in use.
+ * While there are not more than {@link #NARROW_PALETTE_LIMIT} colors
+ * a byte per point is used, after that the plane is widened to a short
+ * per point. A row which is not allocated yet contains only index 0
+ * i.e. the empty char.
+ */
+public class PaletteStorage implements CanvasStorage {
+  /**
+   * Name of the storage to use with
+   * {@link ru.nuyanzin.properties.DrawingShellPropertiesEnum#CANVAS_STORAGE}.
+   */
+  public static final String NAME = "palette";
+
+  /**
+   * Max number of colors which could be kept with a byte per point.
+   */
+  private static final int NARROW_PALETTE_LIMIT = 256;
+
+  private final int width;
+  private final int height;
+
+  /**
+   * Colors by their indexes.
+   */
+  private char[] palette = new char[16];
+  private int paletteSize;
+  private final Map<Character, Integer> colorToIndexMap = new HashMap<>();
+
+  /**
+   * Rows of indexes while palette fits into a byte.
+   */
+  private byte[][] narrowRows;
+  /**
+   * Rows of indexes after palette does not fit into a byte anymore.
+   */
+  private short[][] wideRows;
+
+  public PaletteStorage(final int width,
+                        final int height,
+                        final char emptyChar) {
+    this.width = width;
+    this.height = height;
+    this.narrowRows = new byte[height][];
+    getIndex(emptyChar);
+  }
+
+  @Override
+  public char getColor(final int x, final int y) {
+    return palette[indexAt(x, y)];
+  }
+
+  @Override
+  public int getRunEnd(final int x, final int y) {
+    if (isRowEmpty(y)) {
+      return width - 1;
+    }
+    final int index = indexAt(x, y);
+    int end = x;
+    while (end < width - 1 && indexAt(end + 1, y) == index) {
+      end++;
+    }
+    return end;
+  }
+
+  @Override
+  public void drawHorizontalLine(final int x1,
+                                 final int x2,
+                                 final int y,
+                                 final char color) {
+    setRange(x1, x2, y, getIndex(color));
+  }
+
+  @Override
+  public void drawVerticalLine(final int x,
+                               final int y1,
+                               final int y2,
+                               final char color) {
+    final int index = getIndex(color);
+    for (int i = y1; i <= y2; i++) {
+      setRange(x, x, i, index);
+    }
+  }
+
+  /**
+   * Scanline fill: each span of the source color is filled at once
+   * and only the neighbour rows under the span are scanned for new spans.
+   */
+  @Override
+  public void fill(final int x,
+                   final int y,
+                   final char color,
+                   final boolean isB4) {
+    final int source = indexAt(x, y);
+    final int target = getIndex(color);
+    if (source == target) {
+      return;
+    }
+    final int diagonalShift = isB4 ? 0 : 1;
+    int[] stack = new int[32];
+    int stackSize = 0;
+    stack[stackSize++] = x;
+    stack[stackSize++] = y;
+    while (stackSize > 0) {
+      final int currentY = stack[--stackSize];
+      final int currentX = stack[--stackSize];
+      if (indexAt(currentX, currentY) != source) {
+        continue;
+      }
+      int left = currentX;
+      while (left > 0 && indexAt(left - 1, currentY) == source) {
+        left--;
+      }
+      int right = currentX;
+      while (right < width - 1 && indexAt(right + 1, currentY) == source) {
+        right++;
+      }
+      setRange(left, right, currentY, target);
+      final int from = Math.max(0, left - diagonalShift);
+      final int to = Math.min(width - 1, right + diagonalShift);
+      for (int neighbourY = currentY - 1;
+           neighbourY <= currentY + 1;
+           neighbourY += 2) {
+        if (neighbourY < 0 || neighbourY >= height) {
+          continue;
+        }
+        boolean inSpan = false;
+        for (int i = from; i <= to; i++) {
+          boolean isSource = indexAt(i, neighbourY) == source;
+          if (isSource && !inSpan) {
+            if (stackSize + 2 > stack.length) {
+              stack = Arrays.copyOf(stack, stack.length * 2);
+            }
+            stack[stackSize++] = i;
+            stack[stackSize++] = neighbourY;
+          }
+          inSpan = isSource;
+        }
+      }
+    }
+  }
+
+  /**
+   * Rows of indexes are copied by {@link System#arraycopy} which handles
+   * overlapping ranges of a row, rows are visited from the side
+   * the rectangle moves to. A row which is not allocated
+   * copies the empty char.
+   */
+  @Override
+  public void copy(final int x1,
+                   final int x2,
+                   final int y1,
+                   final int y2,
+                   final int x,
+                   final int y) {
+    for (int i = 0; i <= y2 - y1; i++) {
+      final int row = y > y1 ? y2 - i : y1 + i;
+      final int target = row - y1 + y;
+      if (isRowEmpty(row)) {
+        setRange(x, x + x2 - x1, target, 0);
+      } else if (wideRows == null) {
+        if (narrowRows[target] == null) {
+          narrowRows[target] = new byte[width];
+        }
+        System.arraycopy(
+            narrowRows[row], x1, narrowRows[target], x, x2 - x1 + 1);
+      } else {
+        if (wideRows[target] == null) {
+          wideRows[target] = new short[width];
+        }
+        System.arraycopy(wideRows[row], x1, wideRows[target], x, x2 - x1 + 1);
+      }
+    }
+  }
+
+  /**
+   * A new color just takes the palette entry of the color
+   * so no point is touched. Otherwise indexes of the color are replaced
+   * by the index of the new color row by row and the entry of the color
+   * stays to be reused once the color is drawn again.
+   * The empty char kept in rows which are not allocated
+   * is replaced with the new color by default.
+   */
+  @Override
+  public void recolor(final char color,
+                      final char newColor,
+                      final int width,
+                      final int height) {
+    final Integer index = colorToIndexMap.get(color);
+    if (index == null) {
+      return;
+    }
+    final Integer newIndex = colorToIndexMap.get(newColor);
+    if (newIndex == null) {
+      palette[index] = newColor;
+      colorToIndexMap.remove(color);
+      colorToIndexMap.put(newColor, index);
+      return;
+    }
+    if (index == 0) {
+      CanvasStorage.super.recolor(color, newColor, width, height);
+      return;
+    }
+    for (int y = 0; y < height; y++) {
+      if (isRowEmpty(y)) {
+        continue;
+      }
+      for (int x = 0; x < width; x++) {
+        if (indexAt(x, y) == index) {
+          setRange(x, x, y, newIndex);
+        }
+      }
+    }
+  }
+
+  /**
+   * Return palette index of the color adding it to palette if required.
+   *
+   * @param color color to look up
+   * @return index of the color
+   */
+  private int getIndex(final char color) {
+    Integer index = colorToIndexMap.get(color);
+    if (index != null) {
+      return index;
+    }
+    if (paletteSize == NARROW_PALETTE_LIMIT) {
+      widen();
+    }
+    if (paletteSize == palette.length) {
+      palette = Arrays.copyOf(palette, palette.length * 2);
+    }
+    palette[paletteSize] = color;
+    colorToIndexMap.put(color, paletteSize);
+    return paletteSize++;
+  }
+
+  /**
+   * Switch from a byte per point to a short per point.
+   */
+  private void widen() {
+    wideRows = new short[height][];
+    for (int i = 0; i < height; i++) {
+      byte[] narrowRow = narrowRows[i];
+      if (narrowRow == null) {
+        continue;
+      }
+      short[] wideRow = new short[width];
+      for (int j = 0; j < width; j++) {
+        wideRow[j] = (short) (narrowRow[j] & 0xFF);
+      }
+      wideRows[i] = wideRow;
+      // allow gc to take the row as soon as possible
+      narrowRows[i] = null;
+    }
+    narrowRows = null;
+  }
+
+  private boolean isRowEmpty(final int y) {
+    return wideRows == null ? narrowRows[y] == null : wideRows[y] == null;
+  }
+
+  private int indexAt(final int x, final int y) {
+    if (wideRows == null) {
+      byte[] row = narrowRows[y];
+      return row == null ? 0 : row[x] & 0xFF;
+    }
+    short[] row = wideRows[y];
+    return row == null ? 0 : row[x] & 0xFFFF;
+  }
+
+  /**
+   * Set index for points from (x1, y) to (x2, y) inclusive.
+   * Rows are allocated on request only.
+   *
+   * @param x1    first x coordinate
+   * @param x2    second x coordinate
+   * @param y     y coordinate
+   * @param index palette index to set
+   */
+  private void setRange(final int x1,
+                        final int x2,
+                        final int y,
+                        final int index) {
+    if (wideRows == null) {
+      if (narrowRows[y] == null) {
+        if (index == 0) {
+          return;
+        }
+        narrowRows[y] = new byte[width];
+      }
+      Arrays.fill(narrowRows[y], x1, x2 + 1, (byte) index);
+    } else {
+      if (wideRows[y] == null) {
+        if (index == 0) {
+          return;
+        }
+        wideRows[y] = new short[width];
+      }
+      Arrays.fill(wideRows[y], x1, x2 + 1, (short) index);
+    }
+  }
+}
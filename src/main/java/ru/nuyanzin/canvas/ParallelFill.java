@@ -0,0 +1,279 @@
+package ru.nuyanzin.canvas;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Rest of a large fill of a {@link Layer} done on the common
+ * {@link java.util.concurrent.ForkJoinPool} by horizontal bands of rows.
+ * Each band runs the scanline fill of
+ * {@link Layer#fill(int, int, Layer, boolean)} with its own stack of spans
+ * over its own rows. A span next to a border of the band is passed
+ * to the neighbour band which scans its border row under the span
+ * in the next round, rounds go on while bands pass spans to each other.
+ * So only rows the fill reaches are read and the cost grows
+ * with the filled area rather than with the whole layer,
+ * spans touch the same way as for the sequential fill
+ * so the result is the same.
+ * A band changes only its own rows, so bands do not share
+ * anything being changed.
+ */
+final class ParallelFill {
+  /**
+   * Min number of rows of a band.
+   */
+  static final int MIN_BAND_ROWS = 64;
+  /**
+   * Number of bands per thread of the pool so threads finishing
+   * early take bands of others.
+   */
+  private static final int BANDS_PER_THREAD = 4;
+
+  private final Layer layer;
+  private final int width;
+  private final long[][] currentFill;
+  private final int diagonalShift;
+  private final Band[] bands;
+
+  private ParallelFill(final Layer layer,
+                       final int width,
+                       final long[][] currentFill,
+                       final int diagonalShift,
+                       final int bandCount) {
+    this.layer = layer;
+    this.width = width;
+    this.currentFill = currentFill;
+    this.diagonalShift = diagonalShift;
+    this.bands = new Band[bandCount];
+    final int height = currentFill.length;
+    for (int i = 0; i < bandCount; i++) {
+      bands[i] = new Band((int) ((long) height * i / bandCount),
+          (int) ((long) height * (i + 1) / bandCount) - 1);
+    }
+  }
+
+  /**
+   * Return number of bands to fill the layer of the height with
+   * or 1 if the layer is too low to be split.
+   *
+   * @param height      height of the layer
+   * @param bandRows    min number of rows of a band
+   * @param parallelism number of threads to fill with
+   * @return number of bands
+   */
+  static int getBandCount(final int height,
+                          final int bandRows,
+                          final int parallelism) {
+    return Math.max(1, Math.min(
+        height / bandRows, BANDS_PER_THREAD * parallelism));
+  }
+
+  /**
+   * Take out of the layer all points connected to the spans
+   * already taken but not handled yet and mark them in
+   * {@code currentFill}.
+   *
+   * @param layer         layer to fill
+   * @param width         width of the layer
+   * @param currentFill   filled points by rows
+   * @param spans         spans as triples of the row,
+   *                      the first and the last points
+   * @param spanCount     number of ints of spans
+   * @param diagonalShift 1 for 8-dots approach and 0 for 4-dots one
+   * @param bandCount     number of bands
+   */
+  static void fill(final Layer layer,
+                   final int width,
+                   final long[][] currentFill,
+                   final int[] spans,
+                   final int spanCount,
+                   final int diagonalShift,
+                   final int bandCount) {
+    final ParallelFill fill = new ParallelFill(
+        layer, width, currentFill, diagonalShift, bandCount);
+    for (int i = 0; i < spanCount; i += 3) {
+      fill.bands[fill.findBand(spans[i])].spans
+          .add(spans[i], spans[i + 1], spans[i + 2]);
+    }
+    List<Band> busy = Arrays.asList(fill.bands);
+    while (!busy.isEmpty()) {
+      invokeAll(busy);
+      busy = fill.exchange();
+    }
+  }
+
+  /**
+   * Fill each band concurrently and wait for all of them.
+   */
+  private static void invokeAll(final List<Band> bands) {
+    final List<RecursiveAction> tasks = new ArrayList<>(bands.size());
+    for (Band band : bands) {
+      tasks.add(new RecursiveAction() {
+        @Override
+        protected void compute() {
+          band.fill();
+        }
+      });
+    }
+    ForkJoinTask.invokeAll(tasks);
+  }
+
+  /**
+   * Pass spans next to borders of bands to the neighbour bands.
+   *
+   * @return bands having spans to handle
+   */
+  private List<Band> exchange() {
+    for (int i = 0; i < bands.length; i++) {
+      if (i > 0) {
+        bands[i - 1].borderSpans.addAll(bands[i].upperSpans);
+      }
+      if (i < bands.length - 1) {
+        bands[i + 1].borderSpans.addAll(bands[i].lowerSpans);
+      }
+      bands[i].upperSpans.clear();
+      bands[i].lowerSpans.clear();
+    }
+    final List<Band> busy = new ArrayList<>();
+    for (Band band : bands) {
+      if (!band.borderSpans.isEmpty()) {
+        busy.add(band);
+      }
+    }
+    return busy;
+  }
+
+  private int findBand(final int y) {
+    int low = 0;
+    int high = bands.length - 1;
+    while (low < high) {
+      final int middle = (low + high + 1) >>> 1;
+      if (bands[middle].top <= y) {
+        low = middle;
+      } else {
+        high = middle - 1;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * Stack of spans as triples of the row, the first and the last points.
+   */
+  private static final class Spans {
+    private int[] values = new int[3 * 16];
+    private int size;
+
+    void add(final int y, final int first, final int last) {
+      if (size + 3 > values.length) {
+        values = Arrays.copyOf(values, 2 * values.length);
+      }
+      values[size++] = y;
+      values[size++] = first;
+      values[size++] = last;
+    }
+
+    void addAll(final Spans spans) {
+      if (size + spans.size > values.length) {
+        values = Arrays.copyOf(values,
+            Math.max(size + spans.size, 2 * values.length));
+      }
+      System.arraycopy(spans.values, 0, values, size, spans.size);
+      size += spans.size;
+    }
+
+    boolean isEmpty() {
+      return size == 0;
+    }
+
+    void clear() {
+      size = 0;
+    }
+  }
+
+  /**
+   * Rows from {@code top} to {@code bottom} inclusive
+   * with spans to handle.
+   */
+  private final class Band {
+    private final int top;
+    private final int bottom;
+    /**
+     * Spans taken out of rows of the band
+     * whose neighbour rows are not scanned yet.
+     */
+    private final Spans spans = new Spans();
+    /**
+     * Spans taken out of rows of neighbour bands next to the band
+     * whose neighbour row within the band is not scanned yet.
+     */
+    private final Spans borderSpans = new Spans();
+    /**
+     * Spans of the top row to pass to the upper band.
+     */
+    private final Spans upperSpans = new Spans();
+    /**
+     * Spans of the bottom row to pass to the lower band.
+     */
+    private final Spans lowerSpans = new Spans();
+
+    Band(final int top, final int bottom) {
+      this.top = top;
+      this.bottom = bottom;
+    }
+
+    /**
+     * Take out of rows of the band all points connected to its spans
+     * and spans of neighbour bands next to it.
+     */
+    void fill() {
+      for (int i = 0; i < borderSpans.size; i += 3) {
+        final int y = borderSpans.values[i];
+        scan(y < top ? top : bottom,
+            borderSpans.values[i + 1], borderSpans.values[i + 2]);
+      }
+      borderSpans.clear();
+      while (!spans.isEmpty()) {
+        final int last = spans.values[--spans.size];
+        final int first = spans.values[--spans.size];
+        final int y = spans.values[--spans.size];
+        if (y > top) {
+          scan(y - 1, first, last);
+        } else if (y > 0) {
+          upperSpans.add(y, first, last);
+        }
+        if (y < bottom) {
+          scan(y + 1, first, last);
+        } else if (y < currentFill.length - 1) {
+          lowerSpans.add(y, first, last);
+        }
+      }
+    }
+
+    /**
+     * Take runs of the row of the band under the span of a neighbour row
+     * (one point wider for 8-dots approach) and push them as spans.
+     */
+    private void scan(final int y, final int first, final int last) {
+      final int from = Math.max(0, first - diagonalShift);
+      final int to = Math.min(width - 1, last + diagonalShift);
+      Container line = layer.getLine(y);
+      int i = line == null ? -1 : line.nextSetBit(from);
+      while (i != -1 && i <= to) {
+        final int spanFirst = layer.getFirstSetIndexInARow(line, i);
+        final int spanLast = layer.getLastSetIndexInARow(line, i);
+        if (currentFill[y] == null) {
+          currentFill[y] = new long[WordBitmap.wordCount(width)];
+        }
+        layer.takeSpan(currentFill[y], y, spanFirst, spanLast);
+        spans.add(y, spanFirst, spanLast);
+        line = layer.getLine(y);
+        i = line == null || spanLast + 1 >= width
+            ? -1 : line.nextSetBit(spanLast + 1);
+      }
+    }
+  }
+}
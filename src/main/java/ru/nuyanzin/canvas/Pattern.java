@@ -0,0 +1,152 @@
+package ru.nuyanzin.canvas;
+
+/**
+ * Tile of colors repeated over an area filled by
+ * {@link Canvas#fill(int, int, Pattern, boolean)}, e.g. a checker or
+ * a hatch. The tile is anchored at the top left corner of the canvas,
+ * so areas filled one by one continue the same pattern.
+ * For each color and each row of the tile the words of points
+ * (see {@link WordBitmap}) are built once when the pattern is created,
+ * so a storage keeping bit rows takes points of a color from
+ * a filled row by ANDing it with the words of the color.
+ * The tile row repeats every {@code width} points, so a word starting
+ * at a multiple of 64 is one of {@code width / gcd(width, 64)} words
+ * of the row whatever the width of the canvas is.
+ */
+public final class Pattern {
+  private final char[][] tile;
+  private final int width;
+  /**
+   * Colors of the tile other than {@link Stamp#CLEAR_CHAR}.
+   */
+  private final char[] colors;
+  /**
+   * Number of points a word start moves within the tile row
+   * from a word to the next one, the greatest common divisor
+   * of the width and 64.
+   */
+  private final int phaseStep;
+  /**
+   * Words of points by colors, rows of the tile
+   * and offsets of the word start within the tile row
+   * divided by {@link #phaseStep}.
+   */
+  private final long[][][] words;
+
+  private Pattern(final char[][] tile, final int width) {
+    this.tile = tile;
+    this.width = width;
+    final StringBuilder distinctColors = new StringBuilder();
+    for (char[] row : tile) {
+      for (char color : row) {
+        if (color != Stamp.CLEAR_CHAR
+            && distinctColors.indexOf(String.valueOf(color)) == -1) {
+          distinctColors.append(color);
+        }
+      }
+    }
+    this.colors = distinctColors.toString().toCharArray();
+    int gcd = width;
+    int other = Long.SIZE;
+    while (other != 0) {
+      final int rest = gcd % other;
+      gcd = other;
+      other = rest;
+    }
+    this.phaseStep = gcd;
+    this.words = new long[colors.length][tile.length][width / phaseStep];
+    for (int c = 0; c < colors.length; c++) {
+      for (int row = 0; row < tile.length; row++) {
+        for (int phase = 0; phase < width / phaseStep; phase++) {
+          long word = 0;
+          for (int i = 0; i < Long.SIZE; i++) {
+            if (tile[row][(phase * phaseStep + i) % width] == colors[c]) {
+              word |= 1L << i;
+            }
+          }
+          words[c][row][phase] = word;
+        }
+      }
+    }
+  }
+
+  /**
+   * Create pattern from rows of colors where {@link Stamp#CLEAR_CHAR}
+   * is a point keeping its color. Rows shorter than the longest one
+   * are completed by clear points.
+   *
+   * @param rows rows of the tile from top to bottom
+   * @return new pattern
+   */
+  public static Pattern of(final String... rows) {
+    int width = 1;
+    for (String row : rows) {
+      width = Math.max(width, row.length());
+    }
+    final char[][] tile = new char[Math.max(1, rows.length)][width];
+    for (int row = 0; row < tile.length; row++) {
+      for (int x = 0; x < width; x++) {
+        tile[row][x] = row < rows.length && x < rows[row].length()
+            ? rows[row].charAt(x) : Stamp.CLEAR_CHAR;
+      }
+    }
+    return new Pattern(tile, width);
+  }
+
+  public int getWidth() {
+    return width;
+  }
+
+  public int getHeight() {
+    return tile.length;
+  }
+
+  /**
+   * Return colors of the pattern except {@link Stamp#CLEAR_CHAR}.
+   *
+   * @return colors which should not be changed
+   */
+  char[] getColors() {
+    return colors;
+  }
+
+  /**
+   * Return color the pattern gives to the point.
+   *
+   * @param x x coordinate on the canvas
+   * @param y y coordinate on the canvas
+   * @return color or {@link Stamp#CLEAR_CHAR} if the point keeps its color
+   */
+  char getColor(final int x, final int y) {
+    return tile[y % tile.length][x % width];
+  }
+
+  /**
+   * Return points of the color with the index {@code colorIndex}
+   * in {@link #getColors()} of the word {@code wordIndex} of the row.
+   *
+   * @param colorIndex index of the color
+   * @param y          y coordinate on the canvas
+   * @param wordIndex  index of the word in the row of the canvas
+   * @return word with the point {@code 64 * wordIndex + i} as the bit i
+   */
+  long getWord(final int colorIndex, final int y, final int wordIndex) {
+    final int phase = (int) ((long) wordIndex * Long.SIZE % width);
+    return words[colorIndex][y % tile.length][phase / phaseStep];
+  }
+
+  /**
+   * Return the same pattern with x and y coordinates swapped.
+   *
+   * @return transposed pattern
+   */
+  Pattern transpose() {
+    final char[][] transposed = new char[width][tile.length];
+    for (int row = 0; row < tile.length; row++) {
+      for (int x = 0; x < width; x++) {
+        transposed[x][row] = tile[row][x];
+      }
+    }
+    return new Pattern(transposed, tile.length);
+  }
+}
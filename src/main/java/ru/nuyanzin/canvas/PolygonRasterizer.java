@@ -0,0 +1,197 @@
+package ru.nuyanzin.canvas;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Scanline rasterizer of filled polygons with an active edge table.
+ * The inner area follows the even-odd rule: for each row within
+ * the canvas the crossings of edges active on the row are sorted
+ * and each pair of them bounds a span of points.
+ * An edge is active on rows from its upper end inclusive
+ * to its lower end exclusive, horizontal edges are never active.
+ * The x coordinate of the crossing of an active edge is kept
+ * as an integer part and a remainder stepped exactly from row to row.
+ * The outline is drawn by {@link LineRasterizer} so the points
+ * on edges are the same as for lines through the vertices.
+ * The time is proportional to the number of rows within the canvas
+ * multiplied by the number of active edges plus the number of edges.
+ */
+final class PolygonRasterizer {
+
+  private PolygonRasterizer() {
+  }
+
+  /**
+   * Fill the polygon with vertices with 0-based coordinates
+   * which could be out of the canvas.
+   *
+   * @param storage storage to draw spans
+   * @param xs      x coordinates of vertices
+   * @param ys      y coordinates of vertices
+   * @param width   width of the canvas
+   * @param height  height of the canvas
+   * @param color   color of the polygon
+   */
+  static void fill(final CanvasStorage storage,
+                   final long[] xs,
+                   final long[] ys,
+                   final int width,
+                   final int height,
+                   final char color) {
+    final Edge[] edges = createEdges(xs, ys, height);
+    if (edges.length > 0) {
+      fillInner(storage, edges, width, height, color);
+    }
+    for (int i = 0; i < xs.length; i++) {
+      final int next = (i + 1) % xs.length;
+      LineRasterizer.draw(storage, xs[i], ys[i], xs[next], ys[next],
+          width, height, color);
+    }
+  }
+
+  /**
+   * Return non-horizontal edges having rows within the canvas
+   * sorted by the first such row.
+   */
+  private static Edge[] createEdges(final long[] xs,
+                                    final long[] ys,
+                                    final int height) {
+    Edge[] edges = new Edge[xs.length];
+    int count = 0;
+    for (int i = 0; i < xs.length; i++) {
+      final int next = (i + 1) % xs.length;
+      if (ys[i] == ys[next]) {
+        continue;
+      }
+      final boolean isDown = ys[i] < ys[next];
+      final Edge edge = new Edge(
+          isDown ? xs[i] : xs[next], isDown ? ys[i] : ys[next],
+          isDown ? xs[next] : xs[i], isDown ? ys[next] : ys[i]);
+      if (edge.firstRow <= Math.min(edge.bottom - 1, height - 1L)) {
+        edges[count++] = edge;
+      }
+    }
+    edges = Arrays.copyOf(edges, count);
+    Arrays.sort(edges, Comparator.comparingLong(edge -> edge.firstRow));
+    return edges;
+  }
+
+  private static void fillInner(final CanvasStorage storage,
+                                final Edge[] edges,
+                                final int width,
+                                final int height,
+                                final char color) {
+    long lastRow = 0;
+    for (Edge edge : edges) {
+      lastRow = Math.max(lastRow, Math.min(edge.bottom - 1, height - 1L));
+    }
+    final SpanBatch batch = new SpanBatch(storage, color);
+    final Edge[] active = new Edge[edges.length];
+    int activeCount = 0;
+    int nextEdge = 0;
+    for (long y = edges[0].firstRow; y <= lastRow; y++) {
+      // drop edges ended above the row and step the rest
+      int kept = 0;
+      for (int i = 0; i < activeCount; i++) {
+        if (active[i].bottom > y) {
+          active[i].step();
+          active[kept++] = active[i];
+        }
+      }
+      activeCount = kept;
+      while (nextEdge < edges.length && edges[nextEdge].firstRow == y) {
+        edges[nextEdge].start(y);
+        active[activeCount++] = edges[nextEdge++];
+      }
+      // crossings move little from row to row so insertion sort is used
+      for (int i = 1; i < activeCount; i++) {
+        final Edge edge = active[i];
+        int j = i - 1;
+        while (j >= 0 && active[j].compareTo(edge) > 0) {
+          active[j + 1] = active[j];
+          j--;
+        }
+        active[j + 1] = edge;
+      }
+      for (int i = 0; i + 1 < activeCount; i += 2) {
+        final Edge left = active[i];
+        final long from = left.quotient + (left.remainder > 0 ? 1 : 0);
+        final long to = Math.min(width - 1L, active[i + 1].quotient);
+        if (Math.max(0, from) <= to) {
+          batch.add((int) Math.max(0, from), (int) to, (int) y);
+        }
+      }
+    }
+    batch.flush();
+  }
+
+  /**
+   * Edge going down from (xTop, top) to (xBottom, bottom).
+   * The crossing with the current row is
+   * quotient + remainder / (bottom - top).
+   */
+  private static final class Edge implements Comparable<Edge> {
+    private final long xTop;
+    private final long top;
+    private final long dx;
+    private final long dy;
+    private final long bottom;
+    private final long firstRow;
+    private final long stepQuotient;
+    private final long stepRemainder;
+    private long quotient;
+    private long remainder;
+
+    Edge(final long xTop,
+         final long top,
+         final long xBottom,
+         final long bottom) {
+      this.xTop = xTop;
+      this.top = top;
+      this.dx = xBottom - xTop;
+      this.dy = bottom - top;
+      this.bottom = bottom;
+      this.firstRow = Math.max(0, top);
+      this.stepQuotient = Math.floorDiv(dx, dy);
+      this.stepRemainder = Math.floorMod(dx, dy);
+    }
+
+    /**
+     * Find the crossing with the row the edge becomes active on.
+     */
+    void start(final long y) {
+      final long[] crossing = LineRasterizer.divide(y - top, dx, 0, dy);
+      quotient = xTop + crossing[0];
+      remainder = crossing[1];
+    }
+
+    /**
+     * Move the crossing to the next row.
+     */
+    void step() {
+      quotient += stepQuotient;
+      remainder += stepRemainder;
+      if (remainder >= dy) {
+        remainder -= dy;
+        quotient++;
+      }
+    }
+
+    @Override
+    public int compareTo(final Edge other) {
+      if (quotient != other.quotient) {
+        return quotient < other.quotient ? -1 : 1;
+      }
+      // remainder / dy against other.remainder / other.dy
+      if (dy <= Integer.MAX_VALUE && other.dy <= Integer.MAX_VALUE) {
+        return Long.compare(remainder * other.dy, other.remainder * dy);
+      }
+      return BigInteger.valueOf(remainder)
+          .multiply(BigInteger.valueOf(other.dy))
+          .compareTo(BigInteger.valueOf(other.remainder)
+              .multiply(BigInteger.valueOf(dy)));
+    }
+  }
+}
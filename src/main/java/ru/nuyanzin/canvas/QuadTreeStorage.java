@@ -0,0 +1,413 @@
+package ru.nuyanzin.canvas;
+
+import java.util.Arrays;
+
+/**
+ * Storage keeping the canvas as a quadtree: the square of the smallest
+ * power of two side covering the canvas is split into four quadrants
+ * until a quadrant has all its points of the same color.
+ * Such a uniform quadrant is a leaf keeping only the color, so
+ * the color of a point is found in O(log n), runs are reported
+ * by whole leaves and fill recolors whole leaves without visiting points.
+ * Quadrants split only along drawn lines and are merged back
+ * as soon as they become uniform again.
+ * Parts of quadrants out of the canvas are ignored i.e. a quadrant
+ * is uniform if all its points within the canvas have the same color.
+ */
+public class QuadTreeStorage implements CanvasStorage {
+  /**
+   * Name of the storage to use with
+   * {@link ru.nuyanzin.properties.DrawingShellPropertiesEnum#CANVAS_STORAGE}.
+   */
+  public static final String NAME = "quadtree";
+
+  private static final int MAX_START = 0;
+  private static final int MIN_END = 1;
+  private static final int MIN_START = 2;
+  private static final int MAX_END = 3;
+  private static final int SPAN_BOUNDS = 4;
+
+  private final int width;
+  private final int height;
+  /**
+   * The root covers 2^rootShift x 2^rootShift points.
+   */
+  private final int rootShift;
+  private final Node root;
+
+  /**
+   * Shift of the leaf found by the last {@link #findLeaf(int, int)}.
+   */
+  private int leafShift;
+
+  /**
+   * Bounds of spans drawn by {@link #drawSpans(int, int, int[], int[], char)}
+   * for aligned blocks of rows of each level starting from
+   * the block of {@link #spanTop}.
+   */
+  private int[][][] spanBounds;
+  private int spanTop;
+
+  /**
+   * Stack of points to process while filling.
+   */
+  private int[] fillStack;
+  private int fillStackSize;
+
+  public QuadTreeStorage(final int width,
+                         final int height,
+                         final char emptyChar) {
+    this.width = width;
+    this.height = height;
+    this.rootShift = Integer.SIZE
+        - Integer.numberOfLeadingZeros(Math.max(width, height) - 1);
+    this.root = new Node(emptyChar);
+  }
+
+  @Override
+  public char getColor(final int x, final int y) {
+    return findLeaf(x, y).color;
+  }
+
+  @Override
+  public int getRunEnd(final int x, final int y) {
+    final char color = getColor(x, y);
+    int cursor = x;
+    while (true) {
+      if (findLeaf(cursor, y).color != color) {
+        return cursor - 1;
+      }
+      final int end = leafEnd(cursor, width);
+      if (end == width - 1) {
+        return end;
+      }
+      cursor = end + 1;
+    }
+  }
+
+  @Override
+  public void drawHorizontalLine(final int x1,
+                                 final int x2,
+                                 final int y,
+                                 final char color) {
+    set(root, rootShift, 0, 0, x1, x2, y, y, color);
+  }
+
+  @Override
+  public void drawVerticalLine(final int x,
+                               final int y1,
+                               final int y2,
+                               final char color) {
+    set(root, rootShift, 0, 0, x, x, y1, y2, color);
+  }
+
+  /**
+   * Quadrants entirely inside the rectangle become leaves at once.
+   */
+  @Override
+  public void fillRectangle(final int x1,
+                            final int x2,
+                            final int y1,
+                            final int y2,
+                            final char color) {
+    set(root, rootShift, 0, 0, x1, x2, y1, y2, color);
+  }
+
+  /**
+   * Spans are set by one pass over the tree rather than row by row
+   * as a row splits all quadrants along it down to single points.
+   * For each quadrant the bounds of spans of its rows tell
+   * if it is covered by all of them, missed by all of them
+   * or should be split. The bounds are kept for blocks of rows
+   * aligned the same way as quadrants on each level.
+   */
+  @Override
+  public void drawSpans(final int top,
+                        final int count,
+                        final int[] starts,
+                        final int[] ends,
+                        final char color) {
+    if (count == 0) {
+      return;
+    }
+    spanBounds = new int[rootShift + 1][][];
+    spanTop = top;
+    for (int level = 0; level <= rootShift; level++) {
+      final int blocks = ((top + count - 1) >> level) - (top >> level) + 1;
+      final int[][] bounds = new int[SPAN_BOUNDS][blocks];
+      Arrays.fill(bounds[MAX_START], Integer.MIN_VALUE);
+      Arrays.fill(bounds[MIN_END], Integer.MAX_VALUE);
+      Arrays.fill(bounds[MIN_START], Integer.MAX_VALUE);
+      Arrays.fill(bounds[MAX_END], Integer.MIN_VALUE);
+      for (int i = 0; i < count; i++) {
+        final boolean isEmpty = starts[i] > ends[i];
+        final int start = isEmpty ? Integer.MAX_VALUE : starts[i];
+        final int end = isEmpty ? Integer.MIN_VALUE : ends[i];
+        final int block = ((top + i) >> level) - (top >> level);
+        bounds[MAX_START][block] = Math.max(bounds[MAX_START][block], start);
+        bounds[MIN_END][block] = Math.min(bounds[MIN_END][block], end);
+        bounds[MIN_START][block] = Math.min(bounds[MIN_START][block], start);
+        bounds[MAX_END][block] = Math.max(bounds[MAX_END][block], end);
+      }
+      // rows of a block out of the spans are not covered
+      if ((top & ((1 << level) - 1)) != 0) {
+        bounds[MIN_END][0] = Integer.MIN_VALUE;
+      }
+      if ((top + count & ((1 << level) - 1)) != 0) {
+        bounds[MIN_END][blocks - 1] = Integer.MIN_VALUE;
+      }
+      spanBounds[level] = bounds;
+    }
+    setSpans(root, rootShift, 0, 0, color);
+    spanBounds = null;
+  }
+
+  /**
+   * Set color for spans within the node
+   * with the top left corner at (left, top).
+   */
+  private void setSpans(final Node node,
+                        final int shift,
+                        final long left,
+                        final long top,
+                        final char color) {
+    final int[][] bounds = spanBounds[shift];
+    final long block = (top >> shift) - (spanTop >> shift);
+    if (block < 0 || block >= bounds[0].length) {
+      return;
+    }
+    final int index = (int) block;
+    final long right = Math.min(left + (1L << shift), width) - 1;
+    if (bounds[MAX_END][index] < left || bounds[MIN_START][index] > right) {
+      return;
+    }
+    if (bounds[MAX_START][index] <= left && bounds[MIN_END][index] >= right) {
+      node.color = color;
+      node.children = null;
+      return;
+    }
+    if (node.children == null) {
+      if (node.color == color) {
+        return;
+      }
+      split(node, 1L << (shift - 1), left, top);
+    }
+    final long half = 1L << (shift - 1);
+    for (int i = 0; i < node.children.length; i++) {
+      if (node.children[i] != null) {
+        setSpans(node.children[i], shift - 1,
+            left + (i & 1) * half, top + (i >> 1) * half, color);
+      }
+    }
+    merge(node);
+  }
+
+  /**
+   * Flood fill by leaves: a leaf of the source color is recolored at once
+   * and leaves along its sides are pushed to process later.
+   * So the fill of a uniform area takes time proportional
+   * to the number of leaves rather than points.
+   */
+  @Override
+  public void fill(final int x,
+                   final int y,
+                   final char color,
+                   final boolean isB4) {
+    final char source = getColor(x, y);
+    final int diagonalShift = isB4 ? 0 : 1;
+    fillStack = new int[32];
+    fillStackSize = 0;
+    push(x, y);
+    while (fillStackSize > 0) {
+      final int currentY = fillStack[--fillStackSize];
+      final int currentX = fillStack[--fillStackSize];
+      if (findLeaf(currentX, currentY).color != source) {
+        continue;
+      }
+      final int left = leafStart(currentX);
+      final int top = leafStart(currentY);
+      final int right = leafEnd(currentX, width);
+      final int bottom = leafEnd(currentY, height);
+      set(root, rootShift, 0, 0, left, right, top, bottom, color);
+      pushSourceLeaves(left - diagonalShift, right + diagonalShift,
+          top - 1, top - 1, source);
+      pushSourceLeaves(left - diagonalShift, right + diagonalShift,
+          bottom + 1, bottom + 1, source);
+      pushSourceLeaves(left - 1, left - 1, top, bottom, source);
+      pushSourceLeaves(right + 1, right + 1, top, bottom, source);
+    }
+    fillStack = null;
+  }
+
+  /**
+   * Push to the fill stack a point of each leaf of the source color
+   * along a row or a column segment. The segment is clipped to the canvas.
+   */
+  private void pushSourceLeaves(final int x1,
+                                final int x2,
+                                final int y1,
+                                final int y2,
+                                final char source) {
+    final int fromX = Math.max(0, x1);
+    final int toX = Math.min(width - 1, x2);
+    final int fromY = Math.max(0, y1);
+    final int toY = Math.min(height - 1, y2);
+    if (fromX > toX || fromY > toY) {
+      return;
+    }
+    final boolean isRow = fromY == toY;
+    int cursor = isRow ? fromX : fromY;
+    final int end = isRow ? toX : toY;
+    while (true) {
+      final int pointX = isRow ? cursor : fromX;
+      final int pointY = isRow ? fromY : cursor;
+      if (findLeaf(pointX, pointY).color == source) {
+        push(pointX, pointY);
+      }
+      final int leafEnd = isRow
+          ? leafEnd(cursor, width) : leafEnd(cursor, height);
+      if (leafEnd >= end) {
+        return;
+      }
+      cursor = leafEnd + 1;
+    }
+  }
+
+  private void push(final int x, final int y) {
+    if (fillStackSize + 2 > fillStack.length) {
+      fillStack = Arrays.copyOf(fillStack, fillStack.length * 2);
+    }
+    fillStack[fillStackSize++] = x;
+    fillStack[fillStackSize++] = y;
+  }
+
+  /**
+   * Return the leaf containing the point (x, y)
+   * and keep its size in {@link #leafShift}.
+   */
+  private Node findLeaf(final int x, final int y) {
+    Node node = root;
+    int shift = rootShift;
+    while (node.children != null) {
+      shift--;
+      node = node.children[childIndex(x, y, shift)];
+    }
+    leafShift = shift;
+    return node;
+  }
+
+  /**
+   * Return the first coordinate of the last found leaf
+   * containing {@code coordinate}.
+   */
+  private int leafStart(final int coordinate) {
+    return (int) (coordinate & -(1L << leafShift));
+  }
+
+  /**
+   * Return the last coordinate of the last found leaf
+   * containing {@code coordinate} limited by {@code limit}.
+   */
+  private int leafEnd(final int coordinate, final int limit) {
+    return (int) Math.min(limit - 1L,
+        leafStart(coordinate) + (1L << leafShift) - 1);
+  }
+
+  private static int childIndex(final int x, final int y, final int shift) {
+    return (x >>> shift & 1) | (y >>> shift & 1) << 1;
+  }
+
+  /**
+   * Set color for the area from (x1, y1) to (x2, y2) inclusive
+   * within the node with the top left corner at (left, top).
+   * Leaves are split only if they are partially covered by the area
+   * and nodes which become uniform are merged back to leaves.
+   */
+  private void set(final Node node,
+                   final int shift,
+                   final long left,
+                   final long top,
+                   final int x1,
+                   final int x2,
+                   final int y1,
+                   final int y2,
+                   final char color) {
+    final long size = 1L << shift;
+    final long right = Math.min(left + size, width) - 1;
+    final long bottom = Math.min(top + size, height) - 1;
+    if (x1 <= left && right <= x2 && y1 <= top && bottom <= y2) {
+      node.color = color;
+      node.children = null;
+      return;
+    }
+    if (node.children == null) {
+      if (node.color == color) {
+        return;
+      }
+      split(node, size >> 1, left, top);
+    }
+    final long half = size >> 1;
+    for (int i = 0; i < node.children.length; i++) {
+      final Node child = node.children[i];
+      final long childLeft = left + (i & 1) * half;
+      final long childTop = top + (i >> 1) * half;
+      if (child != null
+          && childLeft <= x2 && x1 < childLeft + half
+          && childTop <= y2 && y1 < childTop + half) {
+        set(child, shift - 1, childLeft, childTop, x1, x2, y1, y2, color);
+      }
+    }
+    merge(node);
+  }
+
+  /**
+   * Split the leaf into four leaves of its color.
+   * Quadrants entirely out of the canvas are not created.
+   */
+  private void split(final Node node,
+                     final long half,
+                     final long left,
+                     final long top) {
+    node.children = new Node[4];
+    for (int i = 0; i < node.children.length; i++) {
+      if (left + (i & 1) * half < width && top + (i >> 1) * half < height) {
+        node.children[i] = new Node(node.color);
+      }
+    }
+  }
+
+  /**
+   * Turn the node into a leaf if all its children are leaves
+   * of the same color.
+   */
+  private static void merge(final Node node) {
+    char color = 0;
+    boolean isFirst = true;
+    for (Node child : node.children) {
+      if (child == null) {
+        continue;
+      }
+      if (child.children != null || !isFirst && child.color != color) {
+        return;
+      }
+      color = child.color;
+      isFirst = false;
+    }
+    node.color = color;
+    node.children = null;
+  }
+
+  /**
+   * Node of the tree. It is a leaf of a single color if there are
+   * no children. Otherwise it has four quadrants: top left, top right,
+   * bottom left and bottom right, null for quadrants out of the canvas.
+   */
+  private static final class Node {
+    private char color;
+    private Node[] children;
+
+    Node(final char color) {
+      this.color = color;
+    }
+  }
+}
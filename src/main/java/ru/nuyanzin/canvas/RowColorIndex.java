@@ -0,0 +1,89 @@
+package ru.nuyanzin.canvas;
+
+import java.util.Arrays;
+
+/**
+ * Index of layers owning points in each row of {@link LayeredStorage}.
+ * So drawing and looking up points in a row visit only the layers
+ * having points in this row rather than all the layers.
+ * Layers of a row are kept in an array of the exact size
+ * and colors are taken from the layers, so a layer given
+ * to a new color is found by the new color without visiting rows.
+ * Arrays are replaced on each change of the set of layers,
+ * so an array returned by {@link #getLayers(int)}
+ * could be iterated while the row changes.
+ * Rows are allocated on the first layer added,
+ * so creation of a huge canvas costs nothing as for layers.
+ */
+final class RowColorIndex {
+  private static final Layer[] NO_LAYERS = new Layer[0];
+
+  private final int height;
+  /**
+   * Layers by rows, null for rows without layers.
+   */
+  private Layer[][] layers;
+
+  RowColorIndex(final int height) {
+    this.height = height;
+  }
+
+  /**
+   * Return layers owning points in the row.
+   * The returned array should not be changed.
+   *
+   * @param y index of the row
+   * @return layers of the row
+   */
+  Layer[] getLayers(final int y) {
+    return layers == null || layers[y] == null ? NO_LAYERS : layers[y];
+  }
+
+  /**
+   * Mark the layer as owning points in the row.
+   *
+   * @param y     index of the row
+   * @param layer layer of a color
+   */
+  void add(final int y, final Layer layer) {
+    if (layers == null) {
+      layers = new Layer[height][];
+    }
+    final Layer[] rowLayers = getLayers(y);
+    for (int i = 0; i < rowLayers.length; i++) {
+      if (rowLayers[i].getColor() == layer.getColor()) {
+        // the color could get a new layer after fill
+        rowLayers[i] = layer;
+        return;
+      }
+    }
+    final int length = rowLayers.length;
+    final Layer[] newLayers = Arrays.copyOf(rowLayers, length + 1);
+    newLayers[length] = layer;
+    layers[y] = newLayers;
+  }
+
+  /**
+   * Mark the layer as not owning points in the row.
+   *
+   * @param y     index of the row
+   * @param layer layer of a color
+   */
+  void remove(final int y, final Layer layer) {
+    final Layer[] rowLayers = getLayers(y);
+    for (int i = 0; i < rowLayers.length; i++) {
+      if (rowLayers[i].getColor() == layer.getColor()) {
+        final int length = rowLayers.length - 1;
+        if (length == 0) {
+          layers[y] = null;
+          return;
+        }
+        final Layer[] newLayers = new Layer[length];
+        System.arraycopy(rowLayers, 0, newLayers, 0, i);
+        System.arraycopy(rowLayers, i + 1, newLayers, i, length - i);
+        layers[y] = newLayers;
+        return;
+      }
+    }
+  }
+}
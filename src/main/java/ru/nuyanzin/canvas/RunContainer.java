@@ -0,0 +1,182 @@
+package ru.nuyanzin.canvas;
+
+import java.util.Arrays;
+
+/**
+ * Container keeping points as sorted runs
+ * i.e. pairs of the first and the last points of each run.
+ * Runs are neither overlapping nor adjacent.
+ * Runs are changed in place and the array grows twice when full.
+ */
+final class RunContainer extends Container {
+  private int[] runs;
+  private int runCount;
+
+  RunContainer(final int[] runs, final int runCount) {
+    this.runs = runs;
+    this.runCount = runCount;
+  }
+
+  private int getStart(final int run) {
+    return runs[2 * run];
+  }
+
+  private int getEnd(final int run) {
+    return runs[2 * run + 1];
+  }
+
+  /**
+   * Return the first run ending at {@code index} or after it
+   * or {@link #runCount} if there is no such run.
+   */
+  private int findRunEndingFrom(final int index) {
+    int low = 0;
+    int high = runCount;
+    while (low < high) {
+      final int middle = (low + high) >>> 1;
+      if (getEnd(middle) < index) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * Return the last run starting at {@code index} or before it
+   * or -1 if there is no such run.
+   */
+  private int findRunStartingTill(final int index) {
+    int low = 0;
+    int high = runCount;
+    while (low < high) {
+      final int middle = (low + high) >>> 1;
+      if (getStart(middle) <= index) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low - 1;
+  }
+
+  @Override
+  boolean get(final int index) {
+    final int run = findRunStartingTill(index);
+    return run >= 0 && getEnd(run) >= index;
+  }
+
+  @Override
+  int nextSetBit(final int fromIndex) {
+    final int run = findRunEndingFrom(fromIndex);
+    return run == runCount ? -1 : Math.max(fromIndex, getStart(run));
+  }
+
+  @Override
+  int nextClearBit(final int fromIndex) {
+    final int run = findRunStartingTill(fromIndex);
+    return run >= 0 && getEnd(run) >= fromIndex ? getEnd(run) + 1 : fromIndex;
+  }
+
+  @Override
+  int previousSetBit(final int fromIndex) {
+    if (fromIndex < 0) {
+      return -1;
+    }
+    final int run = findRunStartingTill(fromIndex);
+    return run < 0 ? -1 : Math.min(fromIndex, getEnd(run));
+  }
+
+  @Override
+  int previousClearBit(final int fromIndex) {
+    if (fromIndex < 0) {
+      return -1;
+    }
+    final int run = findRunStartingTill(fromIndex);
+    return run >= 0 && getEnd(run) >= fromIndex
+        ? getStart(run) - 1 : fromIndex;
+  }
+
+  @Override
+  int cardinality() {
+    int cardinality = 0;
+    for (int i = 0; i < runCount; i++) {
+      cardinality += getEnd(i) - getStart(i) + 1;
+    }
+    return cardinality;
+  }
+
+  @Override
+  Container add(final int fromIndex, final int toIndex) {
+    final int last = toIndex - 1;
+    // runs touching the range or adjacent to it are merged with it
+    final int first = findRunEndingFrom(fromIndex - 1);
+    final int end = findRunStartingTill(last + 1);
+    final int start = first <= end
+        ? Math.min(fromIndex, getStart(first)) : fromIndex;
+    final int newEnd = first <= end ? Math.max(last, getEnd(end)) : last;
+    replaceRuns(first, end, 1);
+    runs[2 * first] = start;
+    runs[2 * first + 1] = newEnd;
+    return cheapest();
+  }
+
+  @Override
+  Container remove(final int fromIndex, final int toIndex) {
+    final int last = toIndex - 1;
+    final int first = findRunEndingFrom(fromIndex);
+    final int end = findRunStartingTill(last);
+    if (first > end) {
+      return this;
+    }
+    final int firstStart = getStart(first);
+    final int lastEnd = getEnd(end);
+    int newRun = first;
+    final int keptRuns = (firstStart < fromIndex ? 1 : 0)
+        + (lastEnd > last ? 1 : 0);
+    replaceRuns(first, end, keptRuns);
+    if (firstStart < fromIndex) {
+      runs[2 * newRun] = firstStart;
+      runs[2 * newRun + 1] = fromIndex - 1;
+      newRun++;
+    }
+    if (lastEnd > last) {
+      runs[2 * newRun] = last + 1;
+      runs[2 * newRun + 1] = lastEnd;
+    }
+    return runCount == 0 ? null : cheapest();
+  }
+
+  @Override
+  Container optimize() {
+    return Container.ofRuns(runs, runCount);
+  }
+
+  /**
+   * Replace runs from {@code first} to {@code end} inclusive
+   * with the specified number of runs to be set by the caller.
+   */
+  private void replaceRuns(final int first,
+                           final int end,
+                           final int newRuns) {
+    final int rest = runCount - end - 1;
+    final int newRunCount = first + newRuns + rest;
+    if (2 * newRunCount > runs.length) {
+      runs = Arrays.copyOf(runs, Math.max(2 * runs.length, 2 * newRunCount));
+    }
+    System.arraycopy(runs, 2 * (end + 1),
+        runs, 2 * (first + newRuns), 2 * rest);
+    runCount = newRunCount;
+  }
+
+  /**
+   * Return this container if runs are still the cheapest
+   * or convert it to another one.
+   */
+  private Container cheapest() {
+    final Type type = Container.cheapest(cardinality(), runCount,
+        WordBitmap.wordCount(getEnd(runCount - 1) + 1));
+    return type == Type.RUN ? this : Container.ofRuns(runs, runCount);
+  }
+}
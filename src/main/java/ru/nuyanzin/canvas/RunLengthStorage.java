@@ -0,0 +1,162 @@
+package ru.nuyanzin.canvas;
+
+import java.util.Arrays;
+
+/**
+ * Storage keeping each row as sorted runs of points with the same color
+ * (see {@link RunRow}). Memory consumption and time of drawing,
+ * filling and printing depend on the number of color changes in rows
+ * rather than on width and number of colors.
+ * A row which is null contains only the empty char.
+ */
+public class RunLengthStorage implements CanvasStorage {
+  /**
+   * Name of the storage to use with
+   * {@link ru.nuyanzin.properties.DrawingShellPropertiesEnum#CANVAS_STORAGE}.
+   */
+  public static final String NAME = "rle";
+
+  private final int width;
+  private final int height;
+  private final char emptyChar;
+  private final RunRow[] rows;
+
+  public RunLengthStorage(final int width,
+                          final int height,
+                          final char emptyChar) {
+    this.width = width;
+    this.height = height;
+    this.emptyChar = emptyChar;
+    this.rows = new RunRow[height];
+  }
+
+  @Override
+  public char getColor(final int x, final int y) {
+    RunRow row = rows[y];
+    return row == null ? emptyChar : row.getColor(row.find(x));
+  }
+
+  @Override
+  public int getRunEnd(final int x, final int y) {
+    RunRow row = rows[y];
+    return row == null ? width - 1 : row.getEnd(row.find(x));
+  }
+
+  @Override
+  public void drawHorizontalLine(final int x1,
+                                 final int x2,
+                                 final int y,
+                                 final char color) {
+    setRange(x1, x2, y, color);
+  }
+
+  @Override
+  public void drawVerticalLine(final int x,
+                               final int y1,
+                               final int y2,
+                               final char color) {
+    for (int i = y1; i <= y2; i++) {
+      setRange(x, x, i, color);
+    }
+  }
+
+  /**
+   * Scanline fill over runs: each run of the source color
+   * connected to (x, y) is recolored at once and only runs
+   * of the neighbour rows overlapping it are visited.
+   */
+  @Override
+  public void fill(final int x,
+                   final int y,
+                   final char color,
+                   final boolean isB4) {
+    final char source = getColor(x, y);
+    final int diagonalShift = isB4 ? 0 : 1;
+    int[] stack = new int[32];
+    int stackSize = 0;
+    stack[stackSize++] = x;
+    stack[stackSize++] = y;
+    while (stackSize > 0) {
+      final int currentY = stack[--stackSize];
+      final int currentX = stack[--stackSize];
+      RunRow row = rows[currentY];
+      final int start;
+      final int end;
+      if (row == null) {
+        if (emptyChar != source) {
+          continue;
+        }
+        start = 0;
+        end = width - 1;
+      } else {
+        final int run = row.find(currentX);
+        if (row.getColor(run) != source) {
+          continue;
+        }
+        start = row.getStart(run);
+        end = row.getEnd(run);
+      }
+      setRange(start, end, currentY, color);
+      final int from = Math.max(0, start - diagonalShift);
+      final int to = Math.min(width - 1, end + diagonalShift);
+      for (int neighbourY = currentY - 1;
+           neighbourY <= currentY + 1;
+           neighbourY += 2) {
+        if (neighbourY < 0 || neighbourY >= height) {
+          continue;
+        }
+        RunRow neighbour = rows[neighbourY];
+        if (neighbour == null) {
+          if (emptyChar == source) {
+            stack = push(stack, stackSize, from, neighbourY);
+            stackSize += 2;
+          }
+          continue;
+        }
+        for (int run = neighbour.find(from);
+             run < neighbour.size() && neighbour.getStart(run) <= to;
+             run++) {
+          if (neighbour.getColor(run) == source) {
+            stack = push(stack, stackSize,
+                Math.max(from, neighbour.getStart(run)), neighbourY);
+            stackSize += 2;
+          }
+        }
+      }
+    }
+  }
+
+  private static int[] push(int[] stack,
+                            final int stackSize,
+                            final int x,
+                            final int y) {
+    if (stackSize + 2 > stack.length) {
+      stack = Arrays.copyOf(stack, stack.length * 2);
+    }
+    stack[stackSize] = x;
+    stack[stackSize + 1] = y;
+    return stack;
+  }
+
+  /**
+   * Set color for points from (x1, y) to (x2, y) inclusive.
+   * A row consisting of the empty char only is not kept.
+   */
+  private void setRange(final int x1,
+                        final int x2,
+                        final int y,
+                        final char color) {
+    RunRow row = rows[y];
+    if (row == null) {
+      if (color == emptyChar) {
+        return;
+      }
+      row = new RunRow(width, emptyChar);
+      rows[y] = row;
+    }
+    row.set(x1, x2, color);
+    if (row.size() == 1 && row.getColor(0) == emptyChar) {
+      rows[y] = null;
+    }
+  }
+}
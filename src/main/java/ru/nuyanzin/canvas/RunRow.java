@@ -0,0 +1,130 @@
+package ru.nuyanzin.canvas;
+
+import java.util.Arrays;
+
+/**
+ * Row of a canvas kept as sorted runs of points having the same color.
+ * Each run is defined by its start and color, its length is defined
+ * by the start of the next run or by the row width for the last run.
+ * Adjacent runs always have different colors.
+ */
+final class RunRow {
+  private final int width;
+  private int[] starts;
+  private char[] colors;
+  private int size;
+
+  /**
+   * Create a row with a single run of the specified color.
+   *
+   * @param width width of the row
+   * @param color color of the row
+   */
+  RunRow(final int width, final char color) {
+    this.width = width;
+    this.starts = new int[4];
+    this.colors = new char[4];
+    this.colors[0] = color;
+    this.size = 1;
+  }
+
+  /**
+   * @return number of runs in the row
+   */
+  int size() {
+    return size;
+  }
+
+  int getStart(final int run) {
+    return starts[run];
+  }
+
+  int getEnd(final int run) {
+    return run + 1 < size ? starts[run + 1] - 1 : width - 1;
+  }
+
+  char getColor(final int run) {
+    return colors[run];
+  }
+
+  /**
+   * Return index of the run containing point {@code x}.
+   *
+   * @param x x coordinate
+   * @return index of the run
+   */
+  int find(final int x) {
+    int low = 0;
+    int high = size - 1;
+    while (low < high) {
+      int middle = (low + high + 1) >>> 1;
+      if (starts[middle] <= x) {
+        low = middle;
+      } else {
+        high = middle - 1;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * Set color for points from {@code x1} to {@code x2} inclusive.
+   * Runs covered by the range are replaced and
+   * neighbours with the same color are merged.
+   *
+   * @param x1    first x coordinate, x1 &lt;= x2
+   * @param x2    second x coordinate
+   * @param color color to set
+   */
+  void set(final int x1, final int x2, final char color) {
+    int first = find(x1);
+    int last = find(x2);
+    int[] newStarts = new int[3];
+    char[] newColors = new char[3];
+    int newSize = 0;
+    if (starts[first] < x1 && colors[first] != color) {
+      newStarts[newSize] = starts[first];
+      newColors[newSize++] = colors[first];
+    }
+    newStarts[newSize] = starts[first] < x1 && colors[first] == color
+        ? starts[first] : x1;
+    newColors[newSize++] = color;
+    if (x2 < getEnd(last) && colors[last] != color) {
+      newStarts[newSize] = x2 + 1;
+      newColors[newSize++] = colors[last];
+    }
+    // merge with the previous run
+    if (first > 0 && colors[first - 1] == newColors[0]) {
+      first--;
+      newStarts[0] = starts[first];
+    }
+    // merge with the next run
+    if (last + 1 < size && colors[last + 1] == newColors[newSize - 1]) {
+      last++;
+    }
+    replace(first, last, newStarts, newColors, newSize);
+  }
+
+  /**
+   * Replace runs from {@code first} to {@code last} inclusive
+   * with the specified ones.
+   */
+  private void replace(final int first,
+                       final int last,
+                       final int[] newStarts,
+                       final char[] newColors,
+                       final int newSize) {
+    final int tail = size - last - 1;
+    final int resultSize = first + newSize + tail;
+    if (resultSize > starts.length) {
+      int capacity = Math.max(resultSize, starts.length * 2);
+      starts = Arrays.copyOf(starts, capacity);
+      colors = Arrays.copyOf(colors, capacity);
+    }
+    System.arraycopy(starts, last + 1, starts, first + newSize, tail);
+    System.arraycopy(colors, last + 1, colors, first + newSize, tail);
+    System.arraycopy(newStarts, 0, starts, first, newSize);
+    System.arraycopy(newColors, 0, colors, first, newSize);
+    size = resultSize;
+  }
+}
@@ -0,0 +1,89 @@
+package ru.nuyanzin.canvas;
+
+import java.util.Arrays;
+
+/**
+ * Collector of horizontal spans of one color passed to the storage
+ * by {@link CanvasStorage#drawSpans(int, int, int[], int[], char)}
+ * for blocks of up to {@link #CHUNK_ROWS} rows aligned to it.
+ * The k-th span added to a row goes to the k-th call for the block
+ * so a shape with one span per row is drawn by a single call per block.
+ * Rows should be added in non-decreasing order.
+ */
+final class SpanBatch {
+  /**
+   * Maximal number of rows passed to the storage at once.
+   */
+  static final int CHUNK_ROWS = 1 << 12;
+
+  private final CanvasStorage storage;
+  private final char color;
+  /**
+   * Spans of the current block: [k][row - blockTop] keeps
+   * the k-th span of the row, the span is empty if start &gt; end.
+   */
+  private int[][] starts = new int[0][];
+  private int[][] ends = new int[0][];
+  private int blockTop = -1;
+  private int lastRow = -1;
+  private int lastRowSpans;
+  private int maxSpans;
+
+  SpanBatch(final CanvasStorage storage, final char color) {
+    this.storage = storage;
+    this.color = color;
+  }
+
+  /**
+   * Add the span from x1 to x2 inclusive of the row y.
+   * Empty spans are ignored.
+   *
+   * @param x1 the first x coordinate
+   * @param x2 the last x coordinate
+   * @param y  row not less than the one of the previous span
+   */
+  void add(final int x1, final int x2, final int y) {
+    if (x1 > x2) {
+      return;
+    }
+    if (blockTop < 0 || y > (blockTop | CHUNK_ROWS - 1)) {
+      flush();
+      blockTop = y;
+    }
+    if (y != lastRow) {
+      lastRow = y;
+      lastRowSpans = 0;
+    }
+    if (lastRowSpans == maxSpans) {
+      if (maxSpans == starts.length) {
+        starts = Arrays.copyOf(starts, maxSpans + 1);
+        ends = Arrays.copyOf(ends, maxSpans + 1);
+        starts[maxSpans] = new int[CHUNK_ROWS];
+        ends[maxSpans] = new int[CHUNK_ROWS];
+        Arrays.fill(ends[maxSpans], -1);
+      }
+      maxSpans++;
+    }
+    starts[lastRowSpans][y - blockTop] = x1;
+    ends[lastRowSpans][y - blockTop] = x2;
+    lastRowSpans++;
+  }
+
+  /**
+   * Pass the collected spans to the storage.
+   */
+  void flush() {
+    if (blockTop < 0) {
+      return;
+    }
+    final int count = lastRow - blockTop + 1;
+    for (int k = 0; k < maxSpans; k++) {
+      storage.drawSpans(blockTop, count, starts[k], ends[k], color);
+      Arrays.fill(starts[k], 0, count, 0);
+      Arrays.fill(ends[k], 0, count, -1);
+    }
+    blockTop = -1;
+    lastRow = -1;
+    maxSpans = 0;
+  }
+}
@@ -0,0 +1,151 @@
+package ru.nuyanzin.canvas;
+
+import java.util.Arrays;
+
+/**
+ * Bitmap of points to place on a canvas many times with any color
+ * by {@link Canvas#drawStamp(Stamp, int, int, char)}.
+ * Each row is kept both as runs of points, for storages setting ranges,
+ * and as a word bitmap (see {@link WordBitmap}), so a storage keeping
+ * bit rows places a row by shifted word operations. Both are built once
+ * when the stamp is created and do not depend on the color,
+ * so a placement costs one pass over the words or runs of the stamp.
+ */
+public final class Stamp {
+  /**
+   * Symbol of a point which is not set in rows of {@link #of(String...)}.
+   */
+  public static final char CLEAR_CHAR = '.';
+
+  private final int width;
+  private final int[][] rowRuns;
+  private final long[][] rowWords;
+  /**
+   * The same stamp with x and y swapped built on the first request.
+   */
+  private Stamp transposed;
+
+  /**
+   * Create stamp from runs of its rows.
+   *
+   * @param width   width of the stamp
+   * @param rowRuns pairs of the first and the last points of runs
+   *                per row sorted and neither overlapping nor adjacent
+   */
+  Stamp(final int width, final int[][] rowRuns) {
+    this.width = width;
+    this.rowRuns = rowRuns;
+    this.rowWords = new long[rowRuns.length][];
+    for (int row = 0; row < rowRuns.length; row++) {
+      long[] words = new long[0];
+      for (int i = 0; i < rowRuns[row].length; i += 2) {
+        words = WordBitmap.set(
+            words, rowRuns[row][i], rowRuns[row][i + 1] + 1);
+      }
+      rowWords[row] = words;
+    }
+  }
+
+  /**
+   * Create stamp from rows of symbols where {@link #CLEAR_CHAR}
+   * is a point which is not set and any other symbol is a set point.
+   * Rows shorter than the longest one are not set to its length.
+   *
+   * @param rows rows of the stamp from top to bottom
+   * @return new stamp
+   */
+  public static Stamp of(final String... rows) {
+    int width = 0;
+    final int[][] rowRuns = new int[rows.length][];
+    for (int row = 0; row < rows.length; row++) {
+      final String symbols = rows[row];
+      width = Math.max(width, symbols.length());
+      // a run takes at least a point and a clear point after it
+      final int[] runs = new int[symbols.length() + 1];
+      int runCount = 0;
+      int x = 0;
+      while (x < symbols.length()) {
+        if (symbols.charAt(x) == CLEAR_CHAR) {
+          x++;
+          continue;
+        }
+        final int start = x;
+        while (x < symbols.length() && symbols.charAt(x) != CLEAR_CHAR) {
+          x++;
+        }
+        runs[2 * runCount] = start;
+        runs[2 * runCount + 1] = x - 1;
+        runCount++;
+      }
+      rowRuns[row] = Arrays.copyOf(runs, 2 * runCount);
+    }
+    return new Stamp(width, rowRuns);
+  }
+
+  public int getWidth() {
+    return width;
+  }
+
+  public int getHeight() {
+    return rowRuns.length;
+  }
+
+  /**
+   * Return runs of the row as pairs of the first and the last points.
+   *
+   * @param row row of the stamp
+   * @return runs of the row which should not be changed
+   */
+  int[] getRuns(final int row) {
+    return rowRuns[row];
+  }
+
+  /**
+   * Return the same stamp with x and y coordinates swapped,
+   * so it is placed on columns of a canvas kept by rows
+   * of its storage. It is built once per stamp from columns
+   * of the row words as the stamp is placed many times.
+   *
+   * @return transposed stamp
+   */
+  Stamp transpose() {
+    if (transposed == null) {
+      final int[][] columnRuns = new int[width][];
+      // a run takes at least a point and a clear point after it
+      final int[] runs = new int[rowRuns.length + 1];
+      for (int x = 0; x < width; x++) {
+        int runCount = 0;
+        int row = 0;
+        while (row < rowRuns.length) {
+          if (!WordBitmap.get(rowWords[row], x)) {
+            row++;
+            continue;
+          }
+          final int start = row;
+          while (row < rowRuns.length && WordBitmap.get(rowWords[row], x)) {
+            row++;
+          }
+          runs[2 * runCount] = start;
+          runs[2 * runCount + 1] = row - 1;
+          runCount++;
+        }
+        columnRuns[x] = Arrays.copyOf(runs, 2 * runCount);
+      }
+      transposed = new Stamp(rowRuns.length, columnRuns);
+      transposed.transposed = this;
+    }
+    return transposed;
+  }
+
+  /**
+   * Return 64 points of the row starting with {@code fromIndex}
+   * as a word, points out of the stamp are not set.
+   *
+   * @param row       row of the stamp
+   * @param fromIndex the first point which could be negative
+   * @return word with the point {@code fromIndex + i} as the bit i
+   */
+  long getWord(final int row, final long fromIndex) {
+    return WordBitmap.getWord(rowWords[row], fromIndex);
+  }
+}
@@ -0,0 +1,523 @@
+package ru.nuyanzin.canvas;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Storage splitting the canvas into square tiles
+ * of {@link #TILE_SIZE} x {@link #TILE_SIZE} points.
+ * A tile having all points of the same color keeps only this color,
+ * the other tiles keep a char per point. Tiles consisting of the empty char
+ * are not kept at all, so memory is bounded by the drawn area.
+ * Fill recolors uniform tiles at once without visiting their points.
+ */
+public class TiledStorage implements CanvasStorage {
+  /**
+   * Name of the storage to use with
+   * {@link ru.nuyanzin.properties.DrawingShellPropertiesEnum#CANVAS_STORAGE}.
+   */
+  public static final String NAME = "tiled";
+
+  private static final int TILE_SHIFT = 6;
+  private static final int TILE_SIZE = 1 << TILE_SHIFT;
+  private static final int TILE_MASK = TILE_SIZE - 1;
+
+  private final int width;
+  private final int height;
+  private final char emptyChar;
+
+  /**
+   * Tiles by their keys (see {@link #key(int, int)}).
+   */
+  private final Map<Long, Tile> tiles = new HashMap<>();
+
+  /**
+   * Stack of points to process while filling.
+   */
+  private int[] fillStack;
+  private int fillStackSize;
+  /**
+   * Stack of points to process while filling within a tile.
+   */
+  private int[] tileStack;
+  private int tileStackSize;
+
+  public TiledStorage(final int width,
+                      final int height,
+                      final char emptyChar) {
+    this.width = width;
+    this.height = height;
+    this.emptyChar = emptyChar;
+  }
+
+  @Override
+  public char getColor(final int x, final int y) {
+    Tile tile = tiles.get(key(x >> TILE_SHIFT, y >> TILE_SHIFT));
+    return tile == null ? emptyChar : tile.get(x, y);
+  }
+
+  @Override
+  public int getRunEnd(final int x, final int y) {
+    final char color = getColor(x, y);
+    int cursor = x;
+    while (true) {
+      final int tileEnd = tileEnd(cursor, width);
+      Tile tile = tiles.get(key(cursor >> TILE_SHIFT, y >> TILE_SHIFT));
+      if (tile == null || tile.points == null) {
+        char tileColor = tile == null ? emptyChar : tile.color;
+        if (tileColor != color) {
+          return cursor - 1;
+        }
+        cursor = tileEnd;
+      } else {
+        if (tile.get(cursor, y) != color) {
+          return cursor - 1;
+        }
+        while (cursor < tileEnd && tile.get(cursor + 1, y) == color) {
+          cursor++;
+        }
+        if (cursor < tileEnd) {
+          return cursor;
+        }
+      }
+      if (cursor == width - 1) {
+        return cursor;
+      }
+      cursor++;
+    }
+  }
+
+  @Override
+  public void drawHorizontalLine(final int x1,
+                                 final int x2,
+                                 final int y,
+                                 final char color) {
+    int start = x1;
+    while (start <= x2) {
+      final int end = Math.min(x2, tileEnd(start, width));
+      setRange(start, end, y, y, color);
+      if (end == x2) {
+        break;
+      }
+      start = end + 1;
+    }
+  }
+
+  @Override
+  public void drawVerticalLine(final int x,
+                               final int y1,
+                               final int y2,
+                               final char color) {
+    int start = y1;
+    while (start <= y2) {
+      final int end = Math.min(y2, tileEnd(start, height));
+      setRange(x, x, start, end, color);
+      if (end == y2) {
+        break;
+      }
+      start = end + 1;
+    }
+  }
+
+  /**
+   * Tiles entirely inside the rectangle become uniform at once,
+   * only tiles on its border keep points.
+   */
+  @Override
+  public void fillRectangle(final int x1,
+                            final int x2,
+                            final int y1,
+                            final int y2,
+                            final char color) {
+    int top = y1;
+    while (true) {
+      final int bottom = Math.min(y2, tileEnd(top, height));
+      int left = x1;
+      while (true) {
+        final int right = Math.min(x2, tileEnd(left, width));
+        if ((left & TILE_MASK) == 0 && right == tileEnd(left, width)
+            && (top & TILE_MASK) == 0 && bottom == tileEnd(top, height)) {
+          setTile(left >> TILE_SHIFT, top >> TILE_SHIFT, color);
+        } else {
+          setRange(left, right, top, bottom, color);
+        }
+        if (right == x2) {
+          break;
+        }
+        left = right + 1;
+      }
+      if (bottom == y2) {
+        break;
+      }
+      top = bottom + 1;
+    }
+  }
+
+  /**
+   * Tiles covered by the spans of all their rows become uniform at once,
+   * only the rest of spans is set by points.
+   */
+  @Override
+  public void drawSpans(final int top,
+                        final int count,
+                        final int[] starts,
+                        final int[] ends,
+                        final char color) {
+    int bandTop = top;
+    final int bottom = top + count - 1;
+    while (bandTop <= bottom) {
+      final int tileBottom = tileEnd(bandTop, height);
+      final int bandBottom = Math.min(bottom, tileBottom);
+      // tiles from fullLeft to fullRight are covered by all rows of the band
+      int maxStart = Integer.MIN_VALUE;
+      int minEnd = Integer.MAX_VALUE;
+      for (int y = bandTop; y <= bandBottom; y++) {
+        maxStart = Math.max(maxStart, starts[y - top]);
+        minEnd = Math.min(minEnd, ends[y - top]);
+      }
+      final boolean isFullBand =
+          (bandTop & TILE_MASK) == 0 && bandBottom == tileBottom;
+      final int fullLeft = (int) ((maxStart + (long) TILE_MASK) >> TILE_SHIFT);
+      final int fullRight = minEnd == width - 1
+          ? minEnd >> TILE_SHIFT : ((minEnd + 1) >> TILE_SHIFT) - 1;
+      final boolean hasFullTiles = isFullBand && fullLeft <= fullRight;
+      if (hasFullTiles) {
+        for (int tileX = fullLeft; tileX <= fullRight; tileX++) {
+          setTile(tileX, bandTop >> TILE_SHIFT, color);
+        }
+      }
+      for (int y = bandTop; y <= bandBottom; y++) {
+        final int start = starts[y - top];
+        final int end = ends[y - top];
+        if (!hasFullTiles) {
+          if (start <= end) {
+            drawHorizontalLine(start, end, y, color);
+          }
+          continue;
+        }
+        if (start < fullLeft << TILE_SHIFT) {
+          drawHorizontalLine(start, (fullLeft << TILE_SHIFT) - 1, y, color);
+        }
+        if (end > tileEnd(fullRight << TILE_SHIFT, width)) {
+          drawHorizontalLine(
+              tileEnd(fullRight << TILE_SHIFT, width) + 1, end, y, color);
+        }
+      }
+      if (bandBottom == bottom) {
+        break;
+      }
+      bandTop = bandBottom + 1;
+    }
+  }
+
+  /**
+   * Fill tile by tile: a uniform tile of the source color is recolored
+   * at once, in other tiles scanline fill is done within the tile.
+   * Points of neighbour tiles are pushed to the stack to process later.
+   */
+  @Override
+  public void fill(final int x,
+                   final int y,
+                   final char color,
+                   final boolean isB4) {
+    final char source = getColor(x, y);
+    final int diagonalShift = isB4 ? 0 : 1;
+    fillStack = new int[32];
+    fillStackSize = 0;
+    tileStack = new int[32];
+    push(x, y);
+    while (fillStackSize > 0) {
+      final int currentY = fillStack[--fillStackSize];
+      final int currentX = fillStack[--fillStackSize];
+      final int tileX = currentX >> TILE_SHIFT;
+      final int tileY = currentY >> TILE_SHIFT;
+      final Tile tile = tiles.get(key(tileX, tileY));
+      final int left = tileX << TILE_SHIFT;
+      final int top = tileY << TILE_SHIFT;
+      final int right = tileEnd(left, width);
+      final int bottom = tileEnd(top, height);
+      if (tile == null || tile.points == null) {
+        if ((tile == null ? emptyChar : tile.color) != source) {
+          continue;
+        }
+        setTile(tileX, tileY, color);
+        pushSourcePoints(left - diagonalShift, right + diagonalShift,
+            top - 1, top - 1, source);
+        pushSourcePoints(left - diagonalShift, right + diagonalShift,
+            bottom + 1, bottom + 1, source);
+        pushSourcePoints(left - 1, left - 1, top, bottom, source);
+        pushSourcePoints(right + 1, right + 1, top, bottom, source);
+      } else if (tile.get(currentX, currentY) == source) {
+        fillWithinTile(tile, currentX, currentY, left, top, right, bottom,
+            source, color, diagonalShift);
+        if (tile.isUniform(left, top, right, bottom)) {
+          setTile(tileX, tileY, tile.get(left, top));
+        }
+      }
+    }
+    fillStack = null;
+    tileStack = null;
+  }
+
+  /**
+   * Scanline fill within a non uniform tile.
+   */
+  private void fillWithinTile(final Tile tile,
+                              final int x,
+                              final int y,
+                              final int left,
+                              final int top,
+                              final int right,
+                              final int bottom,
+                              final char source,
+                              final char color,
+                              final int diagonalShift) {
+    tileStackSize = 0;
+    pushWithinTile(x, y);
+    while (tileStackSize > 0) {
+      final int currentY = tileStack[--tileStackSize];
+      final int currentX = tileStack[--tileStackSize];
+      if (tile.get(currentX, currentY) != source) {
+        continue;
+      }
+      int start = currentX;
+      while (start > left && tile.get(start - 1, currentY) == source) {
+        start--;
+      }
+      int end = currentX;
+      while (end < right && tile.get(end + 1, currentY) == source) {
+        end++;
+      }
+      tile.set(start, end, currentY, currentY, color);
+      if (start == left) {
+        pushSourcePoints(start - 1, start - 1, currentY, currentY, source);
+      }
+      if (end == right) {
+        pushSourcePoints(end + 1, end + 1, currentY, currentY, source);
+      }
+      final int from = Math.max(0, start - diagonalShift);
+      final int to = Math.min(width - 1, end + diagonalShift);
+      for (int neighbourY = currentY - 1;
+           neighbourY <= currentY + 1;
+           neighbourY += 2) {
+        if (neighbourY < top || neighbourY > bottom) {
+          pushSourcePoints(from, to, neighbourY, neighbourY, source);
+          continue;
+        }
+        if (from < left) {
+          pushSourcePoints(from, left - 1, neighbourY, neighbourY, source);
+        }
+        if (to > right) {
+          pushSourcePoints(right + 1, to, neighbourY, neighbourY, source);
+        }
+        boolean inSpan = false;
+        for (int i = Math.max(from, left); i <= Math.min(to, right); i++) {
+          boolean isSource = tile.get(i, neighbourY) == source;
+          if (isSource && !inSpan) {
+            pushWithinTile(i, neighbourY);
+          }
+          inSpan = isSource;
+        }
+      }
+    }
+  }
+
+  /**
+   * Push to the fill stack points of the source color
+   * from the specified area. Only one point is pushed for a uniform tile.
+   * The area is clipped to the canvas.
+   */
+  private void pushSourcePoints(final int x1,
+                                final int x2,
+                                final int y1,
+                                final int y2,
+                                final char source) {
+    final int fromX = Math.max(0, x1);
+    final int toX = Math.min(width - 1, x2);
+    final int fromY = Math.max(0, y1);
+    final int toY = Math.min(height - 1, y2);
+    if (fromX > toX || fromY > toY) {
+      return;
+    }
+    int tileTop = fromY;
+    while (true) {
+      final int tileBottom = Math.min(toY, tileEnd(tileTop, height));
+      int tileLeft = fromX;
+      while (true) {
+        final int tileRight = Math.min(toX, tileEnd(tileLeft, width));
+        Tile tile = tiles.get(key(tileLeft >> TILE_SHIFT,
+            tileTop >> TILE_SHIFT));
+        if (tile == null || tile.points == null) {
+          if ((tile == null ? emptyChar : tile.color) == source) {
+            push(tileLeft, tileTop);
+          }
+        } else {
+          for (int j = tileTop; j <= tileBottom; j++) {
+            for (int i = tileLeft; i <= tileRight; i++) {
+              if (tile.get(i, j) == source) {
+                push(i, j);
+              }
+            }
+          }
+        }
+        if (tileRight == toX) {
+          break;
+        }
+        tileLeft = tileRight + 1;
+      }
+      if (tileBottom == toY) {
+        break;
+      }
+      tileTop = tileBottom + 1;
+    }
+  }
+
+  private void push(final int x, final int y) {
+    if (fillStackSize + 2 > fillStack.length) {
+      fillStack = Arrays.copyOf(fillStack, fillStack.length * 2);
+    }
+    fillStack[fillStackSize++] = x;
+    fillStack[fillStackSize++] = y;
+  }
+
+  private void pushWithinTile(final int x, final int y) {
+    if (tileStackSize + 2 > tileStack.length) {
+      tileStack = Arrays.copyOf(tileStack, tileStack.length * 2);
+    }
+    tileStack[tileStackSize++] = x;
+    tileStack[tileStackSize++] = y;
+  }
+
+  /**
+   * Set color for the area within one tile.
+   */
+  private void setRange(final int x1,
+                        final int x2,
+                        final int y1,
+                        final int y2,
+                        final char color) {
+    final int tileX = x1 >> TILE_SHIFT;
+    final int tileY = y1 >> TILE_SHIFT;
+    final long key = key(tileX, tileY);
+    Tile tile = tiles.get(key);
+    final char tileColor = tile == null ? emptyChar : tile.color;
+    if (tile == null || tile.points == null) {
+      if (tileColor == color) {
+        return;
+      }
+      tile = new Tile(tileX << TILE_SHIFT, tileY << TILE_SHIFT, tileColor);
+      tiles.put(key, tile);
+    }
+    tile.set(x1, x2, y1, y2, color);
+  }
+
+  /**
+   * Make the tile uniform with the specified color.
+   */
+  private void setTile(final int tileX, final int tileY, final char color) {
+    if (color == emptyChar) {
+      tiles.remove(key(tileX, tileY));
+    } else {
+      tiles.put(key(tileX, tileY), new Tile(color));
+    }
+  }
+
+  /**
+   * Return the last coordinate of the tile containing {@code coordinate}
+   * limited by {@code limit}.
+   */
+  private static int tileEnd(final int coordinate, final int limit) {
+    // long is used to avoid overflow for canvases close to Integer.MAX_VALUE
+    return (int) Math.min(limit - 1L, (long) (coordinate | TILE_MASK));
+  }
+
+  private static long key(final int tileX, final int tileY) {
+    return ((long) tileY << Integer.SIZE) | tileX;
+  }
+
+  @Override
+  public void compact() {
+    tiles.entrySet().removeIf(entry -> {
+      Tile tile = entry.getValue();
+      if (tile.points != null) {
+        final int left = (int) (long) entry.getKey() << TILE_SHIFT;
+        final int top = (int) (entry.getKey() >>> Integer.SIZE) << TILE_SHIFT;
+        if (tile.isUniform(left, top,
+            tileEnd(left, width), tileEnd(top, height))) {
+          tile.color = tile.get(left, top);
+          tile.points = null;
+        }
+      }
+      return tile.points == null && tile.color == emptyChar;
+    });
+  }
+
+  /**
+   * Tile of the canvas. Keeps either a single color if all points
+   * of the tile have the same color or a color per point.
+   */
+  private static final class Tile {
+    private final int left;
+    private final int top;
+    private char color;
+    private char[] points;
+
+    /**
+     * Create a uniform tile.
+     *
+     * @param color color of the tile
+     */
+    Tile(final char color) {
+      this.left = 0;
+      this.top = 0;
+      this.color = color;
+    }
+
+    /**
+     * Create a tile with a color per point.
+     *
+     * @param left  x coordinate of the top left corner
+     * @param top   y coordinate of the top left corner
+     * @param color initial color of the points
+     */
+    Tile(final int left, final int top, final char color) {
+      this.left = left;
+      this.top = top;
+      this.color = color;
+      this.points = new char[TILE_SIZE * TILE_SIZE];
+      Arrays.fill(points, color);
+    }
+
+    char get(final int x, final int y) {
+      return points == null
+          ? color : points[((y - top) << TILE_SHIFT) + x - left];
+    }
+
+    void set(final int x1,
+             final int x2,
+             final int y1,
+             final int y2,
+             final char newColor) {
+      for (int j = y1; j <= y2; j++) {
+        final int rowOffset = ((j - top) << TILE_SHIFT) - left;
+        Arrays.fill(points, rowOffset + x1, rowOffset + x2 + 1, newColor);
+      }
+    }
+
+    boolean isUniform(final int x1,
+                      final int y1,
+                      final int x2,
+                      final int y2) {
+      final char first = get(x1, y1);
+      for (int j = y1; j <= y2; j++) {
+        for (int i = x1; i <= x2; i++) {
+          if (get(i, j) != first) {
+            return false;
+          }
+        }
+      }
+      return true;
+    }
+  }
+}
@@ -0,0 +1,214 @@
+package ru.nuyanzin.canvas;
+
+import java.util.Arrays;
+
+/**
+ * Storage presenting another storage with swapped x and y coordinates
+ * i.e. rows of the canvas are columns of the inner storage and vice versa.
+ * So vertical lines of the canvas become cheap horizontal ones
+ * of the inner storage. Both 4-dots and 8-dots neighbourhoods
+ * do not change under transposition so fill is delegated as is.
+ */
+class TransposedStorage implements CanvasStorage {
+  private final CanvasStorage inner;
+
+  /**
+   * Number of rows of the inner storage i.e. width of the canvas.
+   */
+  private final int innerHeight;
+
+  /**
+   * Create transposed view of the storage.
+   *
+   * @param inner       storage created with swapped width and height
+   * @param innerHeight height of the inner storage
+   */
+  TransposedStorage(final CanvasStorage inner, final int innerHeight) {
+    this.inner = inner;
+    this.innerHeight = innerHeight;
+  }
+
+  CanvasStorage getInner() {
+    return inner;
+  }
+
+  @Override
+  public char getColor(final int x, final int y) {
+    return inner.getColor(y, x);
+  }
+
+  /**
+   * A run in a row of the canvas is a run in a column of the inner storage
+   * so it is looked up point by point.
+   */
+  @Override
+  public int getRunEnd(final int x, final int y) {
+    final char color = inner.getColor(y, x);
+    int end = x;
+    while (end < innerHeight - 1 && inner.getColor(y, end + 1) == color) {
+      end++;
+    }
+    return end;
+  }
+
+  @Override
+  public void drawHorizontalLine(final int x1,
+                                 final int x2,
+                                 final int y,
+                                 final char color) {
+    inner.drawVerticalLine(y, x1, x2, color);
+  }
+
+  @Override
+  public void drawVerticalLine(final int x,
+                               final int y1,
+                               final int y2,
+                               final char color) {
+    inner.drawHorizontalLine(y1, y2, x, color);
+  }
+
+  @Override
+  public void fillRectangle(final int x1,
+                            final int x2,
+                            final int y1,
+                            final int y2,
+                            final char color) {
+    inner.fillRectangle(y1, y2, x1, x2, color);
+  }
+
+  /**
+   * Spans of consecutive rows of the canvas are parts of consecutive
+   * columns of the inner storage, so they are swept by x: between
+   * two consecutive ends of spans the rows covering x do not change
+   * and each run of them is a rectangle of the inner storage.
+   * So a shape costs a rectangle per change of its outline
+   * rather than a line of the inner storage per point.
+   */
+  @Override
+  public void drawSpans(final int top,
+                        final int count,
+                        final int[] starts,
+                        final int[] ends,
+                        final char color) {
+    // x where a span starts or ends in high bits and the span in low bits
+    final long[] events = new long[2 * count];
+    int eventCount = 0;
+    for (int i = 0; i < count; i++) {
+      if (starts[i] <= ends[i]) {
+        events[eventCount++] = (long) starts[i] << Integer.SIZE | i;
+        events[eventCount++] = (long) (ends[i] + 1) << Integer.SIZE | i;
+      }
+    }
+    Arrays.sort(events, 0, eventCount);
+    // spans covering the current x
+    final long[] covering = new long[WordBitmap.wordCount(count)];
+    int event = 0;
+    while (event < eventCount) {
+      final int x = (int) (events[event] >>> Integer.SIZE);
+      while (event < eventCount
+          && (int) (events[event] >>> Integer.SIZE) == x) {
+        final int span = (int) events[event++];
+        covering[span / Long.SIZE] ^= 1L << span;
+      }
+      if (event == eventCount) {
+        // the last x is after the ends of all spans
+        break;
+      }
+      final int nextX = (int) (events[event] >>> Integer.SIZE);
+      int first = WordBitmap.nextSetBit(covering, 0);
+      while (first != -1) {
+        final int last = WordBitmap.nextClearBit(covering, first) - 1;
+        inner.fillRectangle(top + first, top + last, x, nextX - 1, color);
+        first = WordBitmap.nextSetBit(covering, last + 1);
+      }
+    }
+  }
+
+  @Override
+  public void fill(final int x,
+                   final int y,
+                   final char color,
+                   final boolean isB4) {
+    inner.fill(y, x, color, isB4);
+  }
+
+  /**
+   * The pattern is transposed as well, so points of the inner storage
+   * get colors of the pattern at their canvas coordinates.
+   */
+  @Override
+  public void fill(final int x,
+                   final int y,
+                   final Pattern pattern,
+                   final boolean isB4,
+                   final int width,
+                   final int height) {
+    inner.fill(y, x, pattern.transpose(), isB4, height, width);
+  }
+
+  /**
+   * A row of the canvas is a column of the inner storage,
+   * so each span is passed to it as a whole vertical line.
+   */
+  @Override
+  public void drawRow(final int y,
+                      final int count,
+                      final int[] starts,
+                      final int[] ends,
+                      final char[] colors) {
+    for (int i = 0; i < count; i++) {
+      inner.drawVerticalLine(y, starts[i], ends[i], colors[i]);
+    }
+  }
+
+  /**
+   * The stamp is transposed as well, so storages placing rows
+   * of a stamp by shifted words place its columns the same way.
+   */
+  @Override
+  public void drawStamp(final Stamp stamp,
+                        final int x,
+                        final int y,
+                        final int width,
+                        final int height,
+                        final char color) {
+    inner.drawStamp(stamp.transpose(), y, x, height, width, color);
+  }
+
+  /**
+   * A rectangle moved on the canvas is moved on the inner storage
+   * with swapped coordinates.
+   */
+  @Override
+  public void copy(final int x1,
+                   final int x2,
+                   final int y1,
+                   final int y2,
+                   final int x,
+                   final int y) {
+    inner.copy(y1, y2, x1, x2, y, x);
+  }
+
+  @Override
+  public void recolor(final char color,
+                      final char newColor,
+                      final int width,
+                      final int height) {
+    inner.recolor(color, newColor, height, width);
+  }
+
+  @Override
+  public boolean prefersBatches() {
+    return inner.prefersBatches();
+  }
+
+  @Override
+  public void compact() {
+    inner.compact();
+  }
+
+  @Override
+  public void close() {
+    inner.close();
+  }
+}
@@ -0,0 +1,289 @@
+package ru.nuyanzin.canvas;
+
+import java.util.Arrays;
+
+/**
+ * Operations over a row of points kept as a plain {@code long[]}
+ * where the point {@code i} is the bit {@code i % 64}
+ * of the word {@code i / 64}. Words beyond the array length are zero
+ * so a row grows only up to its last drawn point.
+ * Unlike {@link java.util.BitSet} there is no wrapper object per row,
+ * no tracking of words in use and no allocation
+ * except growing while setting points.
+ * Ranges are from {@code fromIndex} inclusive to {@code toIndex} exclusive
+ * as for {@link java.util.BitSet}.
+ */
+final class WordBitmap {
+  private static final int ADDRESS_BITS_PER_WORD = 6;
+  private static final int BITS_PER_WORD = 1 << ADDRESS_BITS_PER_WORD;
+  private static final long WORD_MASK = 0xffffffffffffffffL;
+
+  private WordBitmap() {
+  }
+
+  /**
+   * Return number of words required to keep the specified number of points.
+   *
+   * @param numberOfPoints number of points
+   * @return number of words
+   */
+  static int wordCount(final int numberOfPoints) {
+    return numberOfPoints == 0
+        ? 0 : ((numberOfPoints - 1) >>> ADDRESS_BITS_PER_WORD) + 1;
+  }
+
+  static boolean get(final long[] words, final int index) {
+    final int wordIndex = index >>> ADDRESS_BITS_PER_WORD;
+    return wordIndex < words.length
+        && (words[wordIndex] & (1L << index)) != 0;
+  }
+
+  /**
+   * Set points in the range growing the row if required.
+   *
+   * @param words     row of points
+   * @param fromIndex first point to set
+   * @param toIndex   point after the last one to set
+   * @return the row or its grown copy
+   */
+  static long[] set(long[] words, final int fromIndex, final int toIndex) {
+    if (fromIndex >= toIndex) {
+      return words;
+    }
+    final int startWordIndex = fromIndex >>> ADDRESS_BITS_PER_WORD;
+    final int endWordIndex = (toIndex - 1) >>> ADDRESS_BITS_PER_WORD;
+    if (endWordIndex >= words.length) {
+      // grow at least twice so drawing further and further
+      // does not copy the row on each line
+      words = Arrays.copyOf(words,
+          Math.max(2 * words.length, endWordIndex + 1));
+    }
+    final long firstWordMask = WORD_MASK << fromIndex;
+    final long lastWordMask = WORD_MASK >>> -toIndex;
+    if (startWordIndex == endWordIndex) {
+      words[startWordIndex] |= firstWordMask & lastWordMask;
+    } else {
+      words[startWordIndex] |= firstWordMask;
+      for (int i = startWordIndex + 1; i < endWordIndex; i++) {
+        words[i] = WORD_MASK;
+      }
+      words[endWordIndex] |= lastWordMask;
+    }
+    return words;
+  }
+
+  /**
+   * Clear points in the range.
+   *
+   * @param words     row of points
+   * @param fromIndex first point to clear
+   * @param toIndex   point after the last one to clear
+   */
+  static void clear(final long[] words,
+                    final int fromIndex,
+                    final int toIndex) {
+    final int startWordIndex = fromIndex >>> ADDRESS_BITS_PER_WORD;
+    if (fromIndex >= toIndex || startWordIndex >= words.length) {
+      return;
+    }
+    int endWordIndex = (toIndex - 1) >>> ADDRESS_BITS_PER_WORD;
+    long lastWordMask = WORD_MASK >>> -toIndex;
+    if (endWordIndex >= words.length) {
+      endWordIndex = words.length - 1;
+      lastWordMask = WORD_MASK;
+    }
+    final long firstWordMask = WORD_MASK << fromIndex;
+    if (startWordIndex == endWordIndex) {
+      words[startWordIndex] &= ~(firstWordMask & lastWordMask);
+    } else {
+      words[startWordIndex] &= ~firstWordMask;
+      for (int i = startWordIndex + 1; i < endWordIndex; i++) {
+        words[i] = 0;
+      }
+      words[endWordIndex] &= ~lastWordMask;
+    }
+  }
+
+  /**
+   * Return number of points in the range.
+   *
+   * @param words     row of points
+   * @param fromIndex first point to count
+   * @param toIndex   point after the last one to count
+   * @return number of points
+   */
+  static int cardinality(final long[] words,
+                         final int fromIndex,
+                         final int toIndex) {
+    final int startWordIndex = fromIndex >>> ADDRESS_BITS_PER_WORD;
+    if (fromIndex >= toIndex || startWordIndex >= words.length) {
+      return 0;
+    }
+    int endWordIndex = (toIndex - 1) >>> ADDRESS_BITS_PER_WORD;
+    long lastWordMask = WORD_MASK >>> -toIndex;
+    if (endWordIndex >= words.length) {
+      endWordIndex = words.length - 1;
+      lastWordMask = WORD_MASK;
+    }
+    final long firstWordMask = WORD_MASK << fromIndex;
+    if (startWordIndex == endWordIndex) {
+      return Long.bitCount(
+          words[startWordIndex] & firstWordMask & lastWordMask);
+    }
+    int cardinality = Long.bitCount(words[startWordIndex] & firstWordMask)
+        + Long.bitCount(words[endWordIndex] & lastWordMask);
+    for (int i = startWordIndex + 1; i < endWordIndex; i++) {
+      cardinality += Long.bitCount(words[i]);
+    }
+    return cardinality;
+  }
+
+  /**
+   * Return 64 points starting with {@code fromIndex} as a word
+   * with the point {@code fromIndex + i} as the bit i.
+   * Points before 0 or beyond the words are not set.
+   *
+   * @param words     row of points
+   * @param fromIndex the first point which could be negative
+   * @return word of points
+   */
+  static long getWord(final long[] words, final long fromIndex) {
+    if (fromIndex <= -BITS_PER_WORD || words.length == 0) {
+      return 0;
+    }
+    if (fromIndex < 0) {
+      return words[0] << -fromIndex;
+    }
+    final long wordIndex = fromIndex >>> ADDRESS_BITS_PER_WORD;
+    if (wordIndex >= words.length) {
+      return 0;
+    }
+    final long word = words[(int) wordIndex] >>> fromIndex;
+    return (fromIndex & (BITS_PER_WORD - 1)) == 0
+        || wordIndex + 1 == words.length
+        ? word : word | words[(int) wordIndex + 1] << -fromIndex;
+  }
+
+  static boolean isEmpty(final long[] words) {
+    for (long word : words) {
+      if (word != 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Return the index of the first set point
+   * starting with {@code fromIndex} or -1 if there is no such point.
+   */
+  static int nextSetBit(final long[] words, final int fromIndex) {
+    int wordIndex = fromIndex >>> ADDRESS_BITS_PER_WORD;
+    if (wordIndex >= words.length) {
+      return -1;
+    }
+    long word = words[wordIndex] & (WORD_MASK << fromIndex);
+    while (word == 0) {
+      if (++wordIndex == words.length) {
+        return -1;
+      }
+      word = words[wordIndex];
+    }
+    return wordIndex * BITS_PER_WORD + Long.numberOfTrailingZeros(word);
+  }
+
+  /**
+   * Return the index of the first clear point
+   * starting with {@code fromIndex}.
+   */
+  static int nextClearBit(final long[] words, final int fromIndex) {
+    int wordIndex = fromIndex >>> ADDRESS_BITS_PER_WORD;
+    if (wordIndex >= words.length) {
+      return fromIndex;
+    }
+    long word = ~words[wordIndex] & (WORD_MASK << fromIndex);
+    while (word == 0) {
+      if (++wordIndex == words.length) {
+        return (int) Math.min(Integer.MAX_VALUE,
+            (long) words.length * BITS_PER_WORD);
+      }
+      word = ~words[wordIndex];
+    }
+    return wordIndex * BITS_PER_WORD + Long.numberOfTrailingZeros(word);
+  }
+
+  /**
+   * Return the index of the nearest set point
+   * at or before {@code fromIndex} or -1 if there is no such point.
+   */
+  static int previousSetBit(final long[] words, final int fromIndex) {
+    if (fromIndex < 0 || words.length == 0) {
+      return -1;
+    }
+    int wordIndex = fromIndex >>> ADDRESS_BITS_PER_WORD;
+    long word;
+    if (wordIndex >= words.length) {
+      wordIndex = words.length - 1;
+      word = words[wordIndex];
+    } else {
+      word = words[wordIndex] & (WORD_MASK >>> -(fromIndex + 1));
+    }
+    while (word == 0) {
+      if (wordIndex-- == 0) {
+        return -1;
+      }
+      word = words[wordIndex];
+    }
+    return wordIndex * BITS_PER_WORD + BITS_PER_WORD - 1
+        - Long.numberOfLeadingZeros(word);
+  }
+
+  /**
+   * Return the index of the nearest clear point
+   * at or before {@code fromIndex} or -1 if there is no such point.
+   */
+  static int previousClearBit(final long[] words, final int fromIndex) {
+    if (fromIndex < 0) {
+      return -1;
+    }
+    int wordIndex = fromIndex >>> ADDRESS_BITS_PER_WORD;
+    if (wordIndex >= words.length) {
+      return fromIndex;
+    }
+    long word = ~words[wordIndex] & (WORD_MASK >>> -(fromIndex + 1));
+    while (word == 0) {
+      if (wordIndex-- == 0) {
+        return -1;
+      }
+      word = ~words[wordIndex];
+    }
+    return wordIndex * BITS_PER_WORD + BITS_PER_WORD - 1
+        - Long.numberOfLeadingZeros(word);
+  }
+
+  /**
+   * Add points of {@code source} to {@code destination}.
+   *
+   * @return destination or its grown copy
+   */
+  static long[] or(long[] destination, final long[] source) {
+    if (source.length > destination.length) {
+      destination = Arrays.copyOf(destination, source.length);
+    }
+    for (int i = 0; i < source.length; i++) {
+      destination[i] |= source[i];
+    }
+    return destination;
+  }
+
+  /**
+   * Remove points of {@code source} from {@code destination}.
+   */
+  static void andNot(final long[] destination, final long[] source) {
+    for (int i = Math.min(destination.length, source.length) - 1;
+         i >= 0;
+         i--) {
+      destination[i] &= ~source[i];
+    }
+  }
+}
@@ -14,6 +14,8 @@
 import ru.nuyanzin.DrawingShellOpts;
 import ru.nuyanzin.Loc;
 import ru.nuyanzin.canvas.Canvas;
+import ru.nuyanzin.canvas.Pattern;
+import ru.nuyanzin.canvas.Stamp;
 import ru.nuyanzin.properties.DrawingShellPropertiesEnum;
 
 /**
@@ -70,7 +72,7 @@ public void b(final String line) throws IOException {
    */
   private void b4(final String line,
                   final String commandName) throws IOException {
-    bCommand(line, commandName, true);
+    bCommand(line, commandName, true, false);
   }
 
   /**
@@ -80,7 +82,7 @@ private void b4(final String line,
    * @throws IOException If an I/O error occurs
    */
   public void b4(final String line) throws IOException {
-    bCommand(line, "B4", true);
+    bCommand(line, "B4", true, false);
   }
 
   /**
@@ -90,7 +92,40 @@ public void b4(final String line) throws IOException {
    * @throws IOException If an I/O error occurs
    */
   public void b8(final String line) throws IOException {
-    bCommand(line, "B8", false);
+    bCommand(line, "B8", false, false);
+  }
+
+  /**
+   * Command BP filling area connected to (x, y) with a pattern
+   * in 4-dots way.
+   *
+   * @param line full command line
+   * @throws IOException If an I/O error occurs
+   */
+  public void bp(final String line) throws IOException {
+    bCommand(line, "BP", true, true);
+  }
+
+  /**
+   * Command BP4 filling area connected to (x, y) with a pattern
+   * in 4-dots way.
+   *
+   * @param line full command line
+   * @throws IOException If an I/O error occurs
+   */
+  public void bp4(final String line) throws IOException {
+    bCommand(line, "BP4", true, true);
+  }
+
+  /**
+   * Command BP8 filling area connected to (x, y) with a pattern
+   * in 8-dots way.
+   *
+   * @param line full command line
+   * @throws IOException If an I/O error occurs
+   */
+  public void bp8(final String line) throws IOException {
+    bCommand(line, "BP8", false, true);
   }
 
   /**
@@ -101,11 +136,14 @@ public void b8(final String line) throws IOException {
    * @param isB4        specify if 4-dots way should be used.
    *                    if true then 4-dots way will be used
    *                    if false then 8-dots way will be used
+   * @param isPattern   if true then the area is filled with a pattern
+   *                    of rows separated by '/' rather than a color
    * @throws IOException If an I/O error occurs
    */
   private void bCommand(final String line,
                         final String commandName,
-                        final boolean isB4) throws IOException {
+                        final boolean isB4,
+                        final boolean isPattern) throws IOException {
     Canvas canvas = shell.getCanvas();
     if (canvas == null) {
       shell.output(Loc.getLocMessage("canvas-required"));
@@ -114,8 +152,8 @@ private void bCommand(final String line,
     String[] parts = line.trim().split(COMMAND_OPTIONS_REGEX);
 
     String commandBUsageMessage =
-        Loc.getLocMessage(
-            "usage-b", commandName, canvas.getWidth(), canvas.getHeight());
+        Loc.getLocMessage(isPattern ? "usage-bp" : "usage-b",
+            commandName, canvas.getWidth(), canvas.getHeight());
     // length 3 as 3 arguments are required
     if (parts.length != 3) {
       shell.output(commandBUsageMessage);
@@ -131,11 +169,15 @@ private void bCommand(final String line,
     int y = args[1];
     if (x < 1 || args[1] < 1
         || x > canvas.getWidth() || y > canvas.getHeight()
-        || parts[parts.length - 1].length() > 1) {
+        || (!isPattern && parts[parts.length - 1].length() > 1)) {
       shell.output(commandBUsageMessage);
       return;
     }
-    canvas.fill(x, args[1], parts[parts.length - 1].charAt(0), isB4);
+    if (isPattern) {
+      canvas.fill(x, y, Pattern.of(parts[parts.length - 1].split("/")), isB4);
+    } else {
+      canvas.fill(x, args[1], parts[parts.length - 1].charAt(0), isB4);
+    }
     printCanvas(canvas);
   }
 
@@ -173,6 +215,189 @@ public void c(final String line) throws IOException {
     printCanvas(shell.getCanvas());
   }
 
+  /**
+   * Command CP for copying a rectangle of canvas to another place.
+   *
+   * @param line full command line
+   * @throws IOException If an I/O error occurs
+   */
+  public void cp(final String line) throws IOException {
+    regionCommand(line, "CP", false);
+  }
+
+  /**
+   * Command drawing a copy of a rectangle of canvas at another place.
+   *
+   * @param line        full command line
+   * @param commandName command name to execute
+   * @param isMove      if true then the rest of the rectangle
+   *                    not covered by the copy is cleared
+   * @throws IOException If an I/O error occurs
+   */
+  private void regionCommand(final String line,
+                             final String commandName,
+                             final boolean isMove) throws IOException {
+    Canvas canvas = shell.getCanvas();
+    if (canvas == null) {
+      shell.output(Loc.getLocMessage("canvas-required"));
+      return;
+    }
+    String[] parts = line.trim().split(COMMAND_OPTIONS_REGEX);
+    String usageMessage = Loc.getLocMessage("usage-cp", commandName);
+    // length 6 as 6 arguments are required
+    if (parts.length != 6) {
+      shell.output(usageMessage);
+      return;
+    }
+    int[] args = parseIntegersOrThrow(usageMessage, parts);
+    if (args == null) {
+      // just return as exception message printed from parseIntegersOrThrow
+      return;
+    }
+    if (isMove) {
+      canvas.moveRegion(args[0], args[1], args[2], args[3], args[4], args[5]);
+    } else {
+      canvas.copyRegion(args[0], args[1], args[2], args[3], args[4], args[5]);
+    }
+    printCanvas(canvas);
+  }
+
+  /**
+   * Command E for drawing ellipse outlines on canvas.
+   *
+   * @param line full command line
+   * @throws IOException If an I/O error occurs
+   */
+  public void e(final String line) throws IOException {
+    ellipseCommand(line, "E", false, false);
+  }
+
+  /**
+   * Command EF for drawing filled ellipses on canvas.
+   *
+   * @param line full command line
+   * @throws IOException If an I/O error occurs
+   */
+  public void ef(final String line) throws IOException {
+    ellipseCommand(line, "EF", false, true);
+  }
+
+  /**
+   * Command O for drawing circle outlines on canvas.
+   *
+   * @param line full command line
+   * @throws IOException If an I/O error occurs
+   */
+  public void o(final String line) throws IOException {
+    ellipseCommand(line, "O", true, false);
+  }
+
+  /**
+   * Command OF for drawing filled circles on canvas.
+   *
+   * @param line full command line
+   * @throws IOException If an I/O error occurs
+   */
+  public void of(final String line) throws IOException {
+    ellipseCommand(line, "OF", true, true);
+  }
+
+  /**
+   * Command drawing ellipse or circle on canvas.
+   *
+   * @param line        full command line
+   * @param commandName command name to execute
+   * @param isCircle    if true then one radius is expected
+   *                    if false then horizontal and vertical radii
+   * @param isFilled    if true then the inner area is drawn too
+   *                    if false then only the outline is drawn
+   * @throws IOException If an I/O error occurs
+   */
+  private void ellipseCommand(final String line,
+                              final String commandName,
+                              final boolean isCircle,
+                              final boolean isFilled) throws IOException {
+    Canvas canvas = shell.getCanvas();
+    if (canvas == null) {
+      shell.output(Loc.getLocMessage("canvas-required"));
+      return;
+    }
+    String[] parts = line.trim().split(COMMAND_OPTIONS_REGEX);
+    String usageMessage =
+        Loc.getLocMessage(isCircle ? "usage-o" : "usage-e", commandName);
+    final int argsNumber = isCircle ? 3 : 4;
+    if ((parts.length != argsNumber && parts.length != argsNumber + 1)
+        || (parts.length == argsNumber + 1
+        && parts[argsNumber].length() > 1)) {
+      shell.output(usageMessage);
+      return;
+    }
+    int[] args = parseIntegersOrThrow(
+        usageMessage, Arrays.copyOfRange(parts, 0, argsNumber));
+    if (args == null) {
+      // just return as exception message printed from parseIntegersOrThrow
+      return;
+    }
+    final int rx = args[2];
+    final int ry = args[argsNumber - 1];
+    if (rx < 0 || ry < 0) {
+      shell.output(usageMessage);
+      return;
+    }
+    if (parts.length == argsNumber) {
+      canvas.drawEllipse(args[0], args[1], rx, ry, isFilled);
+    } else {
+      canvas.drawEllipse(
+          args[0], args[1], rx, ry, parts[argsNumber].charAt(0), isFilled);
+    }
+    printCanvas(canvas);
+  }
+
+  /**
+   * Command F for drawing filled rectangles on canvas.
+   *
+   * @param line full command line
+   * @throws IOException If an I/O error occurs
+   */
+  public void f(final String line) throws IOException {
+    Canvas canvas = shell.getCanvas();
+    if (canvas == null) {
+      shell.output(Loc.getLocMessage("canvas-required"));
+      return;
+    }
+    String[] parts = line.trim().split(COMMAND_OPTIONS_REGEX);
+    String commandFUsageMessage = Loc.getLocMessage("usage-f");
+    // length 4 or 5 as 4 or 5 arguments are required
+    if ((parts.length != 4 && parts.length != 5)
+        || (parts.length == 5 && parts[4].length() > 1)) {
+      shell.output(commandFUsageMessage);
+      return;
+    }
+    int[] args = parseIntegersOrThrow(
+        commandFUsageMessage, Arrays.copyOfRange(parts, 0, 4));
+    if (args == null) {
+      // just return as exception message printed from parseIntegersOrThrow
+      return;
+    }
+    if (parts.length == 4) {
+      canvas.fillRectangle(args[0], args[1], args[2], args[3]);
+    } else {
+      canvas.fillRectangle(
+          args[0], args[1], args[2], args[3], parts[4].charAt(0));
+    }
+    printCanvas(canvas);
+  }
+
+  /**
+   * Command MV for moving a rectangle of canvas to another place.
+   *
+   * @param line full command line
+   * @throws IOException If an I/O error occurs
+   */
+  public void mv(final String line) throws IOException {
+    regionCommand(line, "MV", true);
+  }
+
   /**
    * Command P to print current canvas.
    *
@@ -198,7 +423,7 @@ public void h(final String line) {
   }
 
   /**
-   * Command L for drawing horizontal and vertical lines on canvas.
+   * Command L for drawing lines on canvas.
    *
    * @param line full command line
    * @throws IOException If an I/O error occurs
@@ -223,22 +448,13 @@ public void l(final String line) throws IOException {
       // just return as exception message printed from parseIntegersOrThrow
       return;
     }
-
-    int x1 = args[0];
-    int y1 = args[1];
-    int x2 = args[2];
-    int y2 = args[3];
-    if (x1 != x2 && y1 != y2) {
-      // non horizontal and non vertical line detected
-      shell.output(Loc.getLocMessage("draw-line-not-supported"));
+    if (parts.length == 4) {
+      canvas.drawLine(args[0], args[1], args[2], args[3]);
     } else {
-      if (parts.length == 4) {
-        canvas.drawLine(x1, y1, x2, y2);
-      } else {
-        canvas.drawLine(x1, y1, x2, y2, parts[4].charAt(0));
-      }
-      printCanvas(canvas);
+      canvas.drawLine(
+          args[0], args[1], args[2], args[3], parts[4].charAt(0));
     }
+    printCanvas(canvas);
   }
 
   private void printCanvas(Canvas canvas) throws IOException {
@@ -248,6 +464,47 @@ private void printCanvas(Canvas canvas) throws IOException {
     }
   }
 
+  /**
+   * Command PF for filling polygons on canvas.
+   *
+   * @param line full command line
+   * @throws IOException If an I/O error occurs
+   */
+  public void pf(final String line) throws IOException {
+    Canvas canvas = shell.getCanvas();
+    if (canvas == null) {
+      shell.output(Loc.getLocMessage("canvas-required"));
+      return;
+    }
+    String[] parts = line.trim().split(COMMAND_OPTIONS_REGEX);
+    String commandPFUsageMessage = Loc.getLocMessage("usage-pf");
+    // at least 3 vertices and an optional color
+    final boolean hasColor = isColor(parts[parts.length - 1]);
+    final int coordinates = hasColor ? parts.length - 1 : parts.length;
+    if (coordinates < 6 || coordinates % 2 != 0) {
+      shell.output(commandPFUsageMessage);
+      return;
+    }
+    int[] args = parseIntegersOrThrow(
+        commandPFUsageMessage, Arrays.copyOfRange(parts, 0, coordinates));
+    if (args == null) {
+      // just return as exception message printed from parseIntegersOrThrow
+      return;
+    }
+    final int[] xs = new int[coordinates / 2];
+    final int[] ys = new int[coordinates / 2];
+    for (int i = 0; i < xs.length; i++) {
+      xs[i] = args[2 * i];
+      ys[i] = args[2 * i + 1];
+    }
+    if (hasColor) {
+      canvas.fillPolygon(xs, ys, parts[coordinates].charAt(0));
+    } else {
+      canvas.fillPolygon(xs, ys);
+    }
+    printCanvas(canvas);
+  }
+
   /**
    * Exit command Q.
    *
@@ -297,6 +554,113 @@ public void r(final String line) throws IOException {
     printCanvas(canvas);
   }
 
+  /**
+   * Command RC replacing a color with another one on the whole canvas.
+   *
+   * @param line full command line
+   * @throws IOException If an I/O error occurs
+   */
+  public void rc(final String line) throws IOException {
+    Canvas canvas = shell.getCanvas();
+    if (canvas == null) {
+      shell.output(Loc.getLocMessage("canvas-required"));
+      return;
+    }
+    String[] parts = line.trim().split(COMMAND_OPTIONS_REGEX);
+    // length 2 as 2 arguments are required
+    if (parts.length != 2
+        || parts[0].length() > 1 || parts[1].length() > 1) {
+      shell.output(Loc.getLocMessage("usage-rc"));
+      return;
+    }
+    canvas.recolor(parts[0].charAt(0), parts[1].charAt(0));
+    printCanvas(canvas);
+  }
+
+  /**
+   * Command S placing a stamp defined by command SD
+   * with its top left corner at each of the specified points.
+   *
+   * @param line full command line
+   * @throws IOException If an I/O error occurs
+   */
+  public void s(final String line) throws IOException {
+    Canvas canvas = shell.getCanvas();
+    if (canvas == null) {
+      shell.output(Loc.getLocMessage("canvas-required"));
+      return;
+    }
+    String[] parts = line.trim().split(COMMAND_OPTIONS_REGEX);
+    String commandSUsageMessage = Loc.getLocMessage("usage-s");
+    // a name, at least one point and an optional color
+    final boolean hasColor =
+        parts.length > 1 && isColor(parts[parts.length - 1]);
+    final int coordinates = (hasColor ? parts.length - 1 : parts.length) - 1;
+    if (coordinates < 2 || coordinates % 2 != 0) {
+      shell.output(commandSUsageMessage);
+      return;
+    }
+    final Stamp stamp = shell.getStamps().get(parts[0]);
+    if (stamp == null) {
+      shell.output(Loc.getLocMessage("unknown-stamp", parts[0]));
+      return;
+    }
+    int[] args = parseIntegersOrThrow(
+        commandSUsageMessage, Arrays.copyOfRange(parts, 1, 1 + coordinates));
+    if (args == null) {
+      // just return as exception message printed from parseIntegersOrThrow
+      return;
+    }
+    for (int i = 0; i < args.length; i += 2) {
+      if (hasColor) {
+        canvas.drawStamp(
+            stamp, args[i], args[i + 1], parts[parts.length - 1].charAt(0));
+      } else {
+        canvas.drawStamp(stamp, args[i], args[i + 1]);
+      }
+    }
+    printCanvas(canvas);
+  }
+
+  /**
+   * Command SD defining a stamp by name either from rows of symbols
+   * separated by '/' or from a rectangle of the canvas.
+   * The stamp is kept till the end of the session.
+   *
+   * @param line full command line
+   */
+  public void sd(final String line) {
+    String[] parts = line.trim().split(COMMAND_OPTIONS_REGEX);
+    String commandSDUsageMessage =
+        Loc.getLocMessage("usage-sd", String.valueOf(Stamp.CLEAR_CHAR));
+    if (parts.length == 2) {
+      shell.getStamps().put(parts[0], Stamp.of(parts[1].split("/")));
+      return;
+    }
+    // length 5 as a name and 4 coordinates are required
+    if (parts.length != 5) {
+      shell.output(commandSDUsageMessage);
+      return;
+    }
+    Canvas canvas = shell.getCanvas();
+    if (canvas == null) {
+      shell.output(Loc.getLocMessage("canvas-required"));
+      return;
+    }
+    int[] args = parseIntegersOrThrow(
+        commandSDUsageMessage, Arrays.copyOfRange(parts, 1, 5));
+    if (args == null) {
+      // just return as exception message printed from parseIntegersOrThrow
+      return;
+    }
+    final Stamp stamp = canvas.copyStamp(args[0], args[1], args[2], args[3]);
+    if (stamp == null) {
+      shell.output(commandSDUsageMessage);
+      return;
+    }
+    shell.getStamps().put(parts[0], stamp);
+  }
+
   /**
    * Command SET for setting properties.
    *
@@ -328,6 +692,18 @@ public void set(final String line) {
     }
   }
 
+  /**
+   * Check the trailing argument of a command taking any number
+   * of coordinates is a color rather than one more coordinate
+   * i.e. a single symbol other than a digit.
+   *
+   * @param part the last argument of a command
+   * @return true if the argument is a color
+   */
+  private static boolean isColor(final String part) {
+    return part.length() == 1 && !Character.isDigit(part.charAt(0));
+  }
+
   /**
    * Validate if args are numbers otherwise throw NumberFormatException.
    *
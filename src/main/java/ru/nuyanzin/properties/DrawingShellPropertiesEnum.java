@@ -5,6 +5,8 @@
  */
 public enum DrawingShellPropertiesEnum implements DrawingShellProperty {
 
+  CANVAS_ORIENTATION("canvasOrientation", Type.STRING, "auto"),
+  CANVAS_STORAGE("canvasStorage", Type.STRING, "layered"),
   HORIZONTAL_BORDER("hBorder", Type.CHAR, '-'),
   DEFAULT_DRAW_CHAR("defaultDrawChar", Type.CHAR, 'x'),
   DEFAULT_EMPTY_CHAR("defaultEmptyChar", Type.CHAR, ' '),
@@ -13,8 +13,11 @@
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
 
 import ru.nuyanzin.canvas.Canvas;
+import ru.nuyanzin.properties.DrawingShellPropertiesEnum;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 
@@ -22,6 +25,7 @@
  * Unit test for DrawingShell.
  * Tests against end-to-end cases including validation.
  * File input stream is used instead of user interactive mode.
+ * Tests drawing on a canvas are run against every built-in storage.
  */
 public class DrawingShellTest {
 
@@ -125,9 +129,11 @@ public void testLongCommand() {
   /**
    * Test for C command
    */
-  @Test
-  public void testCCommand() {
-    File tmpCommandFile = createTmpCommandFile("testCCommand",
+  @ParameterizedTest
+  @MethodSource("ru.nuyanzin.canvas.CanvasTest#storages")
+  public void testCCommand(final String storage) {
+    File tmpCommandFile = createTmpCommandFileForStorage(storage,
+        "testCCommand",
         "C 2 3");
     try {
       DrawingShell.main(new String[]{tmpCommandFile.getAbsolutePath()});
@@ -183,9 +189,10 @@ public void testCCommandWrongNumberOfArguments() {
   /**
    * Test for B command for the point out of the canvas
    */
-  @Test
-  public void testBCommandForPointOutOfCanvas() {
-    File tmpCommandFile = createTmpCommandFile(
+  @ParameterizedTest
+  @MethodSource("ru.nuyanzin.canvas.CanvasTest#storages")
+  public void testBCommandForPointOutOfCanvas(final String storage) {
+    File tmpCommandFile = createTmpCommandFileForStorage(storage,
         "testBCommandForPointOutOfCanvas",
         "C 2 3",
         "B 12 23 q ");
@@ -202,9 +209,11 @@ public void testBCommandForPointOutOfCanvas() {
   /**
    * Test for B command without specifying `c`
    */
-  @Test
-  public void testBCommandWithoutCharacter() {
-    File tmpCommandFile = createTmpCommandFile("testBCommandWithoutCharacter",
+  @ParameterizedTest
+  @MethodSource("ru.nuyanzin.canvas.CanvasTest#storages")
+  public void testBCommandWithoutCharacter(final String storage) {
+    File tmpCommandFile = createTmpCommandFileForStorage(storage,
+        "testBCommandWithoutCharacter",
         "C 2 3",
         "B 1 2");
     try {
@@ -220,9 +229,11 @@ public void testBCommandWithoutCharacter() {
   /**
    * Test for B command with a wrong character
    */
-  @Test
-  public void testBCommandWithWrongCharacter() {
-    File tmpCommandFile = createTmpCommandFile("testBCommandWithWrongCharacter",
+  @ParameterizedTest
+  @MethodSource("ru.nuyanzin.canvas.CanvasTest#storages")
+  public void testBCommandWithWrongCharacter(final String storage) {
+    File tmpCommandFile = createTmpCommandFileForStorage(storage,
+        "testBCommandWithWrongCharacter",
         "C 2 3",
         "B4 1 2 qwe ");
     try {
@@ -256,9 +267,11 @@ public void testBCommandWithoutCanvas() {
   /**
    * Test for B command called several times.
    */
-  @Test
-  public void testTwiceBCommand() {
-    File tmpCommandFile = createTmpCommandFile("testTwiceBCommand",
+  @ParameterizedTest
+  @MethodSource("ru.nuyanzin.canvas.CanvasTest#storages")
+  public void testTwiceBCommand(final String storage) {
+    File tmpCommandFile = createTmpCommandFileForStorage(storage,
+        "testTwiceBCommand",
         "C 50 2 ",
         "B 1 1 -",
         "B 2 2 @",
@@ -280,9 +293,11 @@ public void testTwiceBCommand() {
   /**
    * Test for B command called several times.
    */
-  @Test
-  public void testFillOtherPartWithExistingSymbol() {
-    File tmpCommandFile = createTmpCommandFile("testTwiceBCommand",
+  @ParameterizedTest
+  @MethodSource("ru.nuyanzin.canvas.CanvasTest#storages")
+  public void testFillOtherPartWithExistingSymbol(final String storage) {
+    File tmpCommandFile = createTmpCommandFileForStorage(storage,
+        "testTwiceBCommand",
         "C 50 2 ",
         "L 20 1 20 2",
         "B 2 2 @",
@@ -304,9 +319,11 @@ public void testFillOtherPartWithExistingSymbol() {
   /**
    * Test for B8 command.
    */
-  @Test
-  public void testB8Command() {
-    File tmpCommandFile = createTmpCommandFile("testTwiceBCommand",
+  @ParameterizedTest
+  @MethodSource("ru.nuyanzin.canvas.CanvasTest#storages")
+  public void testB8Command(final String storage) {
+    File tmpCommandFile = createTmpCommandFileForStorage(storage,
+        "testTwiceBCommand",
         "C 9 2 ",
         "L 1 1 1 1",
         "L 2 2 2 2",
@@ -332,11 +349,13 @@ public void testB8Command() {
    * it does not crash with OutOfMemory or StackOverFlow errors.
    * As the numbers are more than 1000 there is also current format is used.
    */
-  @Test
-  public void testBCommandForMillionsPoints() {
+  @ParameterizedTest
+  @MethodSource("ru.nuyanzin.canvas.CanvasTest#storages")
+  public void testBCommandForMillionsPoints(final String storage) {
     NumberFormat numberFormat = NumberFormat.getIntegerInstance();
     String formatted2000 = numberFormat.format(2000);
-    File tmpCommandFile = createTmpCommandFile("testBCommandForMillionsPoints",
+    File tmpCommandFile = createTmpCommandFileForStorage(storage,
+        "testBCommandForMillionsPoints",
         "C " + formatted2000 + " " + formatted2000,
         "L 2 2 2 2",
         "B 1 1 @");
@@ -353,9 +372,11 @@ public void testBCommandForMillionsPoints() {
   /**
    * Test for commands around with spaces
    */
-  @Test
-  public void testCommandsAroundWithSpaces() {
-    File tmpCommandFile = createTmpCommandFile("testCommandsAroundWithSpaces",
+  @ParameterizedTest
+  @MethodSource("ru.nuyanzin.canvas.CanvasTest#storages")
+  public void testCommandsAroundWithSpaces(final String storage) {
+    File tmpCommandFile = createTmpCommandFileForStorage(storage,
+        "testCommandsAroundWithSpaces",
         "        C              4        3 ",
         "        L        1        2        3       2        ",
         "  L   2      2  4            2         ",
@@ -377,7 +398,31 @@ public void testCommandsAroundWithSpaces() {
   }
 
   /**
-   * Test that for really big sizes of canvas OOM happens.
+   * Test that creation of a canvas does not allocate memory
+   * for the background even for really big sizes.
+   */
+  @Test
+  public void testHugeCanvasCreation() {
+    File tmpCommandFile = createTmpCommandFile("testHugeCanvasCreation",
+        "SET showCanvasAfterCommand false",
+        "C " + Integer.MAX_VALUE + " " + Integer.MAX_VALUE,
+        "H");
+    try {
+      DrawingShell.main(new String[]{tmpCommandFile.getAbsolutePath()});
+      assertThat(os.toString("UTF8"),
+          CoreMatchers.allOf(
+              CoreMatchers.containsString(Loc.getLocMessage("help")),
+              CoreMatchers.not(
+                  CoreMatchers.containsString("OutOfMemoryError"))));
+    } catch (Exception e) {
+      // fail
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Test that for really big sizes of canvas OOM happens while drawing
+   * and it is reported on the draw command even if it is batched.
    * As the numbers are more than 1000 there is also current format is used.
    */
   @Test
@@ -386,9 +431,13 @@ public void testOOMHappen() {
     String formattedMaxValue = numberFormat.format(Integer.MAX_VALUE);
     try {
       File tmpCommandFile = createTmpCommandFile("testOOMHappen",
-          "C " + formattedMaxValue + " " + formattedMaxValue);
+          "SET showCanvasAfterCommand false",
+          "C " + formattedMaxValue + " " + formattedMaxValue,
+          "L 1 1 1 1");
       DrawingShell.main(new String[]{tmpCommandFile.getAbsolutePath()});
-      assertThat(os.toString("UTF8"),
+      final String output = os.toString("UTF8");
+      assertThat(output.substring(output.indexOf("L 1 1 1 1"),
+          output.indexOf(Loc.getLocMessage("eof-detected"))),
           CoreMatchers.containsString("OutOfMemoryError"));
     } catch (Exception e) {
       // fail
@@ -398,16 +447,24 @@ public void testOOMHappen() {
 
   /**
    * Test that after OOM happened the application could continue working
+   * and the OOM is reported on the command causing it.
    */
   @Test
   public void testPossibilityToWorkAfterOOM() {
     File tmpCommandFile = createTmpCommandFile("testPossibilityToWorkAfterOOM",
+        "SET showCanvasAfterCommand false",
         "C " + Integer.MAX_VALUE + " " + Integer.MAX_VALUE,
+        "L 1 1 1 1",
+        "SET showCanvasAfterCommand true",
         "C 3 3",
         "B 2 2 :");
     try {
       DrawingShell.main(new String[]{tmpCommandFile.getAbsolutePath()});
-      assertThat(os.toString("UTF8"),
+      final String output = os.toString("UTF8");
+      assertThat(output.substring(output.indexOf("L 1 1 1 1"),
+          output.indexOf("SET showCanvasAfterCommand true")),
+          CoreMatchers.containsString("OutOfMemoryError"));
+      assertThat(output,
           CoreMatchers.containsString("-----\n"
               + "|:::|\n"
               + "|:::|\n"
@@ -456,9 +513,10 @@ public void testLCommandWithoutCanvas() {
   /**
    * Test for L command with wrong number of arguments
    */
-  @Test
-  public void testLCommandWithWrongNumberOfArguments() {
-    File tmpCommandFile = createTmpCommandFile(
+  @ParameterizedTest
+  @MethodSource("ru.nuyanzin.canvas.CanvasTest#storages")
+  public void testLCommandWithWrongNumberOfArguments(final String storage) {
+    File tmpCommandFile = createTmpCommandFileForStorage(storage,
         "testLCommandWithWrongNumberOfArguments",
         "C 2 3",
         "L 1 2");
@@ -475,9 +533,10 @@ public void testLCommandWithWrongNumberOfArguments() {
   /**
    * Test for L command with wrong number of arguments
    */
-  @Test
-  public void testLCommandWrongTypeOfArguments() {
-    File tmpCommandFile = createTmpCommandFile(
+  @ParameterizedTest
+  @MethodSource("ru.nuyanzin.canvas.CanvasTest#storages")
+  public void testLCommandWrongTypeOfArguments(final String storage) {
+    File tmpCommandFile = createTmpCommandFileForStorage(storage,
         "testLCommandWrongTypeOfArguments",
         "C 2 3",
         "L A 2 A 2 ");
@@ -494,16 +553,23 @@ public void testLCommandWrongTypeOfArguments() {
   /**
    * Test for L command for non horizontal and non vertical line
    */
-  @Test
-  public void testLCommandForNonHorizontalNonVertical() {
-    File tmpCommandFile = createTmpCommandFile("testLCommand",
-        "C 3 3",
-        "L -1 223 3 231 ");
+  @ParameterizedTest
+  @MethodSource("ru.nuyanzin.canvas.CanvasTest#storages")
+  public void testLCommandForNonHorizontalNonVertical(final String storage) {
+    File tmpCommandFile = createTmpCommandFileForStorage(storage,
+        "testLCommand",
+        "C 5 3",
+        "L -1 223 3 231 ",
+        "L 1 1 5 3 ");
     try {
       DrawingShell.main(new String[]{tmpCommandFile.getAbsolutePath()});
       assertThat(os.toString("UTF8"),
           CoreMatchers.containsString(
-              Loc.getLocMessage("draw-line-not-supported")));
+              "-------\n"
+                  + "|x    |\n"
+                  + "| xx  |\n"
+                  + "|   xx|\n"
+                  + "-------"));
     } catch (Exception e) {
       // fail
       throw new RuntimeException(e);
@@ -513,9 +579,11 @@ public void testLCommandForNonHorizontalNonVertical() {
   /**
    * Test for L command with wrong number of arguments
    */
-  @Test
-  public void testLCommand() {
-    File tmpCommandFile = createTmpCommandFile("testLCommand",
+  @ParameterizedTest
+  @MethodSource("ru.nuyanzin.canvas.CanvasTest#storages")
+  public void testLCommand(final String storage) {
+    File tmpCommandFile = createTmpCommandFileForStorage(storage,
+        "testLCommand",
         "C 3 3",
         "L -1 2 3 2 ");
     try {
@@ -554,9 +622,10 @@ public void testRCommandWithoutCanvas() {
   /**
    * Test for R command with wrong number of arguments
    */
-  @Test
-  public void testRCommandWithWrongNumberOfArguments() {
-    File tmpCommandFile = createTmpCommandFile(
+  @ParameterizedTest
+  @MethodSource("ru.nuyanzin.canvas.CanvasTest#storages")
+  public void testRCommandWithWrongNumberOfArguments(final String storage) {
+    File tmpCommandFile = createTmpCommandFileForStorage(storage,
         "testRCommandWithWrongNumberOfArguments",
         "C 2 3",
         "R 1 2");
@@ -573,9 +642,10 @@ public void testRCommandWithWrongNumberOfArguments() {
   /**
    * Test for R command with wrong number of arguments
    */
-  @Test
-  public void testRCommandWrongTypeOfArguments() {
-    File tmpCommandFile = createTmpCommandFile(
+  @ParameterizedTest
+  @MethodSource("ru.nuyanzin.canvas.CanvasTest#storages")
+  public void testRCommandWrongTypeOfArguments(final String storage) {
+    File tmpCommandFile = createTmpCommandFileForStorage(storage,
         "testRCommandWrongTypeOfArguments",
         "C 2 3",
         "R A 2 A 2 ");
@@ -592,9 +662,11 @@ public void testRCommandWrongTypeOfArguments() {
   /**
    * Test for R command with wrong number of arguments
    */
-  @Test
-  public void testRCommand() {
-    File tmpCommandFile = createTmpCommandFile("testRCommand",
+  @ParameterizedTest
+  @MethodSource("ru.nuyanzin.canvas.CanvasTest#storages")
+  public void testRCommand(final String storage) {
+    File tmpCommandFile = createTmpCommandFileForStorage(storage,
+        "testRCommand",
         "C 2 3",
         "R 1 1 1 1 ");
     try {
@@ -615,9 +687,10 @@ public void testRCommand() {
   /**
    * Test for R command with partially out rectangle.
    */
-  @Test
-  public void testRCommandWithPartiallyOutRectangle() {
-    File tmpCommandFile = createTmpCommandFile(
+  @ParameterizedTest
+  @MethodSource("ru.nuyanzin.canvas.CanvasTest#storages")
+  public void testRCommandWithPartiallyOutRectangle(final String storage) {
+    File tmpCommandFile = createTmpCommandFileForStorage(storage,
         "testRCommandWithPartiallyOutRectangle",
         "C 2 3",
         "R 2 2 3 3 ");
@@ -636,6 +709,327 @@ public void testRCommandWithPartiallyOutRectangle() {
     }
   }
 
+  /**
+   * Test for E command with negative radius.
+   */
+  @ParameterizedTest
+  @MethodSource("ru.nuyanzin.canvas.CanvasTest#storages")
+  public void testECommandWithNegativeRadius(final String storage) {
+    File tmpCommandFile = createTmpCommandFileForStorage(storage,
+        "testECommandWithNegativeRadius",
+        "C 2 3",
+        "E 1 2 -1 1");
+    try {
+      DrawingShell.main(new String[]{tmpCommandFile.getAbsolutePath()});
+      assertThat(os.toString("UTF8"),
+          CoreMatchers.containsString(Loc.getLocMessage("usage-e", "E")));
+    } catch (Exception e) {
+      // fail
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Test for O and EF commands.
+   */
+  @ParameterizedTest
+  @MethodSource("ru.nuyanzin.canvas.CanvasTest#storages")
+  public void testOAndEFCommands(final String storage) {
+    File tmpCommandFile = createTmpCommandFileForStorage(storage,
+        "testOAndEFCommands",
+        "C 7 3",
+        "O 2 2 1",
+        "EF 6 2 1 1 o ",
+        "OF 4 2 1 2 3");
+    try {
+      DrawingShell.main(new String[]{tmpCommandFile.getAbsolutePath()});
+      final String output = os.toString("UTF8");
+      assertThat(output,
+          CoreMatchers.containsString(
+              "---------\n"
+                  + "| x   o |\n"
+                  + "|x x ooo|\n"
+                  + "| x   o |\n"
+                  + "---------"));
+      assertThat(output,
+          CoreMatchers.containsString(Loc.getLocMessage("usage-o", "OF")));
+    } catch (Exception e) {
+      // fail
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Test for F command with wrong number of arguments
+   */
+  @ParameterizedTest
+  @MethodSource("ru.nuyanzin.canvas.CanvasTest#storages")
+  public void testFCommandWithWrongNumberOfArguments(final String storage) {
+    File tmpCommandFile = createTmpCommandFileForStorage(storage,
+        "testFCommandWithWrongNumberOfArguments",
+        "C 2 3",
+        "F 1 2");
+    try {
+      DrawingShell.main(new String[]{tmpCommandFile.getAbsolutePath()});
+      assertThat(os.toString("UTF8"),
+          CoreMatchers.containsString(Loc.getLocMessage("usage-f")));
+    } catch (Exception e) {
+      // fail
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Test for F command with partially out rectangle.
+   */
+  @ParameterizedTest
+  @MethodSource("ru.nuyanzin.canvas.CanvasTest#storages")
+  public void testFCommand(final String storage) {
+    File tmpCommandFile = createTmpCommandFileForStorage(storage,
+        "testFCommand",
+        "C 3 3",
+        "L 1 2 3 2 o",
+        "F 2 2 4 4 ");
+    try {
+      DrawingShell.main(new String[]{tmpCommandFile.getAbsolutePath()});
+      assertThat(os.toString("UTF8"),
+          CoreMatchers.containsString(
+              "-----\n"
+                  + "|   |\n"
+                  + "|oxx|\n"
+                  + "| xx|\n"
+                  + "-----"));
+    } catch (Exception e) {
+      // fail
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Test for PF command with less than 3 vertices.
+   */
+  @ParameterizedTest
+  @MethodSource("ru.nuyanzin.canvas.CanvasTest#storages")
+  public void testPFCommandWithTwoVertices(final String storage) {
+    File tmpCommandFile = createTmpCommandFileForStorage(storage,
+        "testPFCommandWithTwoVertices",
+        "C 2 3",
+        "PF 1 1 2 2 o");
+    try {
+      DrawingShell.main(new String[]{tmpCommandFile.getAbsolutePath()});
+      assertThat(os.toString("UTF8"),
+          CoreMatchers.containsString(Loc.getLocMessage("usage-pf")));
+    } catch (Exception e) {
+      // fail
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Test for PF command with an odd number of coordinates
+   * whose last one is not taken as a color.
+   */
+  @ParameterizedTest
+  @MethodSource("ru.nuyanzin.canvas.CanvasTest#storages")
+  public void testPFCommandWithOddCoordinates(final String storage) {
+    File tmpCommandFile = createTmpCommandFileForStorage(storage,
+        "testPFCommandWithOddCoordinates",
+        "SET showCanvasAfterCommand false",
+        "C 5 3",
+        "PF 1 1 5 1 3 3 7",
+        "P");
+    try {
+      DrawingShell.main(new String[]{tmpCommandFile.getAbsolutePath()});
+      final String output = os.toString("UTF8");
+      assertThat(output,
+          CoreMatchers.containsString(Loc.getLocMessage("usage-pf")));
+      assertThat(output,
+          CoreMatchers.containsString(
+              "-------\n"
+                  + "|     |\n"
+                  + "|     |\n"
+                  + "|     |\n"
+                  + "-------"));
+    } catch (Exception e) {
+      // fail
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Test for PF command.
+   */
+  @ParameterizedTest
+  @MethodSource("ru.nuyanzin.canvas.CanvasTest#storages")
+  public void testPFCommand(final String storage) {
+    File tmpCommandFile = createTmpCommandFileForStorage(storage,
+        "testPFCommand",
+        "C 5 3",
+        "PF 3 1 5 3 1 3",
+        "PF 0 0 1 0 1 1 0 1 o ");
+    try {
+      DrawingShell.main(new String[]{tmpCommandFile.getAbsolutePath()});
+      assertThat(os.toString("UTF8"),
+          CoreMatchers.containsString(
+              "-------\n"
+                  + "|o x  |\n"
+                  + "| xxx |\n"
+                  + "|xxxxx|\n"
+                  + "-------"));
+    } catch (Exception e) {
+      // fail
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Test that draw commands following each other with hidden canvas
+   * including stamps are applied at once before other commands.
+   */
+  @ParameterizedTest
+  @MethodSource("ru.nuyanzin.canvas.CanvasTest#storages")
+  public void testBatchedDrawCommands(final String storage) {
+    File tmpCommandFile = createTmpCommandFileForStorage(storage,
+        "testBatchedDrawCommands",
+        "SET showCanvasAfterCommand false",
+        "SD dot x",
+        "C 5 4",
+        "R 1 1 5 4",
+        "L 1 2 5 2 o",
+        "F 2 3 3 3 .",
+        "S dot 4 4 *",
+        "L 3 1 3 4 |",
+        "B 4 3 :",
+        "L 1 1 5 1 -",
+        "P");
+    try {
+      DrawingShell.main(new String[]{tmpCommandFile.getAbsolutePath()});
+      assertThat(os.toString("UTF8"),
+          CoreMatchers.containsString(
+              "-------\n"
+                  + "|-----|\n"
+                  + "|oo|oo|\n"
+                  + "|x.|:x|\n"
+                  + "|xx|*x|\n"
+                  + "-------"));
+    } catch (Exception e) {
+      // fail
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Test copy and move of rectangles of the canvas.
+   */
+  @ParameterizedTest
+  @MethodSource("ru.nuyanzin.canvas.CanvasTest#storages")
+  public void testCopyAndMove(final String storage) {
+    File tmpCommandFile = createTmpCommandFileForStorage(storage,
+        "testCopyAndMove",
+        "SET showCanvasAfterCommand false",
+        "C 6 3",
+        "L 1 1 2 1 o",
+        "L 1 2 1 2 *",
+        "CP 1 1 2 2 5 2",
+        "MV 1 1 2 2 2 2",
+        "CP 1 1 2 2",
+        "P");
+    try {
+      DrawingShell.main(new String[]{tmpCommandFile.getAbsolutePath()});
+      final String output = os.toString("UTF8");
+      assertThat(output,
+          CoreMatchers.containsString(Loc.getLocMessage("usage-cp", "CP")));
+      assertThat(output,
+          CoreMatchers.containsString(
+              "--------\n"
+                  + "|      |\n"
+                  + "| oo oo|\n"
+                  + "| *  * |\n"
+                  + "--------"));
+    } catch (Exception e) {
+      // fail
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Test for S command with an odd number of coordinates
+   * whose last one is not taken as a color.
+   */
+  @ParameterizedTest
+  @MethodSource("ru.nuyanzin.canvas.CanvasTest#storages")
+  public void testSCommandWithOddCoordinates(final String storage) {
+    File tmpCommandFile = createTmpCommandFileForStorage(storage,
+        "testSCommandWithOddCoordinates",
+        "SET showCanvasAfterCommand false",
+        "SD glyph x",
+        "C 4 3",
+        "S glyph 1 2 3",
+        "S glyph *",
+        "P");
+    try {
+      DrawingShell.main(new String[]{tmpCommandFile.getAbsolutePath()});
+      final String output = os.toString("UTF8");
+      assertThat(output,
+          CoreMatchers.containsString(Loc.getLocMessage("usage-s")));
+      assertThat(output,
+          CoreMatchers.containsString(
+              "------\n"
+                  + "|    |\n"
+                  + "|    |\n"
+                  + "|    |\n"
+                  + "------"));
+    } catch (Exception e) {
+      // fail
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Test stamps defined inline and from the canvas placed at many points.
+   */
+  @ParameterizedTest
+  @MethodSource("ru.nuyanzin.canvas.CanvasTest#storages")
+  public void testStamps(final String storage) {
+    File tmpCommandFile = createTmpCommandFileForStorage(storage,
+        "testStamps",
+        "SD dot x",
+        "S dot 1 1",
+        "SET showCanvasAfterCommand false",
+        "C 6 4",
+        "S corner 1 1",
+        "SD corner xx/x",
+        "S corner 1 1 4 1 6 3 *",
+        "SD copy 1 1 2 2",
+        "SD",
+        "C 6 4",
+        "S copy 2 2 o",
+        "S dot 6 4",
+        "P");
+    try {
+      DrawingShell.main(new String[]{tmpCommandFile.getAbsolutePath()});
+      final String output = os.toString("UTF8");
+      assertThat(output,
+          CoreMatchers.containsString(Loc.getLocMessage("canvas-required")));
+      assertThat(output,
+          CoreMatchers.containsString(
+              Loc.getLocMessage("unknown-stamp", "corner")));
+      assertThat(output,
+          CoreMatchers.containsString(Loc.getLocMessage("usage-sd", ".")));
+      assertThat(output,
+          CoreMatchers.containsString(
+              "--------\n"
+                  + "|      |\n"
+                  + "| oo   |\n"
+                  + "| o    |\n"
+                  + "|     x|\n"
+                  + "--------"));
+    } catch (Exception e) {
+      // fail
+      throw new RuntimeException(e);
+    }
+  }
+
   /**
    * Test for unknown command
    */
@@ -674,6 +1068,21 @@ public void testExit() {
     }
   }
 
+  /**
+   * Create a command file switching the storage
+   * of the canvases created after that.
+   */
+  private File createTmpCommandFileForStorage(final String storage,
+                                              final String prefix,
+                                              final String... commands) {
+    final String[] allCommands = new String[commands.length + 1];
+    allCommands[0] = "SET "
+        + DrawingShellPropertiesEnum.CANVAS_STORAGE.propertyName()
+        + " " + storage;
+    System.arraycopy(commands, 0, allCommands, 1, commands.length);
+    return createTmpCommandFile(prefix, allCommands);
+  }
+
   private File createTmpCommandFile(final String prefix,
                                     final String... commands) {
     try {
@@ -693,4 +1102,74 @@ private File createTmpCommandFile(final String prefix,
       throw new RuntimeException(e);
     }
   }
+
+  /**
+   * Test recoloring to a new color and to a color in use.
+   */
+  @ParameterizedTest
+  @MethodSource("ru.nuyanzin.canvas.CanvasTest#storages")
+  public void testRecolor(final String storage) {
+    File tmpCommandFile = createTmpCommandFileForStorage(storage,
+        "testRecolor",
+        "SET showCanvasAfterCommand false",
+        "C 5 3",
+        "L 1 1 5 1",
+        "L 1 3 5 3",
+        "L 3 2 3 2 o",
+        "RC x",
+        "RC x *",
+        "RC o *",
+        "RC z x",
+        "P");
+    try {
+      DrawingShell.main(new String[]{tmpCommandFile.getAbsolutePath()});
+      final String output = os.toString("UTF8");
+      assertThat(output,
+          CoreMatchers.containsString(Loc.getLocMessage("usage-rc")));
+      assertThat(output,
+          CoreMatchers.containsString(
+              "-------\n"
+                  + "|*****|\n"
+                  + "|  *  |\n"
+                  + "|*****|\n"
+                  + "-------"));
+    } catch (Exception e) {
+      // fail
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Test fill with a pattern.
+   */
+  @ParameterizedTest
+  @MethodSource("ru.nuyanzin.canvas.CanvasTest#storages")
+  public void testPatternFill(final String storage) {
+    File tmpCommandFile = createTmpCommandFileForStorage(storage,
+        "testPatternFill",
+        "SET showCanvasAfterCommand false",
+        "C 5 3",
+        "L 3 1 3 3",
+        "BP8 1 1 xo/.*",
+        "BP 4 1 ab",
+        "BP4 9 1 ab",
+        "P");
+    try {
+      DrawingShell.main(new String[]{tmpCommandFile.getAbsolutePath()});
+      final String output = os.toString("UTF8");
+      assertThat(output,
+          CoreMatchers.containsString(
+              Loc.getLocMessage("usage-bp", "BP4", 5, 3)));
+      assertThat(output,
+          CoreMatchers.containsString(
+              "-------\n"
+                  + "|xoxba|\n"
+                  + "| *xba|\n"
+                  + "|xoxba|\n"
+                  + "-------"));
+    } catch (Exception e) {
+      // fail
+      throw new RuntimeException(e);
+    }
+  }
 }
@@ -0,0 +1,86 @@
+package ru.nuyanzin.canvas;
+
+/**
+ * Storage drawing to an array for tests of rasterizers.
+ * It records the number of lines drawn and the number of rows
+ * they are drawn to, so tests could check how the shape
+ * is passed to a storage keeping rows.
+ */
+final class ArrayStorage implements CanvasStorage {
+  private final char[][] points;
+  private int spans;
+  private long rows;
+
+  ArrayStorage(final char[][] points) {
+    this.points = points;
+  }
+
+  ArrayStorage(final int width, final int height) {
+    this(new char[height][width]);
+  }
+
+  char[][] getPoints() {
+    return points;
+  }
+
+  /**
+   * Return number of horizontal and vertical lines drawn.
+   *
+   * @return number of lines
+   */
+  int getSpans() {
+    return spans;
+  }
+
+  /**
+   * Return number of rows lines were drawn to i.e. one for a horizontal
+   * line and the number of points for a vertical one.
+   *
+   * @return number of rows written
+   */
+  long getRows() {
+    return rows;
+  }
+
+  @Override
+  public char getColor(final int x, final int y) {
+    return points[y][x];
+  }
+
+  @Override
+  public int getRunEnd(final int x, final int y) {
+    return x;
+  }
+
+  @Override
+  public void drawHorizontalLine(final int x1,
+                                 final int x2,
+                                 final int y,
+                                 final char color) {
+    spans++;
+    rows++;
+    for (int x = x1; x <= x2; x++) {
+      points[y][x] = color;
+    }
+  }
+
+  @Override
+  public void drawVerticalLine(final int x,
+                               final int y1,
+                               final int y2,
+                               final char color) {
+    spans++;
+    rows += y2 - y1 + 1;
+    for (int y = y1; y <= y2; y++) {
+      points[y][x] = color;
+    }
+  }
+
+  @Override
+  public void fill(final int x,
+                   final int y,
+                   final char color,
+                   final boolean isB4) {
+    throw new UnsupportedOperationException();
+  }
+}
@@ -0,0 +1,62 @@
+package ru.nuyanzin.canvas;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Unit tests for {@link BatchStorage}.
+ */
+public class BatchStorageTest {
+
+  /**
+   * Check that reads, fills and copies of the batch see spans
+   * collected but not yet applied.
+   */
+  @Test
+  public void testReadsApplyCollectedSpans() {
+    LayeredStorage target = new LayeredStorage(5, 3, ' ');
+    BatchStorage batch = new BatchStorage(target);
+    batch.drawHorizontalLine(0, 4, 1, 'x');
+    assertEquals(' ', target.getColor(2, 1));
+    assertEquals('x', batch.getColor(2, 1));
+    assertEquals(4, batch.getRunEnd(0, 1));
+
+    batch.drawVerticalLine(2, 0, 2, 'o');
+    batch.fill(0, 0, '.', true);
+    assertEquals('o', target.getColor(2, 0));
+    assertEquals('.', target.getColor(1, 0));
+    assertEquals(' ', target.getColor(3, 0));
+
+    batch.drawHorizontalLine(3, 4, 2, '#');
+    batch.copy(3, 4, 2, 2, 0, 0);
+    assertEquals('#', target.getColor(0, 0));
+    assertEquals('#', target.getColor(1, 0));
+  }
+
+  /**
+   * Check that a vertical line at least as long as the spans collected
+   * is drawn on the target at once after them and a shorter one
+   * is collected, so later spans still overwrite both.
+   */
+  @Test
+  public void testLongVerticalLineIsDrawnAtOnce() {
+    LayeredStorage target = new LayeredStorage(5, 6, ' ');
+    BatchStorage batch = new BatchStorage(target);
+    batch.drawHorizontalLine(0, 4, 1, 'x');
+    batch.drawVerticalLine(2, 0, 5, 'o');
+    assertEquals('x', target.getColor(0, 1));
+    assertEquals('o', target.getColor(2, 1));
+    assertEquals('o', target.getColor(2, 5));
+
+    batch.drawHorizontalLine(0, 4, 2, 'x');
+    batch.drawHorizontalLine(0, 4, 3, 'x');
+    batch.drawVerticalLine(4, 3, 3, '#');
+    assertEquals('o', target.getColor(2, 2));
+    batch.drawHorizontalLine(4, 4, 2, '.');
+    batch.apply();
+    assertEquals('x', target.getColor(2, 2));
+    assertEquals('.', target.getColor(4, 2));
+    assertEquals('#', target.getColor(4, 3));
+  }
+}
@@ -1,36 +1,179 @@
 package ru.nuyanzin.canvas;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.stream.Stream;
 
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
 
 import ru.nuyanzin.DrawingShellOpts;
+import ru.nuyanzin.properties.DrawingShellPropertiesEnum;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 /**
  * Unit tests for direct drawing on {@link Canvas}.
  * No validation is checked here, only drawing.
+ * Each test is run against every built-in storage
+ * so they make a conformance suite for {@link CanvasStorage}.
  */
 public class CanvasTest {
 
-  private static final DrawingShellOpts OPTS = new DrawingShellOpts(null);
+  /**
+   * Names of built-in storages to run the tests with.
+   * Shared with {@link ru.nuyanzin.DrawingShellTest}.
+   */
+  public static Stream<String> storages() {
+    return Arrays.stream(CanvasStorageProvidersEnum.values())
+        .map(CanvasStorageProvidersEnum::getName);
+  }
+
+  /**
+   * Names of built-in storages each with both orientations of the canvas.
+   */
+  static Stream<Arguments> storagesAndOrientations() {
+    return storages().flatMap(storage -> Stream.of(
+        Arguments.of(storage, Canvas.ORIENTATION_ROWS),
+        Arguments.of(storage, Canvas.ORIENTATION_COLUMNS)));
+  }
+
+  private static DrawingShellOpts opts(final String storage) {
+    DrawingShellOpts opts = new DrawingShellOpts(null);
+    opts.set(DrawingShellPropertiesEnum.CANVAS_STORAGE, storage);
+    return opts;
+  }
+
+  private static DrawingShellOpts opts(final String storage,
+                                       final String orientation) {
+    DrawingShellOpts opts = opts(storage);
+    opts.set(DrawingShellPropertiesEnum.CANVAS_ORIENTATION, orientation);
+    return opts;
+  }
+
+  /**
+   * Create a canvas of 150x9 points, so rows take several words,
+   * with vertical lines of four colors by turns
+   * and a rectangle of 'd' over them.
+   *
+   * @param opts   options of the canvas
+   * @param colors colors of lines
+   * @return canvas with lines and the rectangle
+   */
+  private static Canvas stripedCanvas(final DrawingShellOpts opts,
+                                      final String colors) {
+    Canvas cnvs = new Canvas(150, 9, opts);
+    for (int x = 1; x <= 150; x++) {
+      cnvs.drawLine(x, 1 + x % 3, x, 9 - x % 4, colors.charAt(x % 4));
+    }
+    return cnvs.fillRectangle(20, 3, 90, 6, 'd');
+  }
 
   @Test
-  public void testToString() {
+  public void testUnknownStorage() {
+    assertThrows(IllegalArgumentException.class,
+        () -> new Canvas(4, 3, opts("unknown")));
+  }
+
+  @ParameterizedTest
+  @MethodSource("storages")
+  public void testToString(final String storage) {
+    final DrawingShellOpts opts = opts(storage);
     // 0 is not allowed from the shell but here there is no validation
-    assertEquals("--\n--\n", new Canvas(0, 0, OPTS).toString());
-    assertEquals("---\n---\n", new Canvas(1, 0, OPTS).toString());
-    assertEquals("--\n||\n--\n", new Canvas(0, 1, OPTS).toString());
-    assertEquals("---\n| |\n---\n", new Canvas(1, 1, OPTS).toString());
+    assertEquals("--\n--\n", new Canvas(0, 0, opts).toString());
+    assertEquals("---\n---\n", new Canvas(1, 0, opts).toString());
+    assertEquals("--\n||\n--\n", new Canvas(0, 1, opts).toString());
+    assertEquals("---\n| |\n---\n", new Canvas(1, 1, opts).toString());
     assertEquals("----\n|  |\n|  |\n----\n",
-        new Canvas(2, 2, OPTS).toString());
+        new Canvas(2, 2, opts).toString());
   }
 
-  @Test
-  public void testDrawLineOutCanvas() {
-    Canvas cnvs = new Canvas(3, 3, OPTS);
+  /**
+   * Check that a tall canvas is column-major
+   * while it is still printed row by row.
+   */
+  @ParameterizedTest
+  @MethodSource("storages")
+  public void testColumnMajorCanvas(final String storage) {
+    final DrawingShellOpts opts = opts(storage);
+    Canvas cnvs = new Canvas(3, 4, opts);
+    assertTrue(cnvs.isColumnMajor());
+    cnvs.drawLine(2, 1, 2, 3).drawLine(1, 4, 3, 4).fill(1, 1, 'o');
+    assertEquals("-----\n"
+        + "|ox |\n"
+        + "|ox |\n"
+        + "|ox |\n"
+        + "|xxx|\n"
+        + "-----\n", cnvs.toString());
+  }
+
+  /**
+   * Check that a canvas switches orientation
+   * once vertical lines outweigh horizontal ones
+   * and keeps all the points drawn before.
+   */
+  @ParameterizedTest
+  @MethodSource("storages")
+  public void testOrientationSwitch(final String storage) {
+    final DrawingShellOpts opts = opts(storage);
+    Canvas cnvs = new Canvas(4, 4, opts);
+    assertFalse(cnvs.isColumnMajor());
+    cnvs.drawLine(1, 1, 4, 1, 'o');
+    for (int i = 1; i <= 4; i++) {
+      cnvs.drawLine(i, 2, i, 4);
+    }
+    cnvs.drawLine(3, 1, 3, 4, '.');
+    // 16 points of vertical lines are not more than the canvas size yet
+    assertFalse(cnvs.isColumnMajor());
+    cnvs.drawLine(4, 2, 4, 2, '#');
+    assertTrue(cnvs.isColumnMajor());
+    assertEquals("------\n"
+        + "|oo.o|\n"
+        + "|xx.#|\n"
+        + "|xx.x|\n"
+        + "|xx.x|\n"
+        + "------\n", cnvs.toString());
+
+    // lines are counted while batched and the batch is applied first
+    Canvas batched = new Canvas(4, 4, opts);
+    batched.beginBatch();
+    batched.drawLine(1, 1, 4, 1, 'o');
+    for (int i = 1; i <= 4; i++) {
+      batched.drawLine(i, 2, i, 4);
+    }
+    batched.drawLine(3, 1, 3, 4, '.');
+    batched.drawLine(4, 2, 4, 2, '#');
+    assertTrue(batched.isColumnMajor());
+    batched.drawLine(1, 4, 2, 4, '*');
+    batched.applyBatch();
+    assertEquals("------\n"
+        + "|oo.o|\n"
+        + "|xx.#|\n"
+        + "|xx.x|\n"
+        + "|**.x|\n"
+        + "------\n", batched.toString());
+
+    DrawingShellOpts rowsOpts = opts(storage);
+    rowsOpts.set(DrawingShellPropertiesEnum.CANVAS_ORIENTATION,
+        Canvas.ORIENTATION_ROWS);
+    cnvs = new Canvas(1, 100, rowsOpts);
+    for (int i = 0; i < 300; i++) {
+      cnvs.drawLine(1, 1, 1, 100);
+    }
+    assertFalse(cnvs.isColumnMajor());
+  }
+
+  @ParameterizedTest
+  @MethodSource("storages")
+  public void testDrawLineOutCanvas(final String storage) {
+    final DrawingShellOpts opts = opts(storage);
+    Canvas cnvs = new Canvas(3, 3, opts);
     // Before drawing
     assertEquals("-----\n"
         + "|   |\n"
@@ -52,31 +195,35 @@ public void testDrawLineOutCanvas() {
         + "-----\n", cnvs.toString());
   }
 
-  @Test
-  public void testEquivalentsLines() {
+  @ParameterizedTest
+  @MethodSource("storages")
+  public void testEquivalentsLines(final String storage) {
+    final DrawingShellOpts opts = opts(storage);
     // It does not matter from which to
     // which point the line is going to be drawn
 
     // Out of canvas
     assertEquals(
-        new Canvas(2, 2, OPTS).drawLine(20, 30, -100, 30).toString(),
-        new Canvas(2, 2, OPTS).drawLine(-100, 30, 20, 30).toString());
+        new Canvas(2, 2, opts).drawLine(20, 30, -100, 30).toString(),
+        new Canvas(2, 2, opts).drawLine(-100, 30, 20, 30).toString());
 
     // On canvas
     assertEquals(
-        new Canvas(5, 5, OPTS).drawRectangle(1, 2, 1, 5).toString(),
-        new Canvas(5, 5, OPTS).drawRectangle(1, 5, 1, 2).toString());
+        new Canvas(5, 5, opts).drawRectangle(1, 2, 1, 5).toString(),
+        new Canvas(5, 5, opts).drawRectangle(1, 5, 1, 2).toString());
     assertEquals(
-        new Canvas(5, 5, OPTS)
+        new Canvas(5, 5, opts)
             .drawRectangle(Integer.MIN_VALUE, 4, 5, 4).toString(),
-        new Canvas(5, 5, OPTS)
+        new Canvas(5, 5, opts)
             .drawRectangle(5, 4, Integer.MIN_VALUE, 4).toString());
   }
 
-  @Test
-  public void testLineAsAPoint() {
+  @ParameterizedTest
+  @MethodSource("storages")
+  public void testLineAsAPoint(final String storage) {
+    final DrawingShellOpts opts = opts(storage);
     // A line with the same two points should be a point
-    Canvas cnvs = new Canvas(3, 3, OPTS);
+    Canvas cnvs = new Canvas(3, 3, opts);
     cnvs.drawLine(2, 2, 2, 2);
     assertEquals("-----\n"
         + "|   |\n"
@@ -109,9 +256,11 @@ public void testLineAsAPoint() {
         + "-----\n", cnvs.toString());
   }
 
-  @Test
-  public void testDrawLine() {
-    Canvas cnvs = new Canvas(4, 4, OPTS);
+  @ParameterizedTest
+  @MethodSource("storages")
+  public void testDrawLine(final String storage) {
+    final DrawingShellOpts opts = opts(storage);
+    Canvas cnvs = new Canvas(4, 4, opts);
     cnvs.drawLine(1, 1, 2, 1);
     assertEquals("------\n"
         + "|xx  |\n"
@@ -143,9 +292,11 @@ public void testDrawLine() {
         + "------\n", cnvs.toString());
   }
 
-  @Test
-  public void testDrawRectangleOutCanvas() {
-    Canvas cnvs = new Canvas(3, 3, OPTS);
+  @ParameterizedTest
+  @MethodSource("storages")
+  public void testDrawRectangleOutCanvas(final String storage) {
+    final DrawingShellOpts opts = opts(storage);
+    Canvas cnvs = new Canvas(3, 3, opts);
     // Before drawing
     assertEquals("-----\n"
         + "|   |\n"
@@ -168,38 +319,42 @@ public void testDrawRectangleOutCanvas() {
         + "-----\n", cnvs.toString());
   }
 
-  @Test
-  public void testEquivalentsRectangles() {
+  @ParameterizedTest
+  @MethodSource("storages")
+  public void testEquivalentsRectangles(final String storage) {
+    final DrawingShellOpts opts = opts(storage);
     // It does not matter from which
     // to which point the rectangle is going to be drawn
 
     // Out of canvas
     assertEquals(
-        new Canvas(2, 2, OPTS).drawRectangle(2, 23, -12, -90).toString(),
-        new Canvas(2, 2, OPTS).drawRectangle(-12, -90, 2, 23).toString());
+        new Canvas(2, 2, opts).drawRectangle(2, 23, -12, -90).toString(),
+        new Canvas(2, 2, opts).drawRectangle(-12, -90, 2, 23).toString());
     assertEquals(
-        new Canvas(2, 2, OPTS).drawRectangle(2, -90, -12, 23).toString(),
-        new Canvas(2, 2, OPTS).drawRectangle(-12, -90, 2, 23).toString());
+        new Canvas(2, 2, opts).drawRectangle(2, -90, -12, 23).toString(),
+        new Canvas(2, 2, opts).drawRectangle(-12, -90, 2, 23).toString());
     assertEquals(
-        new Canvas(2, 2, OPTS).drawRectangle(-12, 23, 2, -90).toString(),
-        new Canvas(2, 2, OPTS).drawRectangle(-12, -90, 2, 23).toString());
+        new Canvas(2, 2, opts).drawRectangle(-12, 23, 2, -90).toString(),
+        new Canvas(2, 2, opts).drawRectangle(-12, -90, 2, 23).toString());
 
     // On canvas
     assertEquals(
-        new Canvas(5, 5, OPTS).drawRectangle(1, 2, 4, 5).toString(),
-        new Canvas(5, 5, OPTS).drawRectangle(4, 5, 1, 2).toString());
+        new Canvas(5, 5, opts).drawRectangle(1, 2, 4, 5).toString(),
+        new Canvas(5, 5, opts).drawRectangle(4, 5, 1, 2).toString());
     assertEquals(
-        new Canvas(5, 5, OPTS).drawRectangle(4, 2, 1, 5).toString(),
-        new Canvas(5, 5, OPTS).drawRectangle(4, 5, 1, 2).toString());
+        new Canvas(5, 5, opts).drawRectangle(4, 2, 1, 5).toString(),
+        new Canvas(5, 5, opts).drawRectangle(4, 5, 1, 2).toString());
     assertEquals(
-        new Canvas(5, 5, OPTS).drawRectangle(1, 5, 4, 2).toString(),
-        new Canvas(5, 5, OPTS).drawRectangle(4, 5, 1, 2).toString());
+        new Canvas(5, 5, opts).drawRectangle(1, 5, 4, 2).toString(),
+        new Canvas(5, 5, opts).drawRectangle(4, 5, 1, 2).toString());
   }
 
-  @Test
-  public void testRectangleAsAPoint() {
+  @ParameterizedTest
+  @MethodSource("storages")
+  public void testRectangleAsAPoint(final String storage) {
+    final DrawingShellOpts opts = opts(storage);
     // rectangle with the same two opposite corners should be a point
-    Canvas cnvs = new Canvas(3, 3, OPTS);
+    Canvas cnvs = new Canvas(3, 3, opts);
     cnvs.drawRectangle(2, 2, 2, 2);
     assertEquals("-----\n"
         + "|   |\n"
@@ -232,9 +387,11 @@ public void testRectangleAsAPoint() {
         + "-----\n", cnvs.toString());
   }
 
-  @Test
-  public void testDrawRectangleAsALine() {
-    Canvas cnvs = new Canvas(5, 5, OPTS);
+  @ParameterizedTest
+  @MethodSource("storages")
+  public void testDrawRectangleAsALine(final String storage) {
+    final DrawingShellOpts opts = opts(storage);
+    Canvas cnvs = new Canvas(5, 5, opts);
     cnvs.drawRectangle(1, 1, 2, 1);
     assertEquals("-------\n"
         + "|xx   |\n"
@@ -261,9 +418,11 @@ public void testDrawRectangleAsALine() {
         + "-------\n", cnvs.toString());
   }
 
-  @Test
-  public void testDrawRectangles() {
-    Canvas cnvs = new Canvas(5, 5, OPTS);
+  @ParameterizedTest
+  @MethodSource("storages")
+  public void testDrawRectangles(final String storage) {
+    final DrawingShellOpts opts = opts(storage);
+    Canvas cnvs = new Canvas(5, 5, opts);
     cnvs.drawRectangle(Integer.MIN_VALUE, Integer.MIN_VALUE, 2, 2);
     assertEquals("-------\n"
         + "| x   |\n"
@@ -301,14 +460,16 @@ public void testDrawRectangles() {
         + "-------\n", cnvs.toString());
   }
 
-  @Test
-  public void testFill() {
-    Canvas cnvs = new Canvas(1, 1, OPTS);
+  @ParameterizedTest
+  @MethodSource("storages")
+  public void testFill(final String storage) {
+    final DrawingShellOpts opts = opts(storage);
+    Canvas cnvs = new Canvas(1, 1, opts);
     // Fill one element canvas
     cnvs.fill(1, 1, '>');
     assertEquals("---\n|>|\n---\n", cnvs.toString());
 
-    cnvs = new Canvas(3, 3, OPTS);
+    cnvs = new Canvas(3, 3, opts);
     // non-keyboard symbol check
     cnvs.fill(1, 2, 'π');
     assertEquals("-----\n"
@@ -317,7 +478,7 @@ public void testFill() {
         + "|πππ|\n"
         + "-----\n", cnvs.toString());
 
-    cnvs = new Canvas(3, 3, OPTS);
+    cnvs = new Canvas(3, 3, opts);
     // fill a hole of one element
     cnvs.drawRectangle(1, -6, 3, 2);
     assertEquals("-----\n"
@@ -361,9 +522,11 @@ public void testFill() {
         + "-----\n", cnvs.toString());
   }
 
-  @Test
-  public void testFillWithExistingColor() {
-    Canvas cnvs = new Canvas(3, 3, OPTS);
+  @ParameterizedTest
+  @MethodSource("storages")
+  public void testFillWithExistingColor(final String storage) {
+    final DrawingShellOpts opts = opts(storage);
+    Canvas cnvs = new Canvas(3, 3, opts);
     cnvs.drawLine(2, 1, 2, 3);
     assertEquals("-----\n"
         + "| x |\n"
@@ -389,9 +552,11 @@ public void testFillWithExistingColor() {
    * it applies B8 (8-dots way) filling to verify
    * if the canvas filled correctly.
    */
-  @Test
-  public void testB8Fill() {
-    Canvas cnvs = new Canvas(6, 7, OPTS);
+  @ParameterizedTest
+  @MethodSource("storages")
+  public void testB8Fill(final String storage) {
+    final DrawingShellOpts opts = opts(storage);
+    Canvas cnvs = new Canvas(6, 7, opts);
     cnvs.drawLine(1, 2, 1, 3);
     cnvs.drawLine(1, 5, 1, 6);
     cnvs.drawLine(6, 2, 6, 3);
@@ -448,11 +613,13 @@ public void testB8Fill() {
    * (except 3 points with color '!', '#', '&amp;' which are required
    * to be sure that the test work ok in case of more than 2 colors)
    */
-  @Test
-  public void testFillB4Maze() {
+  @ParameterizedTest
+  @MethodSource("storages")
+  public void testFillB4Maze(final String storage) {
+    final DrawingShellOpts opts = opts(storage);
     int mazeWidth = 20;
     int mazeHeight = 20;
-    Canvas cnvs = new Canvas(mazeWidth, mazeHeight, OPTS);
+    Canvas cnvs = new Canvas(mazeWidth, mazeHeight, opts);
     cnvs.drawLine(2, 2, 2, 10);
     cnvs.drawLine(2, 2, 9, 2);
     cnvs.drawLine(9, 2, 9, 8);
@@ -575,11 +742,13 @@ public void testFillB4Maze() {
    * (except 3 points with color '!', '#', '&amp;' which are required
    * to be sure that the test work ok in case of more than 2 colors)
    */
-  @Test
-  public void testB8FillMaze() {
+  @ParameterizedTest
+  @MethodSource("storages")
+  public void testB8FillMaze(final String storage) {
+    final DrawingShellOpts opts = opts(storage);
     int mazeWidth = 20;
     int mazeHeight = 20;
-    Canvas cnvs = new Canvas(mazeWidth, mazeHeight, OPTS);
+    Canvas cnvs = new Canvas(mazeWidth, mazeHeight, opts);
     cnvs.drawLine(1, 1, 1, 1);
     cnvs.drawLine(20, 1, 20, 1);
     cnvs.drawLine(1, 20, 1, 20);
@@ -716,11 +885,13 @@ public void testB8FillMaze() {
    * The tests creates a chessboard and check if fill works correctly
    * while calling fill (8-dots approach) at each point.
    */
-  @Test
-  public void testFillB8ChessBoard() {
+  @ParameterizedTest
+  @MethodSource("storages")
+  public void testFillB8ChessBoard(final String storage) {
+    final DrawingShellOpts opts = opts(storage);
     int chessBoardWidth = 8;
     int chessBoardHeight = 8;
-    Canvas cnvs = new Canvas(chessBoardWidth, chessBoardHeight, OPTS);
+    Canvas cnvs = new Canvas(chessBoardWidth, chessBoardHeight, opts);
     cnvs.drawLine(1, 1, 1, 1);
     cnvs.drawLine(3, 1, 3, 1);
     cnvs.drawLine(5, 1, 5, 1);
@@ -811,9 +982,11 @@ public void testFillB8ChessBoard() {
    * The tests creates a board and check if fill works correctly
    * while calling fill (4-dots approach) at each non-blank point.
    */
-  @Test
-  public void testFillB4Board() {
-    Canvas cnvs = new Canvas(8, 8, OPTS);
+  @ParameterizedTest
+  @MethodSource("storages")
+  public void testFillB4Board(final String storage) {
+    final DrawingShellOpts opts = opts(storage);
+    Canvas cnvs = new Canvas(8, 8, opts);
     cnvs.drawLine(1, 1, 1, 1);
     cnvs.drawLine(3, 1, 3, 1);
     cnvs.drawLine(5, 1, 5, 1);
@@ -874,9 +1047,7 @@ private void iterativeCheckFill(Canvas canvas,
     assertEquals(expectedInitialState, canvas.toString());
     for (int i = 1; i <= canvas.getHeight(); i++) {
       for (int j = 1; j <= canvas.getWidth(); j++) {
-        Map.Entry<Character, Layer> color2Layer =
-            canvas.getLayerForPoint(i - 1, j - 1);
-        char color = color2Layer.getKey();
+        char color = canvas.getColor(i - 1, j - 1);
         BucketFill bucketFill = color2BFillMap.get(color);
         if (bucketFill == null) {
           // Still not sure if this message helpful or not
@@ -920,4 +1091,477 @@ public String getExpectedResult() {
       return expectedResult;
     }
   }
+
+  @ParameterizedTest
+  @MethodSource("storages")
+  public void testFillRectangles(final String storage) {
+    final DrawingShellOpts opts = opts(storage);
+    Canvas cnvs = new Canvas(5, 5, opts);
+    cnvs.drawRectangle(1, 1, 5, 5, 'o');
+    cnvs.fillRectangle(Integer.MIN_VALUE, 2, 3, 3);
+    assertEquals("-------\n"
+        + "|ooooo|\n"
+        + "|xxx o|\n"
+        + "|xxx o|\n"
+        + "|o   o|\n"
+        + "|ooooo|\n"
+        + "-------\n", cnvs.toString());
+    // other colors are replaced only where they overlap
+    cnvs.fillRectangle(Integer.MAX_VALUE, 6, 3, 3, '.');
+    assertEquals("-------\n"
+        + "|ooooo|\n"
+        + "|xxx o|\n"
+        + "|xx...|\n"
+        + "|o ...|\n"
+        + "|oo...|\n"
+        + "-------\n", cnvs.toString());
+    cnvs.fillRectangle(0, 0, 0, 10)
+        .fillRectangle(6, 6, 10, 10, '#');
+    assertEquals("-------\n"
+        + "|ooooo|\n"
+        + "|xxx o|\n"
+        + "|xx...|\n"
+        + "|o ...|\n"
+        + "|oo...|\n"
+        + "-------\n", cnvs.toString());
+    cnvs.fillRectangle(1, 1, 5, 5, ' ');
+    assertEquals(new Canvas(5, 5, opts).toString(), cnvs.toString());
+  }
+
+  @ParameterizedTest
+  @MethodSource("storages")
+  public void testFillRectangleEqualsFill(final String storage) {
+    final DrawingShellOpts opts = opts(storage);
+    Canvas filled = new Canvas(200, 100, opts);
+    Canvas rectangle = new Canvas(200, 100, opts);
+    filled.drawLine(30, 90, 170, 90, 'o').drawLine(180, 5, 180, 95, 'o');
+    rectangle.drawLine(30, 90, 170, 90, 'o').drawLine(180, 5, 180, 95, 'o');
+    filled.drawRectangle(3, 10, 150, 80, '.').fill(4, 11, '.');
+    rectangle.fillRectangle(150, 80, 3, 10, '.');
+    assertEquals(filled.toString(), rectangle.toString());
+  }
+
+  @ParameterizedTest
+  @MethodSource("storages")
+  public void testDrawDiagonalLines(final String storage) {
+    final DrawingShellOpts opts = opts(storage);
+    Canvas cnvs = new Canvas(6, 4, opts);
+    cnvs.drawLine(1, 1, 6, 4)
+        .drawLine(Integer.MIN_VALUE, Integer.MAX_VALUE,
+            Integer.MAX_VALUE, Integer.MIN_VALUE, 'o');
+    assertEquals("--------\n"
+        + "|x     |\n"
+        + "| xx   |\n"
+        + "|   xx |\n"
+        + "|     x|\n"
+        + "--------\n", cnvs.toString());
+    cnvs.drawLine(7, 0, 0, 7, 'o');
+    assertEquals("--------\n"
+        + "|x    o|\n"
+        + "| xx o |\n"
+        + "|   ox |\n"
+        + "|  o  x|\n"
+        + "--------\n", cnvs.toString());
+    // It does not matter from which to which point the line is drawn
+    assertEquals(
+        new Canvas(7, 5, opts).drawLine(-3, 1, 9, 5).toString(),
+        new Canvas(7, 5, opts).drawLine(9, 5, -3, 1).toString());
+  }
+
+  @ParameterizedTest
+  @MethodSource("storages")
+  public void testDrawEllipses(final String storage) {
+    final DrawingShellOpts opts = opts(storage);
+    Canvas cnvs = new Canvas(7, 5, opts);
+    cnvs.drawCircle(3, 3, 2, false);
+    assertEquals("---------\n"
+        + "|  x    |\n"
+        + "|xx xx  |\n"
+        + "|x   x  |\n"
+        + "|xx xx  |\n"
+        + "|  x    |\n"
+        + "---------\n", cnvs.toString());
+    cnvs.drawCircle(3, 3, 1, 'o', true)
+        .drawEllipse(7, 3, 2, 1, '.', true)
+        .drawEllipse(7, 3, -1, 1, '#', true);
+    assertEquals("---------\n"
+        + "|  x    |\n"
+        + "|xxoxx .|\n"
+        + "|xooo...|\n"
+        + "|xxoxx .|\n"
+        + "|  x    |\n"
+        + "---------\n", cnvs.toString());
+    cnvs.drawEllipse(Integer.MIN_VALUE, Integer.MIN_VALUE,
+        Integer.MAX_VALUE, Integer.MAX_VALUE, false);
+    cnvs.drawEllipse(Integer.MIN_VALUE, 3, 0, 2, true)
+        .drawEllipse(Integer.MAX_VALUE, 3, 0, 2, true)
+        .drawEllipse(Integer.MIN_VALUE, 3, 5, 2, true);
+    assertEquals("---------\n"
+        + "|  x    |\n"
+        + "|xxoxx .|\n"
+        + "|xooo...|\n"
+        + "|xxoxx .|\n"
+        + "|  x    |\n"
+        + "---------\n", cnvs.toString());
+  }
+
+  @ParameterizedTest
+  @MethodSource("storages")
+  public void testFillPolygons(final String storage) {
+    final DrawingShellOpts opts = opts(storage);
+    Canvas cnvs = new Canvas(7, 5, opts);
+    cnvs.fillPolygon(new int[] {1, 7, 1}, new int[] {1, 5, 5});
+    assertEquals("---------\n"
+        + "|x      |\n"
+        + "|xxx    |\n"
+        + "|xxxx   |\n"
+        + "|xxxxxx |\n"
+        + "|xxxxxxx|\n"
+        + "---------\n", cnvs.toString());
+    // concave polygon keeps the gap between its parts
+    cnvs.fillPolygon(new int[] {0, 8, 8, 5, 5, 3, 3, 0},
+        new int[] {1, 1, 5, 5, 3, 3, 5, 5}, 'o');
+    assertEquals("---------\n"
+        + "|ooooooo|\n"
+        + "|ooooooo|\n"
+        + "|ooooooo|\n"
+        + "|oooxooo|\n"
+        + "|oooxooo|\n"
+        + "---------\n", cnvs.toString());
+  }
+
+  /**
+   * Check that primitives drawn in a batch give the same canvas
+   * as drawn one by one including overwrites of overlapping ones
+   * with both orientations, and the batch is applied before fill.
+   */
+  @ParameterizedTest
+  @MethodSource("storagesAndOrientations")
+  public void testBatchEqualsSequentialDrawing(final String storage,
+                                               final String orientation) {
+    final DrawingShellOpts opts = opts(storage, orientation);
+    Canvas sequential = new Canvas(30, 20, opts);
+    Canvas batched = new Canvas(30, 20, opts);
+    batched.beginBatch();
+    for (Canvas cnvs : new Canvas[] {sequential, batched}) {
+      cnvs.fillRectangle(2, 2, 25, 15, '.')
+          .drawRectangle(5, 5, 20, 12, 'o')
+          .drawLine(1, 1, 30, 20)
+          .drawLine(10, 0, 10, 21, '|')
+          .drawLine(0, 8, 31, 8, '-')
+          .drawEllipse(15, 10, 6, 4, '*', false)
+          .fillPolygon(new int[] {3, 9, 3}, new int[] {14, 17, 20}, '#')
+          .drawLine(6, 6, 19, 6, ' ')
+          .fill(29, 2, ':');
+    }
+    assertEquals(sequential.toString(), batched.toString());
+    batched.beginBatch();
+    batched.drawLine(1, 20, 30, 1, 'z');
+    sequential.drawLine(1, 20, 30, 1, 'z');
+    batched.applyBatch();
+    assertEquals(sequential.toString(), batched.toString());
+  }
+
+  @ParameterizedTest
+  @MethodSource("storages")
+  public void testStamp(final String storage) {
+    final Stamp cross = Stamp.of(".x.", "xxx", ".x.");
+    assertEquals(3, cross.getWidth());
+    assertEquals(3, cross.getHeight());
+    Canvas cnvs = new Canvas(8, 4, opts(storage));
+    cnvs.fillRectangle(1, 1, 8, 2, 'o')
+        .drawStamp(cross, 0, 0)
+        .drawStamp(cross, 4, 1, '*')
+        .drawStamp(cross, 7, 3, '#')
+        .drawStamp(cross, 9, 1, '!')
+        .drawStamp(cross, -2, 2, '!');
+    assertEquals("----------\n"
+        + "|xxoo*ooo|\n"
+        + "|xoo***oo|\n"
+        + "|    *  #|\n"
+        + "|      ##|\n"
+        + "----------\n", cnvs.toString());
+    final Stamp copy = cnvs.copyStamp(9, 5, 5, 2);
+    assertEquals(4, copy.getWidth());
+    assertEquals(3, copy.getHeight());
+    cnvs.fillRectangle(1, 1, 8, 4, ' ')
+        .drawStamp(copy, 1, 1, '+');
+    assertEquals("----------\n"
+        + "|++++    |\n"
+        + "|+  +    |\n"
+        + "|  ++    |\n"
+        + "|        |\n"
+        + "----------\n", cnvs.toString());
+  }
+
+  /**
+   * Check stamps placed over rows of many colors at shifts
+   * across word boundaries give the same as drawing their runs as lines.
+   */
+  @ParameterizedTest
+  @MethodSource("storagesAndOrientations")
+  public void testStampEqualsLines(final String storage,
+                                   final String orientation) {
+    final String[] rows = new String[5];
+    for (int row = 0; row < rows.length; row++) {
+      final StringBuilder symbols = new StringBuilder();
+      for (int x = 0; x < 70 + row; x++) {
+        symbols.append((x * (row + 3)) % 7 < 3 ? 'x' : Stamp.CLEAR_CHAR);
+      }
+      rows[row] = symbols.toString();
+    }
+    final Stamp stamp = Stamp.of(rows);
+    final DrawingShellOpts opts = opts(storage, orientation);
+    Canvas stamped = new Canvas(200, 12, opts);
+    Canvas drawn = new Canvas(200, 12, opts);
+    for (Canvas cnvs : new Canvas[] {stamped, drawn}) {
+      // dense points of several colors to keep rows as bitmaps
+      for (int x = 1; x <= 200; x++) {
+        cnvs.drawLine(x, 1, x, 12, "ab.".charAt(x % 3));
+      }
+    }
+    final int[][] places = {
+        {-30, -2}, {1, 1}, {64, 3}, {65, 8}, {130, 4}, {170, 9}, {-69, 6}};
+    char color = 'c';
+    for (int[] place : places) {
+      stamped.drawStamp(stamp, place[0], place[1], color);
+      for (int row = 0; row < rows.length; row++) {
+        for (int x = 0; x < rows[row].length(); x++) {
+          if (rows[row].charAt(x) != Stamp.CLEAR_CHAR) {
+            drawn.drawLine(place[0] + x, place[1] + row,
+                place[0] + x, place[1] + row, color);
+          }
+        }
+      }
+      color = color == 'c' ? 'a' : 'c';
+    }
+    assertEquals(drawn.toString(), stamped.toString());
+  }
+
+  @ParameterizedTest
+  @MethodSource("storages")
+  public void testCopyAndMoveRegion(final String storage) {
+    Canvas cnvs = new Canvas(6, 4, opts(storage));
+    cnvs.drawLine(1, 1, 3, 1, 'o')
+        .drawLine(1, 2, 2, 2, '*')
+        .copyRegion(3, 2, 1, 1, 2, 2);
+    assertEquals("--------\n"
+        + "|ooo   |\n"
+        + "|*ooo  |\n"
+        + "| **   |\n"
+        + "|      |\n"
+        + "--------\n", cnvs.toString());
+    cnvs.moveRegion(1, 1, 4, 3, 4, 2);
+    assertEquals("--------\n"
+        + "|      |\n"
+        + "|   ooo|\n"
+        + "|   *oo|\n"
+        + "|    **|\n"
+        + "--------\n", cnvs.toString());
+    // points out of canvas or moving out of canvas are not copied
+    cnvs.copyRegion(0, 0, 1, 1, 7, 1)
+        .moveRegion(4, 2, 6, 4, -1, 1);
+    assertEquals("--------\n"
+        + "|o     |\n"
+        + "|o     |\n"
+        + "|*     |\n"
+        + "|      |\n"
+        + "--------\n", cnvs.toString());
+  }
+
+  /**
+   * Check copies and moves overlapping in every direction
+   * with shifts within and across word boundaries
+   * give the same as copying points one by one.
+   */
+  @ParameterizedTest
+  @MethodSource("storagesAndOrientations")
+  public void testCopyRegionEqualsPoints(final String storage,
+                                         final String orientation) {
+    final int width = 150;
+    final int height = 9;
+    final int[][] regions = {
+        {1, 1, 150, 9, 2, 2}, {150, 9, 1, 1, 0, 0}, {10, 2, 140, 8, 11, 2},
+        {10, 2, 140, 8, 9, 2}, {5, 1, 100, 5, 69, 3}, {70, 3, 140, 7, 6, 2},
+        {1, 1, 64, 9, 65, 1}, {-10, -3, 200, 20, -60, 5}, {3, 3, 3, 3, 3, 3}};
+    final DrawingShellOpts opts = opts(storage, orientation);
+    Canvas cnvs = stripedCanvas(opts, "ab.c");
+    for (int i = 0; i < 2 * regions.length; i++) {
+      final int[] region = regions[i % regions.length];
+      final boolean isMove = i >= regions.length;
+      final String[] lines = cnvs.toString().split("\n");
+      final char[][] expected = new char[height][];
+      for (int y = 0; y < height; y++) {
+        expected[y] = lines[y + 1].substring(1, width + 1).toCharArray();
+      }
+      final int left = Math.min(region[0], region[2]);
+      final int top = Math.min(region[1], region[3]);
+      final int right = Math.max(region[0], region[2]);
+      final int bottom = Math.max(region[1], region[3]);
+      for (int y = Math.max(1, top); y <= Math.min(height, bottom); y++) {
+        for (int x = Math.max(1, left); x <= Math.min(width, right); x++) {
+          if (isMove) {
+            expected[y - 1][x - 1] = ' ';
+          }
+        }
+      }
+      for (int y = Math.max(1, top); y <= Math.min(height, bottom); y++) {
+        for (int x = Math.max(1, left); x <= Math.min(width, right); x++) {
+          final int targetX = x - left + region[4];
+          final int targetY = y - top + region[5];
+          if (targetX >= 1 && targetX <= width
+              && targetY >= 1 && targetY <= height) {
+            expected[targetY - 1][targetX - 1] =
+                lines[y].charAt(x);
+          }
+        }
+      }
+      if (isMove) {
+        cnvs.moveRegion(region[0], region[1], region[2], region[3],
+            region[4], region[5]);
+      } else {
+        cnvs.copyRegion(region[0], region[1], region[2], region[3],
+            region[4], region[5]);
+      }
+      final StringBuilder rows = new StringBuilder();
+      for (char[] row : expected) {
+        rows.append('|').append(row).append("|\n");
+      }
+      assertEquals(lines[0] + "\n" + rows + lines[0] + "\n",
+          cnvs.toString(), "region " + i);
+    }
+  }
+
+  /**
+   * Check recoloring to a new color, to a color in use, to and from
+   * the empty char and that the canvas is drawn and filled as usual after.
+   * Results are compared with points replaced one by one.
+   *
+   * @param storage     storage to check
+   * @param orientation orientation of the canvas
+   */
+  @ParameterizedTest
+  @MethodSource("storagesAndOrientations")
+  public void testRecolorEqualsPoints(final String storage,
+                                      final String orientation) {
+    final int width = 150;
+    final int height = 9;
+    final String recolors = "ae" + "bc" + "zb" + "c " + " f" + "fa" + "ed";
+    final DrawingShellOpts opts = opts(storage, orientation);
+    Canvas cnvs = stripedCanvas(opts, "ab c");
+    for (int i = 0; i < recolors.length(); i += 2) {
+      final char color = recolors.charAt(i);
+      final char newColor = recolors.charAt(i + 1);
+      final String expected = cnvs.toString().replace(color, newColor);
+      cnvs.recolor(color, newColor);
+      assertEquals(expected, cnvs.toString(), color + " to " + newColor);
+      // lines and fill find recolored points as the rest of them
+      cnvs.drawLine(1 + i, 1, 1 + i, height, color);
+      cnvs.fill(2 + i, 2, color, false);
+      cnvs.fill(2 + i, 2, newColor, false);
+    }
+  }
+
+  /**
+   * Check fill with a checker pattern anchored at the top left corner
+   * of the canvas and with a pattern keeping colors of some points.
+   *
+   * @param storage storage to check
+   */
+  @ParameterizedTest
+  @MethodSource("storages")
+  public void testFillPattern(final String storage) {
+    final DrawingShellOpts opts = opts(storage);
+    Canvas cnvs = new Canvas(7, 4, opts);
+    cnvs.drawRectangle(1, 1, 4, 4);
+    cnvs.fill(2, 2, Pattern.of("xo", "ox"), true);
+    assertEquals("---------\n"
+        + "|xxxx   |\n"
+        + "|xxox   |\n"
+        + "|xoxx   |\n"
+        + "|xxxx   |\n"
+        + "---------\n", cnvs.toString());
+    cnvs.fill(7, 1, Pattern.of("*."), false);
+    assertEquals("---------\n"
+        + "|xxxx* *|\n"
+        + "|xxox* *|\n"
+        + "|xoxx* *|\n"
+        + "|xxxx* *|\n"
+        + "---------\n", cnvs.toString());
+  }
+
+  /**
+   * Check fill with patterns of widths which do not divide 64
+   * on a canvas of many words with both orientations.
+   * Results are compared with points filled one by one.
+   *
+   * @param storage     storage to check
+   * @param orientation orientation of the canvas
+   */
+  @ParameterizedTest
+  @MethodSource("storagesAndOrientations")
+  public void testFillPatternEqualsPoints(final String storage,
+                                          final String orientation) {
+    final int width = 150;
+    final int height = 9;
+    final Pattern[] patterns = {
+        Pattern.of("abc", "b.a"), Pattern.of("a", "..", "b"),
+        Pattern.of("c.d.e"), Pattern.of("d")};
+    final DrawingShellOpts opts = opts(storage, orientation);
+    Canvas cnvs = new Canvas(width, height, opts);
+    for (int x = 1; x <= width; x += 3) {
+      cnvs.drawLine(x, 1 + x % 4, x + 5, height - x % 5, 'a');
+    }
+    for (int i = 0; i < 4 * patterns.length; i++) {
+      final Pattern pattern = patterns[i % patterns.length];
+      final boolean isB4 = i % 2 == 0;
+      final int startX = 1 + i * 37 % width;
+      final int startY = 1 + i % height;
+      final String[] lines = cnvs.toString().split("\n");
+      final char[][] expected = new char[height][];
+      for (int y = 0; y < height; y++) {
+        expected[y] = lines[y + 1].substring(1, width + 1).toCharArray();
+      }
+      final char source = expected[startY - 1][startX - 1];
+      final boolean[][] area = new boolean[height][width];
+      final int[] stack = new int[2 * width * height];
+      int stackSize = 0;
+      stack[stackSize++] = startX - 1;
+      stack[stackSize++] = startY - 1;
+      area[startY - 1][startX - 1] = true;
+      while (stackSize > 0) {
+        final int y = stack[--stackSize];
+        final int x = stack[--stackSize];
+        for (int dy = -1; dy <= 1; dy++) {
+          for (int dx = -1; dx <= 1; dx++) {
+            final int nx = x + dx;
+            final int ny = y + dy;
+            if ((isB4 && dx != 0 && dy != 0)
+                || nx < 0 || ny < 0 || nx >= width || ny >= height
+                || area[ny][nx] || expected[ny][nx] != source) {
+              continue;
+            }
+            area[ny][nx] = true;
+            stack[stackSize++] = nx;
+            stack[stackSize++] = ny;
+          }
+        }
+      }
+      for (int y = 0; y < height; y++) {
+        for (int x = 0; x < width; x++) {
+          final char color = pattern.getColor(x, y);
+          if (area[y][x] && color != Stamp.CLEAR_CHAR) {
+            expected[y][x] = color;
+          }
+        }
+      }
+      cnvs.fill(startX, startY, pattern, isB4);
+      final StringBuilder rows = new StringBuilder();
+      for (char[] row : expected) {
+        rows.append('|').append(row).append("|\n");
+      }
+      assertEquals(lines[0] + "\n" + rows + lines[0] + "\n",
+          cnvs.toString(), "fill " + i);
+    }
+  }
 }
@@ -0,0 +1,172 @@
+package ru.nuyanzin.canvas;
+
+import java.util.BitSet;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Unit tests for {@link Container} and its implementations.
+ * Results are compared with the ones of {@link BitSet}.
+ */
+public class ContainerTest {
+
+  /**
+   * Check the cheapest container is chosen
+   * and it changes while points are added and removed.
+   */
+  @Test
+  public void testContainerType() {
+    Container container = Container.ofRange(0, 1000);
+    assertEquals(RunContainer.class, container.getClass());
+
+    // few points far from each other
+    container = container.remove(1, 1000);
+    assertEquals(ArrayContainer.class, container.getClass());
+    container = container.add(5000, 5001);
+    assertEquals(ArrayContainer.class, container.getClass());
+
+    // many scattered points are cheaper as words
+    for (int i = 10; i < 1000; i += 3) {
+      container = container.add(i, i + 1);
+    }
+    assertEquals(BitmapContainer.class, container.getClass());
+
+    // removing most of them makes an array cheaper again
+    container = container.remove(10, 4000);
+    assertEquals(ArrayContainer.class, container.getClass());
+    assertEquals(2, container.cardinality());
+
+    container = container.remove(0, 6000);
+    assertNull(container);
+  }
+
+  /**
+   * Check a bitmap with long runs becomes runs on optimize only.
+   */
+  @Test
+  public void testOptimize() {
+    BitSet bitSet = new BitSet();
+    for (int i = 0; i < 2000; i += 2) {
+      bitSet.set(i);
+    }
+    Container container = Container.of(bitSet.toLongArray());
+    assertEquals(BitmapContainer.class, container.getClass());
+    container = container.add(0, 2000);
+    assertEquals(BitmapContainer.class, container.getClass());
+    assertEquals(RunContainer.class, container.optimize().getClass());
+  }
+
+  /**
+   * Check containers of random ranges against {@link BitSet}.
+   */
+  @Test
+  public void testRandomChanges() {
+    Random random = new Random(42);
+    for (int round = 0; round < 50; round++) {
+      BitSet expected = new BitSet();
+      Container container = null;
+      final int size = 1 + random.nextInt(3000);
+      for (int i = 0; i < 100; i++) {
+        final int from = random.nextInt(size);
+        final int to = from + 1 + random.nextInt(
+            random.nextBoolean() ? 3 : size - from);
+        if (random.nextInt(3) == 0) {
+          expected.clear(from, to);
+          container = container == null
+              ? null : container.remove(from, to);
+        } else {
+          expected.set(from, to);
+          container = container == null
+              ? Container.ofRange(from, to) : container.add(from, to);
+        }
+        check(expected, container, size);
+        if (container != null && random.nextInt(10) == 0) {
+          container = container.optimize();
+          check(expected, container, size);
+        }
+      }
+    }
+  }
+
+  /**
+   * Check words of points and or/and-not with words placed
+   * at any word against {@link BitSet} for containers of all types.
+   */
+  @Test
+  public void testWordOperations() {
+    Random random = new Random(7);
+    for (int round = 0; round < 300; round++) {
+      final int size = 1 + random.nextInt(1000);
+      BitSet expected = new BitSet();
+      Container container = null;
+      final int step = 1 + random.nextInt(40);
+      for (int from = random.nextInt(Math.min(step, size));
+           from < size;
+           from += step) {
+        final int to = Math.min(size, from + 1 + random.nextInt(step));
+        expected.set(from, to);
+        container = container == null
+            ? Container.ofRange(from, to) : container.add(from, to);
+      }
+      for (long from = -70; from < size + 10; from += 1 + random.nextInt(9)) {
+        final long word = WordBitmap.getWord(expected.toLongArray(), from);
+        assertEquals(word, container.getWord(from), "from " + from);
+      }
+      final int fromWord = random.nextInt(WordBitmap.wordCount(size) + 1);
+      final long[] words = new long[1 + random.nextInt(4)];
+      BitSet placed = new BitSet();
+      for (int i = 0; i < words.length; i++) {
+        words[i] = random.nextLong() & random.nextLong();
+        for (int bit = 0; bit < Long.SIZE; bit++) {
+          if ((words[i] >>> bit & 1) != 0) {
+            placed.set((fromWord + i) * Long.SIZE + bit);
+          }
+        }
+      }
+      final int checkedSize =
+          Math.max(size, (fromWord + words.length) * Long.SIZE);
+      BitSet rest = (BitSet) expected.clone();
+      rest.andNot(placed);
+      check(rest, container.andNot(words, fromWord, words.length),
+          checkedSize);
+      // and-not could change the container in place so rebuild it
+      container = Container.of(expected.toLongArray());
+      expected.or(placed);
+      check(expected, container.or(words, fromWord, words.length),
+          checkedSize);
+    }
+  }
+
+  private static void check(final BitSet expected,
+                            final Container container,
+                            final int size) {
+    if (expected.isEmpty()) {
+      assertNull(container);
+      return;
+    }
+    assertEquals(expected.cardinality(), container.cardinality());
+    assertEquals(expected, BitSet.valueOf(container.toWords()));
+    long[] words = new long[WordBitmap.wordCount(size + 1)];
+    for (int i = 0; i < words.length; i++) {
+      words[i] = ~0L;
+    }
+    container.removeFrom(words);
+    BitSet rest = new BitSet();
+    rest.set(0, 64 * words.length);
+    rest.andNot(expected);
+    assertArrayEquals(rest.toLongArray(), words);
+    for (int i = 0; i <= size; i++) {
+      assertEquals(expected.get(i), container.get(i));
+      assertEquals(expected.nextSetBit(i), container.nextSetBit(i));
+      assertEquals(expected.nextClearBit(i), container.nextClearBit(i));
+      assertEquals(expected.previousSetBit(i), container.previousSetBit(i));
+      assertEquals(expected.previousClearBit(i),
+          container.previousClearBit(i));
+    }
+  }
+}
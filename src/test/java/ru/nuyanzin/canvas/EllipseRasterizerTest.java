@@ -0,0 +1,144 @@
+package ru.nuyanzin.canvas;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Unit tests for {@link EllipseRasterizer}.
+ * Filled ellipses are compared with half widths found by exact search,
+ * outlines are checked to be the points of filled ellipses
+ * having a neighbour out of them in the same row or the next row
+ * farther from the center.
+ */
+public class EllipseRasterizerTest {
+
+  /**
+   * Check random ellipses including the ones partially out of the canvas.
+   */
+  @Test
+  public void testRandomEllipses() {
+    Random random = new Random(42);
+    for (int round = 0; round < 1000; round++) {
+      final int width = 1 + random.nextInt(50);
+      final int height = 1 + random.nextInt(50);
+      final long cx = random.nextInt(width + 40) - 20;
+      final long cy = random.nextInt(height + 40) - 20;
+      final long rx = random.nextInt(random.nextBoolean() ? 5 : 40);
+      final long ry = random.nextInt(random.nextBoolean() ? 5 : 40);
+      check(width, height, cx, cy, rx, ry);
+    }
+  }
+
+  /**
+   * Check huge radii are drawn by visiting rows within the canvas only.
+   */
+  @Test
+  public void testHugeEllipses() {
+    final int max = Integer.MAX_VALUE;
+    check(60, 40, 30, max - 10L, max, max);
+    check(60, 40, -max + 50L, 20, max, 7);
+    check(60, 40, 30, 20, max, max);
+  }
+
+  /**
+   * Check ellipses centered far out of the canvas at +-2^31 draw nothing
+   * rather than spans wrapped around int.
+   */
+  @Test
+  public void testFarCenters() {
+    final long far = 1L << 31;
+    check(10, 6, -far - 1, 3, 0, 2);
+    check(10, 6, -far, 3, 5, 2);
+    check(10, 6, far, 3, 0, 2);
+    check(10, 6, far - 1, 3, 5, 2);
+  }
+
+  /**
+   * Check a filled ellipse on the storage of a column-major canvas
+   * is the same as on a row-major one and writes each row
+   * of the inner storage once rather than once per point.
+   */
+  @Test
+  public void testColumnMajorEllipse() {
+    final int width = 500;
+    final int height = 700;
+    final int rx = 200;
+    final ArrayStorage rows = new ArrayStorage(width, height);
+    EllipseRasterizer.draw(rows, 250, 350, rx, 300, width, height, 'x', true);
+    final ArrayStorage columns = new ArrayStorage(height, width);
+    EllipseRasterizer.draw(new TransposedStorage(columns, width),
+        250, 350, rx, 300, width, height, 'x', true);
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        assertEquals(rows.getPoints()[y][x], columns.getPoints()[x][y]);
+      }
+    }
+    assertEquals(2 * rx + 1, columns.getRows());
+  }
+
+  private static void check(final int width,
+                            final int height,
+                            final long cx,
+                            final long cy,
+                            final long rx,
+                            final long ry) {
+    final char[][] filled = new char[height][width];
+    final char[][] outline = new char[height][width];
+    EllipseRasterizer.draw(new ArrayStorage(filled),
+        cx, cy, rx, ry, width, height, 'x', true);
+    EllipseRasterizer.draw(new ArrayStorage(outline),
+        cx, cy, rx, ry, width, height, 'x', false);
+    for (int y = 0; y < height; y++) {
+      final long dy = Math.abs(y - cy);
+      final long halfWidth = dy > ry ? -1 : halfWidth(rx, ry, dy);
+      for (int x = 0; x < width; x++) {
+        final boolean isInside = Math.abs(x - cx) <= halfWidth;
+        assertEquals(isInside, filled[y][x] == 'x');
+        assertEquals(isInside && isBorder(x - cx, dy, rx, ry),
+            outline[y][x] == 'x');
+      }
+    }
+  }
+
+  /**
+   * Check the point of a filled ellipse is on its outline.
+   */
+  private static boolean isBorder(final long dx,
+                                  final long dy,
+                                  final long rx,
+                                  final long ry) {
+    return dy == ry
+        || Math.abs(dx) + 1 > halfWidth(rx, ry, dy)
+        || Math.abs(dx) > halfWidth(rx, ry, dy + 1);
+  }
+
+  /**
+   * Return the largest x with (2x - 1)^2 * ry^2 &lt;= 4 * rx^2 * (ry^2 - dy^2)
+   * or 0 by binary search.
+   */
+  private static long halfWidth(final long rx, final long ry, final long dy) {
+    if (ry == 0) {
+      return rx;
+    }
+    long low = 0;
+    long high = rx;
+    while (low < high) {
+      final long middle = (low + high + 1) >>> 1;
+      final BigInteger left = BigInteger.valueOf(2 * middle - 1)
+          .multiply(BigInteger.valueOf(ry)).pow(2);
+      final BigInteger right = BigInteger.valueOf(2 * rx).pow(2)
+          .multiply(BigInteger.valueOf(ry - dy))
+          .multiply(BigInteger.valueOf(ry + dy));
+      if (left.compareTo(right) <= 0) {
+        low = middle;
+      } else {
+        high = middle - 1;
+      }
+    }
+    return low;
+  }
+}
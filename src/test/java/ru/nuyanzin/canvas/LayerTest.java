@@ -1,10 +1,14 @@
 package ru.nuyanzin.canvas;
 
+import java.util.Arrays;
 import java.util.BitSet;
+import java.util.Random;
 
 import org.junit.jupiter.api.Test;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 
 /**
  * Unit tests for {@link Layer} methods.
@@ -36,40 +40,40 @@ public void testGetFirstSetIndexInARow() {
     bitSet.set(9);
     bitSet.set(10);
     Layer layer = new Layer(width, height);
-    assertEquals(0, layer.getFirstSetIndexInARow(bitSet, 1));
-    assertEquals(0, layer.getFirstSetIndexInARow(bitSet, 4));
-    assertEquals(6, layer.getFirstSetIndexInARow(bitSet, 6));
-    assertEquals(8, layer.getFirstSetIndexInARow(bitSet, 10));
+    assertEquals(0, layer.getFirstSetIndexInARow(line(bitSet), 1));
+    assertEquals(0, layer.getFirstSetIndexInARow(line(bitSet), 4));
+    assertEquals(6, layer.getFirstSetIndexInARow(line(bitSet), 6));
+    assertEquals(8, layer.getFirstSetIndexInARow(line(bitSet), 10));
 
     bitSet = new BitSet(width);
-    assertEquals(-1, layer.getFirstSetIndexInARow(bitSet, 1));
-    assertEquals(-1, layer.getFirstSetIndexInARow(bitSet, 2));
+    assertEquals(-1, layer.getFirstSetIndexInARow(line(bitSet), 1));
+    assertEquals(-1, layer.getFirstSetIndexInARow(line(bitSet), 2));
 
     bitSet = new BitSet(width);
     bitSet.set(1);
     bitSet.set(2);
     bitSet.set(3);
     bitSet.set(4);
-    assertEquals(1, layer.getFirstSetIndexInARow(bitSet, 1));
-    assertEquals(1, layer.getFirstSetIndexInARow(bitSet, 2));
-    assertEquals(1, layer.getFirstSetIndexInARow(bitSet, 3));
-    assertEquals(1, layer.getFirstSetIndexInARow(bitSet, 4));
+    assertEquals(1, layer.getFirstSetIndexInARow(line(bitSet), 1));
+    assertEquals(1, layer.getFirstSetIndexInARow(line(bitSet), 2));
+    assertEquals(1, layer.getFirstSetIndexInARow(line(bitSet), 3));
+    assertEquals(1, layer.getFirstSetIndexInARow(line(bitSet), 4));
 
     bitSet = new BitSet(width);
     bitSet.set(1);
     bitSet.set(3);
     bitSet.set(5);
     bitSet.set(7);
-    assertEquals(-1, layer.getFirstSetIndexInARow(bitSet, 0));
-    assertEquals(1, layer.getFirstSetIndexInARow(bitSet, 1));
-    assertEquals(-1, layer.getFirstSetIndexInARow(bitSet, 2));
-    assertEquals(3, layer.getFirstSetIndexInARow(bitSet, 3));
-    assertEquals(-1, layer.getFirstSetIndexInARow(bitSet, 4));
-    assertEquals(5, layer.getFirstSetIndexInARow(bitSet, 5));
-    assertEquals(-1, layer.getFirstSetIndexInARow(bitSet, 6));
-    assertEquals(7, layer.getFirstSetIndexInARow(bitSet, 7));
-    assertEquals(-1, layer.getFirstSetIndexInARow(bitSet, 8));
-    assertEquals(-1, layer.getFirstSetIndexInARow(bitSet, 9));
+    assertEquals(-1, layer.getFirstSetIndexInARow(line(bitSet), 0));
+    assertEquals(1, layer.getFirstSetIndexInARow(line(bitSet), 1));
+    assertEquals(-1, layer.getFirstSetIndexInARow(line(bitSet), 2));
+    assertEquals(3, layer.getFirstSetIndexInARow(line(bitSet), 3));
+    assertEquals(-1, layer.getFirstSetIndexInARow(line(bitSet), 4));
+    assertEquals(5, layer.getFirstSetIndexInARow(line(bitSet), 5));
+    assertEquals(-1, layer.getFirstSetIndexInARow(line(bitSet), 6));
+    assertEquals(7, layer.getFirstSetIndexInARow(line(bitSet), 7));
+    assertEquals(-1, layer.getFirstSetIndexInARow(line(bitSet), 8));
+    assertEquals(-1, layer.getFirstSetIndexInARow(line(bitSet), 9));
   }
 
   /**
@@ -94,30 +98,30 @@ public void testGetLastSetIndexInARow() {
     bitSet.set(5);
     bitSet.set(7);
     Layer layer = new Layer(width, height);
-    assertEquals(1, layer.getLastSetIndexInARow(bitSet, 0));
-    assertEquals(1, layer.getLastSetIndexInARow(bitSet, 1));
-    assertEquals(5, layer.getLastSetIndexInARow(bitSet, 3));
-    assertEquals(5, layer.getLastSetIndexInARow(bitSet, 5));
-    assertEquals(7, layer.getLastSetIndexInARow(bitSet, 7));
+    assertEquals(1, layer.getLastSetIndexInARow(line(bitSet), 0));
+    assertEquals(1, layer.getLastSetIndexInARow(line(bitSet), 1));
+    assertEquals(5, layer.getLastSetIndexInARow(line(bitSet), 3));
+    assertEquals(5, layer.getLastSetIndexInARow(line(bitSet), 5));
+    assertEquals(7, layer.getLastSetIndexInARow(line(bitSet), 7));
 
     bitSet = new BitSet(width);
     bitSet.set(1);
     bitSet.set(2);
     bitSet.set(3);
     bitSet.set(4);
-    assertEquals(4, layer.getLastSetIndexInARow(bitSet, 1));
-    assertEquals(4, layer.getLastSetIndexInARow(bitSet, 2));
-    assertEquals(4, layer.getLastSetIndexInARow(bitSet, 3));
-    assertEquals(4, layer.getLastSetIndexInARow(bitSet, 4));
+    assertEquals(4, layer.getLastSetIndexInARow(line(bitSet), 1));
+    assertEquals(4, layer.getLastSetIndexInARow(line(bitSet), 2));
+    assertEquals(4, layer.getLastSetIndexInARow(line(bitSet), 3));
+    assertEquals(4, layer.getLastSetIndexInARow(line(bitSet), 4));
 
     bitSet = new BitSet(width);
     bitSet.set(4);
     bitSet.set(5);
     bitSet.set(6);
-    assertEquals(-1, layer.getLastSetIndexInARow(bitSet, 3));
-    assertEquals(6, layer.getLastSetIndexInARow(bitSet, 4));
-    assertEquals(6, layer.getLastSetIndexInARow(bitSet, 5));
-    assertEquals(6, layer.getLastSetIndexInARow(bitSet, 6));
+    assertEquals(-1, layer.getLastSetIndexInARow(line(bitSet), 3));
+    assertEquals(6, layer.getLastSetIndexInARow(line(bitSet), 4));
+    assertEquals(6, layer.getLastSetIndexInARow(line(bitSet), 5));
+    assertEquals(6, layer.getLastSetIndexInARow(line(bitSet), 6));
 
     bitSet = new BitSet(width);
     bitSet.set(1);
@@ -127,186 +131,399 @@ public void testGetLastSetIndexInARow() {
     bitSet.set(6);
     bitSet.set(7);
     bitSet.set(8);
-    assertEquals(8, layer.getLastSetIndexInARow(bitSet, 8));
-    assertEquals(-1, layer.getLastSetIndexInARow(bitSet, 9));
+    assertEquals(8, layer.getLastSetIndexInARow(line(bitSet), 8));
+    assertEquals(-1, layer.getLastSetIndexInARow(line(bitSet), 9));
   }
 
   /**
-   * Check if search for downBoundary works correct
-   * e.g. for BitSet[] {
-   * null
-   * {1, 2, 3}
-   * null
-   * {2}
-   * {1, 2, 3, 4}
+   * Check that points connected only by corners are filled
+   * with 8-dots approach only.
+   * E.g. for source BitSet {
+   * {0, 2}
+   * {1, 3}
    * }
-   * getDownBoundary starting with 0 is 0
-   * getDownBoundary starting with 1 is 1
-   * getDownBoundary starting with 2 is 2
-   * getDownBoundary starting with 3 is 3
-   * getDownBoundary starting with 4 is 3
+   * fill from 1 of the second row takes all the points with 8-dots
+   * approach and only the start point with 4-dots approach.
    */
   @Test
-  public void testDownBoundary() {
-    Layer layer = new Layer(3, 3);
-    layer.drawHorizontalLine(1, 3, 1);
-    layer.drawHorizontalLine(2, 2, 0);
-
-    assertEquals(0, layer.getDownBoundary(1));
-    assertEquals(2, layer.getDownBoundary(2));
-    assertEquals(0, layer.getDownBoundary(0));
-
-    layer = new Layer(5, 5);
-    layer.drawHorizontalLine(1, 3, 1);
-    layer.drawHorizontalLine(2, 2, 3);
-    layer.drawHorizontalLine(1, 4, 4);
-
-    assertEquals(1, layer.getDownBoundary(1));
-    assertEquals(2, layer.getDownBoundary(2));
-    assertEquals(3, layer.getDownBoundary(3));
-    assertEquals(3, layer.getDownBoundary(4));
-    assertEquals(0, layer.getDownBoundary(0));
+  public void testFillDiagonalNeighbours() {
+    for (boolean isB4 : new boolean[] {true, false}) {
+      BitSet[] source = new BitSet[2];
+      source[0] = new BitSet(4);
+      source[0].set(0);
+      source[0].set(2);
+      source[1] = new BitSet(4);
+      source[1].set(1);
+      source[1].set(3);
+      Layer sourceLayer = new Layer(toContainers(source), 4);
+      Layer result = sourceLayer.fill(1, 1, new Layer(4, 2), isB4);
+
+      BitSet[] expected = new BitSet[2];
+      expected[0] = new BitSet(4);
+      expected[1] = new BitSet(4);
+      expected[1].set(1);
+      if (!isB4) {
+        expected[0].set(0);
+        expected[0].set(2);
+        expected[1].set(3);
+      }
+      assertLines(expected, result);
+      for (int i = 0; i < 2; i++) {
+        source[i].andNot(expected[i]);
+      }
+      assertLines(source, sourceLayer);
+    }
   }
 
   /**
-   * Check if search for upBoundary works correct
-   * e.g. for BitSet[] {
-   * null
-   * {1, 2, 3}
-   * null
-   * {2}
-   * {1, 2, 3, 4}
-   * }
-   * getUpBoundary starting with 0 is 0
-   * getUpBoundary starting with 1 is 1
-   * getUpBoundary starting with 2 is 2
-   * getUpBoundary starting with 3 is 4
-   * getUpBoundary starting with 4 is 4
+   * Check that a chess board is filled as a whole with 8-dots approach
+   * starting with any row and only by the start point
+   * with 4-dots approach.
    */
   @Test
-  public void testUpBoundary() {
-    Layer layer = new Layer(5, 5);
-    layer.drawHorizontalLine(1, 3, 1);
-    layer.drawHorizontalLine(2, 2, 3);
-    layer.drawHorizontalLine(1, 4, 4);
-
-    assertEquals(1, layer.getUpBoundary(1));
-    assertEquals(2, layer.getUpBoundary(2));
-    assertEquals(4, layer.getUpBoundary(3));
-    assertEquals(4, layer.getUpBoundary(4));
-    assertEquals(0, layer.getUpBoundary(0));
+  public void testFillChessBoard() {
+    final int size = 8;
+    for (boolean isB4 : new boolean[] {true, false}) {
+      for (int startY = 0; startY < size; startY++) {
+        BitSet[] board = new BitSet[size];
+        for (int y = 0; y < size; y++) {
+          board[y] = new BitSet(size);
+          for (int x = (y + 1) % 2; x < size; x += 2) {
+            board[y].set(x);
+          }
+        }
+        final int startX = (startY + 1) % 2;
+        Layer sourceLayer = new Layer(toContainers(board), size);
+        Layer result = sourceLayer.fill(
+            startX, startY, new Layer(size, size), isB4);
+
+        BitSet[] expected = board;
+        if (isB4) {
+          expected = new BitSet[size];
+          for (int y = 0; y < size; y++) {
+            expected[y] = new BitSet(size);
+          }
+          expected[startY].set(startX);
+        }
+        assertLines(expected, result);
+      }
+    }
   }
 
   /**
-   * Check if getLineToHandleAgain works correct.
-   * If there are points in source which should be colored
-   * and moved to destination then getLineToHandleAgain should return non -1.
-   * E.g.
-   * Source BitSet {
-   * {0, 2}
-   * {1, 3}
-   * {}
-   * {}
-   * }
-   * and
-   * Destination BitSet {
-   * {}
-   * {}
-   * {0, 2}
-   * {1, 3}
-   * }
-   * <p>
-   * With 4-dots approach there is nothing to be colored
-   * and getLineToHandleAgain should return -1
-   * With 8-dots approach {1, 3} from Source are diagonally connected
-   * to {0, 2} from Destination and getLineToHandleAgain should return 1.
+   * Check that a corridor going up and down by turns
+   * is filled as a whole while a point out of it is not.
    */
   @Test
-  public void testGetLineToHandleAgain() {
-    int height = 4;
-    int width = 4;
-    BitSet[] source = new BitSet[height];
-    BitSet[] destination = new BitSet[height];
-    for (int i = 0; i < height; i++) {
-      source[i] = new BitSet(width);
-      destination[i] = new BitSet(width);
+  public void testFillSerpentine() {
+    final int width = 41;
+    final int height = 9;
+    Layer layer = new Layer(width, height);
+    for (int x = 0; x < width; x += 2) {
+      layer.drawVerticalLine(x, 0, height - 2);
     }
-    source[0].set(0);
-    source[0].set(2);
-    source[1].set(1);
-    source[1].set(3);
-
-    destination[2].set(0);
-    destination[2].set(2);
-    destination[3].set(1);
-    destination[3].set(3);
-    Layer sourceLayer = new Layer(source, width);
-
-    assertEquals(1,
-        sourceLayer.getLineToHandleAgain(destination, 0, 3, false));
-    assertEquals(-1,
-        sourceLayer.getLineToHandleAgain(destination, 0, 3, true));
+    // columns are joined at the top and at the bottom by turns
+    for (int x = 1; x < width; x += 2) {
+      final int y = x % 4 == 1 ? height - 2 : 0;
+      layer.drawHorizontalLine(x, x, y);
+    }
+    BitSet[] expected = new BitSet[height];
+    for (int y = 0; y < height; y++) {
+      expected[y] = new BitSet(width);
+      for (int x = 0; x < width && y < height - 1; x++) {
+        if (layer.getLine(y).get(x)) {
+          expected[y].set(x);
+        }
+      }
+    }
+    layer.drawHorizontalLine(3, 3, height - 1);
+    Layer result = layer.fill(
+        width - 1, height - 2, new Layer(width, height), true);
+    assertLines(expected, result);
+    for (int y = 0; y < height - 1; y++) {
+      assertEquals(null, layer.getLine(y));
+    }
+    assertEquals(1, layer.getLine(height - 1).cardinality());
   }
 
+  /**
+   * Check that a fill switching to bands of rows at any moment
+   * takes the same points as the sequential one
+   * for random points and both approaches.
+   */
   @Test
-  public void testGetLineToHandleAgainChessBoardIssue() {
-    int height = 8;
-    int width = 8;
-    BitSet[] source = new BitSet[height];
-    BitSet[] destination = new BitSet[height];
-    for (int i = 0; i < height; i++) {
-      destination[i] = new BitSet(width);
+  public void testParallelFillEqualsSequential() {
+    Random random = new Random(42);
+    for (int round = 0; round < 200; round++) {
+      final int width = 1 + random.nextInt(150);
+      final int height = 2 + random.nextInt(100);
+      final int density = 1 + random.nextInt(9);
+      BitSet[] lines = new BitSet[height];
+      for (int y = 0; y < height; y++) {
+        lines[y] = new BitSet(width);
+        for (int x = 0; x < width; x++) {
+          if (random.nextInt(10) < density) {
+            lines[y].set(x);
+          }
+        }
+      }
+      final int startY = random.nextInt(height);
+      final int startX = lines[startY].nextSetBit(random.nextInt(width));
+      if (startX == -1) {
+        continue;
+      }
+      final boolean isB4 = random.nextBoolean();
+      Layer sequentialSource = new Layer(toContainers(lines), width);
+      Layer sequential = sequentialSource.fill(startX, startY,
+          new Layer(width, height), isB4, Integer.MAX_VALUE, 1,
+          new FillScratch(width, height));
+      Layer parallelSource = new Layer(toContainers(lines), width);
+      Layer parallel = parallelSource.fill(startX, startY,
+          new Layer(width, height), isB4, 1 + random.nextInt(20),
+          1 + random.nextInt(Math.min(height, 9)),
+          new FillScratch(width, height));
+      boolean isEmpty = true;
+      for (int y = 0; y < height; y++) {
+        assertLinesEqual(sequential.getLine(y), parallel.getLine(y));
+        assertLinesEqual(sequentialSource.getLine(y),
+            parallelSource.getLine(y));
+        isEmpty &= parallelSource.getLine(y) == null;
+      }
+      assertEquals(isEmpty, sequentialSource.isEmpty());
+      assertEquals(isEmpty, parallelSource.isEmpty());
     }
-    destination[0].set(1);
-    destination[0].set(3);
-    destination[0].set(5);
-    destination[0].set(7);
-
-    destination[1].set(0);
-    destination[1].set(2);
-    destination[1].set(4);
-    destination[1].set(6);
-
-    destination[2].set(1);
-    destination[2].set(3);
-    destination[2].set(5);
-    destination[2].set(7);
-
-    destination[3].set(0);
-    destination[3].set(2);
-    destination[3].set(4);
-    destination[3].set(6);
+  }
 
-    destination[4].set(1);
-    destination[4].set(3);
-    destination[4].set(5);
-    destination[4].set(7);
+  /**
+   * Check that bands of a fill read only rows the fill reaches
+   * when most of the layer is noise disconnected from the filled area
+   * and the area crosses borders of bands.
+   */
+  @Test
+  public void testParallelFillSkipsDisconnectedRows() {
+    Random random = new Random(5);
+    final int width = 100;
+    final int height = 1000;
+    final int areaRows = 120;
+    BitSet[] lines = new BitSet[height];
+    for (int y = 0; y < height; y++) {
+      lines[y] = new BitSet(width);
+      for (int x = 0; x < width; x++) {
+        if (y < areaRows ? x % 2 == 0 || y % 10 == 0
+            : y > areaRows && random.nextInt(10) < 5) {
+          lines[y].set(x);
+        }
+      }
+    }
+    Layer sequentialSource = new Layer(toContainers(lines), width);
+    Layer sequential = sequentialSource.fill(0, 0,
+        new Layer(width, height), true, Integer.MAX_VALUE, 1,
+        new FillScratch(width, height));
+    BitSet readRows = new BitSet(height);
+    Layer parallelSource = new Layer(toContainers(lines), width) {
+      @Override
+      protected Container getLine(int index) {
+        synchronized (readRows) {
+          readRows.set(index);
+        }
+        return super.getLine(index);
+      }
+    };
+    Layer parallel = parallelSource.fill(0, 0,
+        new Layer(width, height), true, 1, height / 50,
+        new FillScratch(width, height));
+    assertEquals(-1, readRows.nextSetBit(areaRows + 1));
+    for (int y = 0; y < height; y++) {
+      assertLinesEqual(sequential.getLine(y), parallel.getLine(y));
+      assertLinesEqual(sequentialSource.getLine(y),
+          parallelSource.getLine(y));
+    }
+  }
 
-    destination[5].set(0);
-    destination[5].set(2);
-    destination[5].set(4);
-    destination[5].set(6);
+  /**
+   * Check that a fill by dilation and mask of words takes the same points
+   * as the scanline one for random points wider than a word
+   * and both approaches.
+   */
+  @Test
+  public void testFillByWordsEqualsScanline() {
+    Random random = new Random(7);
+    for (int round = 0; round < 300; round++) {
+      final int width = 1 + random.nextInt(300);
+      final int height = 1 + random.nextInt(80);
+      final int density = 1 + random.nextInt(9);
+      BitSet[] lines = new BitSet[height];
+      for (int y = 0; y < height; y++) {
+        lines[y] = new BitSet(width);
+        for (int x = 0; x < width; x++) {
+          if (random.nextInt(10) < density) {
+            lines[y].set(x);
+          }
+        }
+      }
+      final int startY = random.nextInt(height);
+      final int startX = lines[startY].nextSetBit(random.nextInt(width));
+      if (startX == -1) {
+        continue;
+      }
+      final boolean isB4 = random.nextBoolean();
+      Layer scanlineSource = new Layer(toContainers(lines), width);
+      Layer scanline = scanlineSource.fill(startX, startY,
+          new Layer(width, height), isB4, Integer.MAX_VALUE, 1,
+          new FillScratch(width, height));
+      Layer wordsSource = new Layer(toContainers(lines), width);
+      Layer words = new MorphologicalFill(
+          new FillScratch(width, height), width, height)
+          .fill(wordsSource, startX, startY, new Layer(width, height), isB4);
+      for (int y = 0; y < height; y++) {
+        assertEquals(points(scanline.getLine(y)), points(words.getLine(y)));
+        assertEquals(points(scanlineSource.getLine(y)),
+            points(wordsSource.getLine(y)));
+      }
+    }
+  }
 
-    destination[6].set(1);
-    destination[6].set(3);
-    destination[6].set(5);
-    destination[6].set(7);
+  /**
+   * Check that fills sharing scratch buffers take the same points
+   * as fills with their own ones, so nothing is left in the buffers
+   * by a previous fill.
+   */
+  @Test
+  public void testFillsReuseScratch() {
+    Random random = new Random(11);
+    final int width = 130;
+    final int height = 40;
+    FillScratch scratch = new FillScratch(width, height);
+    MorphologicalFill wordsFill =
+        new MorphologicalFill(scratch, width, height);
+    for (int round = 0; round < 200; round++) {
+      BitSet[] lines = new BitSet[height];
+      for (int y = 0; y < height; y++) {
+        lines[y] = new BitSet(width);
+        for (int x = 0; x < width; x++) {
+          if (random.nextInt(10) < 6) {
+            lines[y].set(x);
+          }
+        }
+      }
+      final int startY = random.nextInt(height);
+      final int startX = lines[startY].nextSetBit(random.nextInt(width));
+      if (startX == -1) {
+        continue;
+      }
+      final boolean isB4 = random.nextBoolean();
+      Layer expectedSource = new Layer(toContainers(lines), width);
+      Layer expected =
+          expectedSource.fill(startX, startY, new Layer(width, height), isB4);
+      Layer source = new Layer(toContainers(lines), width);
+      Layer actual = random.nextBoolean()
+          ? source.fill(startX, startY, new Layer(width, height), isB4,
+              scratch)
+          : wordsFill.fill(source, startX, startY,
+              new Layer(width, height), isB4);
+      BitSet touched = new BitSet(height);
+      for (int i = 0; i < scratch.getTouchedCount(); i++) {
+        touched.set(scratch.getTouchedRow(i));
+      }
+      assertEquals(scratch.getTouchedCount(), touched.cardinality());
+      for (int y = 0; y < height; y++) {
+        assertEquals(points(expected.getLine(y)), points(actual.getLine(y)));
+        assertEquals(points(expectedSource.getLine(y)),
+            points(source.getLine(y)));
+        assertEquals(null, scratch.getRows()[y]);
+        assertEquals(expected.getLine(y) != null, touched.get(y));
+      }
+      assertEquals(expectedSource.isEmpty(), source.isEmpty());
+      assertFalse(actual.isEmpty());
+    }
+  }
 
-    destination[7].set(0);
-    destination[7].set(2);
-    destination[7].set(4);
-    destination[7].set(6);
+  /**
+   * Check that background lines are complements of the union of other layers
+   * and they are computed only on request.
+   */
+  @Test
+  public void testEmptyLayerIsComplement() {
+    Layer first = new Layer(5, 3);
+    first.drawHorizontalLine(0, 1, 0);
+    Layer second = new Layer(5, 3);
+    second.drawVerticalLine(4, 0, 2);
+    second.drawHorizontalLine(0, 4, 2);
+
+    EmptyLayer emptyLayer =
+        new EmptyLayer(5, 3, Arrays.asList(first, second));
+    BitSet expected = new BitSet(5);
+    expected.set(2, 4);
+    assertArrayEquals(expected.toLongArray(),
+        emptyLayer.getLine(0).toWords());
+    expected.set(0, 2);
+    assertArrayEquals(expected.toLongArray(),
+        emptyLayer.getLine(1).toWords());
+    assertEquals(null, emptyLayer.getLine(2));
+
+    // once computed the line is not recomputed
+    emptyLayer.setLine(0, null);
+    assertEquals(null, emptyLayer.getLine(0));
+
+    // until the layer is reset after other layers changed
+    first.clearHorizontalLine(0, 1, 0);
+    emptyLayer.reset();
+    expected.set(0, 4);
+    assertArrayEquals(expected.toLongArray(),
+        emptyLayer.getLine(0).toWords());
+  }
 
-    source[2] = new BitSet(width);
-    source[2].set(7);
+  /**
+   * Convert line of points to container used by {@link Layer}.
+   *
+   * @param line line of points
+   * @return container with the points or null if there are none
+   */
+  private static Container line(BitSet line) {
+    return Container.of(line.toLongArray());
+  }
 
-    Layer sourceLayer = new Layer(source, width);
+  /**
+   * Convert lines of points to containers used by {@link Layer}.
+   *
+   * @param lines lines of points
+   * @return lines as containers
+   */
+  private static Container[] toContainers(BitSet[] lines) {
+    Container[] result = new Container[lines.length];
+    for (int i = 0; i < lines.length; i++) {
+      result[i] = lines[i] == null ? null : line(lines[i]);
+    }
+    return result;
+  }
 
-    assertEquals(2,
-        sourceLayer.getLineToHandleAgain(destination, 0, 7, false));
-    assertEquals(2,
-        sourceLayer.getLineToHandleAgain(destination, 0, 7, true));
+  /**
+   * Check that lines of the layer have the expected points.
+   *
+   * @param expected expected lines of points
+   * @param layer    layer to check
+   */
+  private static void assertLines(BitSet[] expected, Layer layer) {
+    for (int i = 0; i < expected.length; i++) {
+      Container line = layer.getLine(i);
+      assertArrayEquals(expected[i].toLongArray(),
+          line == null ? new long[0] : line.toWords());
+    }
   }
 
+  /**
+   * Return points of the line as BitSet so lines are compared
+   * regardless of clear words at the end a bitmap could keep.
+   *
+   * @param line line of points or null
+   * @return points of the line
+   */
+  private static BitSet points(Container line) {
+    return line == null ? new BitSet() : BitSet.valueOf(line.toWords());
+  }
 
+  private static void assertLinesEqual(Container expected, Container actual) {
+    assertArrayEquals(expected == null ? new long[0] : expected.toWords(),
+        actual == null ? new long[0] : actual.toWords());
+  }
 }
@@ -0,0 +1,118 @@
+package ru.nuyanzin.canvas;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Unit tests for {@link LineRasterizer}.
+ * Results are compared with the points of the midpoint rule
+ * computed one by one for visible coordinates along the major axis.
+ */
+public class LineRasterizerTest {
+
+  /**
+   * Check a shallow line is drawn by one span per row
+   * and a steep line by one span per column.
+   */
+  @Test
+  public void testSpans() {
+    ArrayStorage storage = new ArrayStorage(10, 10);
+    LineRasterizer.draw(storage, 0, 0, 9, 2, 10, 10, 'x');
+    assertEquals(3, storage.getSpans());
+    assertArrayEquals(expected(0, 0, 9, 2, 10, 10), storage.getPoints());
+
+    storage = new ArrayStorage(10, 10);
+    LineRasterizer.draw(storage, 8, 9, 6, 0, 10, 10, 'x');
+    assertEquals(3, storage.getSpans());
+    assertArrayEquals(expected(8, 9, 6, 0, 10, 10), storage.getPoints());
+  }
+
+  /**
+   * Check the line with ends far out of the canvas
+   * is drawn without visiting points out of it.
+   */
+  @Test
+  public void testHugeLines() {
+    ArrayStorage storage = new ArrayStorage(50, 40);
+    final long min = Integer.MIN_VALUE - 1L;
+    final long max = Integer.MAX_VALUE - 1L;
+    LineRasterizer.draw(storage, min, min, max, max, 50, 40, 'x');
+    assertArrayEquals(expected(min, min, max, max, 50, 40),
+        storage.getPoints());
+    assertEquals(40, storage.getSpans());
+
+    storage = new ArrayStorage(50, 40);
+    LineRasterizer.draw(storage, min, 3, max, 37, 50, 40, 'x');
+    assertArrayEquals(expected(min, 3, max, 37, 50, 40), storage.getPoints());
+
+    storage = new ArrayStorage(50, 40);
+    LineRasterizer.draw(storage, 20, max, 21, min, 50, 40, 'x');
+    assertArrayEquals(expected(20, max, 21, min, 50, 40), storage.getPoints());
+  }
+
+  /**
+   * Check random lines including the ones partially out of the canvas
+   * and the ones with swapped ends.
+   */
+  @Test
+  public void testRandomLines() {
+    Random random = new Random(42);
+    for (int round = 0; round < 2000; round++) {
+      final int width = 1 + random.nextInt(40);
+      final int height = 1 + random.nextInt(40);
+      final long range = random.nextBoolean() ? 60 : Integer.MAX_VALUE;
+      final long x1 = random.nextLong() % range;
+      final long y1 = random.nextLong() % range;
+      final long x2 = random.nextLong() % range;
+      final long y2 = random.nextLong() % range;
+      final char[][] expected = expected(x1, y1, x2, y2, width, height);
+      ArrayStorage storage = new ArrayStorage(width, height);
+      LineRasterizer.draw(storage, x1, y1, x2, y2, width, height, 'x');
+      assertArrayEquals(expected, storage.getPoints());
+      storage = new ArrayStorage(width, height);
+      LineRasterizer.draw(storage, x2, y2, x1, y1, width, height, 'x');
+      assertArrayEquals(expected, storage.getPoints());
+    }
+  }
+
+  private static char[][] expected(final long x1,
+                                   final long y1,
+                                   final long x2,
+                                   final long y2,
+                                   final int width,
+                                   final int height) {
+    final char[][] points = new char[height][width];
+    final boolean isSteep = Math.abs(y2 - y1) > Math.abs(x2 - x1);
+    final boolean isSwapped = isSteep ? y2 < y1 : x2 < x1;
+    final long startX = isSwapped ? x2 : x1;
+    final long startY = isSwapped ? y2 : y1;
+    final long endX = isSwapped ? x1 : x2;
+    final long endY = isSwapped ? y1 : y2;
+    final long dMajor = isSteep ? endY - startY : endX - startX;
+    final long minorDelta = isSteep ? endX - startX : endY - startY;
+    final int majorLimit = isSteep ? height : width;
+    for (int major = 0; major < majorLimit; major++) {
+      final long i = major - (isSteep ? startY : startX);
+      if (i < 0 || i > dMajor) {
+        continue;
+      }
+      final long shift = dMajor == 0 ? 0 : BigInteger.valueOf(2 * i)
+          .multiply(BigInteger.valueOf(Math.abs(minorDelta)))
+          .add(BigInteger.valueOf(dMajor))
+          .divide(BigInteger.valueOf(2 * dMajor)).longValue();
+      final long minor = (isSteep ? startX : startY)
+          + (minorDelta < 0 ? -shift : shift);
+      final long x = isSteep ? minor : major;
+      final long y = isSteep ? major : minor;
+      if (x >= 0 && x < width && y >= 0 && y < height) {
+        points[(int) y][(int) x] = 'x';
+      }
+    }
+    return points;
+  }
+}
@@ -0,0 +1,78 @@
+package ru.nuyanzin.canvas;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Unit tests for {@link MappedStorage}.
+ */
+public class MappedStorageTest {
+
+  /**
+   * Check that points are read back from the mapped file
+   * and untouched points remain the empty char.
+   */
+  @Test
+  public void testDrawAndFill() {
+    MappedStorage storage = new MappedStorage(7, 5, '.');
+    try {
+      assertEquals('.', storage.getColor(6, 4));
+      assertEquals(6, storage.getRunEnd(0, 0));
+      storage.drawVerticalLine(3, 0, 3, 'x');
+      storage.drawHorizontalLine(0, 6, 2, '.');
+      assertEquals(2, storage.getRunEnd(0, 0));
+      assertEquals('x', storage.getColor(3, 3));
+      assertEquals('.', storage.getColor(3, 2));
+
+      storage.fill(0, 0, 'o', true);
+      assertEquals('o', storage.getColor(6, 0));
+      assertEquals('o', storage.getColor(6, 4));
+      assertEquals(2, storage.getRunEnd(0, 1));
+      storage.fill(0, 0, '.', false);
+      assertEquals('.', storage.getColor(5, 3));
+      assertEquals('x', storage.getColor(3, 1));
+    } finally {
+      storage.close();
+    }
+  }
+
+  /**
+   * Check that runs are found across the border of mapped chunks
+   * falling in the middle of a row, whether the next chunk is mapped
+   * or not, and that points are read back after a fill.
+   */
+  @Test
+  public void testRunsAcrossChunks() {
+    final int width = 40000;
+    final long pointsPerChunk = MappedStorage.CHUNK_SIZE / Character.BYTES;
+    final int y = (int) (pointsPerChunk / width);
+    final int border = (int) (pointsPerChunk % width);
+    MappedStorage storage = new MappedStorage(width, y + 2, '.');
+    try {
+      storage.drawHorizontalLine(border - 7, border - 1, y, 'x');
+      assertEquals(border - 1, storage.getRunEnd(border - 7, y));
+      assertEquals(border - 7, storage.getRunStart(border - 1, y));
+      assertEquals(width - 1, storage.getRunEnd(border, y));
+      assertEquals(border, storage.getRunStart(width - 1, y));
+      assertEquals(border - 8, storage.getRunEnd(0, y));
+      assertEquals(0, storage.getRunStart(border - 8, y));
+
+      storage.drawHorizontalLine(border - 3, border + 9, y, 'o');
+      assertEquals(border + 9, storage.getRunEnd(border - 3, y));
+      assertEquals(border - 3, storage.getRunStart(border + 9, y));
+      assertEquals(border - 4, storage.getRunEnd(border - 7, y));
+      assertEquals(width - 1, storage.getRunEnd(border + 10, y));
+      assertEquals(border + 10, storage.getRunStart(width - 1, y));
+
+      storage.fill(border + 5, y, 'x', true);
+      assertEquals(border + 9, storage.getRunEnd(border - 7, y));
+      assertEquals(border - 7, storage.getRunStart(border + 9, y));
+      assertEquals('x', storage.getColor(border, y));
+      assertEquals('.', storage.getColor(border + 10, y));
+      assertEquals('.', storage.getColor(border, y + 1));
+    } finally {
+      storage.close();
+    }
+  }
+}
@@ -0,0 +1,55 @@
+package ru.nuyanzin.canvas;
+
+import org.junit.jupiter.api.Test;
+
+import ru.nuyanzin.DrawingShellOpts;
+import ru.nuyanzin.properties.DrawingShellPropertiesEnum;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Unit tests for {@link PaletteStorage}.
+ */
+public class PaletteStorageTest {
+
+  @Test
+  public void testCanvasWithPaletteStorage() {
+    DrawingShellOpts opts = new DrawingShellOpts(null);
+    opts.set(DrawingShellPropertiesEnum.CANVAS_STORAGE, PaletteStorage.NAME);
+    Canvas cnvs = new Canvas(4, 3, opts);
+    cnvs.drawRectangle(1, 1, 3, 3, '#').fill(2, 2, 'o').fill(4, 1, '.');
+    assertEquals("------\n"
+        + "|###.|\n"
+        + "|#o#.|\n"
+        + "|###.|\n"
+        + "------\n", cnvs.toString());
+  }
+
+  /**
+   * Check that points keep their colors
+   * after the palette stops fitting into a byte per point.
+   */
+  @Test
+  public void testWidening() {
+    final int width = 300;
+    PaletteStorage storage = new PaletteStorage(width, 2, ' ');
+    for (int i = 0; i < width; i++) {
+      storage.drawVerticalLine(i, 0, 0, (char) ('!' + i));
+    }
+    storage.drawHorizontalLine(10, 20, 1, '!');
+    for (int i = 0; i < width; i++) {
+      assertEquals((char) ('!' + i), storage.getColor(i, 0));
+      assertEquals(i, storage.getRunEnd(i, 0));
+    }
+    assertEquals(' ', storage.getColor(0, 1));
+    assertEquals(9, storage.getRunEnd(0, 1));
+    assertEquals('!', storage.getColor(15, 1));
+    assertEquals(20, storage.getRunEnd(15, 1));
+    assertEquals(width - 1, storage.getRunEnd(21, 1));
+
+    storage.fill(0, 1, (char) ('!' + width), false);
+    assertEquals((char) ('!' + width), storage.getColor(9, 1));
+    assertEquals('!', storage.getColor(10, 1));
+    assertEquals(' ', storage.getColor(21, 1));
+  }
+}
@@ -0,0 +1,57 @@
+package ru.nuyanzin.canvas;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Unit tests for {@link Pattern}.
+ */
+public class PatternTest {
+
+  @Test
+  public void testOf() {
+    Pattern pattern = Pattern.of("ab.", "c");
+    assertEquals(3, pattern.getWidth());
+    assertEquals(2, pattern.getHeight());
+    assertArrayEquals(new char[] {'a', 'b', 'c'}, pattern.getColors());
+    assertEquals('b', pattern.getColor(4, 2));
+    assertEquals(Stamp.CLEAR_CHAR, pattern.getColor(5, 1));
+    assertEquals(Stamp.CLEAR_CHAR, pattern.getColor(1, 1));
+    Pattern transposed = pattern.transpose();
+    assertEquals(2, transposed.getWidth());
+    assertEquals(3, transposed.getHeight());
+    assertEquals('b', transposed.getColor(2, 4));
+  }
+
+  /**
+   * Check words of every color are the points of the color
+   * for widths dividing 64, not dividing it and longer than a word.
+   */
+  @Test
+  public void testGetWord() {
+    for (int width = 1; width <= 70; width++) {
+      final StringBuilder row = new StringBuilder();
+      for (int x = 0; x < width; x++) {
+        row.append("ab.c".charAt(x * 7 % 4));
+      }
+      final Pattern pattern = Pattern.of(row.toString(), "c");
+      for (int y = 0; y < 3; y++) {
+        for (int wordIndex = 0; wordIndex < 80; wordIndex++) {
+          for (int i = 0; i < pattern.getColors().length; i++) {
+            long expected = 0;
+            for (int bit = 0; bit < Long.SIZE; bit++) {
+              if (pattern.getColor(wordIndex * Long.SIZE + bit, y)
+                  == pattern.getColors()[i]) {
+                expected |= 1L << bit;
+              }
+            }
+            assertEquals(expected, pattern.getWord(i, y, wordIndex),
+                "width " + width + " word " + wordIndex);
+          }
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,137 @@
+package ru.nuyanzin.canvas;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for {@link PolygonRasterizer}.
+ * Results are compared with points checked one by one:
+ * a point is inside if it is on a crossing of its row with an edge
+ * or there is an odd number of crossings to the left of it.
+ * The outline is added by {@link LineRasterizer}.
+ */
+public class PolygonRasterizerTest {
+
+  /**
+   * Check random polygons including self-intersecting ones
+   * and the ones partially out of the canvas.
+   */
+  @Test
+  public void testRandomPolygons() {
+    Random random = new Random(42);
+    for (int round = 0; round < 1000; round++) {
+      final int width = 1 + random.nextInt(40);
+      final int height = 1 + random.nextInt(40);
+      final long range = random.nextInt(5) == 0 ? Integer.MAX_VALUE : 60;
+      final int vertices = 3 + random.nextInt(random.nextBoolean() ? 3 : 12);
+      final long[] xs = new long[vertices];
+      final long[] ys = new long[vertices];
+      for (int i = 0; i < vertices; i++) {
+        xs[i] = random.nextLong() % range;
+        ys[i] = random.nextInt(3) == 0 && i > 0
+            ? ys[i - 1] : random.nextLong() % range;
+      }
+      check(width, height, xs, ys);
+    }
+  }
+
+  /**
+   * Check polygons with vertices far out of the canvas.
+   */
+  @Test
+  public void testHugePolygons() {
+    final long min = Integer.MIN_VALUE - 1L;
+    final long max = Integer.MAX_VALUE - 1L;
+    check(50, 40, new long[] {min, max, 20}, new long[] {min, 10, max});
+    check(50, 40, new long[] {min, max, max, min},
+        new long[] {min, min, max, max});
+    check(50, 40, new long[] {25, max, min}, new long[] {min, max, max});
+  }
+
+  private static void check(final int width,
+                            final int height,
+                            final long[] xs,
+                            final long[] ys) {
+    final char[][] expected = new char[height][width];
+    final ArrayStorage expectedStorage = new ArrayStorage(expected);
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        if (isInside(x, y, xs, ys)) {
+          expected[y][x] = 'x';
+        }
+      }
+    }
+    for (int i = 0; i < xs.length; i++) {
+      final int next = (i + 1) % xs.length;
+      LineRasterizer.draw(expectedStorage, xs[i], ys[i], xs[next], ys[next],
+          width, height, 'x');
+    }
+    final char[][] actual = new char[height][width];
+    PolygonRasterizer.fill(new ArrayStorage(actual), xs, ys,
+        width, height, 'x');
+    assertArrayEquals(expected, actual);
+    // the storage of a column-major canvas
+    final ArrayStorage columns = new ArrayStorage(height, width);
+    PolygonRasterizer.fill(new TransposedStorage(columns, width), xs, ys,
+        width, height, 'x');
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        assertEquals(expected[y][x], columns.getPoints()[x][y]);
+      }
+    }
+  }
+
+  /**
+   * Check a polygon on the storage of a column-major canvas
+   * writes rows of the inner storage by ranges of its inner area
+   * and its outline rather than point by point.
+   */
+  @Test
+  public void testColumnMajorPolygon() {
+    final int width = 800;
+    final int height = 1000;
+    final ArrayStorage columns = new ArrayStorage(height, width);
+    PolygonRasterizer.fill(new TransposedStorage(columns, width),
+        new long[] {10, 790, 400, 20}, new long[] {10, 30, 990, 700},
+        width, height, 'x');
+    assertTrue(columns.getRows() <= 2L * (width + height));
+  }
+
+  private static boolean isInside(final long x,
+                                  final long y,
+                                  final long[] xs,
+                                  final long[] ys) {
+    int crossingsToTheLeft = 0;
+    for (int i = 0; i < xs.length; i++) {
+      final int next = (i + 1) % xs.length;
+      final boolean isDown = ys[i] < ys[next];
+      final long top = isDown ? ys[i] : ys[next];
+      final long bottom = isDown ? ys[next] : ys[i];
+      if (top == bottom || y < top || y >= bottom) {
+        continue;
+      }
+      final long xTop = isDown ? xs[i] : xs[next];
+      final long xBottom = isDown ? xs[next] : xs[i];
+      // crossing is xTop + (y - top) * (xBottom - xTop) / (bottom - top)
+      final int comparison = BigInteger.valueOf(xTop)
+          .multiply(BigInteger.valueOf(bottom - top))
+          .add(BigInteger.valueOf(y - top)
+              .multiply(BigInteger.valueOf(xBottom - xTop)))
+          .compareTo(BigInteger.valueOf(x)
+              .multiply(BigInteger.valueOf(bottom - top)));
+      if (comparison == 0) {
+        return true;
+      }
+      if (comparison < 0) {
+        crossingsToTheLeft++;
+      }
+    }
+    return crossingsToTheLeft % 2 == 1;
+  }
+}
@@ -0,0 +1,106 @@
+package ru.nuyanzin.canvas;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Unit tests for {@link QuadTreeStorage}.
+ */
+public class QuadTreeStorageTest {
+
+  /**
+   * Check that runs and fills are handled correctly
+   * across quadrants including the ones partially out of the canvas.
+   */
+  @Test
+  public void testFillAcrossQuadrants() {
+    QuadTreeStorage storage = new QuadTreeStorage(200, 150, ' ');
+    storage.drawHorizontalLine(10, 190, 70, 'x');
+    storage.drawVerticalLine(100, 0, 149, 'x');
+    assertEquals(' ', storage.getColor(0, 0));
+    assertEquals(99, storage.getRunEnd(0, 0));
+    assertEquals(9, storage.getRunEnd(0, 70));
+    assertEquals(190, storage.getRunEnd(10, 70));
+    assertEquals(199, storage.getRunEnd(191, 70));
+
+    storage.fill(0, 0, 'o', true);
+    assertEquals('o', storage.getColor(99, 149));
+    assertEquals('o', storage.getColor(0, 70));
+    assertEquals(' ', storage.getColor(101, 0));
+    assertEquals(99, storage.getRunEnd(0, 0));
+    assertEquals(99, storage.getRunEnd(0, 149));
+
+    // fill through the gap at the end of the horizontal line only
+    storage.fill(101, 0, '.', true);
+    assertEquals('.', storage.getColor(199, 149));
+    assertEquals('x', storage.getColor(150, 70));
+
+    // quadrants are merged back once the canvas is uniform again
+    storage.fill(100, 0, 'o', true);
+    storage.fill(0, 0, '.', true);
+    assertEquals('.', storage.getColor(0, 0));
+    assertEquals(199, storage.getRunEnd(0, 0));
+    assertEquals(199, storage.getRunEnd(0, 70));
+  }
+
+  /**
+   * Check 8-dots fill goes through diagonal gaps between quadrants.
+   */
+  @Test
+  public void testB8Fill() {
+    QuadTreeStorage storage = new QuadTreeStorage(9, 9, ' ');
+    for (int i = 0; i < 9; i++) {
+      storage.drawHorizontalLine(i, i, 8 - i, 'x');
+    }
+    storage.fill(0, 0, 'o', true);
+    assertEquals(' ', storage.getColor(8, 8));
+    storage.fill(0, 0, ' ', true);
+    storage.fill(0, 0, 'o', false);
+    assertEquals('o', storage.getColor(8, 8));
+    assertEquals('x', storage.getColor(4, 4));
+  }
+
+  /**
+   * Check the whole empty canvas is filled at once.
+   */
+  @Test
+  public void testFillOfHugeCanvas() {
+    QuadTreeStorage storage =
+        new QuadTreeStorage(Integer.MAX_VALUE, Integer.MAX_VALUE, ' ');
+    storage.fill(0, 0, 'o', true);
+    assertEquals('o', storage.getColor(Integer.MAX_VALUE - 1, 0));
+    assertEquals(Integer.MAX_VALUE - 1, storage.getRunEnd(0, 5));
+    storage.drawVerticalLine(10, 0, 1000, 'x');
+    assertEquals(9, storage.getRunEnd(0, 1000));
+    assertEquals(Integer.MAX_VALUE - 1, storage.getRunEnd(11, 1000));
+    assertEquals(Integer.MAX_VALUE - 1, storage.getRunEnd(0, 1001));
+    storage.fill(0, 0, '.', true);
+    assertEquals('.', storage.getColor(11, 0));
+    assertEquals('.', storage.getColor(Integer.MAX_VALUE - 1, 1000));
+  }
+
+  /**
+   * Check spans of unaligned rows are set with quadrants merged back.
+   */
+  @Test
+  public void testDrawSpans() {
+    QuadTreeStorage storage = new QuadTreeStorage(100, 90, ' ');
+    int[] starts = new int[80];
+    int[] ends = new int[80];
+    for (int i = 0; i < starts.length; i++) {
+      starts[i] = i % 10 == 0 ? 50 : 3;
+      ends[i] = i % 10 == 0 ? 40 : 99 - i % 7;
+    }
+    storage.drawSpans(5, starts.length, starts, ends, 'o');
+    for (int y = 0; y < 90; y++) {
+      final int i = y - 5;
+      final boolean isSpan = i >= 0 && i < starts.length && i % 10 != 0;
+      assertEquals(isSpan ? 2 : 99, storage.getRunEnd(0, y));
+      if (isSpan) {
+        assertEquals('o', storage.getColor(3, y));
+        assertEquals(ends[i], storage.getRunEnd(3, y));
+      }
+    }
+  }
+}
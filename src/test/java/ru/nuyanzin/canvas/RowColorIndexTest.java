@@ -0,0 +1,60 @@
+package ru.nuyanzin.canvas;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+/**
+ * Unit tests for {@link RowColorIndex}.
+ */
+public class RowColorIndexTest {
+
+  @Test
+  public void testAddAndRemove() {
+    RowColorIndex index = new RowColorIndex(3);
+    assertEquals(0, index.getLayers(1).length);
+    Layer x = newLayer('x');
+    Layer o = newLayer('o');
+    index.add(1, x);
+    index.add(1, o);
+    index.add(1, x);
+    assertArrayEquals(new Layer[] {x, o}, index.getLayers(1));
+    assertEquals(0, index.getLayers(0).length);
+
+    // arrays being iterated are not changed
+    Layer[] layers = index.getLayers(1);
+    index.remove(1, x);
+    assertArrayEquals(new Layer[] {x, o}, layers);
+    assertArrayEquals(new Layer[] {o}, index.getLayers(1));
+
+    // a new layer of the same color replaces the old one
+    Layer newO = newLayer('o');
+    index.add(1, newO);
+    assertSame(newO, index.getLayers(1)[0]);
+
+    index.remove(1, newO);
+    index.remove(1, newO);
+    assertEquals(0, index.getLayers(1).length);
+  }
+
+  @Test
+  public void testLayerGivenToNewColor() {
+    RowColorIndex index = new RowColorIndex(3);
+    Layer x = newLayer('x');
+    index.add(0, x);
+    index.add(2, x);
+    x.setColor('y');
+    Layer y = newLayer('y');
+    index.add(2, y);
+    assertArrayEquals(new Layer[] {x}, index.getLayers(0));
+    assertArrayEquals(new Layer[] {y}, index.getLayers(2));
+  }
+
+  private static Layer newLayer(char color) {
+    Layer layer = new Layer(5, 3);
+    layer.setColor(color);
+    return layer;
+  }
+}
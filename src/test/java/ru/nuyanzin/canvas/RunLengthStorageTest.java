@@ -0,0 +1,57 @@
+package ru.nuyanzin.canvas;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Unit tests for {@link RunLengthStorage} and {@link RunRow}.
+ */
+public class RunLengthStorageTest {
+
+  /**
+   * Check that runs are split while drawing
+   * and merged back when neighbours get the same color.
+   */
+  @Test
+  public void testRunRowSplitAndMerge() {
+    RunRow row = new RunRow(10, ' ');
+    row.set(2, 4, 'x');
+    assertEquals(3, row.size());
+    assertEquals(2, row.getStart(1));
+    assertEquals(4, row.getEnd(1));
+    assertEquals(9, row.getEnd(2));
+
+    row.set(5, 9, 'x');
+    assertEquals(2, row.size());
+    assertEquals(9, row.getEnd(1));
+
+    row.set(0, 1, 'x');
+    assertEquals(1, row.size());
+    assertEquals('x', row.getColor(0));
+
+    row.set(3, 3, 'o');
+    row.set(5, 5, 'o');
+    assertEquals(5, row.size());
+    assertEquals(1, row.find(3));
+    row.set(4, 4, 'o');
+    assertEquals(3, row.size());
+    assertEquals(3, row.getStart(1));
+    assertEquals(5, row.getEnd(1));
+    row.set(0, 9, ' ');
+    assertEquals(1, row.size());
+  }
+
+  @Test
+  public void testFillOverRuns() {
+    RunLengthStorage storage = new RunLengthStorage(5, 3, ' ');
+    storage.drawHorizontalLine(0, 3, 1, 'x');
+    storage.fill(0, 0, '.', true);
+    assertEquals('.', storage.getColor(4, 2));
+    assertEquals(4, storage.getRunEnd(0, 0));
+    assertEquals(3, storage.getRunEnd(0, 1));
+    storage.fill(4, 1, ' ', true);
+    assertEquals(' ', storage.getColor(0, 2));
+    assertEquals('x', storage.getColor(3, 1));
+  }
+}
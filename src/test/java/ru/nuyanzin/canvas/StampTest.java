@@ -0,0 +1,33 @@
+package ru.nuyanzin.canvas;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+/**
+ * Unit tests for {@link Stamp}.
+ */
+public class StampTest {
+
+  /**
+   * Check columns of a stamp with rows of different lengths
+   * become rows of the transposed one and it is built once.
+   */
+  @Test
+  public void testTranspose() {
+    final Stamp stamp = Stamp.of("x.xx", "xx", "", "...x");
+    final Stamp transposed = stamp.transpose();
+    assertEquals(4, transposed.getWidth());
+    assertEquals(4, transposed.getHeight());
+    assertArrayEquals(new int[] {0, 1}, transposed.getRuns(0));
+    assertArrayEquals(new int[] {1, 1}, transposed.getRuns(1));
+    assertArrayEquals(new int[] {0, 0}, transposed.getRuns(2));
+    assertArrayEquals(new int[] {0, 0, 3, 3}, transposed.getRuns(3));
+    assertEquals(0b1001L, transposed.getWord(3, 0));
+    assertEquals(0b100100L, transposed.getWord(3, -2));
+    assertSame(transposed, stamp.transpose());
+    assertSame(stamp, transposed.transpose());
+  }
+}
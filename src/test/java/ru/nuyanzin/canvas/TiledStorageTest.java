@@ -0,0 +1,47 @@
+package ru.nuyanzin.canvas;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Unit tests for {@link TiledStorage}.
+ */
+public class TiledStorageTest {
+
+  /**
+   * Check that runs and fills are handled correctly
+   * across borders of uniform and non uniform tiles.
+   */
+  @Test
+  public void testFillAcrossTiles() {
+    TiledStorage storage = new TiledStorage(200, 150, ' ');
+    storage.drawHorizontalLine(10, 190, 70, 'x');
+    storage.drawVerticalLine(100, 0, 149, 'x');
+    assertEquals(' ', storage.getColor(0, 0));
+    assertEquals(99, storage.getRunEnd(0, 0));
+    assertEquals(9, storage.getRunEnd(0, 70));
+    assertEquals(190, storage.getRunEnd(10, 70));
+    assertEquals(199, storage.getRunEnd(191, 70));
+
+    storage.fill(0, 0, 'o', true);
+    assertEquals('o', storage.getColor(99, 149));
+    assertEquals('o', storage.getColor(0, 70));
+    assertEquals(' ', storage.getColor(101, 0));
+    assertEquals(99, storage.getRunEnd(0, 0));
+    assertEquals(99, storage.getRunEnd(0, 149));
+
+    // fill through the gap at the end of the horizontal line only
+    storage.fill(101, 0, '.', true);
+    assertEquals('.', storage.getColor(199, 149));
+    assertEquals('x', storage.getColor(150, 70));
+
+    storage.fill(100, 0, 'o', true);
+    storage.fill(0, 0, ' ', true);
+    storage.fill(0, 0, '.', false);
+    storage.compact();
+    assertEquals('.', storage.getColor(0, 0));
+    assertEquals(199, storage.getRunEnd(0, 0));
+    assertEquals(199, storage.getRunEnd(0, 70));
+  }
+}
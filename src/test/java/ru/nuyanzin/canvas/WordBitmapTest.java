@@ -0,0 +1,109 @@
+package ru.nuyanzin.canvas;
+
+import java.util.BitSet;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for {@link WordBitmap}.
+ * Results are compared with the ones of {@link BitSet}.
+ */
+public class WordBitmapTest {
+
+  /**
+   * Check set and clear of ranges inside a word and across words.
+   */
+  @Test
+  public void testSetAndClear() {
+    long[] words = WordBitmap.set(new long[0], 3, 5);
+    assertEquals(1, words.length);
+    words = WordBitmap.set(words, 60, 200);
+    assertEquals(WordBitmap.wordCount(200), words.length);
+    BitSet expected = new BitSet();
+    expected.set(3, 5);
+    expected.set(60, 200);
+    assertArrayEquals(expected.toLongArray(), words);
+
+    WordBitmap.clear(words, 62, 130);
+    expected.clear(62, 130);
+    assertArrayEquals(expected.toLongArray(), words);
+    assertEquals(expected.cardinality(),
+        WordBitmap.cardinality(words, 0, 1000));
+    assertEquals(4, WordBitmap.cardinality(words, 2, 64));
+    // range beyond the row is ignored
+    WordBitmap.clear(words, 150, 1000);
+    assertFalse(WordBitmap.isEmpty(words));
+    WordBitmap.clear(words, 0, 150);
+    assertTrue(WordBitmap.isEmpty(words));
+
+    // row grows at least twice to not be copied on each next point
+    words = WordBitmap.set(words, 300, 301);
+    assertEquals(2 * WordBitmap.wordCount(200), words.length);
+  }
+
+  /**
+   * Check words of points starting anywhere including negative points.
+   */
+  @Test
+  public void testGetWord() {
+    BitSet bitSet = new BitSet();
+    bitSet.set(0, 3);
+    bitSet.set(63, 65);
+    bitSet.set(100);
+    final long[] words = bitSet.toLongArray();
+    for (long from = -70; from < 200; from++) {
+      long expected = 0;
+      for (int i = 0; i < Long.SIZE; i++) {
+        if (from + i >= 0 && bitSet.get((int) (from + i))) {
+          expected |= 1L << i;
+        }
+      }
+      assertEquals(expected, WordBitmap.getWord(words, from), "from " + from);
+    }
+    assertEquals(0, WordBitmap.getWord(new long[0], -1));
+  }
+
+  /**
+   * Check search of set and clear points around word boundaries.
+   */
+  @Test
+  public void testScan() {
+    BitSet bitSet = new BitSet();
+    bitSet.set(0, 3);
+    bitSet.set(63, 65);
+    bitSet.set(127);
+    bitSet.set(190, 192);
+    long[] words = bitSet.toLongArray();
+    for (int i = 0; i < 260; i++) {
+      assertEquals(bitSet.get(i), WordBitmap.get(words, i));
+      assertEquals(bitSet.nextSetBit(i), WordBitmap.nextSetBit(words, i));
+      assertEquals(bitSet.nextClearBit(i),
+          WordBitmap.nextClearBit(words, i));
+      assertEquals(bitSet.previousSetBit(i),
+          WordBitmap.previousSetBit(words, i));
+      assertEquals(bitSet.previousClearBit(i),
+          WordBitmap.previousClearBit(words, i));
+    }
+  }
+
+  /**
+   * Check that points of a row are added to another one growing it
+   * and removed from it.
+   */
+  @Test
+  public void testOrAndNot() {
+    long[] first = WordBitmap.set(new long[0], 64, 65);
+    long[] second = WordBitmap.set(new long[0], 63, 64);
+    second = WordBitmap.or(second, first);
+    assertTrue(WordBitmap.get(second, 63));
+    assertTrue(WordBitmap.get(second, 64));
+    WordBitmap.andNot(second, first);
+    assertTrue(WordBitmap.get(second, 63));
+    assertFalse(WordBitmap.get(second, 64));
+  }
+}